@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Random;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+/**
+ * Shared fixtures for the benchmark states.
+ */
+public final class BenchmarkUtil {
+
+    private BenchmarkUtil() {}
+
+    public static File createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory("hydra-bench-" + prefix).toFile();
+    }
+
+    public static void deleteDirectory(File dir) {
+        if (dir != null) {
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    /**
+     * Returns {@code count} indices in the range [0, size) that follow a
+     * zipf-like distribution with exponent {@code skew}. A skew of 0 is a
+     * uniform distribution. Generated once per state so that the random
+     * number generation is not measured.
+     */
+    public static int[] skewedIndices(int count, int size, double skew, long seed) {
+        Random random = new Random(seed);
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            double target = random.nextDouble() * total;
+            int low = 0;
+            int high = size - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            result[i] = low;
+        }
+        return result;
+    }
+
+    /**
+     * Synthetic domain names with realistic shared prefixes and suffixes.
+     */
+    public static String domain(int index) {
+        return "www.site" + index + (((index & 1) == 0) ? ".com" : ".net");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks;
+
+import java.util.List;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Terminal query output that hands every row to a JMH {@link Blackhole}
+ * so that the query pipeline cannot be dead-code eliminated.
+ */
+public class CountingOutput implements DataChannelOutput {
+
+    private final ListBundleFormat format = new ListBundleFormat();
+    private final Blackhole blackhole;
+
+    private long rows;
+    private Throwable error;
+
+    public CountingOutput(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    @Override
+    public void send(Bundle bundle) {
+        rows++;
+        blackhole.consume(bundle);
+    }
+
+    @Override
+    public void send(List<Bundle> bundles) {
+        for (Bundle bundle : bundles) {
+            send(bundle);
+        }
+    }
+
+    @Override
+    public void sendComplete() {
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public void sourceError(Throwable cause) {
+        error = cause;
+    }
+
+    @Override
+    public Bundle createBundle() {
+        return new ListBundle(format);
+    }
+}
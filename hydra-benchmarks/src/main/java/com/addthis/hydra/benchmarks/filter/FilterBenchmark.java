@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.data.filter.bundle.BundleFilter;
+import com.addthis.hydra.data.filter.value.ValueFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-value and per-bundle cost of the filters that show up most often
+ * in map job configurations. Filters are decoded from the same HOCON a
+ * job config would use so that codec defaults are exercised as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FilterBenchmark {
+
+    @State(Scope.Thread)
+    public static class ValueFilters {
+
+        @Param({
+                "{case.lower: true}",
+                "{regex: \"site([0-9]+)\"}",
+                "{chain: [{case.lower: true}, {split: \".\"}, {index: 1}]}",
+                "{split {split: \".\", filter {case {upper: true}}}}"
+        })
+        public String config;
+
+        ValueFilter filter;
+        ValueObject[] values;
+        int position;
+
+        @Setup
+        public void setup() throws Exception {
+            filter = Configs.decodeObject(ValueFilter.class, config);
+            values = new ValueObject[1024];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = ValueFactory.create(BenchmarkUtil.domain(i).toUpperCase());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BundleFilters {
+
+        @Param({
+                "{op: field, from: url, to: host, filter {split {split: \"/\", filter {index: 2}}}}",
+                "{op: chain, filter: [{op: field, from: url, to: path, filter {regex: \"/[a-z]+/\"}}, " +
+                "{op: contains, field: path, value: [foo, bar], not: true}]}"
+        })
+        public String config;
+
+        BundleFilter filter;
+        Bundle[] bundles;
+        int position;
+
+        @Setup
+        public void setup() throws Exception {
+            filter = Configs.decodeObject(BundleFilter.class, config);
+            ListBundleFormat format = new ListBundleFormat();
+            bundles = new Bundle[1024];
+            for (int i = 0; i < bundles.length; i++) {
+                bundles[i] = new ListBundle(format);
+                bundles[i].setValue(format.getField("url"), ValueFactory.create(
+                        "http://" + BenchmarkUtil.domain(i) + "/articles/" + i + "?q=" + i));
+            }
+        }
+    }
+
+    @Benchmark
+    public ValueObject valueFilter(ValueFilters state) {
+        state.position = (state.position + 1) & (state.values.length - 1);
+        return state.filter.filter(state.values[state.position]);
+    }
+
+    @Benchmark
+    public boolean bundleFilter(BundleFilters state) {
+        state.position = (state.position + 1) & (state.bundles.length - 1);
+        return state.filter.filter(state.bundles[state.position]);
+    }
+}
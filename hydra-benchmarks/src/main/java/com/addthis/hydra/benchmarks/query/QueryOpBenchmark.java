@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.query;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.benchmarks.CountingOutput;
+import com.addthis.hydra.data.query.QueryOpProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the table operations that run on the query master,
+ * fed with synthetic (date, domain, hits, uniques) rows. Each invocation
+ * pushes the whole row set through a fresh {@link QueryOpProcessor} so
+ * that the reported time per operation divided by {@code rows} is the
+ * per-row cost of the op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryOpBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000", "50000"})
+    public int distinctKeys;
+
+    @Param({"gather=kiss", "gather=kkss", "gather=iksa", "dsort=1:s:a", "dsort=2,1:ns:da"})
+    public String ops;
+
+    private File tempDir;
+    private List<Bundle> input;
+
+    @Setup
+    public void setup() throws Exception {
+        tempDir = BenchmarkUtil.createTempDirectory("queryop");
+        ListBundleFormat format = new ListBundleFormat();
+        int[] keys = BenchmarkUtil.skewedIndices(rows, distinctKeys, 1.0, 1);
+        input = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ListBundle row = new ListBundle(format);
+            row.setValue(format.getField("date"), ValueFactory.create("1410" + (10 + (i % 20))));
+            row.setValue(format.getField("domain"), ValueFactory.create(BenchmarkUtil.domain(keys[i])));
+            row.setValue(format.getField("hits"), ValueFactory.create(i % 1000));
+            row.setValue(format.getField("uniques"), ValueFactory.create(i % 100));
+            input.add(row);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkUtil.deleteDirectory(tempDir);
+    }
+
+    @Benchmark
+    public long process(Blackhole blackhole) throws Exception {
+        CountingOutput output = new CountingOutput(blackhole);
+        QueryOpProcessor processor = new QueryOpProcessor.Builder(output, ops).tempDir(tempDir).build();
+        try {
+            for (Bundle row : input) {
+                processor.send(row);
+            }
+            processor.sendComplete();
+        } finally {
+            processor.close();
+        }
+        return output.rows();
+    }
+}
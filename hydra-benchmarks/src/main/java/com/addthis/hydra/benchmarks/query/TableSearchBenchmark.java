@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.query;
+
+import java.io.File;
+
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.benchmarks.CountingOutput;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryElement;
+import com.addthis.hydra.data.query.engine.QueryEngine;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.ReadTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+/**
+ * End to end {@link QueryEngine} search over a synthetic two level
+ * (date / domain) tree opened read-only through {@link ReadTree},
+ * the same way a query worker opens a finished job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TableSearchBenchmark {
+
+    @Param({"10"})
+    public int dates;
+
+    @Param({"100", "10000"})
+    public int domains;
+
+    @Param({"+:+hits", "+:+hits/+:+hits", "+/+:+hits"})
+    public String path;
+
+    private File dir;
+    private QueryEngine engine;
+    private QueryElement[] queryPath;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkUtil.createTempDirectory("tablesearch");
+        ConcurrentTree tree = new ConcurrentTree(dir);
+        for (int d = 0; d < dates; d++) {
+            DataTreeNode date = tree.getOrCreateNode(String.format("1410%02d", d + 1), null);
+            for (int i = 0; i < domains; i++) {
+                DataTreeNode domain = date.getOrCreateNode(BenchmarkUtil.domain(i), null);
+                domain.incrementCounter(i + 1);
+                domain.release();
+            }
+            date.incrementCounter(domains);
+            date.release();
+        }
+        tree.close();
+        queryPath = new Query(null, new String[]{path}, null).getQueryPaths().get(0);
+        engine = new QueryEngine(new ReadTree(dir));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.close();
+        BenchmarkUtil.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public long search(Blackhole blackhole) throws Exception {
+        CountingOutput output = new CountingOutput(blackhole);
+        engine.search(queryPath, output, new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        return output.rows();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.store;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.basis.util.Varint;
+
+import com.addthis.codec.codables.BytesCodable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Page value shaped like a serialized tree node: a hit counter, a child
+ * database id and the class name of an attached data plugin. The repeated
+ * class name mimics the redundancy of real tree pages.
+ */
+public class BenchValue implements BytesCodable {
+
+    private static final String DATA_CLASS = "com.addthis.hydra.data.tree.prop.DataCounting";
+
+    private long hits;
+    private long nodeDB;
+    private String dataClass;
+
+    public BenchValue() {
+    }
+
+    public BenchValue(long hits, long nodeDB) {
+        this.hits = hits;
+        this.nodeDB = nodeDB;
+        this.dataClass = DATA_CLASS;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public byte[] bytesEncode(long version) {
+        byte[] name = dataClass.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = Unpooled.buffer(24 + name.length);
+        Varint.writeUnsignedVarLong(hits, buf);
+        Varint.writeUnsignedVarLong(nodeDB, buf);
+        Varint.writeUnsignedVarInt(name.length, buf);
+        buf.writeBytes(name);
+        byte[] result = new byte[buf.readableBytes()];
+        buf.readBytes(result);
+        return result;
+    }
+
+    @Override
+    public void bytesDecode(byte[] b, long version) {
+        ByteBuf buf = Unpooled.wrappedBuffer(b);
+        hits = Varint.readUnsignedVarLong(buf);
+        nodeDB = Varint.readUnsignedVarLong(buf);
+        byte[] name = new byte[Varint.readUnsignedVarInt(buf)];
+        buf.readBytes(name);
+        dataClass = new String(name, StandardCharsets.UTF_8);
+    }
+}
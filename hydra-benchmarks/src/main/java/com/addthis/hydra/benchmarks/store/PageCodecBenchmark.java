@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.store;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.Page;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encode and decode throughput of a single page.
+ * <p/>
+ * The compression type is read once into {@link AbstractPage#gztype}
+ * when the class is initialized. JMH runs every parameter combination
+ * in a fresh fork so the system property is set before the page classes
+ * are loaded. Running with {@code -f 0} would silently measure the wrong
+ * codec and is rejected in {@link #setup()}.
+ * <p/>
+ * {@code encodeType} is the in-memory encoding of the page. Pages of an
+ * older type are upgraded on every encode which re-serializes each value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PageCodecBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5", "6"})
+    public int gztype;
+
+    @Param({"LONGIDS", "SPARSE"})
+    public PageEncodeType encodeType;
+
+    @Param({"100", "1000"})
+    public int entries;
+
+    private File dir;
+    private PageDB<BenchValue> db;
+    private AbstractPageCache<DBKey, BenchValue> cache;
+    private Page<DBKey, BenchValue> page;
+    private ByteBufOutputStream out;
+    private byte[] encoded;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        System.setProperty("eps.gz.type", Integer.toString(gztype));
+        if (AbstractPage.gztype != gztype) {
+            throw new IllegalStateException("eps.gz.type was initialized to " + AbstractPage.gztype +
+                                            " before the benchmark could set it to " + gztype +
+                                            ". Run with at least one fork.");
+        }
+        dir = BenchmarkUtil.createTempDirectory("pagecodec");
+        db = new PageDB.Builder<>(dir, BenchValue.class, entries, 10).build();
+        cache = (AbstractPageCache<DBKey, BenchValue>) db.getEps();
+
+        ArrayList<DBKey> keys = new ArrayList<>(entries);
+        ArrayList<BenchValue> values = new ArrayList<>(entries);
+        ArrayList<byte[]> rawValues = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            BenchValue value = new BenchValue(i * 31L, i + 1000L);
+            keys.add(new DBKey(42, BenchmarkUtil.domain(i)));
+            values.add(value);
+            rawValues.add(cache.keyCoder.valueEncode(value, encodeType));
+        }
+        keys.sort(null);
+        page = cache.pageFactory.generateSiblingPage(cache, keys.get(0), new DBKey(43), entries,
+                                                     keys, values, rawValues, encodeType);
+        out = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        encoded = page.encode(out, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.buffer().release();
+        db.close();
+        BenchmarkUtil.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return page.encode(out, false);
+    }
+
+    @Benchmark
+    public Page<DBKey, BenchValue> decode() {
+        Page<DBKey, BenchValue> target = cache.pageFactory.generateEmptyPage(cache, page.getFirstKey(),
+                                                                            page.getNextFirstKey(),
+                                                                            PageEncodeType.defaultType());
+        target.decode(encoded);
+        return target;
+    }
+
+    @Benchmark
+    public BenchValue decodeAndFetch() {
+        Page<DBKey, BenchValue> target = decode();
+        target.fetchValue(entries - 1);
+        return target.values().get(entries - 1);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.store;
+
+import java.io.File;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.skiplist.ConcurrentPage;
+import com.addthis.hydra.store.skiplist.OffHeapPage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Get, put and range iteration against a {@link PageDB} backed by the
+ * {@link com.addthis.hydra.store.skiplist.SkipListCache}. The {@code maxPages}
+ * parameter controls whether the working set fits in the page cache
+ * (hits only) or forces steady eviction and page decoding (misses). The
+ * {@code offHeap} parameter selects {@link OffHeapPage} instead of the
+ * default {@link ConcurrentPage}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SkipListCacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({"100000"})
+        public int keys;
+
+        @Param({"100"})
+        public int pageSize;
+
+        @Param({"50", "5000"})
+        public int maxPages;
+
+        @Param({"1.0"})
+        public double skew;
+
+        @Param({"false", "true"})
+        public boolean offHeap;
+
+        File dir;
+        PageDB<BenchValue> db;
+        DBKey[] dbkeys;
+
+        @Setup
+        public void setup() throws Exception {
+            dir = BenchmarkUtil.createTempDirectory("skiplist");
+            db = new PageDB.Builder<>(dir, BenchValue.class, pageSize, maxPages)
+                    .pageFactory(offHeap ? OffHeapPage.OffHeapPageFactory.singleton :
+                                 ConcurrentPage.ConcurrentPageFactory.singleton).build();
+            dbkeys = new DBKey[keys];
+            for (int i = 0; i < keys; i++) {
+                dbkeys[i] = new DBKey(i % 64, BenchmarkUtil.domain(i));
+                db.put(dbkeys[i], new BenchValue(i, i));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            db.close();
+            BenchmarkUtil.deleteDirectory(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int[] indices;
+        int position;
+
+        @Setup(Level.Trial)
+        public void setup(Store store) {
+            indices = BenchmarkUtil.skewedIndices(1 << 16, store.keys, store.skew,
+                                                  Thread.currentThread().getId());
+        }
+
+        DBKey next(Store store) {
+            position = (position + 1) & (indices.length - 1);
+            return store.dbkeys[indices[position]];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BenchValue getSingleThread(Store store, Cursor cursor) {
+        return store.db.get(cursor.next(store));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public BenchValue getContended(Store store, Cursor cursor) {
+        return store.db.get(cursor.next(store));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public BenchValue putContended(Store store, Cursor cursor) {
+        DBKey key = cursor.next(store);
+        return store.db.put(key, new BenchValue(cursor.position, key.id()));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public BenchValue mixedGet(Store store, Cursor cursor) {
+        return store.db.get(cursor.next(store));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public BenchValue mixedPut(Store store, Cursor cursor) {
+        DBKey key = cursor.next(store);
+        return store.db.put(key, new BenchValue(cursor.position, key.id()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int iterateRange(Store store, Cursor cursor, Blackhole blackhole) {
+        DBKey from = cursor.next(store);
+        int count = 0;
+        IPageDB.Range<DBKey, BenchValue> range = store.db.range(from, new DBKey(from.id() + 1));
+        try {
+            while (range.hasNext() && count < 100) {
+                Map.Entry<DBKey, BenchValue> entry = range.next();
+                blackhole.consume(entry.getValue());
+                count++;
+            }
+        } finally {
+            range.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.benchmarks.tree;
+
+import java.io.File;
+
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.benchmarks.BenchmarkUtil;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Node creation and lookup through {@link ConcurrentTree#getOrCreateNode}
+ * and {@link ConcurrentTree#getLeasedNode}, the two calls that dominate the
+ * tree mapper. Half of the key space is created during setup so that
+ * lookups and creates can be mixed in the {@code mixed} group. The
+ * {@code cachePolicy} and {@code cacheSize} parameters configure the
+ * tree node cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentTreeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"100000"})
+        public int keys;
+
+        @Param({"0.0", "1.1"})
+        public double skew;
+
+        @Param({"lru", "tinylfu"})
+        public String cachePolicy;
+
+        @Param({"10000"})
+        public int cacheSize;
+
+        File dir;
+        ConcurrentTree tree;
+        String[] names;
+
+        @Setup
+        public void setup() throws Exception {
+            dir = BenchmarkUtil.createTempDirectory("tree");
+            TreeCommonParameters.setDefaultCachePolicy(cachePolicy);
+            TreeCommonParameters.setDefaultCleanQueueSize(cacheSize);
+            tree = new ConcurrentTree(dir);
+            names = new String[keys];
+            for (int i = 0; i < keys; i++) {
+                names[i] = BenchmarkUtil.domain(i);
+            }
+            for (int i = 0; i < keys; i += 2) {
+                tree.getOrCreateNode(names[i], null).release();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            tree.close();
+            BenchmarkUtil.deleteDirectory(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int[] indices;
+        int position;
+
+        @Setup(Level.Trial)
+        public void setup(Tree tree) {
+            indices = BenchmarkUtil.skewedIndices(1 << 16, tree.keys, tree.skew,
+                                                  Thread.currentThread().getId());
+        }
+
+        String next(Tree tree) {
+            position = (position + 1) & (indices.length - 1);
+            return tree.names[indices[position]];
+        }
+    }
+
+    private static DataTreeNode getOrCreate(Tree tree, Cursor cursor) {
+        DataTreeNode node = tree.tree.getOrCreateNode(cursor.next(tree), null);
+        node.incrementCounter();
+        node.release();
+        return node;
+    }
+
+    private static DataTreeNode lookup(Tree tree, Cursor cursor) {
+        DataTreeNode node = tree.tree.getLeasedNode(cursor.next(tree));
+        if (node != null) {
+            node.release();
+        }
+        return node;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DataTreeNode getOrCreateSingleThread(Tree tree, Cursor cursor) {
+        return getOrCreate(tree, cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public DataTreeNode getOrCreateContended(Tree tree, Cursor cursor) {
+        return getOrCreate(tree, cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public DataTreeNode lookupContended(Tree tree, Cursor cursor) {
+        return lookup(tree, cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(12)
+    public DataTreeNode mixedLookup(Tree tree, Cursor cursor) {
+        return lookup(tree, cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public DataTreeNode mixedGetOrCreate(Tree tree, Cursor cursor) {
+        return getOrCreate(tree, cursor);
+    }
+}
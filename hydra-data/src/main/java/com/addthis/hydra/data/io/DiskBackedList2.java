@@ -21,6 +21,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -40,13 +42,16 @@ import com.google.common.base.Throwables;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * An implementation of disk-backed list tuned for good sorting performance.
  * Incoming values are split into a number of chunks. Each chunk is small enough
- * to fit entirely within memory.
+ * to fit entirely within memory. Chunk files can optionally be lz4 compressed.
  *
  * @param <K> a codable object type
  */
@@ -71,15 +76,22 @@ public class DiskBackedList2<K> implements List<K> {
     private final String filePrefix = "dbl2file-";
     private final String fileSuffix = ".dat";
     private final File directory;
+    private final boolean compress;
 
     public DiskBackedList2(ItemCodec<K> codec) throws IOException {
         this(codec, defaultChunkSizeBytes, LessFiles.createTempDir());
     }
 
     public DiskBackedList2(ItemCodec<K> codec, long maxChunkSizeBytes, File directory) throws IOException {
+        this(codec, maxChunkSizeBytes, directory, false);
+    }
+
+    public DiskBackedList2(ItemCodec<K> codec, long maxChunkSizeBytes, File directory,
+                           boolean compress) throws IOException {
         this.codec = codec;
         this.maxChunkSizeBytes = maxChunkSizeBytes;
         this.directory = directory;
+        this.compress = compress;
         this.chunks = new ArrayList<>();
         this.currentChunk = addChunk();
         this.totalItems = 0;
@@ -435,7 +447,7 @@ public class DiskBackedList2<K> implements List<K> {
             // Make a new disk backed list to store sorted values.
             // When the number of chunks is large, the size of the output buffer needs to shrink to make up for the extra mem usage
             long storageMaxChunkSize = maxChunkSizeBytes / (1 + chunks.size() / 20);
-            DiskBackedList2<K> storage = new DiskBackedList2<>(codec, storageMaxChunkSize, directory);
+            DiskBackedList2<K> storage = new DiskBackedList2<>(codec, storageMaxChunkSize, directory, compress);
 
             // Repeatedly pull the smallest element from the heap
             while (!heap.isEmpty()) {
@@ -457,6 +469,17 @@ public class DiskBackedList2<K> implements List<K> {
         }
     }
 
+    /**
+     * return the number of bytes in chunk files on disk
+     */
+    public long getDiskSize() {
+        long size = 0;
+        for (DBLChunk chunk : chunks) {
+            size += chunk.file.length();
+        }
+        return size;
+    }
+
     // This function is used to switch to the sorted values after a sort
     private List<DBLChunk> getChunks() {
         return chunks;
@@ -596,8 +619,18 @@ public class DiskBackedList2<K> implements List<K> {
             return true;
         }
 
+        private OutputStream openOutput() throws IOException {
+            OutputStream out = new FileOutputStream(file);
+            return compress ? new LZ4BlockOutputStream(out) : out;
+        }
+
+        private InputStream openInput() throws IOException {
+            InputStream in = new FileInputStream(file);
+            return compress ? new LZ4BlockInputStream(in) : in;
+        }
+
         public void saveToFile() throws IOException {
-            FileOutputStream fos = new FileOutputStream(file);
+            OutputStream fos = openOutput();
             BufferedOutputStream bos = new BufferedOutputStream(fos);
             DataOutputStream dos = new DataOutputStream(bos);
             dos.writeInt(this.size());
@@ -615,7 +648,7 @@ public class DiskBackedList2<K> implements List<K> {
         }
 
         public void readFromFile() throws IOException {
-            FileInputStream fis = new FileInputStream(file);
+            InputStream fis = openInput();
             BufferedInputStream bis = new BufferedInputStream(fis);
             DataInputStream dis = new DataInputStream(bis);
             int newNum = dis.readInt();
@@ -639,7 +672,7 @@ public class DiskBackedList2<K> implements List<K> {
 
         public Iterator<K> getChunkIterator() throws IOException {
             return new ListIterator<K>() {
-                final FileInputStream fis = new FileInputStream(file);
+                final InputStream fis = openInput();
                 final BufferedInputStream bis = new BufferedInputStream(fis);
                 final DataInputStream dis = new DataInputStream(bis);
                 int itemsRemaining = dis.readInt();
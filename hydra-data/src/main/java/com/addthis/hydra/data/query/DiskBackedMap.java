@@ -18,16 +18,19 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.addthis.basis.util.ClosableIterator;
+
 import com.addthis.codec.annotations.FieldConfig;
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.codec.codables.SuperCodable;
 import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.PageDB;
 
 import com.addthis.hydra.store.skiplist.ConcurrentPage;
@@ -154,13 +157,56 @@ public class DiskBackedMap<T extends DiskBackedMap.DiskObject> implements Map<St
         throw new UnsupportedOperationException("Not implemented");
     }
 
+    /**
+     * Values are decoded from the database as the returned collection is iterated
+     * instead of being loaded into memory up front. The iterators are
+     * {@link ClosableIterator}s. Exhausting or closing an iterator releases its
+     * underlying range, so a caller that stops early must close it.
+     */
     @Override
     public Collection<T> values() {
-        List<T> list = new ArrayList<>();
-        for (Object obj : db.toTreeMap().values()) {
-            list.add((T) ((CodableDiskObject) obj).getDiskObject());
-        }
-        return list;
+        return new AbstractCollection<T>() {
+            @Override
+            public ClosableIterator<T> iterator() {
+                IPageDB.Range<DBKey, Object> range = db.range(new DBKey(0, ""), null);
+                return new ClosableIterator<T>() {
+                    private boolean closed;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (closed) {
+                            return false;
+                        }
+                        if (range.hasNext()) {
+                            return true;
+                        }
+                        close();
+                        return false;
+                    }
+
+                    @Override
+                    public T next() {
+                        if (closed) {
+                            throw new NoSuchElementException();
+                        }
+                        return (T) ((CodableDiskObject) range.next().getValue()).getDiskObject();
+                    }
+
+                    @Override
+                    public void close() {
+                        if (!closed) {
+                            closed = true;
+                            range.close();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                throw new UnsupportedOperationException("Not implemented");
+            }
+        };
     }
 
     @Override
@@ -36,6 +36,16 @@ public class FieldValueList implements BundleFormatted {
         this.bundleFormat = bundleFormat;
     }
 
+    /**
+     * @return an independent list with the same committed and pending values
+     */
+    public FieldValueList copy() {
+        FieldValueList copy = new FieldValueList(bundleFormat);
+        copy.list.addAll(list);
+        copy.lastCommit = lastCommit;
+        return copy;
+    }
+
     /**
      * pushes must be committed
      */
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueMapEntry;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * Heap footprint of bundles as laid out by a 64-bit JVM with compressed
+ * references. Walks the values directly instead of reflecting over the object
+ * graph like {@link com.addthis.basis.util.MemoryCounter}, so it is cheap enough
+ * to call for every row a query op keeps in memory.
+ */
+public final class MemoryEstimator {
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+
+    /* list bundle: object with format and value array references */
+    private static final int BUNDLE = align(HEADER + (2 * REFERENCE) + 4);
+    /* boxed long or double value object */
+    private static final int NUMBER = align(HEADER + 8);
+    /* value object wrapping a string */
+    private static final int STRING_VALUE = align(HEADER + REFERENCE);
+    /* java.lang.String without its char array */
+    private static final int STRING = align(HEADER + REFERENCE + 4);
+    /* hash map entry */
+    private static final int MAP_ENTRY = align(HEADER + (3 * REFERENCE) + 4);
+
+    private MemoryEstimator() {
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public static long estimate(Bundle bundle) {
+        long size = BUNDLE + align(ARRAY_HEADER + ((long) REFERENCE * bundle.getCount()));
+        for (BundleField field : bundle) {
+            size += estimate(bundle.getValue(field));
+        }
+        return size;
+    }
+
+    public static long estimate(ValueObject value) {
+        if (value == null) {
+            return 0;
+        }
+        switch (value.getObjectType()) {
+            case INT:
+            case FLOAT:
+                return NUMBER;
+            case STRING:
+                return STRING_VALUE + estimate(value.asString().asNative());
+            case BYTES:
+                return STRING_VALUE + align(ARRAY_HEADER + (long) value.asBytes().size());
+            case ARRAY: {
+                long size = STRING_VALUE + align(ARRAY_HEADER + ((long) REFERENCE * value.asArray().size()));
+                for (ValueObject element : value.asArray()) {
+                    size += estimate(element);
+                }
+                return size;
+            }
+            case MAP: {
+                long size = 48 + align(ARRAY_HEADER + ((long) REFERENCE * 2 * value.asMap().size()));
+                for (ValueMapEntry entry : value.asMap()) {
+                    size += MAP_ENTRY + estimate(entry.getKey()) + estimate(entry.getValue());
+                }
+                return size;
+            }
+            default:
+                return STRING_VALUE + estimate(value.toString());
+        }
+    }
+
+    public static long estimate(String string) {
+        if (string == null) {
+            return 0;
+        }
+        return STRING + align(ARRAY_HEADER + (2L * string.length()));
+    }
+}
@@ -178,7 +178,7 @@ enum Op {
                       String args,
                       ChannelProgressivePromise opPromise) {
             return new OpGather(args, processor.memTip(), processor.rowTip(),
-                                processor.tempDir().toString(), opPromise);
+                                processor.tempDir().toString(), processor, opPromise);
         }
     },
     HISTO {
@@ -338,7 +338,7 @@ enum Op {
         QueryOp build(QueryOpProcessor processor,
                       String args,
                       ChannelProgressivePromise opPromise) {
-            return new OpPivot(processor.tableFactory(), args, opPromise);
+            return new OpPivot(processor.tableFactory(), processor, args, opPromise);
         }
     },
     RANGE {
@@ -85,7 +85,7 @@ public class QueryElementNode implements Codable {
     public Boolean up;
 
     private BundleField field;
-    private Pattern[] regexPatterns;
+    private volatile Pattern[] regexPatterns;
 
     public QueryElementNode parse(String tok, MutableInt nextColumn) {
         if (tok.equals("+..")) {
@@ -372,10 +372,12 @@ public class QueryElementNode implements Codable {
             if (match != null) {
                 if (regex()) {
                     if (regexPatterns == null) {
-                        regexPatterns = new Pattern[match.length];
+                        // compiled into a local array first, paths may be shared by parallel searches
+                        Pattern[] patterns = new Pattern[match.length];
                         for (int i = 0; i < match.length; i++) {
-                            regexPatterns[i] = Pattern.compile(match[i]);
+                            patterns[i] = Pattern.compile(match[i]);
                         }
+                        regexPatterns = patterns;
                     }
                     for (Iterator<DataTreeNode> iter = parent.getIterator(); iter.hasNext();) {
                         tmp = iter.next();
@@ -14,25 +14,35 @@
 package com.addthis.hydra.data.query;
 
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
-import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
 
 /**
- * The memory manager attempts to bound all in-flight queries to a range
- * of memory usage.  It does this by handing out QueryMemTrackers upon
- * request.  These requests block until sufficient resources are available.
+ * The memory manager bounds all in-flight queries to a shared memory budget
+ * and each query to its own limit. It does this by handing out QueryMemTrackers
+ * that account the estimated bytes ({@link MemoryEstimator}) of the rows and
+ * state that query ops keep in memory.
  * <p/>
- * Hitting soft limits starts blocking allocations and tracks.  Hitting
- * hard limits causes runtime/query exceptions to be thrown forcing the
- * cleanup of resources.
+ * Passing the soft limit, either globally or for a single query, asks ops
+ * that are able to spill to disk ({@link QueryMemTracker#shouldSpill()}) to do
+ * so and release their tracked bytes. Passing a hard limit throws a
+ * QueryException forcing the cleanup of resources instead of exhausting the heap.
  */
 public class QueryMemManager {
 
+    private static final long GLOBAL_MAX = Parameter.longValue("query.mem.max", Runtime.getRuntime().maxMemory() / 2);
+    private static final long GLOBAL_SPILL = Parameter.longValue("query.mem.spill", GLOBAL_MAX / 2);
+    private static final long QUERY_MAX = Parameter.longValue("query.mem.query.max", GLOBAL_MAX);
+    private static final long QUERY_SPILL = Parameter.longValue("query.mem.query.spill", QUERY_MAX / 2);
+
+    /**
+     * budget shared by all queries running in this jvm
+     */
+    private static final QueryMemManager global = new QueryMemManager(GLOBAL_MAX, GLOBAL_SPILL);
+
     private final AtomicLong usedMemory = new AtomicLong();
-    private final AtomicReference<QMTracker> winner = new AtomicReference<>();
     private final long maxMemHard;
     private final long maxMemSoft;
 
@@ -41,89 +51,93 @@ public class QueryMemManager {
         this.maxMemSoft = softMaxMem;
     }
 
+    public static QueryMemManager global() {
+        return global;
+    }
+
+    public long usedBytes() {
+        return usedMemory.get();
+    }
+
     public QueryMemTracker allocateTracker() {
+        return allocateTracker(QUERY_MAX, QUERY_SPILL);
+    }
+
+    /**
+     * @param queryMaxMem  bytes a single query may track before it fails
+     * @param querySoftMem bytes a single query may track before its ops are asked to spill
+     */
+    public QueryMemTracker allocateTracker(long queryMaxMem, long querySoftMem) {
         if (usedMemory.get() > maxMemHard) {
             throw new QueryException("max query memory exceeded");
         }
-        while (usedMemory.get() > maxMemSoft) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                QueryException.promote(e);
-            }
-        }
-        return new QMTracker();
+        return new QMTracker(queryMaxMem, querySoftMem);
     }
 
     private final class QMTracker implements QueryMemTracker {
 
+        private final long queryMaxMem;
+        private final long querySoftMem;
+
         private long mem;
-        private int bundles;
+        private volatile long peak;
+
+        QMTracker(long queryMaxMem, long querySoftMem) {
+            this.queryMaxMem = queryMaxMem;
+            this.querySoftMem = querySoftMem;
+        }
 
         @Override
         protected void finalize() {
             untrackAllBundles();
         }
 
-        /**
-         * in theory this could block to prevent a race between
-         * queries to consume all memory.  however, 2+ fast consumers
-         * could bind up and prevent each other from completing, so
-         * the system would have to be clever enough to halt all but
-         * one query until the resource situation was mitigated.
-         * one strategy could be to anoint the first one to hit this
-         * situation as the "winner", and all subsequent ones "losers"
-         * until memory was back within bounds.
-         */
         @Override
         public void trackBundle(Bundle bundle) {
-            bundles++;
-            long memest = MemoryCounter.estimateSize(bundle);
-            mem += memest;
-            long used = usedMemory.addAndGet(memest);
-            if (used > maxMemHard) {
-                if (winner.compareAndSet(this, null)) {
-                    // clean 'winner' on exception if applicable
-                }
-                throw new QueryException("max query memory exceeded");
-            }
-            /**
-             * the first tracker to hit the soft limit becomes the winner
-             * and all other trackers then block until the mem falls below
-             * the soft limit.
-             */
-            while (used > maxMemSoft && !winner.compareAndSet(null, this)) {
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    if (winner.compareAndSet(this, null)) {
-                        // clean 'winner' on exception if applicable
-                    }
-                    QueryException.promote(e);
-                }
-                used = usedMemory.addAndGet(memest);
-            }
+            trackBytes(MemoryEstimator.estimate(bundle));
         }
 
         @Override
         public void untrackBundle(Bundle bundle) {
-            bundles--;
-            long memest = MemoryCounter.estimateSize(bundle);
-            mem -= memest;
-            long used = usedMemory.addAndGet(-memest);
-            if (used < maxMemSoft && winner.get() == this) {
-                winner.set(null);
+            untrackBytes(MemoryEstimator.estimate(bundle));
+        }
+
+        @Override
+        public void trackBytes(long bytes) {
+            mem += bytes;
+            if (mem > peak) {
+                peak = mem;
+            }
+            long used = usedMemory.addAndGet(bytes);
+            if (mem > queryMaxMem) {
+                throw new QueryException("query memory limit exceeded: " + mem + " > " + queryMaxMem);
             }
+            if (used > maxMemHard) {
+                throw new QueryException("max query memory exceeded: " + used + " > " + maxMemHard);
+            }
+        }
+
+        @Override
+        public void untrackBytes(long bytes) {
+            long released = Math.min(bytes, mem);
+            mem -= released;
+            usedMemory.addAndGet(-released);
         }
 
         @Override
         public void untrackAllBundles() {
-            long used = usedMemory.addAndGet(-mem);
+            usedMemory.addAndGet(-mem);
             mem = 0;
-            bundles = 0;
-            if (used < maxMemSoft) {
-                winner.set(null);
-            }
+        }
+
+        @Override
+        public boolean shouldSpill() {
+            return (mem > querySoftMem) || (usedMemory.get() > maxMemSoft);
+        }
+
+        @Override
+        public long peakBytes() {
+            return peak;
         }
     }
 }
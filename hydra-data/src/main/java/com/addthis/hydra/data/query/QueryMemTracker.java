@@ -32,4 +32,31 @@ public interface QueryMemTracker {
      * at the end of an op chain.
      */
     public void untrackAllBundles();
+
+    /**
+     * allocate an estimated number of bytes held by an op
+     * outside of bundles (maps, merged rows, ...)
+     */
+    public default void trackBytes(long bytes) {
+    }
+
+    /**
+     * de-allocate bytes, usually after they have been spilled to disk
+     */
+    public default void untrackBytes(long bytes) {
+    }
+
+    /**
+     * @return true if ops that are able to spill to disk should do so now
+     */
+    public default boolean shouldSpill() {
+        return false;
+    }
+
+    /**
+     * @return largest number of bytes tracked at any one time
+     */
+    public default long peakBytes() {
+        return 0;
+    }
 }
@@ -53,7 +53,10 @@ import io.netty.util.concurrent.ImmediateEventExecutor;
  * </pre>
  * <p/>
  * <p/>
- * TODO memory limits need to be re-implemented
+ * Rows and state that ops keep in memory are accounted to a {@link QueryMemTracker},
+ * by default one allocated from the {@link QueryMemManager#global() global manager}.
+ * Ops that can spill to disk do so under memory pressure and the query fails once it
+ * passes its hard limit. The tracker is released when the processor is closed.
  * TODO see Query for other TODOs that need implementation / support here
  */
 @NotThreadSafe
@@ -106,7 +109,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         this.memTip = memTip;
         this.rowTip = rowTip;
         this.output = new ResultChannelOutput(output, opPromise);
-        this.memTracker = memTracker;
+        this.memTracker = (memTracker != null) ? memTracker : QueryMemManager.global().allocateTracker();
         this.firstOp = this.output;
         this.tableFactory = new DataTableFactory() {
             @Override
@@ -114,7 +117,8 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
                 try {
                     return new ResultTableTuned(QueryOpProcessor.this.tempDir,
                                                 QueryOpProcessor.this.rowTip,
-                                                QueryOpProcessor.this.memTip, this, expectedSize);
+                                                QueryOpProcessor.this.memTip,
+                                                QueryOpProcessor.this, this, expectedSize);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -295,7 +299,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         }
     }
 
-    /** Closes each QueryOp in turn and supresses exceptions. */
+    /** Closes each QueryOp in turn and supresses exceptions, then releases all tracked memory. */
     @Override
     public void close() {
         QueryOp currentOp = firstOp;
@@ -308,6 +312,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
             }
             currentOp = currentOp.getNext();
         }
+        memTracker.untrackAllBundles();
     }
 
     @Override
@@ -323,23 +328,37 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
 
     @Override
     public void trackBundle(Bundle bundle) {
-        if (memTracker != null) {
-            memTracker.trackBundle(bundle);
-        }
+        memTracker.trackBundle(bundle);
     }
 
     @Override
     public void untrackBundle(Bundle bundle) {
-        if (memTracker != null) {
-            memTracker.untrackBundle(bundle);
-        }
+        memTracker.untrackBundle(bundle);
     }
 
     @Override
     public void untrackAllBundles() {
-        if (memTracker != null) {
-            memTracker.untrackAllBundles();
-        }
+        memTracker.untrackAllBundles();
+    }
+
+    @Override
+    public void trackBytes(long bytes) {
+        memTracker.trackBytes(bytes);
+    }
+
+    @Override
+    public void untrackBytes(long bytes) {
+        memTracker.untrackBytes(bytes);
+    }
+
+    @Override
+    public boolean shouldSpill() {
+        return memTracker.shouldSpill();
+    }
+
+    @Override
+    public long peakBytes() {
+        return memTracker.peakBytes();
     }
 
     public static final class Builder {
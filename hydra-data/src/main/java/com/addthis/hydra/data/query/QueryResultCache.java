@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Size bounded cache of complete query results. Results are keyed by the query
+ * (job, paths, ops) and by a generation that identifies the data the query ran
+ * against. On a query worker the generation is the {@link
+ * com.addthis.hydra.data.query.engine.QueryEngine#getGeneration() engine generation}.
+ * On the query master it is the set of task generations of the job. A new
+ * generation never matches an older entry so stale results are not served,
+ * and {@link #invalidate(Object)} releases the memory of a retired generation.
+ * <p/>
+ * A query can skip the cache with the parameter {@code cache=false}.
+ *
+ * @param <V> cached result
+ */
+public class QueryResultCache<V> {
+
+    /**
+     * Query parameter that disables the result cache for a single query.
+     */
+    public static final String BYPASS_PARAMETER = "cache";
+
+    private final Cache<Key, Entry<V>> cache;
+
+    private final long maxEntryBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param maxBytes      upper bound on the estimated size of all entries. Zero disables the cache.
+     * @param maxEntryBytes upper bound on the estimated size of a single entry
+     */
+    public QueryResultCache(long maxBytes, long maxEntryBytes) {
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxBytes)
+                                 .<Key, Entry<V>>weigher((key, entry) -> (int) Math.min(Integer.MAX_VALUE, entry.bytes))
+                                 .build();
+    }
+
+    public boolean isEnabled() {
+        return maxEntryBytes > 0;
+    }
+
+    /**
+     * @return true if {@code query} may be answered from and stored in the cache
+     */
+    public boolean accepts(Query query) {
+        if (!isEnabled()) {
+            return false;
+        }
+        String bypass = query.getParameter(BYPASS_PARAMETER);
+        return (bypass == null) || !(bypass.equals("false") || bypass.equals("0") || bypass.equals("no"));
+    }
+
+    /**
+     * Largest entry the cache will store. Producers stop recording
+     * a result once it grows beyond this size.
+     */
+    public long maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Returns the cached result or null. Updates the hit ratio and
+     * bytes saved metrics.
+     */
+    @Nullable
+    public V get(Object generation, String queryKey) {
+        Entry<V> entry = cache.getIfPresent(new Key(generation, queryKey));
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.bytes);
+        return entry.value;
+    }
+
+    public void put(Object generation, String queryKey, V value, long bytes) {
+        if (bytes <= maxEntryBytes) {
+            cache.put(new Key(generation, queryKey), new Entry<>(value, bytes));
+        }
+    }
+
+    /**
+     * Drop every entry of the given generation.
+     */
+    public void invalidate(Object generation) {
+        cache.asMap().keySet().removeIf(key -> key.generation.equals(generation));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public double hitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return (total == 0) ? 0.0 : ((double) hitCount / total);
+    }
+
+    public long bytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Key of a query that ignores the parameters that only describe
+     * the request (sender, timeout, allocator, ...). The {@code parallel}
+     * mode is part of the key because an unordered search changes the
+     * order of the result rows.
+     */
+    public static String queryKey(Query query) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(query.getJob()).append('\u0000');
+        sb.append(Arrays.toString(query.getPaths())).append('\u0000');
+        sb.append(Arrays.toString(query.getOps())).append('\u0000');
+        sb.append(query.getParameter("injectSource")).append('\u0000');
+        sb.append(query.getParameter("parallel"));
+        return sb.toString();
+    }
+
+    private static final class Key {
+
+        private final Object generation;
+        private final String query;
+
+        Key(Object generation, String query) {
+            this.generation = generation;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return generation.equals(key.generation) && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(generation, query);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -18,6 +18,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleFormat;
 import com.addthis.bundle.table.DataTable;
 import com.addthis.bundle.table.DataTableFactory;
 import com.addthis.bundle.table.DataTableListWrapper;
@@ -32,6 +34,11 @@ public class ResultTable extends DataTableListWrapper implements DataTableFactor
         this.factory = factory;
     }
 
+    public ResultTable(DataTableFactory factory, List<Bundle> list, BundleFactory bundleFactory, BundleFormat format) {
+        super(list, bundleFactory, format);
+        this.factory = factory;
+    }
+
     public ResultTable(DataTableFactory factory, int size) {
         super(size > 0 ? new ArrayList<Bundle>(size) : new LinkedList<Bundle>());
         this.factory = factory;
@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.util.Comparator;
 
 import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleFormat;
 import com.addthis.bundle.io.DataChannelCodec;
 import com.addthis.bundle.io.DataChannelCodec.ClassIndexMap;
 import com.addthis.bundle.io.DataChannelCodec.FieldIndexMap;
@@ -47,6 +49,18 @@ public class ResultTableDisk extends ResultTable implements ItemCodec<Bundle> {
         this.diskFile = tmpFile;
     }
 
+    /**
+     * Create a table sharing the format of another so that fields resolved
+     * against that table remain valid for the rows of this one.
+     */
+    public ResultTableDisk(DataTableFactory factory, File tmpFile, BundleFactory bundleFactory,
+                           BundleFormat format) throws IOException {
+        super(factory, new DiskBackedList2<Bundle>(null), bundleFactory, format);
+        diskList = (DiskBackedList2<Bundle>) delegate();
+        diskList.setCodec(this);
+        this.diskFile = tmpFile;
+    }
+
     @Override
     public String toString() {
         return "(RDB:" + diskFile + ":" + diskList.size() + ")";
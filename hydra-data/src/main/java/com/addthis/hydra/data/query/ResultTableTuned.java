@@ -21,8 +21,6 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
-import com.addthis.basis.util.MemoryCounter;
-
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.core.BundleFormat;
@@ -41,6 +39,9 @@ import org.slf4j.LoggerFactory;
  * this package. TODO when not tipped keep a hash of added objects to prevent
  * double-counting TODO which can occur when 'depivot'ing a data set, for
  * example (row/col keys).
+ * <p/>
+ * Rows held in memory are accounted to the query memory tracker, if any, and the
+ * table tips to disk as soon as the tracker asks for a spill.
  */
 public class ResultTableTuned extends ForwardingList<Bundle> implements DataTable, DataTableFactory {
 
@@ -49,6 +50,7 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
 
     private DataTable result;
     private DataTableFactory factory;
+    private QueryMemTracker memTracker;
     private File tempDir;
     private boolean tipped;
     private boolean cantip;
@@ -62,12 +64,22 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
                                long memtip,
                                DataTableFactory factory,
                                int sizeHint) throws IOException {
+        this(tempDir, rowtip, memtip, null, factory, sizeHint);
+    }
+
+    protected ResultTableTuned(File tempDir,
+                               long rowtip,
+                               long memtip,
+                               QueryMemTracker memTracker,
+                               DataTableFactory factory,
+                               int sizeHint) throws IOException {
         this.tempDir = tempDir;
         this.memTip = memtip;
         this.rowTip = rowtip;
+        this.memTracker = memTracker;
         this.factory = factory;
         this.cantip = tempDir != null && tempDir.exists() && tempDir.isDirectory() &&
-                      ((rowtip > 0) || (memtip > 0));
+                      ((rowtip > 0) || (memtip > 0) || (memTracker != null));
         this.tipped = !cantip;
         log.debug("creating RAT temp={}, rowTip={}, memTip={}, cantip={}, tipped={}", tempDir,
                   rowtip, memTip, cantip, tipped);
@@ -95,6 +107,8 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
     protected void cleanup() {
         if (result instanceof ResultTableDisk) {
             ((ResultTableDisk) result).delete();
+        } else {
+            untrack();
         }
     }
 
@@ -105,9 +119,20 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
                 cells++;
             }
         }
-        if (memTip > 0) {
-            estMem += MemoryCounter.estimateSize(row);
+        if ((memTip > 0) || (memTracker != null)) {
+            long rowMem = MemoryEstimator.estimate(row);
+            estMem += rowMem;
+            if (memTracker != null) {
+                memTracker.trackBytes(rowMem);
+            }
+        }
+    }
+
+    private void untrack() {
+        if (memTracker != null) {
+            memTracker.untrackBytes(estMem);
         }
+        estMem = 0;
     }
 
     private File createTempFile() {
@@ -115,15 +140,20 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
     }
 
     private void tipCheck() {
-        if (!tipped && ((rowTip > 0 && result.size() > rowTip) || (memTip > 0 && estMem > memTip))) {
+        if (!tipped && ((rowTip > 0 && result.size() > rowTip) || (memTip > 0 && estMem > memTip) ||
+                        (memTracker != null && memTracker.shouldSpill()))) {
             try {
                 File tmp = createTempFile();
                 if (log.isDebugEnabled()) {
                     log.debug(hashCode() + " tipping to " + tmp + " @ rows=" + result.size() + " cells=" + cells + " mem=" + estMem);
                 }
-                ResultTableDisk dbl = new ResultTableDisk(factory, tmp);
-                dbl.append(result);
+                // keep the format so that fields already handed out stay valid after the tip
+                DataTable memory = result;
+                ResultTableDisk dbl = new ResultTableDisk(factory, tmp, memory, memory.getFormat());
+                dbl.append(memory);
+                memory.clear();
                 result = dbl;
+                untrack();
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
@@ -138,7 +168,7 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
 
     @Override public boolean add(Bundle element) {
         result.add(element);
-        if (!tipped) {
+        if (!(result instanceof ResultTableDisk)) {
             estimateRow(element);
         }
         tipCheck();
@@ -147,7 +177,7 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
 
     @Override public void add(int index, Bundle element) {
         result.add(index, element);
-        if (!tipped) {
+        if (!(result instanceof ResultTableDisk)) {
             estimateRow(element);
         }
         tipCheck();
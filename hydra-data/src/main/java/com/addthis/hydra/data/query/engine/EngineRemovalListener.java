@@ -50,6 +50,7 @@ class EngineRemovalListener implements RemovalListener<String, QueryEngine> {
         QueryEngine currentEngine = engineCache.loadingEngineCache.asMap().get(notification.getKey());
         if (currentEngine != qe) {
             assert qe != null; //we only use strong references
+            engineCache.results.invalidate(qe.getGeneration());
             try {
                 qe.closeWhenIdle();
             } catch (Throwable t) {
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.engine;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.channel.DataChannelError;
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryException;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Splits the children of a high fanout query path element across a shared fork-join pool.
+ * <p/>
+ * The search thread walks the tree as usual. Once a single path element has produced
+ * {@link #minFanout} children the remaining children of that element are searched as independent
+ * branches, each with its own copy of the node stack and of the {@code FieldValueList} prefix.
+ * Branches never split again. In ordered mode each branch buffers its rows and the search thread
+ * emits them in child order; in unordered mode branches write straight to the (synchronized) output.
+ * At most {@link #window} branches are in flight at once.
+ * <p/>
+ * Enabled per query with the parameter {@code parallel=true} (ordered) or {@code parallel=unordered}.
+ */
+final class ParallelSearch {
+
+    static final int parallelism = Parameter.intValue("queryEngine.parallelism",
+                                                      Runtime.getRuntime().availableProcessors());
+
+    /**
+     * children of a single path element searched on the calling thread before the element is split.
+     */
+    static final int minFanout = Parameter.intValue("queryEngine.parallelFanout", 32);
+
+    /**
+     * branches in flight per query.
+     */
+    static final int window = Parameter.intValue("queryEngine.parallelWindow", 4 * parallelism);
+
+    private static final ForkJoinPool pool = new ForkJoinPool(parallelism, ParallelSearch::newThread, null, false);
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool forkJoinPool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName("queryEngineSearch-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * A subtree search. Rows are written to the given output.
+     */
+    interface Branch {
+
+        void search(DataChannelOutput output) throws QueryException;
+    }
+
+    private final boolean ordered;
+    private final DataChannelOutput sink;
+    private final DataChannelOutput shared;
+    private final ArrayDeque<Future<List<Bundle>>> pending = new ArrayDeque<>();
+    // guarded by itself so that an abort never interrupts a pool thread that has moved on
+    private final Set<Thread> running = new HashSet<>();
+    private volatile boolean aborted;
+
+    ParallelSearch(boolean ordered, DataChannelOutput sink) {
+        this.ordered = ordered;
+        this.sink = sink;
+        this.shared = ordered ? null : new SynchronizedOutput(sink);
+    }
+
+    /**
+     * @return the parallel search requested by the query or null for a sequential search
+     */
+    @Nullable
+    static ParallelSearch forQuery(Query query, DataChannelOutput sink) {
+        String mode = query.getParameter("parallel");
+        if ((mode == null) || mode.equals("false") || mode.equals("0")) {
+            return null;
+        }
+        return new ParallelSearch(!mode.equals("unordered"), sink);
+    }
+
+    /**
+     * @param visited number of children of the current path element seen so far
+     * @return true if the next child should be searched as a branch
+     */
+    boolean split(int visited) {
+        return visited > minFanout;
+    }
+
+    /**
+     * Submit a branch, first emitting the oldest branch if the window is full.
+     */
+    void fork(Branch branch) throws QueryException {
+        if (pending.size() >= window) {
+            emit(pending.poll());
+        }
+        pending.add(pool.submit(() -> run(branch)));
+    }
+
+    /**
+     * Wait for all submitted branches and emit their rows.
+     */
+    void drain() throws QueryException {
+        while (!pending.isEmpty()) {
+            emit(pending.poll());
+        }
+    }
+
+    /**
+     * Stop all submitted branches and wait for the running ones to exit. Must be called
+     * before the search returns abnormally so that no branch outlives the query.
+     */
+    void abort() {
+        aborted = true;
+        synchronized (running) {
+            running.forEach(Thread::interrupt);
+        }
+        for (Future<List<Bundle>> future : pending) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException | CancellationException ignored) {
+                // the search has already failed
+            }
+        }
+        pending.clear();
+    }
+
+    private List<Bundle> run(Branch branch) throws QueryException {
+        if (aborted) {
+            return Collections.emptyList();
+        }
+        Thread thread = Thread.currentThread();
+        synchronized (running) {
+            running.add(thread);
+        }
+        try {
+            if (ordered) {
+                BufferedOutput buffer = new BufferedOutput(sink);
+                branch.search(buffer);
+                return buffer.bundles;
+            } else {
+                branch.search(shared);
+                return Collections.emptyList();
+            }
+        } finally {
+            synchronized (running) {
+                running.remove(thread);
+            }
+            // do not leak an abort into the next task of this pool thread
+            Thread.interrupted();
+        }
+    }
+
+    private void emit(Future<List<Bundle>> future) throws QueryException {
+        List<Bundle> bundles;
+        try {
+            bundles = future.get();
+        } catch (InterruptedException ex) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new QueryException("query interrupted");
+        } catch (ExecutionException ex) {
+            abort();
+            Throwable cause = ex.getCause();
+            if (cause instanceof QueryException) {
+                throw (QueryException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new DataChannelError(cause);
+            }
+        }
+        for (Bundle bundle : bundles) {
+            sink.send(bundle);
+        }
+    }
+
+    private static final class BufferedOutput implements DataChannelOutput {
+
+        private final DataChannelOutput sink;
+        private final List<Bundle> bundles = new ArrayList<>();
+
+        BufferedOutput(DataChannelOutput sink) {
+            this.sink = sink;
+        }
+
+        @Override public void send(Bundle bundle) {
+            bundles.add(bundle);
+        }
+
+        @Override public void send(List<Bundle> list) {
+            bundles.addAll(list);
+        }
+
+        @Override public void sendComplete() {
+        }
+
+        @Override public void sourceError(Throwable er) {
+        }
+
+        @Override public Bundle createBundle() {
+            return sink.createBundle();
+        }
+    }
+
+    private static final class SynchronizedOutput implements DataChannelOutput {
+
+        private final DataChannelOutput sink;
+
+        SynchronizedOutput(DataChannelOutput sink) {
+            this.sink = sink;
+        }
+
+        @Override public void send(Bundle bundle) {
+            synchronized (sink) {
+                sink.send(bundle);
+            }
+        }
+
+        @Override public void send(List<Bundle> list) {
+            synchronized (sink) {
+                sink.send(list);
+            }
+        }
+
+        @Override public void sendComplete() {
+        }
+
+        @Override public void sourceError(Throwable er) {
+        }
+
+        @Override public Bundle createBundle() {
+            return sink.createBundle();
+        }
+    }
+}
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.data.query.engine;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 
 import java.util.Arrays;
@@ -24,6 +26,7 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.addthis.basis.util.ClosableIterator;
 
@@ -49,7 +52,10 @@ public class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class);
 
+    private static final AtomicLong generations = new AtomicLong();
+
     protected final DataTree tree;
+    private final long generation;
     private final AtomicInteger used;
     private final AtomicBoolean isOpen;
     private final AtomicBoolean isClosed;
@@ -62,6 +68,16 @@ public class QueryEngine {
         this.isOpen = new AtomicBoolean(false);
         this.isClosed = new AtomicBoolean(false);
         this.active = new HashSet<>();
+        this.generation = generations.incrementAndGet();
+    }
+
+    /**
+     * Identifies the tree that this engine has opened. A refreshed engine for the same
+     * directory always has a new generation, so query results computed by this engine
+     * are only valid for its own generation.
+     */
+    public long getGeneration() {
+        return generation;
     }
 
     public int getLeasesCount() {
@@ -190,7 +206,7 @@ public class QueryEngine {
             ChannelProgressivePromise queryPromise) throws QueryException {
         for (QueryElement[] path : query.getQueryPaths()) {
             if (!(queryPromise.isDone())) {
-                search(path, result, queryPromise);
+                search(path, result, queryPromise, ParallelSearch.forQuery(query, result));
             }
         }
     }
@@ -228,6 +244,11 @@ public class QueryEngine {
      */
     public void search(QueryElement[] path, DataChannelOutput result,
             ChannelProgressivePromise queryPromise) throws QueryException {
+        search(path, result, queryPromise, null);
+    }
+
+    private void search(QueryElement[] path, DataChannelOutput result,
+            ChannelProgressivePromise queryPromise, @Nullable ParallelSearch parallel) throws QueryException {
         init();
         Thread thread = Thread.currentThread();
         synchronized (active) {
@@ -238,7 +259,7 @@ public class QueryEngine {
         try {
             LinkedList<DataTreeNode> stack = new LinkedList<>();
             stack.push(tree);
-            tableSearch(stack, new FieldValueList(new ListBundleFormat()), path, 0, result, 0, queryPromise);
+            tableSearch(stack, new FieldValueList(new ListBundleFormat()), path, 0, result, 0, queryPromise, parallel);
         } catch (QueryException | CancellationException ex) {
             log.debug("", ex);
         } catch (RuntimeException ex)  {
@@ -271,13 +292,14 @@ public class QueryEngine {
      *                            cancel at the MQMaster side. At this point, there is no need for us to continue
      *                            doing the query as the channel has been closed. Recursively, the functions will break
      *                            out by throwing QueryExceptions.
+     * @param parallel            splits high fanout path elements across threads, null for a sequential search
      * @throws QueryException
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, DataTreeNode root, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput result, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, @Nullable ParallelSearch parallel) throws QueryException {
         stack.push(root);
-        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise);
+        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise, parallel);
         stack.pop();
     }
 
@@ -304,7 +326,7 @@ public class QueryEngine {
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput sink, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, @Nullable ParallelSearch parallel) throws QueryException {
         if (queryPromise.isDone()) {
             log.debug("Query promise completed during processing");
             if (queryPromise.isCancelled()) {
@@ -337,6 +359,8 @@ public class QueryEngine {
         if (iter == null) {
             return;
         }
+        int visited = 0;
+        boolean forked = false;
         try {
             int skip = next.skip();
             int limit = next.limit();
@@ -376,7 +400,7 @@ public class QueryEngine {
                     limit--;
                 }
                 if (!queryPromise.isDone()) {
-                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise, parallel);
                 }
                 prefix.pop(count);
                 return;
@@ -405,7 +429,7 @@ public class QueryEngine {
 
                 DataTreeNode tn = iter.next();
                 if (tn == null && !next.emptyok()) {
-                    return;
+                    break;
                 }
                 if (skip > 0) {
                     skip--;
@@ -414,13 +438,26 @@ public class QueryEngine {
                 int count = next.update(prefix, tn);
                 if (count >= 0) {
                     if (!queryPromise.isDone()) {
-                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                        if ((parallel != null) && parallel.split(++visited)) {
+                            forked = true;
+                            forkSearch(stack, tn, prefix, path, pathIndex, collect + count, queryPromise, parallel);
+                        } else {
+                            tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise,
+                                        parallel);
+                        }
                     }
                     prefix.pop(count);
                     limit--;
                 }
             }
+            if (forked) {
+                parallel.drain();
+                forked = false;
+            }
         } finally {
+            if (forked) {
+                parallel.abort();
+            }
             if (log.isDebugEnabled()) {
                 log.debug("CLOSING: root={} pre={} path={} idx={} res={} coll={}",
                         root, prefix, Arrays.toString(path), pathIndex, sink, collect);
@@ -432,4 +469,17 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Search the subtree below {@code root} on another thread. The branch gets its own copies of the
+     * node stack and prefix and does not split any further.
+     */
+    private void forkSearch(LinkedList<DataTreeNode> stack, DataTreeNode root, FieldValueList prefix,
+            QueryElement[] path, int pathIndex, int collect, ChannelProgressivePromise queryPromise,
+            ParallelSearch parallel) throws QueryException {
+        LinkedList<DataTreeNode> branchStack = new LinkedList<>(stack);
+        FieldValueList branchPrefix = prefix.copy();
+        parallel.fork(output -> tableSearch(branchStack, root, branchPrefix, path, pathIndex + 1, output, collect,
+                                            queryPromise, null));
+    }
+
 }
@@ -13,18 +13,24 @@
  */
 package com.addthis.hydra.data.query.engine;
 
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.addthis.basis.util.Parameter;
 
+import com.addthis.hydra.data.query.QueryResultCache;
+
 import com.google.common.base.MoreObjects;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,6 +89,19 @@ public class QueryEngineCache {
      */
     private static final long DEFAULT_FAIL_INTERVAL = Parameter.longValue("queryEngineCache.failInterval", 70 * 60);
 
+    /**
+     * bytes of encoded query results to keep across all engines. Results are keyed by the engine generation so
+     * a refreshed engine never serves the results of the tree it replaced. 0 disables the result cache.
+     */
+    private static final long DEFAULT_RESULT_CACHE_BYTES = Parameter.longValue("queryEngineCache.resultCacheBytes",
+                                                                               64 * 1024 * 1024);
+
+    /**
+     * largest single query result to keep in the result cache.
+     */
+    private static final long DEFAULT_RESULT_ENTRY_BYTES = Parameter.longValue("queryEngineCache.resultEntryBytes",
+                                                                               4 * 1024 * 1024);
+
     /**
      * thread pool for cache maintenance runs. Should only need one thread.
      */
@@ -96,6 +115,13 @@ public class QueryEngineCache {
      */
     protected final LoadingCache<String, QueryEngine> loadingEngineCache;
 
+    /**
+     * Encoded result frames of completed queries keyed by {@link QueryEngine#getGeneration()}.
+     * Entries of an engine are dropped when the engine is evicted or replaced by a refresh.
+     */
+    protected final QueryResultCache<List<byte[]>> results =
+            new QueryResultCache<>(DEFAULT_RESULT_CACHE_BYTES, DEFAULT_RESULT_ENTRY_BYTES);
+
     private final long engineCacheSize;
     private final long refreshInterval;
     private final long failInterval;
@@ -141,10 +167,25 @@ public class QueryEngineCache {
                 .removalListener(new EngineRemovalListener(this))
                 .build(engineLoader);
 
+        Metrics.newGauge(QueryEngineCache.class, "resultCacheHitRatio", new Gauge<Double>() {
+            @Override public Double value() {
+                return results.hitRatio();
+            }
+        });
+        Metrics.newGauge(QueryEngineCache.class, "resultCacheBytesSaved", new Gauge<Long>() {
+            @Override public Long value() {
+                return results.bytesSaved();
+            }
+        });
+
         //schedule maintenance runs
         maybeInitMaintenance();
     }
 
+    public QueryResultCache<List<byte[]>> getResultCache() {
+        return results;
+    }
+
 
     /**
      * schedules maintenance for the cache using the maintenanceInterval parameter. Values less than 1
@@ -0,0 +1,553 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.query.AbstractQueryOp;
+import com.addthis.hydra.data.query.MemoryEstimator;
+import com.addthis.hydra.data.query.op.merge.AverageValue;
+import com.addthis.hydra.data.query.op.merge.DiffValue;
+import com.addthis.hydra.data.query.op.merge.KeyValue;
+import com.addthis.hydra.data.query.op.merge.LastValue;
+import com.addthis.hydra.data.query.op.merge.MaxValue;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+import com.addthis.hydra.data.query.op.merge.MergedValue;
+import com.addthis.hydra.data.query.op.merge.MinValue;
+import com.addthis.hydra.data.query.op.merge.NumMergesValue;
+import com.addthis.hydra.data.query.op.merge.ProdValue;
+import com.addthis.hydra.data.query.op.merge.SumValue;
+
+/**
+ * Hash aggregation for {@link OpGather} over primitive columns.
+ * <p/>
+ * Groups are found by hashing the key column values of each row directly into an open
+ * addressing table instead of building a string key. Numeric merged values are accumulated
+ * into one long array per column, with doubles stored as their raw bits and a kind byte
+ * recording which of the two each cell holds. Accumulators follow the {@code DefaultLong}
+ * and {@code DefaultDouble} arithmetic used by the merged values: the first value seen for
+ * a cell decides whether it is accumulated as a long or as a double.
+ * <p/>
+ * Only the plain key, last, sum, average, diff, min, max, prod and merge count columns
+ * are supported. Gathers using anything else, or a key topper, use {@link MergedRow}s. The
+ * memory held is the size of the arrays plus the estimated size of the retained key and
+ * last values, and is kept up to date as rows are added.
+ */
+final class GatherTable {
+
+    private static final int NONE = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+
+    private static final int SUM = 0;
+    private static final int DIFF = 1;
+    private static final int MAX = 2;
+    private static final int MIN = 3;
+
+    private static final int INITIAL_ROWS = 64;
+
+    private final MergeConfig config;
+    private final ListBundleFormat format;
+    private final boolean typedKeys;
+    private final MergedValue[] keys;
+    private final MergedValue[] numbers;
+    private final int[] functions;
+    private final boolean[] averages;
+    private final MergedValue[] lasts;
+
+    /* row + 1 of each occupied slot, 0 if empty */
+    private int[] slots;
+    private int[] hashes;
+    private int[] counts;
+    private ValueObject[][] keyValues;
+    private long[][] numberValues;
+    private byte[][] numberKinds;
+    private ValueObject[][] lastValues;
+    private int rows;
+
+    private long arenaBytes;
+    private long valueBytes;
+
+    private final Numeric[] scratch;
+
+    static boolean supports(MergeConfig config) {
+        if (config.topper != null) {
+            return false;
+        }
+        for (MergedValue value : config.conf) {
+            if ((value != null) && (function(value) < 0) && !isKey(value) && !isLast(value)
+                && (value.getClass() != NumMergesValue.class)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKey(MergedValue value) {
+        return value.getClass() == KeyValue.class;
+    }
+
+    private static boolean isLast(MergedValue value) {
+        return value.getClass() == LastValue.class;
+    }
+
+    /**
+     * @return the accumulator of a numeric merged value or -1 if it is not one
+     */
+    private static int function(MergedValue value) {
+        Class<?> type = value.getClass();
+        // ProdValue sums, as it always has
+        if ((type == SumValue.class) || (type == AverageValue.class) || (type == ProdValue.class)) {
+            return SUM;
+        } else if (type == DiffValue.class) {
+            return DIFF;
+        } else if (type == MaxValue.class) {
+            return MAX;
+        } else if (type == MinValue.class) {
+            return MIN;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * @param typedKeys compare key columns by type and value. Otherwise rows are grouped by
+     *                  the text of their key columns joined together, like
+     *                  {@link MergeConfig#handleBindAndGetKey(Bundle, ListBundleFormat)}.
+     */
+    GatherTable(MergeConfig config, ListBundleFormat format, boolean typedKeys) {
+        this.config = config;
+        this.format = format;
+        this.typedKeys = typedKeys;
+        List<MergedValue> keyList = new ArrayList<>();
+        List<MergedValue> numberList = new ArrayList<>();
+        List<MergedValue> lastList = new ArrayList<>();
+        for (MergedValue value : config.conf) {
+            if (value == null) {
+                continue;
+            }
+            if (isKey(value)) {
+                keyList.add(value);
+            } else if (isLast(value)) {
+                lastList.add(value);
+            } else if (function(value) >= 0) {
+                numberList.add(value);
+            }
+        }
+        keys = keyList.toArray(new MergedValue[keyList.size()]);
+        numbers = numberList.toArray(new MergedValue[numberList.size()]);
+        lasts = lastList.toArray(new MergedValue[lastList.size()]);
+        functions = new int[numbers.length];
+        averages = new boolean[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            functions[i] = function(numbers[i]);
+            averages[i] = numbers[i].getClass() == AverageValue.class;
+        }
+        scratch = new Numeric[numbers.length];
+        slots = new int[INITIAL_ROWS * 2];
+        hashes = new int[INITIAL_ROWS];
+        counts = new int[INITIAL_ROWS];
+        keyValues = new ValueObject[keys.length][INITIAL_ROWS];
+        numberValues = new long[numbers.length][INITIAL_ROWS];
+        numberKinds = new byte[numbers.length][INITIAL_ROWS];
+        lastValues = new ValueObject[lasts.length][INITIAL_ROWS];
+        arenaBytes = arenaBytes(INITIAL_ROWS, slots.length);
+    }
+
+    int size() {
+        return rows;
+    }
+
+    /**
+     * @return estimated bytes held by the table
+     */
+    long bytes() {
+        return arenaBytes + valueBytes;
+    }
+
+    /**
+     * Merge a row into its group.
+     *
+     * @return false, without changing the table, if a value can not be accumulated
+     * as a primitive. The caller must then continue with {@link #toMergedRows()}.
+     */
+    boolean add(Bundle row) {
+        config.bind(row, format);
+        for (int i = 0; i < numbers.length; i++) {
+            ValueObject value = value(row, numbers[i]);
+            if (value == null) {
+                scratch[i] = null;
+                continue;
+            }
+            Numeric num = ValueUtil.asNumberOrParseLong(value, 10);
+            if (num == null) {
+                num = AbstractQueryOp.ZERO;
+            }
+            ValueObject.TYPE type = num.getObjectType();
+            if ((type != ValueObject.TYPE.INT) && (type != ValueObject.TYPE.FLOAT)) {
+                return false;
+            }
+            scratch[i] = num;
+        }
+        int hash = 0;
+        for (MergedValue key : keys) {
+            if (typedKeys) {
+                hash = (31 * hash) + keyHash(value(row, key));
+            } else {
+                String text = text(value(row, key));
+                for (int i = 0; i < text.length(); i++) {
+                    hash = (31 * hash) + text.charAt(i);
+                }
+            }
+        }
+        int group = findOrInsert(row, hash);
+        counts[group]++;
+        for (int i = 0; i < keys.length; i++) {
+            // a missing key is equal to an empty one, keep the latter as merged rows would
+            if (keyValues[i][group] == null) {
+                keyValues[i][group] = value(row, keys[i]);
+            }
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            if (scratch[i] != null) {
+                accumulate(i, group, scratch[i]);
+                scratch[i] = null;
+            }
+        }
+        for (int i = 0; i < lasts.length; i++) {
+            ValueObject value = value(row, lasts[i]);
+            if (value != null) {
+                valueBytes += MemoryEstimator.estimate(value) - MemoryEstimator.estimate(lastValues[i][group]);
+                lastValues[i][group] = value;
+            }
+        }
+        return true;
+    }
+
+    private void accumulate(int column, int group, Numeric num) {
+        long[] values = numberValues[column];
+        byte[] kinds = numberKinds[column];
+        switch (kinds[group]) {
+            case NONE:
+                if (num.getObjectType() == ValueObject.TYPE.INT) {
+                    kinds[group] = LONG;
+                    values[group] = num.asLong().getLong();
+                } else {
+                    kinds[group] = DOUBLE;
+                    values[group] = Double.doubleToRawLongBits(num.asDouble().getDouble());
+                }
+                break;
+            case LONG: {
+                long current = values[group];
+                long next = num.asLong().getLong();
+                switch (functions[column]) {
+                    case SUM:
+                        values[group] = current + next;
+                        break;
+                    case DIFF:
+                        values[group] = current - next;
+                        break;
+                    case MAX:
+                        values[group] = Math.max(current, next);
+                        break;
+                    case MIN:
+                        values[group] = Math.min(current, next);
+                        break;
+                }
+                break;
+            }
+            case DOUBLE: {
+                double current = Double.longBitsToDouble(values[group]);
+                double next = num.asDouble().getDouble();
+                double result = current;
+                switch (functions[column]) {
+                    case SUM:
+                        result = current + next;
+                        break;
+                    case DIFF:
+                        result = current - next;
+                        break;
+                    case MAX:
+                        result = Math.max(current, next);
+                        break;
+                    case MIN:
+                        // as DefaultDouble.min, which ignores accumulated values that are not positive
+                        result = (current > 0) ? Math.min(current, next) : next;
+                        break;
+                }
+                values[group] = Double.doubleToRawLongBits(result);
+                break;
+            }
+        }
+    }
+
+    private int findOrInsert(Bundle row, int hash) {
+        int mask = slots.length - 1;
+        int slot = spread(hash) & mask;
+        while (slots[slot] != 0) {
+            int group = slots[slot] - 1;
+            if ((hashes[group] == hash) && keysEqual(group, row)) {
+                return group;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (rows == hashes.length) {
+            growRows();
+        }
+        int group = rows++;
+        slots[slot] = group + 1;
+        hashes[group] = hash;
+        for (int i = 0; i < keys.length; i++) {
+            ValueObject value = value(row, keys[i]);
+            keyValues[i][group] = value;
+            valueBytes += MemoryEstimator.estimate(value);
+        }
+        if ((rows * 2) > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return group;
+    }
+
+    private boolean keysEqual(int group, Bundle row) {
+        if (!typedKeys) {
+            return textKeysEqual(group, row);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (!keyEquals(keyValues[i][group], value(row, keys[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the key columns of the group and the row have the same text when joined
+     */
+    private boolean textKeysEqual(int group, Bundle row) {
+        String a = "";
+        String b = "";
+        int columnA = 0;
+        int columnB = 0;
+        int charA = 0;
+        int charB = 0;
+        while (true) {
+            while ((charA == a.length()) && (columnA < keys.length)) {
+                a = text(keyValues[columnA++][group]);
+                charA = 0;
+            }
+            while ((charB == b.length()) && (columnB < keys.length)) {
+                b = text(value(row, keys[columnB++]));
+                charB = 0;
+            }
+            boolean doneA = charA == a.length();
+            boolean doneB = charB == b.length();
+            if (doneA || doneB) {
+                return doneA && doneB;
+            }
+            if (a.charAt(charA++) != b.charAt(charB++)) {
+                return false;
+            }
+        }
+    }
+
+    private void growRows() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        for (int i = 0; i < keys.length; i++) {
+            keyValues[i] = Arrays.copyOf(keyValues[i], capacity);
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            numberValues[i] = Arrays.copyOf(numberValues[i], capacity);
+            numberKinds[i] = Arrays.copyOf(numberKinds[i], capacity);
+        }
+        for (int i = 0; i < lasts.length; i++) {
+            lastValues[i] = Arrays.copyOf(lastValues[i], capacity);
+        }
+        arenaBytes = arenaBytes(capacity, slots.length);
+    }
+
+    private void rehash(int size) {
+        int[] next = new int[size];
+        int mask = size - 1;
+        for (int group = 0; group < rows; group++) {
+            int slot = spread(hashes[group]) & mask;
+            while (next[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            next[slot] = group + 1;
+        }
+        slots = next;
+        arenaBytes = arenaBytes(hashes.length, size);
+    }
+
+    private long arenaBytes(int capacity, int slotCount) {
+        long perRow = 4 + 4 + (4L * keys.length) + (9L * numbers.length) + (4L * lasts.length);
+        return (4L * slotCount) + (perRow * capacity);
+    }
+
+    /**
+     * @return the group as it would be emitted
+     */
+    Bundle emit(int group) {
+        ListBundle bundle = new ListBundle(format);
+        for (int i = 0; i < keys.length; i++) {
+            ValueObject value = keyValues[i][group];
+            if (value != null) {
+                bundle.setValue(keys[i].getTo(), value);
+            }
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            Numeric value = numberValue(i, group);
+            if (value != null) {
+                bundle.setValue(numbers[i].getTo(), averages[i] ? value.avg(counts[group]) : value);
+            }
+        }
+        for (int i = 0; i < lasts.length; i++) {
+            ValueObject value = lastValues[i][group];
+            if (value != null) {
+                bundle.setValue(lasts[i].getTo(), value);
+            }
+        }
+        if (config.mergeCountValue != null) {
+            bundle.setValue(config.mergeCountValue.getTo(), ValueFactory.create(counts[group]));
+        }
+        return bundle;
+    }
+
+    private Numeric numberValue(int column, int group) {
+        long value = numberValues[column][group];
+        switch (numberKinds[column][group]) {
+            case LONG:
+                return ValueFactory.create(value);
+            case DOUBLE:
+                return ValueFactory.create(Double.longBitsToDouble(value));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the groups as the unmerged rows {@link OpGather} keeps when not using this table,
+     * keyed as by {@link MergeConfig#handleBindAndGetGroupKey(Bundle, ListBundleFormat)} with
+     * typed keys and by {@link MergeConfig#handleBindAndGetKey(Bundle, ListBundleFormat)} otherwise
+     */
+    Map<String, MergedRow> toMergedRows() {
+        Map<String, MergedRow> merged = new HashMap<>();
+        for (int group = 0; group < rows; group++) {
+            MergedRow row = new MergedRow(config.conf, new ListBundle(format));
+            row.numMergedRows = counts[group];
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < keys.length; i++) {
+                ValueObject value = keyValues[i][group];
+                if (value != null) {
+                    row.setValue(keys[i].getTo(), value);
+                }
+                if (typedKeys) {
+                    MergeConfig.appendGroupKey(key, value);
+                } else {
+                    key.append(text(value));
+                }
+            }
+            for (int i = 0; i < numbers.length; i++) {
+                Numeric value = numberValue(i, group);
+                if (value != null) {
+                    row.setValue(numbers[i].getTo(), value);
+                }
+            }
+            for (int i = 0; i < lasts.length; i++) {
+                ValueObject value = lastValues[i][group];
+                if (value != null) {
+                    row.setValue(lasts[i].getTo(), value);
+                }
+            }
+            merged.put(key.toString(), row);
+        }
+        return merged;
+    }
+
+    /**
+     * @return the value of a column in the row or null if it has not been bound
+     */
+    private static ValueObject value(Bundle row, MergedValue column) {
+        BundleField from = column.getFrom();
+        return (from != null) ? row.getValue(from) : null;
+    }
+
+    private static String text(ValueObject value) {
+        return (value == null) ? "" : value.toString();
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Missing values hash and compare as empty strings, as they do in string keys.
+     */
+    private static int keyHash(ValueObject value) {
+        if (value == null) {
+            return 0;
+        }
+        switch (value.getObjectType()) {
+            case STRING:
+                return value.asString().asNative().hashCode();
+            case INT:
+                return Long.hashCode(value.asLong().getLong());
+            case FLOAT:
+                return Double.hashCode(value.asDouble().getDouble());
+            default:
+                return value.toString().hashCode();
+        }
+    }
+
+    private static boolean keyEquals(ValueObject a, ValueObject b) {
+        if ((a == null) || (b == null)) {
+            return isEmpty(a) && isEmpty(b);
+        }
+        ValueObject.TYPE type = a.getObjectType();
+        if (type != b.getObjectType()) {
+            return false;
+        }
+        switch (type) {
+            case STRING:
+                return a.asString().asNative().equals(b.asString().asNative());
+            case INT:
+                return a.asLong().getLong() == b.asLong().getLong();
+            case FLOAT:
+                return Double.doubleToLongBits(a.asDouble().getDouble()) ==
+                       Double.doubleToLongBits(b.asDouble().getDouble());
+            default:
+                return a.toString().equals(b.toString());
+        }
+    }
+
+    private static boolean isEmpty(ValueObject value) {
+        return (value == null) ||
+               ((value.getObjectType() == ValueObject.TYPE.STRING) && value.asString().asNative().isEmpty());
+    }
+}
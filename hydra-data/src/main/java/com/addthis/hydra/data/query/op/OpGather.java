@@ -17,11 +17,12 @@ import java.io.Closeable;
 import java.io.IOException;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
-import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.channel.DataChannelError;
@@ -34,6 +35,8 @@ import com.addthis.bundle.value.Numeric;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.AbstractQueryOp;
 import com.addthis.hydra.data.query.DiskBackedMap;
+import com.addthis.hydra.data.query.MemoryEstimator;
+import com.addthis.hydra.data.query.QueryMemTracker;
 import com.addthis.hydra.data.query.QueryOp;
 import com.addthis.hydra.data.query.op.merge.MergeConfig;
 import com.addthis.hydra.data.query.op.merge.MergedValue;
@@ -48,21 +51,24 @@ import io.netty.channel.ChannelProgressivePromise;
  * <p>This query operation <span class="hydra-summary">merges arbitrary rows</span>.
  * <p/>
  * <p>Gather collects all rows that match the criteria of the key columns.
- * It is an in-memory operation that spill over to disk when necessary. If the key
+ * It is an in-memory operation that spill over to disk when necessary, including
+ * whenever the query memory manager reports memory pressure. If the key
  * columns are already sorted then the {@link OpMerge merge} operation is
  * a much cheaper alternative.</p>
  * <p>The syntax for this operation is "gather=[column parameters] where
  * column parameters is a sequence of one or more of the following letters:
  * <ul>
  * <li>k - this column is a key column.</li>
- * <li>c - generates a cardinality estimation of this column.</li>
+ * <li>c - generates a cardinality estimation of this column. Estimators read from
+ *     count attachments are merged with each other.</li>
  * <li>i - this column is ignored and dropped from the output.</li>
  * <li>t - this column is a key topper.</li>
  * <li>a - generate average values for this column</li>
  * <li>d - generate iterated diff values for this column</li>
  * <li>m - generate min values for this column</li>
  * <li>M - generate max values for this column</li>
- * <li>s - generate sum values for this column</li>
+ * <li>s - generate sum values for this column. T-digest and count-min sketch values
+ *     are merged with each other.</li>
  * <li>j - append all values for this column using "," as a separator</li>
  * <li>p - generate product values for this column</li>
  * </ul>
@@ -75,6 +81,10 @@ import io.netty.channel.ChannelProgressivePromise;
  * at the end of the column parameters to append a column that includes the number of merged
  * rows.</p>
  * <p/>
+ * <p>Rows are grouped by the text of their key columns joined together, so the string "1"
+ * and the number 1 are one group. With the system property {@code opgather.typedkeys}
+ * each key column is compared by its type and value instead.</p>
+ * <p/>
  * <p>Example:</p>
  * <pre>
  * 0 A 3
@@ -98,6 +108,8 @@ public class OpGather extends AbstractQueryOp {
         return num != null ? num : ZERO;
     }
 
+    /* primitive aggregation, null when the gather uses merged rows */
+    private GatherTable gatherTable;
     private Map<String, MergedRow> resultTable = new HashMap<>();
     private final ListBundleFormat format = new ListBundleFormat();
     private final MergedValue[] conf;
@@ -111,16 +123,24 @@ public class OpGather extends AbstractQueryOp {
     private final int topSize;
     private final int topColumn;
     private final String tmpDir;
+    private final QueryMemTracker memTracker;
 
     private boolean tippedToDisk = false;
     private boolean tipToDisk = Parameter.boolValue("opgather.tiptodisk", false);
+    private final boolean typedKeys = Parameter.boolValue("opgather.typedkeys", false);
 
 
     private static final Meter diskTips = Metrics.newMeter(OpGather.class, "diskTips", "diskTips", TimeUnit.SECONDS);
 
     public OpGather(String args, long tipMem, long tipRow, String tmpDir, ChannelProgressivePromise queryPromise) {
+        this(args, tipMem, tipRow, tmpDir, null, queryPromise);
+    }
+
+    public OpGather(String args, long tipMem, long tipRow, String tmpDir, QueryMemTracker memTracker,
+                    ChannelProgressivePromise queryPromise) {
         super(queryPromise);
         this.tmpDir = tmpDir;
+        this.memTracker = memTracker;
         this.tipMem = tipMem;
         this.tipRow = tipRow;
         totalMem = 0;
@@ -130,6 +150,10 @@ public class OpGather extends AbstractQueryOp {
         topper = mergeConfig.topper;
         topSize = mergeConfig.numericArg;
         conf = mergeConfig.conf;
+        if (GatherTable.supports(mergeConfig)) {
+            gatherTable = new GatherTable(mergeConfig, format, typedKeys);
+            track(gatherTable.bytes());
+        }
     }
 
     @Override
@@ -137,26 +161,34 @@ public class OpGather extends AbstractQueryOp {
         if (opPromise.isDone()) {
             return;
         }
-        String key = mergeConfig.handleBindAndGetKey(row, format);
+        if (gatherTable != null) {
+            if (gatherTable.add(row)) {
+                track(gatherTable.bytes() - totalMem);
+                checkTips();
+                return;
+            }
+            useMergedRows();
+        }
+        String key = typedKeys ? mergeConfig.handleBindAndGetGroupKey(row, format)
+                               : mergeConfig.handleBindAndGetKey(row, format);
         MergedRow merge = resultTable.get(key);
+        long before = 0;
         if (merge == null) {
             merge = new MergedRow(conf, new ListBundle(format));
             resultTable.put(key, merge);
 
             if (!tippedToDisk) {
-                totalMem += MemoryCounter.estimateSize(merge);
+                track(MemoryEstimator.estimate(key));
             }
-        }
-        if (!tippedToDisk) {
-            totalMem -= MemoryCounter.estimateSize(merge);
+        } else if (!tippedToDisk) {
+            before = MemoryEstimator.estimate(merge);
         }
         merge.merge(row);
         if (tippedToDisk) {
             // Update the result on the disk, we need to put again
             resultTable.put(key, merge);
-        }
-        if (!tippedToDisk) {
-            totalMem += MemoryCounter.estimateSize(merge);
+        } else {
+            track(MemoryEstimator.estimate(merge) - before);
         }
 
         if (topColumn >= 0) {
@@ -169,52 +201,105 @@ public class OpGather extends AbstractQueryOp {
                 String drop = topper.update(key, num.asLong().getLong(), topSize);
                 if (drop != null) {
                     if (!tippedToDisk) {
-                        totalMem -= MemoryCounter.estimateSize(resultTable.get(drop));
+                        track(-MemoryEstimator.estimate(drop) - MemoryEstimator.estimate(resultTable.get(drop)));
                     }
 
                     resultTable.remove(drop);
                 }
             }
         }
+        checkTips();
+    }
+
+    private int rows() {
+        return (gatherTable != null) ? gatherTable.size() : resultTable.size();
+    }
 
-        if (!tipToDisk) {
+    private void checkTips() {
+        if (!tippedToDisk && (memTracker != null) && memTracker.shouldSpill()) {
+            // memory pressure on the query or the process always spills regardless of the tips
+            tipToDisk();
+        } else if (!tipToDisk) {
             // If we're not tipping to disk, and the tips are set, then we will issue errors if we pass them
             if (tipMem > 0 && totalMem > tipMem) {
                 throw new DataChannelError("Memory usage of gathered objects exceeds allowed " + tipMem);
             }
 
-            if (tipRow > 0 && resultTable.size() > tipRow) {
+            if (tipRow > 0 && rows() > tipRow) {
                 throw new DataChannelError("Number of gathered rows exceeds allowed " + tipRow);
             }
         } else {
             // If we're tipping to disk, and the tips are non zero, then spill to disk once we pass them
-            if (!tippedToDisk && ((tipMem > 0 && totalMem > tipMem) || (tipRow > 0 && resultTable.size() > tipRow))) {
-                tippedToDisk = true;
-                diskTips.mark();
-
-                // Use the smaller amount of memory for the JE cache environment
-                long memToUse = totalMem;
-                if (memToUse > tipMem) {
-                    memToUse = tipMem;
-                }
-
-                Map<String, MergedRow> diskMap = new DiskBackedMap<>(tmpDir + "/" + UUID.randomUUID(),
-                        new MergedRowFactory(conf, format), memToUse);
+            if (!tippedToDisk && ((tipMem > 0 && totalMem > tipMem) || (tipRow > 0 && rows() > tipRow))) {
+                tipToDisk();
+            }
+        }
+    }
 
-                diskMap.putAll(resultTable);
-                resultTable = diskMap;
+    private void track(long bytes) {
+        totalMem += bytes;
+        if (memTracker != null) {
+            if (bytes > 0) {
+                memTracker.trackBytes(bytes);
+            } else {
+                memTracker.untrackBytes(-bytes);
             }
         }
     }
 
+    /**
+     * Continue with merged rows, which can be spilled and handle any merged value.
+     */
+    private void useMergedRows() {
+        resultTable = gatherTable.toMergedRows();
+        gatherTable = null;
+        long mem = 0;
+        for (Map.Entry<String, MergedRow> entry : resultTable.entrySet()) {
+            mem += MemoryEstimator.estimate(entry.getKey()) + MemoryEstimator.estimate(entry.getValue());
+        }
+        track(mem - totalMem);
+    }
+
+    private void tipToDisk() {
+        if (gatherTable != null) {
+            useMergedRows();
+        }
+        tippedToDisk = true;
+        diskTips.mark();
+
+        // Use the smaller amount of memory for the JE cache environment
+        long memToUse = totalMem;
+        if ((tipMem > 0) && (memToUse > tipMem)) {
+            memToUse = tipMem;
+        }
+
+        Map<String, MergedRow> diskMap = new DiskBackedMap<>(tmpDir + "/" + UUID.randomUUID(),
+                new MergedRowFactory(conf, format), memToUse);
+
+        diskMap.putAll(resultTable);
+        resultTable = diskMap;
+        track(-totalMem);
+    }
+
     @Override
     public void sendComplete() {
         QueryOp next = getNext();
-        for (MergedRow mergedRow : resultTable.values()) {
-            if (!opPromise.isDone()) {
-                next.send(mergedRow.emit());
-            } else {
-                break;
+        if (gatherTable != null) {
+            for (int i = 0; (i < gatherTable.size()) && !opPromise.isDone(); i++) {
+                next.send(gatherTable.emit(i));
+            }
+            next.sendComplete();
+            return;
+        }
+        Iterator<MergedRow> rows = resultTable.values().iterator();
+        try {
+            while (rows.hasNext() && !opPromise.isDone()) {
+                next.send(rows.next().emit());
+            }
+        } finally {
+            // a cancelled query leaves the rows of a disk backed table early
+            if (rows instanceof ClosableIterator) {
+                ((ClosableIterator<MergedRow>) rows).close();
             }
         }
         next.sendComplete();
@@ -224,6 +309,8 @@ public class OpGather extends AbstractQueryOp {
     public void close() throws IOException {
         if (resultTable instanceof Closeable) {
             ((Closeable) resultTable).close();
+        } else {
+            track(-totalMem);
         }
     }
 }
@@ -31,13 +31,15 @@ import io.netty.channel.ChannelProgressivePromise;
  * column parameters is a sequence of one or more of the following letters:
  * <ul>
  * <li>k - this column is a key column.</li>
- * <li>c - generates a cardinality estimation of this column.</li>
+ * <li>c - generates a cardinality estimation of this column. Estimators read from
+ *     count attachments are merged with each other.</li>
  * <li>i - this column is ignored and dropped from the output.</li>
  * <li>a - generate average values for this column</li>
  * <li>d - generate iterated diff values for this column</li>
  * <li>m - generate min values for this column</li>
  * <li>M - generate max values for this column</li>
- * <li>s - generate sum values for this column</li>
+ * <li>s - generate sum values for this column. T-digest and count-min sketch values
+ *     are merged with each other.</li>
  * <li>l - keep last value for this column</li>
  * <li>j - append all values for this column using "," as a separator</li>
  * <li>p - generate product values for this column</li>
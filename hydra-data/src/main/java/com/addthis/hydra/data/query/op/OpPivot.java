@@ -14,6 +14,8 @@
 package com.addthis.hydra.data.query.op;
 
 import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -41,6 +43,10 @@ import com.addthis.bundle.value.ValueObject;
 import com.addthis.bundle.value.ValueString;
 import com.addthis.bundle.value.ValueTranslationException;
 import com.addthis.hydra.data.query.AbstractQueryOp;
+import com.addthis.hydra.data.query.MemoryEstimator;
+import com.addthis.hydra.data.query.QueryMemTracker;
+
+import com.google.common.collect.AbstractIterator;
 
 import io.netty.channel.ChannelProgressivePromise;
 
@@ -67,6 +73,10 @@ import io.netty.channel.ChannelProgressivePromise;
  * <i>i</i> is the result of the [rowop] operation performed on all values from the input
  * column that reside in row <i>i</i>.</p>
  * <p/>
+ * <p>When the query is under memory pressure the partially pivoted rows are spilled to a
+ * table and merged back by row key once all input has been seen. Pivots that average their
+ * cells are kept in memory.</p>
+ * <p/>
  * <p>Example:</p>
  * <pre>
  * 0 A 3
@@ -108,16 +118,29 @@ public class OpPivot extends AbstractQueryOp {
     private final SortedMap<String, Bundle>          pivot        = new TreeMap<>();
 
     private final DataTableFactory  tableFactory;
+    private final QueryMemTracker   memTracker;
     private final IndexField[]      rowFields;
     private final IndexField[]      colFields;
     private final IndexField        cellField;
     private final ChannelProgressivePromise queryPromise;
 
+    /* partially pivoted rows moved out of memory, null until the first spill */
+    private DataTable spill;
+    private long      pivotMem;
+
+    public OpPivot(DataTableFactory tableFactory,
+                   String args,
+                   ChannelProgressivePromise queryPromise) {
+        this(tableFactory, null, args, queryPromise);
+    }
+
     public OpPivot(DataTableFactory tableFactory,
+                   QueryMemTracker memTracker,
                    String args,
                    ChannelProgressivePromise queryPromise) {
         super(queryPromise);
         this.tableFactory = tableFactory;
+        this.memTracker = memTracker;
         this.output = tableFactory.createTable(0);
         this.queryPromise = queryPromise;
         String[] parg = LessStrings.splitArray(args, ",");
@@ -225,16 +248,113 @@ public class OpPivot extends AbstractQueryOp {
             pivotrow = output.createBundle();
             pivotrow.setValue(labelCol, ValueFactory.create(rowkey));
             pivot.put(rowkey, pivotrow);
+            track(MemoryEstimator.estimate(rowkey) + MemoryEstimator.estimate(pivotrow));
         }
         /** fetch column cell from pivot and matching column cell from row */
         ValueObject inputValue = cellField.getValue(row);
         ValueObject pivotValue = pivotrow.getValue(pivotCell);
+        long previous = MemoryEstimator.estimate(pivotValue);
         if (pivotValue == null) {
             pivotValue = inputValue;
         } else {
             pivotValue = doOp(cellop, OpGather.num(pivotValue), OpGather.num(inputValue));
         }
         pivotrow.setValue(pivotCell, pivotValue);
+        track(MemoryEstimator.estimate(pivotValue) - previous);
+        if ((memTracker != null) && (cellop != PivotOp.AVG) && memTracker.shouldSpill()) {
+            spillPivot();
+        }
+    }
+
+    private void track(long bytes) {
+        pivotMem += bytes;
+        if (memTracker != null) {
+            if (bytes > 0) {
+                memTracker.trackBytes(bytes);
+            } else {
+                memTracker.untrackBytes(-bytes);
+            }
+        }
+    }
+
+    /**
+     * Move the in-memory pivot rows to the spill table, which is itself
+     * tipped to disk under memory pressure.
+     */
+    private void spillPivot() {
+        if (pivot.isEmpty()) {
+            return;
+        }
+        if (spill == null) {
+            spill = tableFactory.createTable(0);
+        }
+        for (Bundle row : pivot.values()) {
+            spill.append(row);
+        }
+        pivot.clear();
+        track(-pivotMem);
+    }
+
+    /**
+     * @return the pivot rows in label order with the cells of spilled rows merged by the cell op
+     */
+    private Iterable<Bundle> pivotRows() {
+        if (spill == null) {
+            return pivot.values();
+        }
+        spillPivot();
+        spill.sort(Comparator.comparing(OpPivot::spilledLabel));
+        return () -> new AbstractIterator<Bundle>() {
+            private final Iterator<Bundle> spilled = spill.iterator();
+            private Bundle pending = spilled.hasNext() ? copySpilled(spilled.next()) : null;
+
+            @Override
+            protected Bundle computeNext() {
+                if (pending == null) {
+                    return endOfData();
+                }
+                Bundle row = pending;
+                pending = null;
+                String label = row.getValue(labelCol).toString();
+                while (spilled.hasNext()) {
+                    Bundle next = spilled.next();
+                    if (!spilledLabel(next).equals(label)) {
+                        pending = copySpilled(next);
+                        break;
+                    }
+                    mergeSpilled(row, next);
+                }
+                return row;
+            }
+        };
+    }
+
+    private static String spilledLabel(Bundle row) {
+        return row.getValue(row.getFormat().getField("__row__")).toString();
+    }
+
+    private Bundle copySpilled(Bundle spilled) {
+        Bundle row = output.createBundle();
+        for (BundleField field : spilled) {
+            row.setValue(output.getFormat().getField(field.getName()), spilled.getValue(field));
+        }
+        return row;
+    }
+
+    private void mergeSpilled(Bundle row, Bundle spilled) {
+        for (BundleField field : spilled) {
+            BundleField col = output.getFormat().getField(field.getName());
+            ValueObject cell = spilled.getValue(field);
+            if ((col == labelCol) || (cell == null)) {
+                continue;
+            }
+            ValueObject current = row.getValue(col);
+            if (current == null) {
+                row.setValue(col, cell);
+            } else {
+                row.setValue(col, doOp(cellop, OpGather.num(current), OpGather.num(cell)));
+            }
+        }
     }
 
     @Override
@@ -249,8 +369,7 @@ public class OpPivot extends AbstractQueryOp {
         }
         // emit pivot rows
         Bundle footer = output.createBundle();
-        for (Entry<String, Bundle> ent : pivot.entrySet()) {
-            Bundle row = ent.getValue();
+        for (Bundle row : pivotRows()) {
             // do rowop and/or colop if present
             if (rowop != null || colop != null) {
                 Numeric rowaccum = null;
@@ -35,7 +35,8 @@ import io.netty.channel.ChannelProgressivePromise;
  * to the filter). It must be 32 or greater. 'bitsper' is the number of hash function
  * evaluations for each insertion operation. This parameter is usually referred to as
  * the "k" parameter in the literature. 'hash' is the type of hash function to apply.
- * The types of hash functions are listed in {@link SeenFilterBasic#hash hash}.
+ * The types of hash functions are listed in {@link SeenFilterBasic#hash hash}. Use 5
+ * for a blocked filter that computes one hash and reads one cache line for each row.
  *
  * @user-reference
  * @hydra-name seen
@@ -27,14 +27,31 @@ import com.clearspring.analytics.stream.cardinality.ICardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Estimates the number of distinct values of a column. Estimators read from
+ * {@link DataCounting} attachments are merged register by register with the
+ * other estimators of the row instead of being counted as a single value.
+ */
 public class CardinalityValue extends AbstractMergedValue<ValueObject> {
     private static final Logger log = LoggerFactory.getLogger(CardinalityValue.class);
 
+    @Override protected ValueObject merge(ValueObject nextValue, ValueObject value) {
+        if ((value == null) && (nextValue instanceof DataCounting.LCValue)) {
+            // the estimator may belong to a tree node
+            return ((DataCounting.LCValue) nextValue).copy();
+        }
+        return super.merge(nextValue, value);
+    }
+
     @Override protected ValueObject doMerge(ValueObject nextValue, ValueObject value) {
         DataCounting.LCValue lcValue = toLcValue(value);
+        if (nextValue instanceof DataCounting.LCValue) {
+            lcValue.mergeFrom((DataCounting.LCValue) nextValue);
+            return lcValue;
+        }
         ICardinality estimator = lcValue.asNative();
         updateCounter(estimator, nextValue);
-        return lcValue;
+        return new DataCounting.LCValue(estimator);
     }
 
     @Override protected ValueObject convert(ValueObject nextValue) {
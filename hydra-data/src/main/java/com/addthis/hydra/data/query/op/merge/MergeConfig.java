@@ -16,6 +16,8 @@ package com.addthis.hydra.data.query.op.merge;
 
 import java.util.ArrayList;
 
+import javax.annotation.Nullable;
+
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.core.list.ListBundleFormat;
@@ -109,33 +111,66 @@ public class MergeConfig {
     }
 
     public String handleBindAndGetKey(Bundle row, ListBundleFormat format) {
+        bind(row, format);
         String key = "";
+        for (MergedValue mc : conf) {
+            if ((mc != null) && mc.isKey() && (mc.getFrom() != null)) {
+                ValueObject lval = row.getValue(mc.getFrom());
+                key = key.concat(lval == null ? "" : lval.toString());
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Like {@link #handleBindAndGetKey(Bundle, ListBundleFormat)} but the key keeps rows apart
+     * whenever their key values differ, so that ("a", "bc") and ("ab", "c") or the string "1"
+     * and the number 1 are separate groups. Each key column is written with its type and length,
+     * and a missing or unbound column is written as an empty string.
+     */
+    public String handleBindAndGetGroupKey(Bundle row, ListBundleFormat format) {
+        bind(row, format);
+        StringBuilder key = new StringBuilder();
+        for (MergedValue mc : conf) {
+            if ((mc != null) && mc.isKey()) {
+                appendGroupKey(key, (mc.getFrom() != null) ? row.getValue(mc.getFrom()) : null);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Append one key column to a key built by {@link #handleBindAndGetGroupKey(Bundle, ListBundleFormat)}.
+     */
+    public static void appendGroupKey(StringBuilder key, @Nullable ValueObject value) {
+        ValueObject.TYPE type = (value == null) ? ValueObject.TYPE.STRING : value.getObjectType();
+        String text = (value == null) ? "" : value.toString();
+        key.append(type.ordinal()).append('.').append(text.length()).append(':').append(text);
+    }
+
+    /**
+     * Fill the from/to fields of each merged value that is not yet bound
+     * from the columns of the row.
+     */
+    public void bind(Bundle row, ListBundleFormat format) {
         int i = 0;
-        /* compute key for new line and fill from/to if not set */
         for (BundleField field : row.getFormat()) {
             if (i >= conf.length) {
                 break;
             }
             MergedValue mc = conf[i++];
-            if (mc == null) {
+            if ((mc == null) || (mc.getFrom() != null)) {
                 continue;
             }
-            if (mc.getFrom() == null) {
-                mc.setFrom(field);
-                // TODO only clone field name for non-int names, otherwise create 'next' column # as name
-                mc.setTo(format.getField(field.getName()));
-            }
-            if (mc.isKey()) {
-                ValueObject lval = row.getValue(field);
-                key = key.concat(lval == null ? "" : lval.toString());
-            }
+            mc.setFrom(field);
+            // TODO only clone field name for non-int names, otherwise create 'next' column # as name
+            mc.setTo(format.getField(field.getName()));
         }
         if (mergeCountValue != null) {
             if (mergeCountValue.getTo() == null) {
                 mergeCountValue.setTo(format.createNewField("merge_"));
             }
         }
-        return key;
     }
 
 }
@@ -15,11 +15,31 @@
 package com.addthis.hydra.data.query.op.merge;
 
 import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.tree.prop.SketchValue;
 
+/**
+ * Sums numbers. Sketches of the same kind, such as t-digests and count-min sketches,
+ * are merged instead and emitted as the number that the sketch value reads.
+ */
 public class SumValue extends AbstractMergedNumber {
 
+    @Override
+    protected ValueObject merge(ValueObject nextValue, ValueObject value) {
+        if ((value == null) && (nextValue instanceof SketchValue)) {
+            // the sketch may belong to a tree node
+            return ((SketchValue<?>) nextValue).copy();
+        }
+        return super.merge(nextValue, value);
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
     public Numeric doMerge(Numeric nextValue, Numeric value) {
+        if ((value instanceof SketchValue) && (nextValue.getClass() == value.getClass())) {
+            ((SketchValue<Object>) value).mergeFrom((SketchValue<Object>) nextValue);
+            return value;
+        }
         return value.sum(nextValue);
     }
 }
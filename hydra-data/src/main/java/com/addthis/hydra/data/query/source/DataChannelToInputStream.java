@@ -19,6 +19,7 @@ import javax.annotation.concurrent.GuardedBy;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
@@ -85,6 +86,16 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
      */
     private volatile boolean closed = false;
 
+    /**
+     * Chunks emitted so far when the output of this query is to be stored in the result cache.
+     * Dropped if the output grows beyond {@link #recordLimit} or the query fails.
+     */
+    @GuardedBy("out")
+    private List<byte[]> recorded;
+    @GuardedBy("out")
+    private long recordedBytes;
+    private long recordLimit;
+
     /**
      * A non-public constructor. This class can only be instantiated from it outer class MeshQueryMaster. The objects
      * can be accessed elsewhere using the interfaces.
@@ -140,6 +151,22 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
         }
         byte[] bytes = out.toByteArray();
         out.reset();
+        if (recorded != null) {
+            recordedBytes += bytes.length;
+            if (recordedBytes > recordLimit) {
+                recorded = null;
+            } else {
+                recorded.add(bytes);
+            }
+        }
+        enqueue(bytes);
+    }
+
+    /**
+     * Must only be called while synchronized on out
+     */
+    @GuardedBy("out")
+    private void enqueue(byte[] bytes) {
         try {
             for (int i = 0; i < queueAttemptLimit; i++) //Try adding to queue queueAttemptLimit times
             {
@@ -266,6 +293,52 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
         }
     }
 
+    /**
+     * Keep a copy of the encoded output so that it can be stored in the result cache
+     * once the query completes. Must be called before any bundle is sent.
+     *
+     * @param limit maximum number of bytes to record
+     */
+    void record(long limit) {
+        synchronized (out) {
+            recorded = new ArrayList<>();
+            recordedBytes = 0;
+            recordLimit = limit;
+        }
+    }
+
+    /**
+     * @return the complete encoded output of a successful query or null if it was not
+     *         recorded, was too large or did not complete
+     */
+    List<byte[]> recorded() {
+        synchronized (out) {
+            return (eof && !closed) ? recorded : null;
+        }
+    }
+
+    long recordedBytes() {
+        synchronized (out) {
+            return recordedBytes;
+        }
+    }
+
+    /**
+     * Emit the encoded output of an earlier run of the same query in place of running it.
+     */
+    void replay(List<byte[]> chunks) {
+        if (closed) {
+            log.debug("Unable to replay results due to closed channel");
+            throw new CancellationException("master cancelled query");
+        }
+        synchronized (out) {
+            for (byte[] chunk : chunks) {
+                enqueue(chunk);
+            }
+            eof = true;
+        }
+    }
+
     @Override
     public Bundle createBundle() {
         return new ListBundle(format);
@@ -14,6 +14,7 @@
 
 package com.addthis.hydra.data.query.source;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
@@ -27,6 +28,7 @@ import com.addthis.bundle.channel.DataChannelError;
 import com.addthis.codec.json.CodecJSON;
 import com.addthis.hydra.data.query.Query;
 import com.addthis.hydra.data.query.QueryOpProcessor;
+import com.addthis.hydra.data.query.QueryResultCache;
 import com.addthis.hydra.data.query.engine.QueryEngine;
 import com.addthis.hydra.data.util.BundleUtils;
 
@@ -93,7 +95,9 @@ public class SearchRunner implements Runnable {
         try {
             setup();
             finalEng = getEngine();
-            search();
+            if (!replay()) {
+                search();
+            }
             //success
         } catch (CancellationException ignored) {
             log.info("query was cancelled remotely; stopping processing early");
@@ -187,6 +191,30 @@ public class SearchRunner implements Runnable {
         return engine;
     }
 
+    /**
+     * Part 2.5 - RESULT CACHE
+     * Answer the query from the result cache if the same query already ran against this engine. Otherwise
+     * ask the bridge to record its output so that {@link #search()} can store it.
+     *
+     * @return true if the query was answered from the result cache
+     */
+    protected boolean replay() {
+        QueryResultCache<List<byte[]>> results = MeshQuerySource.queryEngineCache.getResultCache();
+        if (!results.accepts(query)) {
+            return false;
+        }
+        List<byte[]> chunks = results.get(finalEng.getGeneration(), QueryResultCache.queryKey(query));
+        if (chunks == null) {
+            bridge.record(results.maxEntryBytes());
+            return false;
+        }
+        bridge.replay(chunks);
+        if (log.isDebugEnabled() || query.isTraced()) {
+            Query.traceLog.info("[QueryReference] result cache hit {} directory: {}", query.uuid(), goldDirString);
+        }
+        return true;
+    }
+
     /**
      * Part 3 - SEARCH
      * Run the search -- most of this logic is in QueryEngine.search(). We only take care of logging times and
@@ -196,6 +224,12 @@ public class SearchRunner implements Runnable {
         final long searchStartTime = System.currentTimeMillis();
         finalEng.search(query, queryOpProcessor, bridge.getQueryPromise());
         queryOpProcessor.sendComplete();
+        List<byte[]> chunks = bridge.recorded();
+        if (chunks != null) {
+            MeshQuerySource.queryEngineCache.getResultCache().put(finalEng.getGeneration(),
+                                                                  QueryResultCache.queryKey(query),
+                                                                  chunks, bridge.recordedBytes());
+        }
         final long searchDuration = System.currentTimeMillis() - searchStartTime;
         if (log.isDebugEnabled() || query.isTraced()) {
             Query.traceLog.info("[QueryReference] search complete {} in {}ms directory: {} slow={} rowsIn: {}",
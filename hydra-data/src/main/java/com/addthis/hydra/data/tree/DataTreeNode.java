@@ -115,6 +115,15 @@ public interface DataTreeNode extends Iterable<DataTreeNode> {
         throw new UnsupportedOperationException("getLeasedNode");
     }
 
+    /**
+     * Acquire one more lease on a node that is already in memory. Returns false
+     * if the node has been evicted or deleted, or if the node does not support
+     * leasing. A successful call MUST be paired with a call to release().
+     */
+    public default boolean tryLease() {
+        return false;
+    }
+
     /** TODO temporary workaround.  MUST call ONLY for nodes retrieved via getOrCreateNode(). */
     public default void release() {
         throw new UnsupportedOperationException("release");
@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.addthis.basis.util.Parameter;
 
+import com.addthis.hydra.store.common.SharedCache;
 import com.addthis.hydra.store.db.DBKey;
 import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.ReadPageDB;
@@ -42,6 +43,8 @@ import org.slf4j.LoggerFactory;
  * Read-only Tree (for querying)
  * <p/>
  * Has a root file where it locates a database to use as its backing source.
+ * A memory mapped snapshot of the database is used instead when the writer left one
+ * (see {@link com.addthis.hydra.store.db.PageDB#writeSnapshot(File)}).
  * Keeps a cache of tree nodes to save on loading frequently used nodes.
  * <p/>
  * MUST BE CLOSED. It is not okay to simply dereference. (due to the bdb instance it uses).
@@ -74,6 +77,17 @@ public final class ReadTree implements DataTree {
         A value of zero disables page weights and uses page count only. */
     private static final int pageCacheWeight = Parameter.intValue("hydra.tree.cache.pageCacheWeight", pageCacheSize * 1724);
 
+    /*  total weight of the node and page caches of all read trees in the process, in the units of nodeCacheWeight
+        and pageCacheWeight. The default is the sum of the per-tree caches of the default number of open query
+        engines (queryEngineCache.engineCacheSize), so memory use is unchanged but flows toward the trees being
+        queried. A value of zero, or disabling node or page weights, gives every tree its own fixed size caches. */
+    private static final long sharedCacheWeight = Parameter.longValue("hydra.tree.cache.sharedWeight",
+            Parameter.longValue("queryEngineCache.engineCacheSize", 5) * ((long) nodeCacheWeight + pageCacheWeight));
+
+    @Nullable private static final SharedCache sharedCache =
+            ((sharedCacheWeight > 0) && (nodeCacheWeight != 0) && (pageCacheWeight != 0)) ?
+            new SharedCache(sharedCacheWeight) : null;
+
     /**
      * Represents missing nodes in the cache so that we don't have to do repeated look ups or deal with exceptions.
      * A weight of 8 was chosen as a rough estimate of the relative overhead of the cache entry for each key.
@@ -86,7 +100,8 @@ public final class ReadTree implements DataTree {
     public final boolean metrics;
 
     private final ReadPageDB<ReadTreeNode> source;
-    private final LoadingCache<CacheKey, ReadTreeNode> loadingNodeCache;
+    @Nullable private final LoadingCache<CacheKey, ReadTreeNode> loadingNodeCache;
+    @Nullable private final SharedCache.Namespace<CacheKey, ReadTreeNode> sharedNodeCache;
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public ReadTree(File root) throws Exception {
@@ -103,49 +118,67 @@ public final class ReadTree implements DataTree {
         this.root = root;
         this.advanced = TreeConfig.readFromDataDirectory(root.toPath());
         source = initSource();
+        if (sharedCache != null) {
+            // the node weight is used as is, advanced.cacheWeight only scales a private cache
+            sharedNodeCache = sharedCache.register(SharedCache.scope(root) + ".nodes",
+                                                   (key, value) -> value.getWeight());
+        } else {
+            sharedNodeCache = null;
+        }
         try {
-            CacheBuilder<? super CacheKey, ? super ReadTreeNode> cacheBuilder = CacheBuilder.newBuilder();
-            if (nodeCacheWeight != 0) {
-                // limit by weight
-                cacheBuilder = cacheBuilder
-                        .maximumWeight((long) (nodeCacheWeight * advanced.cacheWeight))
-                        .weigher((key, value) -> {
-                            /* A lean node goes from 24 to 24 + its string name and + cacheKey. the 24 becomes a
-                            small percentage.
-
-                            Dangerous, fat nodes typically have lots of serialized strings in their value payload.
-                            The inflation ratio there is actually probably less than for lean nodes since the various
-                            pointers for the string objects may not be nearly as large as the strings themselves.
-                            Therefore, holding them to the lean node's expansion standard is probably conservative
-                            enough. */
-                            return value.getWeight();
-                        });
-            } else {
-                // Limit by the number of nodes
-                cacheBuilder = cacheBuilder.maximumSize((long) (nodeCacheSize * advanced.cacheWeight));
-            }
-            loadingNodeCache = cacheBuilder.build(
-                    new CacheLoader<CacheKey, ReadTreeNode>() {
-                        @Override public ReadTreeNode load(CacheKey key) throws Exception {
-                            ReadTreeNode node = sourceGet(key.dbkey());
-                            if (node != null) {
-                                node.init(ReadTree.this, key.name);
-                                return node;
-                            } else {
-                                return MISSING;
-                            }
-                        }
-                    });
+            loadingNodeCache = (sharedNodeCache == null) ? buildNodeCache() : null;
             rootNode = getNode(1, "root");
             if (rootNode == null) {
                 throw new IllegalStateException("missing root in readonly tree");
             }
         } catch (Exception e) {
+            if (sharedNodeCache != null) {
+                sharedNodeCache.close();
+            }
             source.close();
             throw e;
         }
     }
 
+    private LoadingCache<CacheKey, ReadTreeNode> buildNodeCache() {
+        CacheBuilder<? super CacheKey, ? super ReadTreeNode> cacheBuilder = CacheBuilder.newBuilder();
+        if (nodeCacheWeight != 0) {
+            // limit by weight
+            cacheBuilder = cacheBuilder
+                    .maximumWeight((long) (nodeCacheWeight * advanced.cacheWeight))
+                    .weigher((key, value) -> {
+                        /* A lean node goes from 24 to 24 + its string name and + cacheKey. the 24 becomes a
+                        small percentage.
+
+                        Dangerous, fat nodes typically have lots of serialized strings in their value payload.
+                        The inflation ratio there is actually probably less than for lean nodes since the various
+                        pointers for the string objects may not be nearly as large as the strings themselves.
+                        Therefore, holding them to the lean node's expansion standard is probably conservative
+                        enough. */
+                        return value.getWeight();
+                    });
+        } else {
+            // Limit by the number of nodes
+            cacheBuilder = cacheBuilder.maximumSize((long) (nodeCacheSize * advanced.cacheWeight));
+        }
+        return cacheBuilder.build(
+                new CacheLoader<CacheKey, ReadTreeNode>() {
+                    @Override public ReadTreeNode load(CacheKey key) throws Exception {
+                        return loadNode(key);
+                    }
+                });
+    }
+
+    private ReadTreeNode loadNode(CacheKey key) {
+        ReadTreeNode node = sourceGet(key.dbkey());
+        if (node != null) {
+            node.init(this, key.name);
+            return node;
+        } else {
+            return MISSING;
+        }
+    }
+
     /**
      * Creates the ReadPageDB source object and also emits some timing metrics for that operation. The returned source
      * MUST be closed when no longer needed.
@@ -155,7 +188,7 @@ public final class ReadTree implements DataTree {
 
         //open page db (opens byte store and bdb as well)
         ReadPageDB<ReadTreeNode> source = new ReadPageDB<>(root, ReadTreeNode.class,
-                pageCacheSize, pageCacheWeight, metrics);
+                pageCacheSize, pageCacheWeight, metrics, sharedCache);
 
         long openTime = System.currentTimeMillis() - start;
         log.info("dir={} openms={}", root, openTime);
@@ -168,7 +201,13 @@ public final class ReadTree implements DataTree {
      */
     public void warmCacheFrom(Iterable<CacheKey> keys) {
         try {
-            loadingNodeCache.getAll(keys);
+            if (sharedNodeCache != null) {
+                for (CacheKey key : keys) {
+                    sharedNodeCache.get(key, () -> loadNode(key));
+                }
+            } else {
+                loadingNodeCache.getAll(keys);
+            }
         } catch (Exception e) {
             log.error("Unexpected error warming cache for {} from {}", this, keys, e);
         }
@@ -179,6 +218,9 @@ public final class ReadTree implements DataTree {
      * be used for warming other caches but could also be helpful for metrics or debugging.
      */
     public Iterable<CacheKey> getCacheIterable() {
+        if (sharedNodeCache != null) {
+            return sharedNodeCache.keys();
+        }
         return loadingNodeCache.asMap().keySet();
     }
 
@@ -189,7 +231,12 @@ public final class ReadTree implements DataTree {
     @Nullable private ReadTreeNode getNode(long parentID, final String childName) {
         try {
             CacheKey key = new CacheKey(parentID, childName);
-            ReadTreeNode node = loadingNodeCache.get(key);
+            ReadTreeNode node;
+            if (sharedNodeCache != null) {
+                node = sharedNodeCache.get(key, () -> loadNode(key));
+            } else {
+                node = loadingNodeCache.get(key);
+            }
             if (node == MISSING) {
                 log.trace("[node.get] {} --> {} --> MISSING", parentID, childName);
                 return null;
@@ -241,6 +288,9 @@ public final class ReadTree implements DataTree {
             return;
         }
         log.debug("closing {}", this);
+        if (sharedNodeCache != null) {
+            sharedNodeCache.close();
+        }
         try {
             source.close();
         } catch (Exception ex)  {
@@ -258,6 +308,7 @@ public final class ReadTree implements DataTree {
                                              .add("source", source)
                                              .add("rootNode", rootNode)
                                              .add("loadingNodeCache", loadingNodeCache)
+                                             .add("sharedNodeCache", sharedNodeCache)
                                              .add("closed", closed)
                                              .add("metrics", metrics)
                                              .toString();
@@ -18,6 +18,10 @@ import com.addthis.basis.util.Parameter;
 public class TreeCommonParameters {
 
     public static int cleanQMax = Math.max(1, Parameter.intValue("hydra.tree.cleanqmax", 100));
+    // max estimated bytes of the tree nodes in the node cache (0 is unbounded)
+    public static long cleanQMaxMem = Parameter.longValue("hydra.tree.cleanqmem", 0);
+    // eviction policy of the node cache: lru, slru or tinylfu
+    public static String cachePolicy = Parameter.value("hydra.tree.cache.policy", "tinylfu");
     // max number of pages allowed to reside in memory
     public static int maxCacheSize = Parameter.intValue("hydra.tree.cache.maxSize", 0);
     // max mem for all pages in memory
@@ -32,6 +36,8 @@ public class TreeCommonParameters {
     public static int cacheShards = Parameter.intValue("hydra.tree.shards", Runtime.getRuntime().availableProcessors() * 8);
     public static long trashInterval = Parameter.longValue("hydra.tree.trash.interval", 0);
     public static long trashMaxTime = Parameter.intValue("hydra.tree.trash.maxtime", 0);
+    // keep the encoded values of in-memory pages outside of the heap
+    public static boolean offHeapPages = Parameter.boolValue("hydra.tree.page.offheap", false);
 
     public static void setDefaultMaxCacheSize(int size) {
         maxCacheSize = size;
@@ -53,6 +59,14 @@ public class TreeCommonParameters {
         cleanQMax = size;
     }
 
+    public static void setDefaultCleanQueueMem(long mem) {
+        cleanQMaxMem = mem;
+    }
+
+    public static void setDefaultCachePolicy(String policy) {
+        cachePolicy = policy;
+    }
+
     public static void setDefaultMemSample(int sample) {
         memSample = sample;
     }
@@ -73,4 +87,8 @@ public class TreeCommonParameters {
         trashMaxTime = trashTimeLimit;
     }
 
+    public static void setDefaultOffHeapPages(boolean offHeap) {
+        offHeapPages = offHeap;
+    }
+
 }
@@ -21,6 +21,7 @@ import java.io.UnsupportedEncodingException;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
@@ -33,7 +34,6 @@ import java.util.function.BooleanSupplier;
 
 import java.nio.charset.StandardCharsets;
 
-import com.addthis.basis.concurrentlinkedhashmap.MediatedEvictionConcurrentHashMap;
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.LessFiles;
@@ -57,6 +57,7 @@ import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.PageDB;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.skiplist.ConcurrentPage;
+import com.addthis.hydra.store.skiplist.OffHeapPage;
 import com.addthis.hydra.store.skiplist.SkipListCache;
 import com.addthis.hydra.store.util.MeterFileLogger;
 import com.addthis.hydra.store.util.MeterFileLogger.MeterDataSource;
@@ -93,6 +94,10 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @Configuration.Parameter
     static final int deletionLogInterval = Parameter.intValue("hydra.tree.clean.logging", 100000);
 
+    // estimated bytes of a node and its cache key, and of each data attachment
+    private static final int NODE_BYTES = 160;
+    private static final int DATA_BYTES = 96;
+
     private static final AtomicInteger scopeGenerator = new AtomicInteger();
 
     private final String scope = "ConcurrentTree" + Integer.toString(scopeGenerator.getAndIncrement());
@@ -114,7 +119,7 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     private final Meter<METERTREE> meter;
     private final MeterFileLogger logger;
     private final AtomicDouble cacheHitRate = new AtomicDouble(0.0);
-    private final MediatedEvictionConcurrentHashMap<CacheKey, ConcurrentTreeNode> cache;
+    private final ShardedCache<CacheKey, ConcurrentTreeNode> cache;
     private final ScheduledExecutorService deletionThreadPool;
 
     @GuardedBy("treeTrashNode")
@@ -166,10 +171,15 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         source.setPageMem(TreeCommonParameters.maxPageMem);
         source.setMemSampleInterval(TreeCommonParameters.memSample);
         // create cache
-        cache = new MediatedEvictionConcurrentHashMap.Builder<CacheKey, ConcurrentTreeNode>()
+        cache = new ShardedCache.Builder<CacheKey, ConcurrentTreeNode>()
                 .mediator(new CacheMediator(source))
-                .maximumWeightedCapacity(cleanQSize)
+                .maximumSize(cleanQSize)
+                .maximumBytes(TreeCommonParameters.cleanQMaxMem)
+                .weigher(ConcurrentTree::estimateNodeBytes)
+                .shards(TreeCommonParameters.cacheShards)
+                .policy(ShardedCache.Policy.valueOf(TreeCommonParameters.cachePolicy.toUpperCase(Locale.ROOT)))
                 .build();
+        registerCacheMetrics();
 
         // get stored next db id
         idFile = new File(root, "nextID");
@@ -202,6 +212,7 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     public ConcurrentTree(File root) throws Exception {
         this(root, defaultNumDeletionThreads, TreeCommonParameters.cleanQMax,
                 TreeCommonParameters.maxCacheSize, TreeCommonParameters.maxPageSize,
+                TreeCommonParameters.offHeapPages ? OffHeapPage.OffHeapPageFactory.singleton :
                 ConcurrentPage.ConcurrentPageFactory.singleton);
     }
 
@@ -561,6 +572,53 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         meter.inc(METERTREE.CACHE_MISS);
     }
 
+    /**
+     * Export the hits, misses and evictions of each node cache shard
+     * and the estimated size of the cached nodes.
+     */
+    private void registerCacheMetrics() {
+        Metrics.newGauge(ConcurrentTree.class, "nodeCacheBytes", scope, new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.weightedBytes();
+            }
+        });
+        for (int i = 0; i < cache.shardCount(); i++) {
+            final int shard = i;
+            String shardScope = scope + "-shard" + shard;
+            Metrics.newGauge(ConcurrentTree.class, "nodeCacheHits", shardScope, new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return cache.shardHits(shard);
+                }
+            });
+            Metrics.newGauge(ConcurrentTree.class, "nodeCacheMisses", shardScope, new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return cache.shardMisses(shard);
+                }
+            });
+            Metrics.newGauge(ConcurrentTree.class, "nodeCacheEvictions", shardScope, new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return cache.shardEvictions(shard);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rough size of a cached node: the object headers and fields of the node
+     * and its key, the characters of the name and a fixed cost for each data
+     * attachment. Computed when the node enters the cache.
+     */
+    static int estimateNodeBytes(ConcurrentTreeNode node) {
+        String name = node.getName();
+        Map<String, TreeNodeData> data = node.getDataMap();
+        return NODE_BYTES + ((name == null) ? 0 : (2 * name.length())) +
+               ((data == null) ? 0 : (data.size() * DATA_BYTES));
+    }
+
     @Override
     public String toString() {
         return "Tree@" + root;
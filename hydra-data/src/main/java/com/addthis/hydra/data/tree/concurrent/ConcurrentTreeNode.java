@@ -229,7 +229,8 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
      *
      * @return {@code true} if a lease is acquired
      */
-    boolean tryLease() {
+    @Override
+    public boolean tryLease() {
         while (true) {
             int count = leases.get();
             if (count < 0) {
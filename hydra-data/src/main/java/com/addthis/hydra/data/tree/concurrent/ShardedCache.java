@@ -0,0 +1,730 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import javax.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+import com.addthis.basis.concurrentlinkedhashmap.EvictionMediator;
+
+import com.addthis.hydra.store.util.FrequencySketch;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded concurrent map that is split into independently locked shards.
+ * Each shard orders its entries according to the configured {@link Policy}
+ * and the capacity bounds are enforced across the whole map: after an insertion
+ * overflows the map, entries are evicted starting from the shard that received
+ * the insertion and moving on to the following shards if it has nothing left
+ * to evict.
+ * <p/>
+ * As with {@link com.addthis.basis.concurrentlinkedhashmap.MediatedEvictionConcurrentHashMap}
+ * every eviction must be approved by the {@link EvictionMediator}. A rejected
+ * victim is moved to the most recently used position of its queue and the
+ * entry that followed it is tried next. Eviction gives up after visiting every
+ * entry of a shard once, so a map whose entries are all pinned may remain above
+ * capacity. Because each shard is scanned on its own, a small shard may be
+ * emptied before a larger one is visited.
+ * <p/>
+ * Reads take the shard lock only if it is immediately available. Under
+ * contention the access is not recorded in the eviction order, which trades
+ * a small amount of policy accuracy for reads that never block.
+ * <p/>
+ * The weight of an entry in bytes is computed once when it is inserted or
+ * replaced.
+ */
+public final class ShardedCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    public enum Policy {
+        /**
+         * Least recently used.
+         */
+        LRU,
+        /**
+         * Segmented LRU. Entries are admitted into a probation segment and
+         * promoted to a protected segment (80% of the shard) on their second
+         * access.
+         */
+        SLRU,
+        /**
+         * Window TinyLFU. Entries are admitted into a small LRU window (1% of
+         * the shard). Entries that leave the window only displace an entry of
+         * the main segmented LRU if they have been seen more frequently.
+         */
+        TINYLFU
+    }
+
+    /**
+     * Shards are never smaller than this number of entries.
+     */
+    static final int MIN_SHARD_CAPACITY = 64;
+
+    private static final byte NONE = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    private final Shard<K, V>[] shards;
+
+    private final int mask;
+
+    private final long maximumSize;
+
+    private final long maximumBytes;
+
+    private final EvictionMediator<K, V> mediator;
+
+    private final ToIntFunction<? super V> weigher;
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private ShardedCache(Builder<K, V> builder) {
+        this.maximumSize = builder.maximumSize;
+        this.maximumBytes = builder.maximumBytes;
+        this.mediator = builder.mediator;
+        this.weigher = builder.weigher;
+        int count = (int) Math.max(1, Math.min(builder.shards, maximumSize / MIN_SHARD_CAPACITY));
+        count = Integer.highestOneBit(count);
+        this.shards = new Shard[count];
+        this.mask = count - 1;
+        long shardCapacity = Math.max(1, maximumSize / count);
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard<>(builder.policy, shardCapacity);
+        }
+    }
+
+    public static class Builder<K, V> {
+
+        private long maximumSize = -1;
+        private long maximumBytes;
+        private int shards = 16;
+        private Policy policy = Policy.TINYLFU;
+        private EvictionMediator<K, V> mediator = (key, value) -> true;
+        private ToIntFunction<? super V> weigher = (value) -> 0;
+
+        /**
+         * Maximum number of entries. Required.
+         */
+        public Builder<K, V> maximumSize(long val) {
+            maximumSize = val;
+            return this;
+        }
+
+        /**
+         * Maximum total weight in bytes. Unbounded if zero.
+         */
+        public Builder<K, V> maximumBytes(long val) {
+            maximumBytes = val;
+            return this;
+        }
+
+        /**
+         * Upper bound on the number of shards. The actual number is a power
+         * of two that leaves at least {@link #MIN_SHARD_CAPACITY} entries per shard.
+         */
+        public Builder<K, V> shards(int val) {
+            shards = val;
+            return this;
+        }
+
+        public Builder<K, V> policy(Policy val) {
+            policy = val;
+            return this;
+        }
+
+        public Builder<K, V> mediator(EvictionMediator<K, V> val) {
+            mediator = val;
+            return this;
+        }
+
+        /**
+         * Estimated size of a value in bytes.
+         */
+        public Builder<K, V> weigher(ToIntFunction<? super V> val) {
+            weigher = val;
+            return this;
+        }
+
+        public ShardedCache<K, V> build() {
+            Preconditions.checkArgument(maximumSize >= 0, "maximumSize must be specified");
+            Preconditions.checkArgument(shards > 0, "shards must be positive");
+            return new ShardedCache<>(this);
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public long shardHits(int shard) {
+        return shards[shard].hits.sum();
+    }
+
+    public long shardMisses(int shard) {
+        return shards[shard].misses.sum();
+    }
+
+    public long shardEvictions(int shard) {
+        return shards[shard].evictions.sum();
+    }
+
+    /**
+     * Sum of the weights of all entries in bytes.
+     */
+    public long weightedBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(size.get(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shardFor(key).data.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        Shard<K, V> shard = shardFor(key);
+        Node<K, V> node = shard.data.get(key);
+        if (node == null) {
+            shard.misses.increment();
+            return null;
+        }
+        shard.hits.increment();
+        if (shard.lock.tryLock()) {
+            try {
+                if (node.queue != NONE) {
+                    shard.onAccess(node);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        int index = indexFor(key);
+        Shard<K, V> shard = shards[index];
+        V previous;
+        shard.lock.lock();
+        try {
+            Node<K, V> node = shard.data.get(key);
+            if (node != null) {
+                previous = node.value;
+                if (!onlyIfAbsent) {
+                    update(node, value);
+                }
+                shard.onAccess(node);
+                return previous;
+            }
+            node = new Node<>(key, value, weigher.applyAsInt(value));
+            shard.data.put(key, node);
+            shard.onInsert(node);
+            size.incrementAndGet();
+            bytes.addAndGet(node.weight);
+        } finally {
+            shard.lock.unlock();
+        }
+        evict(index);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Shard<K, V> shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            Node<K, V> node = shard.data.remove(key);
+            if (node == null) {
+                return null;
+            }
+            unlink(shard, node);
+            return node.value;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Shard<K, V> shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            Node<K, V> node = shard.data.get(key);
+            if ((node == null) || !Objects.equals(node.value, value)) {
+                return false;
+            }
+            shard.data.remove(key);
+            unlink(shard, node);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        Preconditions.checkNotNull(value);
+        Shard<K, V> shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            Node<K, V> node = shard.data.get(key);
+            if (node == null) {
+                return null;
+            }
+            V previous = node.value;
+            update(node, value);
+            shard.onAccess(node);
+            return previous;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Preconditions.checkNotNull(newValue);
+        Shard<K, V> shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            Node<K, V> node = shard.data.get(key);
+            if ((node == null) || !Objects.equals(node.value, oldValue)) {
+                return false;
+            }
+            update(node, newValue);
+            shard.onAccess(node);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                for (Node<K, V> node : shard.data.values()) {
+                    unlink(shard, node);
+                }
+                shard.data.clear();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    private void update(Node<K, V> node, V value) {
+        int weight = weigher.applyAsInt(value);
+        bytes.addAndGet(weight - node.weight);
+        node.value = value;
+        node.weight = weight;
+    }
+
+    private void unlink(Shard<K, V> shard, Node<K, V> node) {
+        shard.onRemove(node);
+        size.decrementAndGet();
+        bytes.addAndGet(-node.weight);
+    }
+
+    private boolean overflowed() {
+        return (size.get() > maximumSize) || ((maximumBytes > 0) && (bytes.get() > maximumBytes));
+    }
+
+    private void evict(int start) {
+        for (int i = 0; (i < shards.length) && overflowed(); i++) {
+            Shard<K, V> shard = shards[(start + i) & mask];
+            shard.lock.lock();
+            try {
+                shard.evict(this);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    private int indexFor(Object key) {
+        int hash = key.hashCode();
+        return ((hash >>> 16) ^ hash) & mask;
+    }
+
+    private Shard<K, V> shardFor(Object key) {
+        return shards[indexFor(key)];
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+        volatile V value;
+        int weight;
+        byte queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked list in access order. The first element is the
+     * least recently used.
+     */
+    private static final class AccessOrder<K, V> {
+
+        final Node<K, V> head = new Node<>(null, null, 0);
+        final byte queue;
+        int size;
+
+        AccessOrder(byte queue) {
+            this.queue = queue;
+            head.prev = head;
+            head.next = head;
+        }
+
+        @Nullable
+        Node<K, V> first() {
+            return (head.next == head) ? null : head.next;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            node.queue = queue;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = NONE;
+            size--;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    private static final class Shard<K, V> {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final ConcurrentMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        final Policy policy;
+        final AccessOrder<K, V> window = new AccessOrder<>(WINDOW);
+        final AccessOrder<K, V> probation = new AccessOrder<>(PROBATION);
+        final AccessOrder<K, V> protect = new AccessOrder<>(PROTECTED);
+        final long windowMaximum;
+        final long protectedMaximum;
+        @Nullable final FrequencySketch sketch;
+
+        /**
+         * Most recent entry to move from the window to the probation
+         * segment. It must win against the probation victim to stay.
+         */
+        @Nullable Node<K, V> candidate;
+
+        /**
+         * Candidate most recently returned by {@link #victim()} in
+         * preference to the head of the probation segment.
+         */
+        @Nullable Node<K, V> challenger;
+
+        Shard(Policy policy, long capacity) {
+            this.policy = policy;
+            this.windowMaximum = Math.max(1, capacity / 100);
+            this.protectedMaximum = Math.max(1, (capacity * 8) / 10);
+            this.sketch = (policy == Policy.TINYLFU) ? new FrequencySketch(capacity) : null;
+        }
+
+        /**
+         * Evict entries of this shard until the map is no longer overflowed or every
+         * entry has been visited. Entries refused by the mediator are moved to the
+         * most recently used position of their queue once the scan is over.
+         */
+        void evict(ShardedCache<K, V> cache) {
+            List<Node<K, V>> refused = null;
+            int attempts = data.size() + 1;
+            Node<K, V> victim = victim();
+            while ((victim != null) && cache.overflowed() && (attempts-- > 0)) {
+                if (cache.mediator.onEviction(victim.key, victim.value)) {
+                    Node<K, V> next = (refused == null) ? null : successor(victim);
+                    data.remove(victim.key, victim);
+                    cache.unlink(this, victim);
+                    evictions.increment();
+                    victim = (refused == null) ? victim() : next;
+                } else if (victim == challenger) {
+                    // the challenger was tried out of order so restart the scan
+                    requeue(victim);
+                    victim = first();
+                } else {
+                    if (refused == null) {
+                        refused = new ArrayList<>();
+                    }
+                    refused.add(victim);
+                    victim = successor(victim);
+                }
+            }
+            if (refused != null) {
+                for (Node<K, V> node : refused) {
+                    requeue(node);
+                }
+            }
+        }
+
+        AccessOrder<K, V> queueOf(Node<K, V> node) {
+            switch (node.queue) {
+                case WINDOW:
+                    return window;
+                case PROBATION:
+                    return probation;
+                case PROTECTED:
+                    return protect;
+                default:
+                    throw new IllegalStateException("node is not queued");
+            }
+        }
+
+        void onInsert(Node<K, V> node) {
+            if (policy != Policy.TINYLFU) {
+                probation.addLast(node);
+                return;
+            }
+            sketch.increment(node.key.hashCode());
+            window.addLast(node);
+            if (window.size > windowMaximum) {
+                Node<K, V> overflow = window.first();
+                window.remove(overflow);
+                probation.addLast(overflow);
+                candidate = overflow;
+            }
+        }
+
+        void onAccess(Node<K, V> node) {
+            if (sketch != null) {
+                sketch.increment(node.key.hashCode());
+            }
+            if ((policy == Policy.LRU) || (node.queue != PROBATION)) {
+                queueOf(node).moveToLast(node);
+                return;
+            }
+            probation.remove(node);
+            protect.addLast(node);
+            if (protect.size > protectedMaximum) {
+                Node<K, V> demoted = protect.first();
+                protect.remove(demoted);
+                probation.addLast(demoted);
+            }
+        }
+
+        void onRemove(Node<K, V> node) {
+            if (node.queue != NONE) {
+                queueOf(node).remove(node);
+            }
+            if (candidate == node) {
+                candidate = null;
+            }
+            if (challenger == node) {
+                challenger = null;
+            }
+        }
+
+        /**
+         * A victim that the mediator refused to evict is treated as recently used
+         * without counting as an access.
+         */
+        void requeue(Node<K, V> node) {
+            queueOf(node).moveToLast(node);
+            if (candidate == node) {
+                candidate = null;
+            }
+            if (challenger == node) {
+                challenger = null;
+            }
+        }
+
+        /**
+         * Next victim chosen by the policy. Eviction scans the probation segment,
+         * then the protected segment and then the window, all from least to most
+         * recently used. The TinyLFU policy first lets the most recent
+         * candidate challenge the head of the probation segment.
+         */
+        @Nullable
+        Node<K, V> victim() {
+            challenger = null;
+            Node<K, V> head = probation.first();
+            if ((sketch != null) && (candidate != null) && (head != null) && (head != candidate)) {
+                Node<K, V> entrant = candidate;
+                candidate = null;
+                if (entrant.queue == PROBATION) {
+                    int entrantFrequency = sketch.frequency(entrant.key.hashCode());
+                    int headFrequency = sketch.frequency(head.key.hashCode());
+                    if (entrantFrequency <= headFrequency) {
+                        challenger = entrant;
+                        return entrant;
+                    }
+                }
+            }
+            return first();
+        }
+
+        /**
+         * First node in eviction scan order.
+         */
+        @Nullable
+        Node<K, V> first() {
+            Node<K, V> head = probation.first();
+            if (head != null) {
+                return head;
+            } else if (protect.size > 0) {
+                return protect.first();
+            } else {
+                return window.first();
+            }
+        }
+
+        /**
+         * Node that follows {@code node} in eviction scan order.
+         */
+        @Nullable
+        Node<K, V> successor(Node<K, V> node) {
+            AccessOrder<K, V> queue = queueOf(node);
+            if (node.next != queue.head) {
+                return node.next;
+            }
+            switch (node.queue) {
+                case PROBATION:
+                    if (protect.size > 0) {
+                        return protect.first();
+                    }
+                    // fall through
+                case PROTECTED:
+                    return window.first();
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return ShardedCache.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return ShardedCache.this.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        int shard;
+        Iterator<Node<K, V>> current = shards[0].data.values().iterator();
+        Node<K, V> last;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (++shard >= shards.length) {
+                    return false;
+                }
+                current = shards[shard].data.values().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = current.next();
+            return new SimpleImmutableEntry<>(last.key, last.value);
+        }
+
+        @Override
+        public void remove() {
+            Preconditions.checkState(last != null);
+            ShardedCache.this.remove(last.key, last.value);
+            last = null;
+        }
+    }
+}
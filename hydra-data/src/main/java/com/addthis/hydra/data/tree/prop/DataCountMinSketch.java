@@ -21,8 +21,17 @@ import com.addthis.basis.util.LessStrings;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.AutoField;
+import com.addthis.bundle.value.AbstractCustom;
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueBytes;
+import com.addthis.bundle.value.ValueDouble;
 import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueLong;
+import com.addthis.bundle.value.ValueMap;
 import com.addthis.bundle.value.ValueObject;
+import com.addthis.bundle.value.ValueSimple;
+import com.addthis.bundle.value.ValueString;
 import com.addthis.bundle.value.ValueTranslationException;
 import com.addthis.codec.annotations.FieldConfig;
 import com.addthis.codec.codables.SuperCodable;
@@ -32,6 +41,7 @@ import com.addthis.hydra.data.tree.TreeDataParameters;
 import com.addthis.hydra.data.tree.TreeNodeData;
 
 import com.clearspring.analytics.stream.frequency.CountMinSketch;
+import com.clearspring.analytics.stream.frequency.FrequencyMergeException;
 
 public class DataCountMinSketch extends TreeNodeData<DataCountMinSketch.Config> implements
                                                                                 SuperCodable {
@@ -64,7 +74,10 @@ public class DataCountMinSketch extends TreeNodeData<DataCountMinSketch.Config>
      * <pre>"$" operations support the following commands in the format $+{attachment}={command}:
      * <p/>
      *   total : total of all the values inserted into the sketch.
-     *   val(x): literal value estimation associated with key x</pre>
+     *   val(x): literal value estimation associated with key x
+     *   sketch : the sketch itself, which is merged cell by cell with the sketches of other
+     *            tasks by the sum merge operation and emitted as the merged total.
+     *   sketch(x): like sketch but emitted as the merged estimation for key x</pre>
      * <p/>
      *
      * <p>If no command is specified or an invalid command is specified then the estimator returns
@@ -171,6 +184,10 @@ public class DataCountMinSketch extends TreeNodeData<DataCountMinSketch.Config>
             String input = key.substring(4, key.length() - 1);
             long count = sketch.estimateCount(input);
             return ValueFactory.create(count);
+        } else if (key.equals("sketch")) {
+            return new CMSValue(sketch, null);
+        } else if (key.startsWith("sketch(") && key.endsWith(")")) {
+            return new CMSValue(sketch, key.substring(7, key.length() - 1));
         } else {
             throw new IllegalArgumentException("Unexpected key argument " + key);
         }
@@ -239,4 +256,149 @@ public class DataCountMinSketch extends TreeNodeData<DataCountMinSketch.Config>
         return sketch.estimateCount(item);
     }
 
+    /**
+     * A count-min sketch that is read as the total count or as the estimation for a single key.
+     */
+    public static final class CMSValue extends AbstractCustom<CountMinSketch>
+            implements Numeric, SketchValue<CountMinSketch> {
+
+        private String key;
+
+        /* required for codec */
+        public CMSValue() {
+            super(null);
+        }
+
+        public CMSValue(CountMinSketch sketch, String key) {
+            super(sketch);
+            this.key = key;
+        }
+
+        private long toLong() {
+            return (key == null) ? heldObject.size() : heldObject.estimateCount(key);
+        }
+
+        @Override
+        public CMSValue copy() {
+            return new CMSValue(merge(heldObject), key);
+        }
+
+        /**
+         * Adds the cells of the other sketch to this one. Both sketches must have the same
+         * depth and width.
+         */
+        @Override
+        public void mergeFrom(SketchValue<CountMinSketch> other) {
+            heldObject = merge(heldObject, other.asNative());
+        }
+
+        private static CountMinSketch merge(CountMinSketch... sketches) {
+            try {
+                return CountMinSketch.merge(sketches);
+            } catch (FrequencyMergeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public TYPE getObjectType() {
+            return TYPE.CUSTOM;
+        }
+
+        @Override
+        public ValueBytes asBytes() throws ValueTranslationException {
+            throw new ValueTranslationException();
+        }
+
+        @Override
+        public ValueArray asArray() throws ValueTranslationException {
+            throw new ValueTranslationException();
+        }
+
+        @Override
+        public ValueMap asMap() throws ValueTranslationException {
+            ValueMap map = ValueFactory.createMap();
+            if (key != null) {
+                map.put("k", ValueFactory.create(key));
+            }
+            map.put("b", ValueFactory.create(CountMinSketch.serialize(heldObject)));
+            return map;
+        }
+
+        @Override
+        public void setValues(ValueMap map) {
+            ValueObject keyValue = map.get("k");
+            key = (keyValue == null) ? null : keyValue.asString().asNative();
+            heldObject = CountMinSketch.deserialize(map.get("b").asBytes().asNative());
+        }
+
+        @Override
+        public Numeric asNumeric() throws ValueTranslationException {
+            return this;
+        }
+
+        @Override
+        public ValueLong asLong() {
+            return ValueFactory.create(toLong());
+        }
+
+        @Override
+        public ValueDouble asDouble() {
+            return asLong().asDouble();
+        }
+
+        @Override
+        public ValueString asString() throws ValueTranslationException {
+            return asLong().asString();
+        }
+
+        @Override
+        public ValueSimple asSimple() {
+            return asLong();
+        }
+
+        @Override
+        public Numeric sum(Numeric val) {
+            if (val.getClass() == CMSValue.class) {
+                return new CMSValue(merge(heldObject, ((CMSValue) val).heldObject), key);
+            }
+            return asLong().sum(val.asLong());
+        }
+
+        @Override
+        public Numeric diff(Numeric val) {
+            return sum(val).asLong().diff(asLong());
+        }
+
+        @Override
+        public Numeric prod(Numeric val) {
+            return sum(val).asLong().prod(asLong());
+        }
+
+        @Override
+        public Numeric divide(Numeric val) {
+            return sum(val).asLong().divide(asLong());
+        }
+
+        @Override
+        public Numeric avg(int count) {
+            return ValueFactory.create(toLong() / count);
+        }
+
+        @Override
+        public Numeric max(Numeric val) {
+            return (val.asLong().getLong() > toLong()) ? val : this;
+        }
+
+        @Override
+        public Numeric min(Numeric val) {
+            return (val.asLong().getLong() < toLong()) ? val : this;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(toLong());
+        }
+    }
+
 }
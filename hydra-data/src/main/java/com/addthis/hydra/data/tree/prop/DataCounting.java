@@ -426,7 +426,8 @@ public class DataCounting extends TreeNodeData<DataCounting.Config> implements S
         postDecode();
     }
 
-    public static final class LCValue extends AbstractCustom<ICardinality> implements Numeric {
+    public static final class LCValue extends AbstractCustom<ICardinality>
+            implements Numeric, SketchValue<ICardinality> {
 
         private Long cardinality;
 
@@ -495,6 +496,37 @@ public class DataCounting extends TreeNodeData<DataCounting.Config> implements S
             return asLong().sum(val.asLong());
         }
 
+        @Override
+        public LCValue copy() {
+            try {
+                return new LCValue(heldObject.merge());
+            } catch (CardinalityMergeException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Takes the union of the two estimators. HyperLogLog registers are merged in place,
+         * other estimators are replaced by their merged copy.
+         */
+        @Override
+        public void mergeFrom(SketchValue<ICardinality> other) {
+            ICardinality otherObject = other.asNative();
+            try {
+                if ((heldObject instanceof HyperLogLogPlus) && (otherObject instanceof HyperLogLogPlus)) {
+                    ((HyperLogLogPlus) heldObject).addAll((HyperLogLogPlus) otherObject);
+                } else if ((heldObject instanceof HyperLogLog) && (otherObject instanceof HyperLogLog)) {
+                    ((HyperLogLog) heldObject).addAll((HyperLogLog) otherObject);
+                } else {
+                    heldObject = heldObject.merge(otherObject);
+                }
+            } catch (CardinalityMergeException | ClassCastException e) {
+                throw new IllegalArgumentException("can not merge " + otherObject.getClass().getSimpleName() +
+                                                   " into " + heldObject.getClass().getSimpleName(), e);
+            }
+            cardinality = null;
+        }
+
         @Override
         public String toString() {
             return Long.toString(toLong());
@@ -101,7 +101,8 @@ public class DataSeen extends TreeNodeData<DataSeen.Config> implements SuperCoda
          * <p>2 - HASH_HASHCODE_LONG_REV : mostly bad
          * <p>3 - HASH_MD5 :  marginally better accuracy, much slower
          * <p>4 - HASH_PLUGGABLE_SHIFT : best blend of speed and accuracy
-         * <p>Default value is 4.
+         * <p>5 - HASH_BLOCKED : one hash and one cache line per key, fastest
+         * <p>Default value is 4. Filters can only be merged with filters of the same type.
          */
         @FieldConfig(codable = true)
         private int hash = 4;
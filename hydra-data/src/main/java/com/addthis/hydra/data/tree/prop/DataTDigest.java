@@ -178,9 +178,9 @@ public class DataTDigest extends TreeNodeData<DataTDigest.Config> implements Sup
         }
     }
 
-    public static final class TDigestValue extends AbstractCustom<TDigest> implements Numeric {
+    public static final class TDigestValue extends AbstractCustom<TDigest> implements Numeric, SketchValue<TDigest> {
 
-        enum OP {CDF, QUANTILE}
+        public enum OP {CDF, QUANTILE}
 
         private Double quantile;
         private OP op;
@@ -274,6 +274,21 @@ public class DataTDigest extends TreeNodeData<DataTDigest.Config> implements Sup
             return asLong().getLong();
         }
 
+        @Override
+        public TDigestValue copy() {
+            TDigest digest = new TDigest(heldObject.compression());
+            digest.add(heldObject);
+            return new TDigestValue(digest, op, quantile);
+        }
+
+        /**
+         * Adds the centroids of the other digest to this one.
+         */
+        @Override
+        public void mergeFrom(SketchValue<TDigest> other) {
+            heldObject.add(other.asNative());
+        }
+
         @Override public ValueDouble diff(Numeric val) {
             return sum(val).asDouble().diff(asDouble());
         }
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.prop;
+
+import com.addthis.bundle.value.ValueCustom;
+
+/**
+ * A value that holds a probabilistic sketch which can be merged with other sketches of the
+ * same kind. Merging sketches gives the answer for the union of their inputs, so values read
+ * from many tasks can be combined without shipping the keys that were counted.
+ * <p/>
+ * The value returned by a data attachment shares its sketch with the attachment, so a merge
+ * operation must {@link #copy()} a value before it merges other values into it.
+ */
+public interface SketchValue<T> extends ValueCustom<T> {
+
+    /**
+     * @return a value with its own copy of the sketch
+     */
+    SketchValue<T> copy();
+
+    /**
+     * Merges the sketch of another value of the same class into this one.
+     *
+     * @throws IllegalArgumentException if the sketches were not built with the same parameters
+     */
+    void mergeFrom(SketchValue<T> other);
+}
@@ -17,6 +17,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 
+import java.util.Iterator;
+
+import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.LessFiles;
 
@@ -30,6 +33,7 @@ import org.apache.commons.lang3.ArrayUtils;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -135,4 +139,30 @@ public class TestDiskBackedMap {
         // Check that the directory has been removed
         assertFalse((new File("/tmp/testDiskBackedMap")).exists());
     }
+
+    @Test
+    public void closeValuesEarly() throws IOException {
+        LessFiles.deleteDir(new File("/tmp/testDiskBackedMapValues"));
+        DiskBackedMap<MergedRow> diskBackedMap = new DiskBackedMap<>("/tmp/testDiskBackedMapValues",
+                new MergedRowFactory(), 16 * 1024 * 1024L);
+        for (int i = 0; i < 3; i++) {
+            MergedRow row = new MergedRow();
+            row.mergedRow[0] = ValueFactory.create(i);
+            diskBackedMap.put("row" + i, row);
+        }
+        Iterator<MergedRow> values = diskBackedMap.values().iterator();
+        assertTrue(values.hasNext());
+        values.next();
+        // stopping early must release the range
+        ((ClosableIterator<MergedRow>) values).close();
+        assertFalse(values.hasNext());
+        ((ClosableIterator<MergedRow>) values).close();
+        int count = 0;
+        for (MergedRow ignored : diskBackedMap.values()) {
+            count++;
+        }
+        assertEquals(3, count);
+        diskBackedMap.close();
+        assertFalse((new File("/tmp/testDiskBackedMapValues")).exists());
+    }
 }
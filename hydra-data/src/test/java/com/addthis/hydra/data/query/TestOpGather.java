@@ -13,8 +13,28 @@
  */
 package com.addthis.hydra.data.query;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+import com.addthis.hydra.data.tree.prop.DataCountMinSketch;
+import com.addthis.hydra.data.tree.prop.DataCounting;
+import com.addthis.hydra.data.tree.prop.DataTDigest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+import com.clearspring.analytics.stream.frequency.CountMinSketch;
+import com.clearspring.analytics.stream.quantile.TDigest;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class TestOpGather extends TestOp {
 
     @Test
@@ -92,6 +112,117 @@ public class TestOpGather extends TestOp {
         );
     }
 
+    @Test
+    public void numericTypes() throws Exception {
+        doOpTest(
+                new DataTableHelper().
+                        tr().td("a").td(1).td(1.5).td(-2.0).
+                        tr().td("a").td(2).td(2.5).td(3.0).
+                        tr().td("b").td(3.5).td(4).td(5.0).
+                        tr().td("b").td(4).td(5.25).td(1.0),
+                "gather=kaMm;sort",
+                new DataTableHelper().
+                        tr().td("a").td(1).td(2.5).td(3.0).
+                        tr().td("b").td(3.75).td(5).td(1.0)
+        );
+    }
+
+    /**
+     * Each row holds the sketches of one task that counted 1000 ids of its own.
+     */
+    private static DataTableHelper sketchRows(int tasks) {
+        DataTableHelper table = new DataTableHelper();
+        for (int task = 0; task < tasks; task++) {
+            HyperLogLogPlus hll = new HyperLogLogPlus(14, 25);
+            TDigest digest = new TDigest(100);
+            CountMinSketch cms = new CountMinSketch(10, 1000, 0);
+            for (int i = 0; i < 1000; i++) {
+                int id = (task * 1000) + i;
+                hll.offer(Integer.toString(id));
+                digest.add(id);
+                cms.add(Integer.toString(id % 10), 1);
+            }
+            table.tr().td("a")
+                 .td(new DataCounting.LCValue(hll))
+                 .td(new DataTDigest.TDigestValue(digest, DataTDigest.TDigestValue.OP.QUANTILE, 0.5))
+                 .td(new DataCountMinSketch.CMSValue(cms, "7"));
+        }
+        return table;
+    }
+
+    @Test
+    public void mergesSketches() throws Exception {
+        for (int tip : new int[]{0, 1}) {
+            DataTableHelper in = sketchRows(5);
+            BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+            QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, "gather=kcss").rowTip(tip).build();
+            for (Bundle row : in) {
+                qp.send(row);
+            }
+            qp.sendComplete();
+            List<Bundle> out = Lists.newArrayList(buffer.getTable());
+            assertEquals(1, out.size());
+            Bundle row = out.get(0);
+            List<BundleField> fields = Lists.newArrayList(row.getFormat());
+            long cardinality = row.getValue(fields.get(1)).asLong().getLong();
+            assertEquals(5000, cardinality, 100);
+            assertEquals(2500, row.getValue(fields.get(2)).asDouble().getDouble(), 50);
+            assertEquals(500, row.getValue(fields.get(3)).asLong().getLong());
+            // the sketches that were read are not changed by the merge
+            assertEquals(1000, in.get(0).getValue(fields.get(1)).asLong().getLong(), 20);
+            assertEquals(100, in.get(0).getValue(fields.get(3)).asLong().getLong());
+            qp.close();
+        }
+    }
+
+    /**
+     * @return the sums of "gather=kks" over rows that only differ in how their keys join
+     */
+    private static Set<Long> collidingKeySums(int tip) throws Exception {
+        DataTableHelper in = new DataTableHelper().
+                tr().td("a", "bc").td(1).
+                tr().td("ab", "c").td(2).
+                tr().td("1", "").td(4).
+                tr().td(1).td("").td(8).
+                tr().td("a", "bc").td(16).
+                tr().td("ab", "c").td(32).
+                tr().td("1").td().td(64).
+                tr().td(1).td("").td(128);
+        BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+        QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, "gather=kks").rowTip(tip).build();
+        for (Bundle row : in) {
+            qp.send(row);
+        }
+        qp.sendComplete();
+        Set<Long> sums = new HashSet<>();
+        for (Bundle row : buffer.getTable()) {
+            List<BundleField> fields = Lists.newArrayList(row.getFormat());
+            sums.add(row.getValue(fields.get(2)).asLong().getLong());
+        }
+        qp.close();
+        return sums;
+    }
+
+    @Test
+    public void joinsKeyText() throws Exception {
+        System.setProperty("opgather.tiptodisk", "true");
+        for (int tip : new int[]{0, 1}) {
+            assertEquals(Sets.newHashSet(51L, 204L), collidingKeySums(tip));
+        }
+        System.clearProperty("opgather.tiptodisk");
+    }
+
+    @Test
+    public void keepsCollidingKeysApart() throws Exception {
+        System.setProperty("opgather.tiptodisk", "true");
+        System.setProperty("opgather.typedkeys", "true");
+        for (int tip : new int[]{0, 1}) {
+            assertEquals(Sets.newHashSet(17L, 34L, 68L, 136L), collidingKeySums(tip));
+        }
+        System.clearProperty("opgather.typedkeys");
+        System.clearProperty("opgather.tiptodisk");
+    }
+
     @Test
     public void testGatherWhenFallToDisk() throws Exception {
         System.setProperty("opgather.tiptodisk", "true");
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestQueryMemManager {
+
+    @Test
+    public void limits() {
+        QueryMemManager manager = new QueryMemManager(1000, 500);
+        QueryMemTracker first = manager.allocateTracker(800, 100);
+        QueryMemTracker second = manager.allocateTracker(800, 400);
+        first.trackBytes(150);
+        assertTrue(first.shouldSpill());
+        assertFalse(second.shouldSpill());
+        second.trackBytes(400);
+        assertEquals(550, manager.usedBytes());
+        assertTrue(second.shouldSpill());
+        first.untrackBytes(150);
+        assertFalse(second.shouldSpill());
+        assertEquals(150, first.peakBytes());
+        try {
+            second.trackBytes(500);
+            fail("query limit not enforced");
+        } catch (QueryException expected) {
+        }
+        second.untrackAllBundles();
+        assertEquals(0, manager.usedBytes());
+        assertEquals(900, second.peakBytes());
+    }
+
+    @Test
+    public void spillPivot() throws Exception {
+        DataTableHelper input = new DataTableHelper();
+        for (int i = 0; i < 200; i++) {
+            input.tr().td("c" + (i % 7), "r" + (i % 13), Integer.toString(i));
+        }
+        String ops = "pivot=1,0,2,sum,sum,sum";
+        List<String> expected = run(input, ops, null);
+        // header, 13 rows and the column footer
+        assertEquals(15, expected.size());
+        assertEquals(expected, run(input, ops, new QueryMemManager(Long.MAX_VALUE, 0)));
+    }
+
+    @Test
+    public void spillGather() throws Exception {
+        DataTableHelper input = new DataTableHelper();
+        for (int i = 0; i < 200; i++) {
+            input.tr().td("k" + (i % 17), Integer.toString(i));
+        }
+        String ops = "gather=ks";
+        List<String> expected = run(input, ops, null);
+        List<String> spilled = run(input, ops, new QueryMemManager(Long.MAX_VALUE, 0));
+        Collections.sort(expected);
+        Collections.sort(spilled);
+        assertEquals(expected, spilled);
+    }
+
+    private static List<String> run(DataTableHelper input, String ops, QueryMemManager manager) throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+            QueryOpProcessor.Builder builder = new QueryOpProcessor.Builder(buffer, ops).tempDir(dir);
+            if (manager != null) {
+                builder.memTracker(manager.allocateTracker());
+            }
+            QueryOpProcessor processor = builder.build();
+            for (Bundle row : input) {
+                processor.send(row);
+            }
+            processor.sendComplete();
+            List<String> rows = new ArrayList<>();
+            for (Bundle row : buffer.getTable()) {
+                rows.add(row.toString());
+            }
+            processor.close();
+            if (manager != null) {
+                assertTrue(processor.peakBytes() > 0);
+                assertEquals(0, manager.usedBytes());
+            }
+            return rows;
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestQueryResultCache {
+
+    private static Query query(String ops) {
+        return new Query("job", new String[]{"root/+:+hits"}, new String[]{ops});
+    }
+
+    @Test
+    public void keyedByGeneration() {
+        QueryResultCache<String> cache = new QueryResultCache<>(1000, 100);
+        String key = QueryResultCache.queryKey(query("sort"));
+        cache.put(1L, key, "one", 10);
+        assertEquals("one", cache.get(1L, key));
+        assertNull(cache.get(2L, key));
+        assertNull(cache.get(1L, QueryResultCache.queryKey(query("limit=1"))));
+        assertEquals(0.33, cache.hitRatio(), 0.01);
+        assertEquals(10, cache.bytesSaved());
+        cache.put(2L, key, "two", 10);
+        cache.invalidate(1L);
+        assertNull(cache.get(1L, key));
+        assertEquals("two", cache.get(2L, key));
+    }
+
+    @Test
+    public void requestParametersIgnored() {
+        Query first = query("sort");
+        first.setParameter("sender", "a");
+        first.setParameter("timeout", 10);
+        Query second = query("sort");
+        second.setParameter("sender", "b");
+        assertEquals(QueryResultCache.queryKey(first), QueryResultCache.queryKey(second));
+        second.setParameter("injectSource", "source");
+        assertNotEquals(QueryResultCache.queryKey(first), QueryResultCache.queryKey(second));
+    }
+
+    @Test
+    public void keyedByParallelMode() {
+        QueryResultCache<String> cache = new QueryResultCache<>(1000, 100);
+        Query ordered = query("sort");
+        Query unordered = query("sort");
+        unordered.setParameter("parallel", "unordered");
+        assertNotEquals(QueryResultCache.queryKey(ordered), QueryResultCache.queryKey(unordered));
+        cache.put(1L, QueryResultCache.queryKey(unordered), "unordered", 10);
+        assertNull(cache.get(1L, QueryResultCache.queryKey(ordered)));
+        assertEquals("unordered", cache.get(1L, QueryResultCache.queryKey(unordered)));
+    }
+
+    @Test
+    public void sizeBounded() {
+        QueryResultCache<String> cache = new QueryResultCache<>(1000, 100);
+        cache.put(1L, "large", "large", 101);
+        assertNull(cache.get(1L, "large"));
+        for (int i = 0; i < 100; i++) {
+            cache.put(1L, Integer.toString(i), "value", 100);
+        }
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void bypass() {
+        QueryResultCache<String> cache = new QueryResultCache<>(1000, 100);
+        Query query = query("sort");
+        assertTrue(cache.accepts(query));
+        query.setParameter(QueryResultCache.BYPASS_PARAMETER, "false");
+        assertFalse(cache.accepts(query));
+        assertFalse(new QueryResultCache<String>(0, 100).accepts(query("sort")));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.engine;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.tree.ReadTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.data.tree.concurrent.TreeBuilder;
+import com.addthis.hydra.store.db.CloseOperation;
+
+import org.junit.Test;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestParallelSearch {
+
+    private static final int FANOUT = 10 * ParallelSearch.minFanout;
+
+    private static List<String> search(QueryEngine engine, String parallel) throws Exception {
+        Query query = new Query("job", new String[]{"+/+"}, null);
+        if (parallel != null) {
+            query.setParameter("parallel", parallel);
+        }
+        List<String> rows = new ArrayList<>();
+        ListBundleFormat format = new ListBundleFormat();
+        engine.search(query, new DataChannelOutput() {
+            @Override public void send(Bundle bundle) {
+                synchronized (rows) {
+                    rows.add(bundle.toString());
+                }
+            }
+
+            @Override public void send(List<Bundle> bundles) {
+                bundles.forEach(this::send);
+            }
+
+            @Override public void sendComplete() {
+            }
+
+            @Override public void sourceError(Throwable er) {
+            }
+
+            @Override public Bundle createBundle() {
+                return new ListBundle(format);
+            }
+        }, new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        return rows;
+    }
+
+    @Test
+    public void matchesSequentialSearch() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            ConcurrentTree tree = new TreeBuilder(dir).multiThreadedTree();
+            ConcurrentTreeNode root = tree.getRootNode();
+            for (int i = 0; i < FANOUT; i++) {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, String.format("%05d", i), null);
+                for (int j = 0; j < 3; j++) {
+                    tree.getOrCreateNode(node, Integer.toString(j), null).release();
+                }
+                node.release();
+            }
+            tree.close(false, CloseOperation.NONE);
+            QueryEngine engine = new QueryEngine(new ReadTree(dir));
+            try {
+                List<String> sequential = search(engine, null);
+                assertEquals(3 * FANOUT, sequential.size());
+                assertEquals(sequential, search(engine, "true"));
+                List<String> unordered = search(engine, "unordered");
+                assertEquals(sequential.size(), unordered.size());
+                assertEquals(new HashSet<>(sequential), new HashSet<>(unordered));
+                assertEquals(sequential, search(engine, "false"));
+            } finally {
+                engine.close();
+            }
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.data.tree.concurrent.TreeBuilder;
+import com.addthis.hydra.store.db.CloseOperation;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.kv.SnapshotByteStore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestReadTreeSnapshot {
+
+    private static List<String> readAll(File dir) throws Exception {
+        List<String> result = new ArrayList<>();
+        ReadTree tree = new ReadTree(dir);
+        try {
+            ClosableIterator<DataTreeNode> children = tree.getRootNode().getIterator();
+            while (children.hasNext()) {
+                DataTreeNode child = children.next();
+                ClosableIterator<DataTreeNode> leaves = child.getIterator();
+                while (leaves.hasNext()) {
+                    DataTreeNode leaf = leaves.next();
+                    result.add(child.getName() + "/" + leaf.getName() + "=" + leaf.getCounter());
+                }
+                leaves.close();
+            }
+            children.close();
+        } finally {
+            tree.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void snapshotMatchesDatabase() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            ConcurrentTree tree = new TreeBuilder(dir).multiThreadedTree();
+            ConcurrentTreeNode root = tree.getRootNode();
+            for (int i = 0; i < 500; i++) {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, String.format("%05d", i), null);
+                for (int j = 0; j < 5; j++) {
+                    ConcurrentTreeNode leaf = tree.getOrCreateNode(node, Integer.toString(j), null);
+                    leaf.incrementCounter(i + j);
+                    leaf.release();
+                }
+                node.release();
+            }
+            tree.close(false, CloseOperation.NONE);
+
+            List<String> expected = readAll(dir);
+            assertEquals(2500, expected.size());
+            File snapshot = SnapshotByteStore.snapshotFile(dir);
+            PageDB.writeSnapshot(dir);
+            assertTrue(snapshot.exists());
+            assertEquals(expected, readAll(dir));
+
+            // opening the tree for writing invalidates the snapshot
+            new TreeBuilder(dir).multiThreadedTree().close(false, CloseOperation.NONE);
+            assertFalse(snapshot.exists());
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
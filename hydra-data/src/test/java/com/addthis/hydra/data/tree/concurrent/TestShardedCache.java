@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestShardedCache {
+
+    private static ShardedCache<Integer, Integer> cache(ShardedCache.Policy policy, int size) {
+        return new ShardedCache.Builder<Integer, Integer>().maximumSize(size).shards(8).policy(policy).build();
+    }
+
+    @Test
+    public void boundedAcrossShards() {
+        for (ShardedCache.Policy policy : ShardedCache.Policy.values()) {
+            ShardedCache<Integer, Integer> cache = cache(policy, 1024);
+            assertEquals(8, cache.shardCount());
+            for (int i = 0; i < 10000; i++) {
+                assertNull(cache.putIfAbsent(i, i));
+                assertTrue(cache.size() <= 1024);
+            }
+            assertEquals(1024, cache.size());
+            long evictions = 0;
+            for (int i = 0; i < cache.shardCount(); i++) {
+                evictions += cache.shardEvictions(i);
+            }
+            assertEquals(10000 - 1024, evictions);
+            int found = 0;
+            for (Integer value : cache.values()) {
+                assertEquals(value, cache.get(value));
+                found++;
+            }
+            assertEquals(1024, found);
+            cache.clear();
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void mediatorPinsEntries() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache.Builder<Integer, Integer>()
+                .maximumSize(100).mediator((key, value) -> (key % 10) != 0).build();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(100, cache.size());
+        for (int i = 0; i < 1000; i += 10) {
+            assertNotNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void byteBound() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache.Builder<Integer, Integer>()
+                .maximumSize(1000).maximumBytes(500).weigher((value) -> value).shards(1).build();
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, 10);
+        }
+        assertEquals(50, cache.size());
+        assertEquals(500, cache.weightedBytes());
+        cache.put(1000, 250);
+        assertEquals(500, cache.weightedBytes());
+        assertEquals(26, cache.size());
+    }
+
+    @Test
+    public void frequencyResistsScan() {
+        ShardedCache<Integer, Integer> lru = cache(ShardedCache.Policy.LRU, 200);
+        ShardedCache<Integer, Integer> tinyLfu = cache(ShardedCache.Policy.TINYLFU, 200);
+        for (ShardedCache<Integer, Integer> cache : new ArrayList<ShardedCache<Integer, Integer>>() {{
+            add(lru);
+            add(tinyLfu);
+        }}) {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 100; i++) {
+                    if (cache.get(i) == null) {
+                        cache.put(i, i);
+                    }
+                }
+            }
+            for (int i = 1000; i < 2000; i++) {
+                cache.put(i, i);
+            }
+        }
+        int lruHot = 0;
+        int tinyLfuHot = 0;
+        for (int i = 0; i < 100; i++) {
+            lruHot += (lru.containsKey(i) ? 1 : 0);
+            tinyLfuHot += (tinyLfu.containsKey(i) ? 1 : 0);
+        }
+        assertEquals(0, lruHot);
+        assertTrue("tinylfu retained " + tinyLfuHot, tinyLfuHot > 90);
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        ShardedCache<Integer, Integer> cache = cache(ShardedCache.Policy.TINYLFU, 1024);
+        int numThreads = 8;
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int seed = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < 20000; i++) {
+                        int key = (i * 31 + seed) % 5000;
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.putIfAbsent(key, key);
+                        } else if (value != key) {
+                            failures.incrementAndGet();
+                        }
+                        if ((i % 97) == 0) {
+                            cache.remove(key);
+                        }
+                    }
+                } catch (Exception ex) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(cache.size() <= 1024);
+        int found = 0;
+        for (Integer ignored : cache.keySet()) {
+            found++;
+        }
+        assertEquals(cache.size(), found);
+    }
+}
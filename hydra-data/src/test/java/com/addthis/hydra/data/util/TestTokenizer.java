@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.data.util;
 
+import java.nio.charset.StandardCharsets;
+
 import java.util.List;
 
 import org.junit.Before;
@@ -45,6 +47,14 @@ public class TestTokenizer {
                 String tt = test.get(i);
                 assertTrue(tt == tokens[i] || tt.equals(tokens[i]));
             }
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            byte[] out = new byte[bytes.length];
+            int[] ends = new int[tokens.length + 1];
+            assertEquals(tokens.length, t.tokenize(bytes, 0, bytes.length, out, ends));
+            for (int i = 0; i < tokens.length; i++) {
+                int start = (i == 0) ? 0 : ends[i - 1];
+                assertEquals(tokens[i], new String(out, start, ends[i] - start, StandardCharsets.UTF_8));
+            }
         }
     }
 
@@ -61,6 +71,7 @@ public class TestTokenizer {
         new Tester(",,", new String[]{"", "", ""}).test(t);
         new Tester(";\\';abc def; ghi", new String[]{"", "'", "abc def", " ghi"}).test(t);
         new Tester("[a b c],def,{g,[h] i},jkl", new String[]{"a b c", "def", "g,[h] i", "jkl"}).test(t);
+        new Tester("\u00e9t\u00e9,'\u2603,x',\\\u00e9", new String[]{"\u00e9t\u00e9", "\u2603,x", "\u00e9"}).test(t);
 
         t = new Tokenizer().setSeparator(",").setGrouping(new String[]{"'", "[]", "{}"}).setPacking(true);
         new Tester("a1", new String[]{"a1"}).test(t);
@@ -83,6 +94,7 @@ public class TestTokenizer {
         assertNull(line);
         line = tokens.tokenize("   ");
         assertNull(line);
+        assertEquals(-1, tokens.tokenize(new byte[]{' ', '\t'}, 0, 2, new byte[2], new int[2]));
     }
 
     @Test
@@ -57,7 +57,7 @@ public class ValueFilterSeen extends AbstractValueFilter {
     private ValueFilter filter;
 
     /**
-     * The bloom filter.
+     * The bloom filter. Set its hash to 5 for the blocked layout.
      */
     @FieldConfig(codable = true)
     protected SeenFilterBasic<Raw> bloom;
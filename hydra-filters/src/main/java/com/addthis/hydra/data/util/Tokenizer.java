@@ -30,6 +30,9 @@ import com.addthis.codec.codables.Codable;
  * across tokens. For example: if the separator parameter is "," and the group
  * parameter is the single quote character (') then the input string "a,b,'c,d',e"
  * produces the four tokens "a", "b", "c,d", and "e".
+ * <p/>
+ * <p>When the separator, group and escape characters are all ASCII, UTF-8 encoded
+ * lines can also be split directly from their bytes.
  *
  * @user-reference
  */
@@ -63,6 +66,7 @@ public class Tokenizer implements Codable {
     private String quoteOpen;
     private String quoteClose;
     private boolean isInitialized;
+    private boolean byteTokenizable;
     private char esc = '\\';
 
     public Tokenizer() {
@@ -117,10 +121,31 @@ public class Tokenizer implements Codable {
             quoteClose = close.toString();
         }
         esc = escape.charAt(0);
+        byteTokenizable = isAscii(separator) && isAscii(quoteOpen) && isAscii(quoteClose) && (esc < 0x80) &&
+                          !overrides("filterLine") && !overrides("filterValue");
         isInitialized = true;
         return this;
     }
 
+    private static boolean isAscii(String chars) {
+        if (chars != null) {
+            for (int i = 0; i < chars.length(); i++) {
+                if (chars.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean overrides(String filterMethod) {
+        try {
+            return getClass().getMethod(filterMethod, String.class).getDeclaringClass() != Tokenizer.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * @return the separator string (used to split fields)
      */
@@ -157,6 +182,97 @@ public class Tokenizer implements Codable {
         return value;
     }
 
+    /**
+     * @return true if {@link #tokenize(byte[], int, int, byte[], int[])} can be used
+     */
+    public boolean isByteTokenizable() {
+        if (!isInitialized) {
+            initialize();
+        }
+        return byteTokenizable;
+    }
+
+    /**
+     * Splits a UTF-8 encoded line the same way as {@link #tokenize(String)} without
+     * decoding it. The bytes of the tokens, with group and escape characters removed,
+     * are written to {@code out} which must be at least as long as the line. Token
+     * {@code i} ends at {@code out[ends[i]]} and starts where token {@code i - 1} ends.
+     * Tokenizing stops when {@code ends} is full.
+     *
+     * @return the number of tokens, or -1 if the line is blank
+     */
+    public int tokenize(byte[] line, int start, int end, byte[] out, int[] ends) {
+        if (!isByteTokenizable()) {
+            throw new IllegalStateException("tokenizer can not split bytes");
+        }
+        int first = start;
+        while ((first < end) && ((line[first] & 0xff) <= ' ')) {
+            first++;
+        }
+        if (first == end) {
+            return -1;
+        }
+
+        int count = 0;
+        int length = 0;
+        int tokenStart = 0;
+        int inGroup = -1;
+        boolean isEscaped = false;
+        boolean isSep = false;
+        int pos = start;
+
+        while (count < ends.length) {
+            boolean eol = pos == end;
+            if ((isSep && inGroup < 0) || eol) {
+                if (length > tokenStart || !pack) {
+                    ends[count++] = length;
+                    tokenStart = length;
+                    if (isSep && eol && !pack && (count < ends.length)) {
+                        ends[count++] = length;
+                    }
+                }
+            }
+            if (eol) {
+                break;
+            }
+            byte b = line[pos++];
+            int ch = b & 0xff;
+            if (isEscaped) {
+                out[length++] = b;
+                isEscaped = false;
+                continue;
+            }
+            if (ch == esc) {
+                isEscaped = true;
+                isSep = false;
+                continue;
+            }
+            // check for group close
+            if (inGroup >= 0) {
+                if (ch == quoteClose.charAt(inGroup)) {
+                    inGroup = -1;
+                } else {
+                    out[length++] = b;
+                }
+                continue;
+            } else if (group != null) {
+                // check for group open
+                int qspos = quoteOpen.indexOf(ch);
+                if (qspos >= 0) {
+                    isSep = false;
+                    inGroup = qspos;
+                    continue;
+                }
+            }
+            // check for separator
+            if (isSep = (separator.indexOf(ch) >= 0)) {
+                continue;
+            }
+            out[length++] = b;
+        }
+        return count;
+    }
+
     /**
      * @return splits the supplied string and returns the parts
      */
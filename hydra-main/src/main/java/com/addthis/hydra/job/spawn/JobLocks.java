@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.addthis.basis.util.Parameter;
+
+/**
+ * Locks that serialize changes to jobs. Each job is guarded by one of a fixed number of
+ * striped locks so that changes to unrelated jobs proceed in parallel. The global lock
+ * guards the structures that span jobs, such as the membership of {@link SpawnState#jobs}
+ * and the job dependency graph. Nothing may be locked while the global lock is held.
+ * <p/>
+ * A thread must not wait for the lock of one job while holding the lock of another, since
+ * there is no order between job locks. Code that visits many jobs locks them one at a time.
+ */
+final class JobLocks {
+
+    private static final int stripeCount =
+            Integer.highestOneBit(Math.max(1, Parameter.intValue("spawn.job.lock.stripes", 256)));
+
+    private final ReentrantLock[] stripes;
+    /* time of the outermost acquisition of each stripe, only accessed by its holder */
+    private final long[] acquired;
+    private final ReentrantLock global = new ReentrantLock();
+    private long globalAcquired;
+
+    JobLocks() {
+        stripes = new ReentrantLock[stripeCount];
+        acquired = new long[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private int stripe(String jobId) {
+        int h = jobId.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (stripeCount - 1);
+    }
+
+    void lock(String jobId) {
+        int stripe = stripe(jobId);
+        ReentrantLock lock = stripes[stripe];
+        long start = System.nanoTime();
+        lock.lock();
+        if (lock.getHoldCount() == 1) {
+            long now = System.nanoTime();
+            SpawnMetrics.jobLockWaitMicros.update(TimeUnit.NANOSECONDS.toMicros(now - start));
+            acquired[stripe] = now;
+        }
+    }
+
+    boolean tryLock(String jobId) {
+        int stripe = stripe(jobId);
+        ReentrantLock lock = stripes[stripe];
+        if (!lock.tryLock()) {
+            return false;
+        }
+        if (lock.getHoldCount() == 1) {
+            acquired[stripe] = System.nanoTime();
+        }
+        return true;
+    }
+
+    void unlock(String jobId) {
+        int stripe = stripe(jobId);
+        ReentrantLock lock = stripes[stripe];
+        if (lock.getHoldCount() == 1) {
+            SpawnMetrics.jobLockHoldMicros.update(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - acquired[stripe]));
+        }
+        lock.unlock();
+    }
+
+    void lockGlobal() {
+        global.lock();
+        if (global.getHoldCount() == 1) {
+            globalAcquired = System.nanoTime();
+        }
+    }
+
+    void unlockGlobal() {
+        if (global.getHoldCount() == 1) {
+            SpawnMetrics.globalJobLockHoldMicros.update(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - globalAcquired));
+        }
+        global.unlock();
+    }
+}
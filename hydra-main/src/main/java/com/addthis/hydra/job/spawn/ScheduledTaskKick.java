@@ -71,11 +71,11 @@ public class ScheduledTaskKick implements Runnable {
             }
         } catch (Exception e) {
             log.warn("failed to kick job {} task {} on host {}", jobId, kick.getNodeID(), kick.getHostUuid(), e);
-            spawn.acquireJobLock();
+            spawn.acquireJobLock(jobId);
             try {
                 job.errorTask(task, JobTaskErrorCode.KICK_ERROR);
             } finally {
-                spawn.releaseJobLock();
+                spawn.releaseJobLock(jobId);
             }
         }
     }
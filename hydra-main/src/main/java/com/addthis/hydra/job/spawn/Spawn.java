@@ -50,8 +50,6 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import java.text.ParseException;
 
@@ -122,6 +120,7 @@ import com.addthis.hydra.job.mq.StatusTaskReplicate;
 import com.addthis.hydra.job.mq.StatusTaskRevert;
 import com.addthis.hydra.job.spawn.balancer.HostCandidateIterator;
 import com.addthis.hydra.job.spawn.balancer.SpawnBalancer;
+import com.addthis.hydra.job.spawn.search.JobSearchIndex;
 import com.addthis.hydra.job.spawn.search.JobSearcher;
 import com.addthis.hydra.job.spawn.search.SearchOptions;
 import com.addthis.hydra.job.store.CachedSpawnDataStore;
@@ -217,7 +216,7 @@ public class Spawn implements Codable, AutoCloseable {
     @Nonnull public final HostManager hostManager;
     private final JobExpanderImpl jobExpander;
 
-    @Nonnull private final Lock jobLock;
+    @Nonnull private final JobLocks jobLocks;
     @Nonnull final SpawnState spawnState;
     @Nonnull final ConcurrentMap<String, ClientEventListener> listeners;
     @Nonnull final SpawnFormattedLogger spawnFormattedLogger;
@@ -239,6 +238,7 @@ public class Spawn implements Codable, AutoCloseable {
     @Nonnull private final CuratorFramework zkClient;
     @Nonnull private final SpawnDataStore spawnDataStore;
     @Nonnull private final JobConfigManager jobConfigManager;
+    @Nonnull private final JobSearchIndex jobSearchIndex;
     @Nonnull private final AliasManager aliasManager;
     @Nonnull private final JobAlertManager jobAlertManager;
     @Nonnull private final SpawnMesh spawnMesh;
@@ -283,7 +283,7 @@ public class Spawn implements Codable, AutoCloseable {
                                @Bytes @JsonProperty(value = "datastoreCacheSize") long datastoreCacheSize,
                                @Nonnull @JsonProperty(value = "groupManager", required = true) GroupManager groupManager)
             throws Exception {
-        this.jobLock = new ReentrantLock();
+        this.jobLocks = new JobLocks();
         this.shuttingDown = new AtomicBoolean(false);
         this.jobUpdateQueue = new LinkedBlockingQueue<>();
         this.listeners = new ConcurrentHashMap<>();
@@ -332,6 +332,7 @@ public class Spawn implements Codable, AutoCloseable {
 
         jobExpander = new JobExpanderImpl(this, jobMacroManager, aliasManager);
         jobConfigManager = new JobConfigManager(new CachedSpawnDataStore(spawnDataStore, datastoreCacheSize), jobExpander);
+        jobSearchIndex = new JobSearchIndex(jobConfigManager);
 
         // fix up null pointers
         for (Job job : spawnState.jobs.values()) {
@@ -504,12 +505,20 @@ public class Spawn implements Codable, AutoCloseable {
         return systemManager;
     }
 
-    public void acquireJobLock() {
-        jobLock.lock();
+    /**
+     * Lock a job against concurrent changes. Do not wait for the lock of another job while
+     * holding this one.
+     */
+    public void acquireJobLock(String jobUUID) {
+        jobLocks.lock(jobUUID);
     }
 
-    public void releaseJobLock() {
-        jobLock.unlock();
+    public boolean tryAcquireJobLock(String jobUUID) {
+        return jobLocks.tryLock(jobUUID);
+    }
+
+    public void releaseJobLock(String jobUUID) {
+        jobLocks.unlock(jobUUID);
     }
 
     public String getUuid() {
@@ -559,6 +568,7 @@ public class Spawn implements Codable, AutoCloseable {
                                          SpawnUtils.getMacroMapFromMacroManager(jobMacroManager),
                                          getAliasManager().getAliases(),
                                          jobConfigManager,
+                                         jobSearchIndex,
                                          searchOptions,
                                          out);
         expandKickExecutor.submit(js);
@@ -734,6 +744,9 @@ public class Spawn implements Codable, AutoCloseable {
 
     public void setJobConfig(String jobUUID, String config) throws Exception {
         jobConfigManager.setConfig(jobUUID, config);
+        if ((jobUUID != null) && (config != null)) {
+            jobSearchIndex.updateJob(jobUUID, config);
+        }
     }
 
     public JobConfigManager getJobConfigManager() {
@@ -769,9 +782,10 @@ public class Spawn implements Codable, AutoCloseable {
                          String minionType,
                          String command,
                          boolean defaults) throws Exception {
-        acquireJobLock();
+        String jobUUID = UUID.randomUUID().toString();
+        acquireJobLock(jobUUID);
         try {
-            Job job = new Job(UUID.randomUUID().toString(), creator);
+            Job job = new Job(jobUUID, creator);
             job.setMinionType(minionType);
             job.setCommand(command);
             job.setState(JobState.IDLE);
@@ -800,12 +814,18 @@ public class Spawn implements Codable, AutoCloseable {
                 }
                 host.addJob(job.getId());
             }
-            putJobInSpawnState(job);
+            jobLocks.lockGlobal();
+            try {
+                putJobInSpawnState(job);
+            } finally {
+                jobLocks.unlockGlobal();
+            }
             jobConfigManager.addJob(job);
+            jobSearchIndex.updateJob(job.getId(), job.getConfig());
             submitConfigUpdate(job.getId(), creator, null);
             return job;
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobUUID);
         }
     }
 
@@ -853,23 +873,18 @@ public class Spawn implements Codable, AutoCloseable {
         if (jobUUID == null) {
             return null;
         }
-        acquireJobLock();
-        try {
-            return spawnState.jobs.get(jobUUID);
-        } finally {
-            releaseJobLock();
-        }
+        return spawnState.jobs.get(jobUUID);
     }
 
     @Nullable public String getJobConfig(String jobUUID) {
         if (jobUUID == null) {
             return null;
         }
-        acquireJobLock();
+        acquireJobLock(jobUUID);
         try {
             return jobConfigManager.getConfig(jobUUID);
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobUUID);
         }
     }
 
@@ -900,16 +915,7 @@ public class Spawn implements Codable, AutoCloseable {
     @Nonnull public PermissionsManager getPermissionsManager() { return permissionsManager; }
 
     public Collection<Job> listJobs() {
-        List<Job> clones = new ArrayList<>(spawnState.jobs.size());
-        acquireJobLock();
-        try {
-            for (Job job : spawnState.jobs.values()) {
-                clones.add(job);
-            }
-            return clones;
-        } finally {
-            releaseJobLock();
-        }
+        return new ArrayList<>(spawnState.jobs.values());
     }
 
     private Response synchronizeSingleJob(String jobUUID, String user, String token, String sudo) {
@@ -1280,7 +1286,7 @@ public class Spawn implements Codable, AutoCloseable {
             return false;
         }
         Job job;
-        acquireJobLock();
+        acquireJobLock(task.getJobUUID());
         try {
             job = getJob(task.getJobUUID());
             if (job == null) {
@@ -1291,7 +1297,7 @@ public class Spawn implements Codable, AutoCloseable {
             task.setHostUUID(replicaHostID);
             queueJobTaskUpdateEvent(job);
         } finally {
-            releaseJobLock();
+            releaseJobLock(task.getJobUUID());
         }
         if (kickOnComplete) {
             try {
@@ -1407,11 +1413,11 @@ public class Spawn implements Codable, AutoCloseable {
      * @return True if the task is successfully removed
      */
     public boolean deleteTask(String jobUUID, String hostUuid, Integer node, boolean isReplica) {
-        acquireJobLock();
+        if ((jobUUID == null) || (node == null)) {
+            return false;
+        }
+        acquireJobLock(jobUUID);
         try {
-            if ((jobUUID == null) || (node == null)) {
-                return false;
-            }
             log.warn("[job.delete.host] {}/{} >> {}", hostUuid, jobUUID, node);
             spawnMQ.sendControlMessage(new CommandTaskDelete(hostUuid, jobUUID, node, 0));
             Job job = getJob(jobUUID);
@@ -1424,7 +1430,7 @@ public class Spawn implements Codable, AutoCloseable {
             }
             return true;
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobUUID);
         }
     }
 
@@ -1460,12 +1466,7 @@ public class Spawn implements Codable, AutoCloseable {
     }
 
     public void queueJobTaskUpdateEvent(IJob job) {
-        acquireJobLock();
-        try {
-            jobUpdateQueue.add(job.getId());
-        } finally {
-            releaseJobLock();
-        }
+        jobUpdateQueue.add(job.getId());
     }
 
     /**
@@ -1486,7 +1487,7 @@ public class Spawn implements Codable, AutoCloseable {
     public void updateJob(@Nullable IJob ijob, boolean reviseReplicas) throws Exception {
         checkNotNull(ijob, "ijob");
         Job job = new Job(ijob);
-        acquireJobLock();
+        acquireJobLock(job.getId());
         try {
             checkArgument(getJob(job.getId()) != null, "job " + job.getId() + " does not exist");
             updateJobDependencies(job.getId());
@@ -1507,25 +1508,28 @@ public class Spawn implements Codable, AutoCloseable {
             }
             queueJobTaskUpdateEvent(job);
         } finally {
-            releaseJobLock();
+            releaseJobLock(job.getId());
         }
     }
 
     private void updateJobDependencies(String jobId) {
+        Set<String> newSources = this.getDataSources(jobId);
         DirectedGraph<String> dependencies = spawnState.jobDependencies;
-        Set<String> sources = dependencies.getSourceEdges(jobId);
-        if (sources != null) {
-            for (String source : sources) {
-                dependencies.removeEdge(source, jobId);
+        jobLocks.lockGlobal();
+        try {
+            Set<String> sources = dependencies.getSourceEdges(jobId);
+            if (sources != null) {
+                for (String source : sources) {
+                    dependencies.removeEdge(source, jobId);
+                }
+            } else {
+                dependencies.addNode(jobId);
             }
-        } else {
-            dependencies.addNode(jobId);
-        }
-        Set<String> newSources = this.getDataSources(jobId);
-        if (newSources != null) {
             for (String source : newSources) {
                 dependencies.addEdge(source, jobId);
             }
+        } finally {
+            jobLocks.unlockGlobal();
         }
     }
 
@@ -1535,26 +1539,21 @@ public class Spawn implements Codable, AutoCloseable {
         if ((job == null) || (job.getParameters() == null)) {
             return dataSources;
         }
-        acquireJobLock();
-        try {
-            for (JobParameter param : job.getParameters()) {
-                String value = param.getValue();
-                if (LessStrings.isEmpty(value)) {
-                    value = param.getDefaultValue();
-                }
-                if (value != null) {
-                    try {
-                        value = JobExpand.macroExpand(jobMacroManager, aliasManager, value);
-                    } catch (TokenReplacerOverflowException ex) {
-                        log.error("Token replacement overflow for input '{}'", value, ex);
-                    }
-                }
-                if ((value != null) && spawnState.jobs.containsKey(value)) {
-                    dataSources.add(value);
+        for (JobParameter param : job.getParameters()) {
+            String value = param.getValue();
+            if (LessStrings.isEmpty(value)) {
+                value = param.getDefaultValue();
+            }
+            if (value != null) {
+                try {
+                    value = JobExpand.macroExpand(jobMacroManager, aliasManager, value);
+                } catch (TokenReplacerOverflowException ex) {
+                    log.error("Token replacement overflow for input '{}'", value, ex);
                 }
             }
-        } finally {
-            releaseJobLock();
+            if ((value != null) && spawnState.jobs.containsKey(value)) {
+                dataSources.add(value);
+            }
         }
         return dataSources;
     }
@@ -1627,7 +1626,7 @@ public class Spawn implements Codable, AutoCloseable {
      * @return A string description
      */
     public JSONObject fixTaskDir(String jobId, int node, boolean ignoreTaskState, boolean orphansOnly) {
-        acquireJobLock();
+        acquireJobLock(jobId);
         try {
             Job job = getJob(jobId);
             int numChanged = 0;
@@ -1655,7 +1654,7 @@ public class Spawn implements Codable, AutoCloseable {
             }
             return new JSONObject(ImmutableMap.of("tasksChanged", numChanged));
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobId);
         }
 
     }
@@ -1699,7 +1698,7 @@ public class Spawn implements Codable, AutoCloseable {
 
     public JSONArray checkTaskDirJSON(String jobId, int node) {
         JSONArray resultList = new JSONArray();
-        acquireJobLock();
+        acquireJobLock(jobId);
         try {
             Job job = getJob(jobId);
             if (job == null) {
@@ -1718,7 +1717,7 @@ public class Spawn implements Codable, AutoCloseable {
         } catch (Exception ex) {
             log.warn("Error: checking dirs for job: {}, node: {}", jobId, node, ex);
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobId);
         }
         return resultList;
     }
@@ -1803,7 +1802,7 @@ public class Spawn implements Codable, AutoCloseable {
     }
 
     public boolean prepareTaskStatesForRebalance(Job job, JobTask task, boolean isMigration) {
-        acquireJobLock();
+        acquireJobLock(job.getId());
         try {
             if (!SpawnBalancer.isInMovableState(task)) {
                 log.warn("[task.mover] decided not to move non-idle task {}", task);
@@ -1814,12 +1813,12 @@ public class Spawn implements Codable, AutoCloseable {
             queueJobTaskUpdateEvent(job);
             return true;
         } finally {
-            releaseJobLock();
+            releaseJobLock(job.getId());
         }
     }
 
     public DeleteStatus forceDeleteJob(String jobUUID) throws Exception {
-        acquireJobLock();
+        acquireJobLock(jobUUID);
         Job job;
         try {
             job = getJob(jobUUID);
@@ -1832,7 +1831,7 @@ public class Spawn implements Codable, AutoCloseable {
             job.setEnabled(false);
             jobAlertManager.removeAlertsForJob(jobUUID);
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobUUID);
         }
         while ((job != null) && (job.getCountActiveTasks() > 0)) {
             stopJob(jobUUID);
@@ -1845,7 +1844,7 @@ public class Spawn implements Codable, AutoCloseable {
     }
 
     public DeleteStatus deleteJob(String jobUUID) throws Exception {
-        acquireJobLock();
+        acquireJobLock(jobUUID);
         try {
             Job job = getJob(jobUUID);
             if (job == null) {
@@ -1854,8 +1853,13 @@ public class Spawn implements Codable, AutoCloseable {
             if (job.getDontDeleteMe()) {
                 return DeleteStatus.JOB_DO_NOT_DELETE;
             }
-            spawnState.jobs.remove(jobUUID);
-            spawnState.jobDependencies.removeNode(jobUUID);
+            jobLocks.lockGlobal();
+            try {
+                spawnState.jobs.remove(jobUUID);
+                spawnState.jobDependencies.removeNode(jobUUID);
+            } finally {
+                jobLocks.unlockGlobal();
+            }
             log.warn("[job.delete] {}", job.getId());
             if (spawnMQ != null) {
                 spawnMQ.sendControlMessage(new CommandTaskDelete(HostMessage.ALL_HOSTS,
@@ -1865,12 +1869,13 @@ public class Spawn implements Codable, AutoCloseable {
             }
             sendJobUpdateEvent("job.delete", job);
             jobConfigManager.deleteJob(job.getId());
+            jobSearchIndex.removeJob(job.getId());
             if (jobStore != null) {
                 jobStore.delete(jobUUID);
             }
             Job.logJobEvent(job, JobEvent.DELETE, eventLog);
         } finally {
-            releaseJobLock();
+            releaseJobLock(jobUUID);
         }
         jobAlertManager.removeAlertsForJob(jobUUID);
         return DeleteStatus.SUCCESS;
@@ -2079,7 +2084,7 @@ public class Spawn implements Codable, AutoCloseable {
     public void killJob(String jobUUID) throws Exception {
         boolean success = false;
         while (!success && !shuttingDown.get()) {
-            acquireJobLock();
+            acquireJobLock(jobUUID);
             try {
                 if (taskQueuesByPriority.tryLock()) {
                     success = true;
@@ -2094,7 +2099,7 @@ public class Spawn implements Codable, AutoCloseable {
                     }
                 }
             } finally {
-                releaseJobLock();
+                releaseJobLock(jobUUID);
                 if (success) {
                     taskQueuesByPriority.unlock();
                 }
@@ -2246,7 +2251,7 @@ public class Spawn implements Codable, AutoCloseable {
     public JobMacro createJobHostMacro(String job, int port) {
         String sPort = Integer.valueOf(port).toString();
         Set<String> jobHosts = new TreeSet<>();// best set?
-        acquireJobLock();
+        acquireJobLock(job);
         try {
             Collection<HostState> hosts = hostManager.listHostStatus(null);
             Map<String, String> uuid2Host = new HashMap<>();
@@ -2270,7 +2275,7 @@ public class Spawn implements Codable, AutoCloseable {
                 }
             }
         } finally {
-            releaseJobLock();
+            releaseJobLock(job);
         }
 
         List<String> hostStrings = new ArrayList<>();
@@ -2285,15 +2290,10 @@ public class Spawn implements Codable, AutoCloseable {
      * sent for a while.
      */
     public void saveAllJobs() {
-        acquireJobLock();
-        try {
-            for (Job job : listJobs()) {
-                if (job != null) {
-                    sendJobUpdateEvent(job);
-                }
+        for (Job job : listJobs()) {
+            if (job != null) {
+                sendJobUpdateEvent(job);
             }
-        } finally {
-            releaseJobLock();
         }
     }
 
@@ -2304,11 +2304,11 @@ public class Spawn implements Codable, AutoCloseable {
      * send job update event to registered listeners (usually http clients)
      */
     private void sendJobUpdateEvent(Job job) {
-        acquireJobLock();
+        acquireJobLock(job.getId());
         try {
             jobConfigManager.updateJob(job);
         } finally {
-            releaseJobLock();
+            releaseJobLock(job.getId());
         }
         sendJobUpdateEvent("job.update", job);
     }
@@ -2599,39 +2599,30 @@ public class Spawn implements Codable, AutoCloseable {
 
     /**
      * Iterate over each queue looking for jobs that can run. By design, the queues are processed in descending order of
-     * priority, so we try priority 2 tasks before priority 1, etc.
+     * priority, so we try priority 2 tasks before priority 1, etc. Tasks of jobs that are locked by another thread are
+     * left on the queue for the next iteration.
      */
     public void kickJobsOnQueue() {
-        boolean success = false;
-        while (!success && !shuttingDown.get()) {
-            // need the job lock first
-            acquireJobLock();
-            try {
-                if (taskQueuesByPriority.tryLock()) {
-                    success = true;
-                    taskQueuesByPriority.setStoppedJob(false);
-                    taskQueuesByPriority.updateAllHostAvailSlots(hostManager.listHostStatus(null));
-                    Iterator<LinkedList<SpawnQueueItem>> qIter = taskQueuesByPriority.getQueues().iterator();
-                    while (qIter.hasNext()) {
-                        LinkedList<SpawnQueueItem> subQueue = qIter.next();
-                        iterateThroughTaskQueue(subQueue);
-                        if (subQueue.isEmpty()) {
-                            qIter.remove();
-                        }
-                    }
-                    new UpdateEventRunnable(this).run();
-                    sendTaskQueueUpdateEvent();
-                }
-            } finally {
-                releaseJobLock();
-                if (success) {
-                    taskQueuesByPriority.unlock();
+        if (shuttingDown.get()) {
+            return;
+        }
+        taskQueuesByPriority.lock();
+        try {
+            taskQueuesByPriority.setStoppedJob(false);
+            taskQueuesByPriority.updateAllHostAvailSlots(hostManager.listHostStatus(null));
+            Iterator<LinkedList<SpawnQueueItem>> qIter = taskQueuesByPriority.getQueues().iterator();
+            while (qIter.hasNext()) {
+                LinkedList<SpawnQueueItem> subQueue = qIter.next();
+                iterateThroughTaskQueue(subQueue);
+                if (subQueue.isEmpty()) {
+                    qIter.remove();
                 }
             }
-            if (!success) {
-                Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
-            }
+        } finally {
+            taskQueuesByPriority.unlock();
         }
+        new UpdateEventRunnable(this).run();
+        sendTaskQueueUpdateEvent();
     }
 
     public void toggleHosts(String hosts, boolean disable) {
@@ -2699,7 +2690,7 @@ public class Spawn implements Codable, AutoCloseable {
     }
 
     @VisibleForTesting protected void loadJobs() {
-        acquireJobLock();
+        jobLocks.lockGlobal();
         try {
             for (IJob iJob : jobConfigManager.loadJobs().values()) {
                 if (iJob != null) {
@@ -2707,7 +2698,7 @@ public class Spawn implements Codable, AutoCloseable {
                 }
             }
         } finally {
-            releaseJobLock();
+            jobLocks.unlockGlobal();
         }
         Thread loadDependencies = new Thread(() -> {
             Set<String> jobIds = spawnState.jobs.keySet();
@@ -3365,6 +3356,10 @@ public class Spawn implements Codable, AutoCloseable {
         // Terminate if out of tasks or we stopped a job, requiring a queue modification
         while (iter.hasNext() && !taskQueuesByPriority.getStoppedJob()) {
             SpawnQueueItem key = iter.next();
+            // the queue is locked, so waiting for a job lock could deadlock with a thread that holds it
+            if (!tryAcquireJobLock(key.getJobUuid())) {
+                continue;
+            }
             Job job = getJob(key.getJobUuid());
             JobTask task = getTask(key.getJobUuid(), key.getNodeNumber());
             try {
@@ -3398,6 +3393,8 @@ public class Spawn implements Codable, AutoCloseable {
                     iter.remove();
                     queueJobTaskUpdateEvent(job);
                 }
+            } finally {
+                releaseJobLock(key.getJobUuid());
             }
         }
         if (skippedQuiesceCount > 0) {
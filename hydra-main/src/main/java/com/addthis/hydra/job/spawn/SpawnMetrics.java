@@ -19,6 +19,7 @@ import com.addthis.hydra.util.SettableGauge;
 
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 
 import static com.addthis.hydra.util.SettableGauge.newSettableGauge;
@@ -60,5 +61,10 @@ public final class SpawnMetrics {
     static final Counter jobTaskUpdateHeartbeatFailureCounter =
             Metrics.newCounter(Spawn.class, "jobTaskUpdateHeartbeatFailure");
 
+    static final Histogram jobLockHoldMicros = Metrics.newHistogram(Spawn.class, "jobLockHoldMicros", true);
+    static final Histogram jobLockWaitMicros = Metrics.newHistogram(Spawn.class, "jobLockWaitMicros", true);
+    static final Histogram globalJobLockHoldMicros =
+            Metrics.newHistogram(Spawn.class, "globalJobLockHoldMicros", true);
+
     private SpawnMetrics() {}
 }
@@ -52,9 +52,9 @@ class UpdateEventRunnable implements Runnable {
         int taskQueuedNoSlot = 0;
         long files = 0;
         long bytes = 0;
-        spawn.acquireJobLock();
-        try {
-            for (Job job : spawn.spawnState.jobs.values()) {
+        for (Job job : spawn.spawnState.jobs.values()) {
+            spawn.acquireJobLock(job.getId());
+            try {
                 jobsTotal++;
                 for (JobTask jn : job.getCopyOfTasks()) {
                     tasksTotal++;
@@ -127,9 +127,9 @@ class UpdateEventRunnable implements Runnable {
                 if (job.getState() == JobState.ERROR) {
                     jobsErrored++;
                 }
+            } finally {
+                spawn.releaseJobLock(job.getId());
             }
-        } finally {
-            spawn.releaseJobLock();
         }
         long diskUsed = 0;
         long diskCapacity = 0;
@@ -776,22 +776,17 @@ public class SpawnBalancer implements Codable, AutoCloseable {
 
     private List<JobTask> findAllTasksAssignedToHost(String failedHostUUID) {
         List<JobTask> rv = new ArrayList<>();
-        spawn.acquireJobLock();
-        try {
-            for (Job job : spawn.listJobs()) {
-                if (job != null) {
-                    for (JobTask task : job.getCopyOfTasks()) {
-                        if ((task != null) &&
-                            (task.getHostUUID().equals(failedHostUUID) || task.hasReplicaOnHost(failedHostUUID))) {
-                            rv.add(task);
-                        }
+        for (Job job : spawn.listJobs()) {
+            if (job != null) {
+                for (JobTask task : job.getCopyOfTasks()) {
+                    if ((task != null) &&
+                        (task.getHostUUID().equals(failedHostUUID) || task.hasReplicaOnHost(failedHostUUID))) {
+                        rv.add(task);
                     }
                 }
             }
-            return rv;
-        } finally {
-            spawn.releaseJobLock();
         }
+        return rv;
     }
 
     /**
@@ -1423,7 +1418,7 @@ public class SpawnBalancer implements Codable, AutoCloseable {
         List<JobTaskMoveAssignment> rv = purgeMisplacedTasks(host, 1);
         String hostID = host.getHostUuid();
         for (String jobID : activeJobs) {
-            spawn.acquireJobLock();
+            spawn.acquireJobLock(jobID);
             try {
                 Job job = spawn.getJob(jobID);
                 if (job != null) {
@@ -1457,7 +1452,7 @@ public class SpawnBalancer implements Codable, AutoCloseable {
                     }
                 }
             } finally {
-                spawn.releaseJobLock();
+                spawn.releaseJobLock(jobID);
             }
         }
         return rv;
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn.search;
+
+import javax.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.addthis.hydra.job.JobConfigManager;
+import com.addthis.hydra.job.entity.JobMacro;
+
+/**
+ * Search index over the job configurations and macros of a spawn, kept up to date as
+ * configurations are saved so that a {@link JobSearcher} only has to run its pattern over
+ * the texts that can contain a match.
+ * <p/>
+ * Job configurations are added to the index the first time they are searched and replaced
+ * whenever spawn saves them. Only the trigram postings and the macro includes of each job
+ * are kept; the configuration of a candidate is read from the config manager again when
+ * the search confirms it. Macros are compared against the macro manager at the start of
+ * each search and the macro dependency graph is only rebuilt when a macro has changed.
+ */
+public class JobSearchIndex {
+
+    private final JobConfigManager jobConfigManager;
+
+    private final TrigramIndex<String> jobIndex = new TrigramIndex<>();
+    private final Map<String, IncludeLocations> jobIncludes = new HashMap<>();
+
+    private final TrigramIndex<String> macroIndex = new TrigramIndex<>();
+    private final Map<String, String> macroTexts = new HashMap<>();
+    @Nullable private JobMacroGraph macroGraph;
+
+    public JobSearchIndex(JobConfigManager jobConfigManager) {
+        this.jobConfigManager = jobConfigManager;
+    }
+
+    /**
+     * Called after the configuration of a job has been saved.
+     */
+    public synchronized void updateJob(String jobId, @Nullable String config) {
+        String text = Objects.toString(config, "");
+        jobIncludes.put(jobId, IncludeLocations.forMacros(text));
+        jobIndex.put(jobId, text);
+    }
+
+    public synchronized void removeJob(String jobId) {
+        jobIncludes.remove(jobId);
+        jobIndex.remove(jobId);
+    }
+
+    /**
+     * @return the configuration of the job as read from the config manager, which is
+     * also indexed if it is not indexed yet
+     */
+    public String config(String jobId) {
+        String config = Objects.toString(jobConfigManager.getConfig(jobId), "");
+        synchronized (this) {
+            if (!jobIncludes.containsKey(jobId)) {
+                updateJob(jobId, config);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @return the macros and aliases included by the configuration of the job
+     */
+    public synchronized IncludeLocations macroIncludes(String jobId) {
+        IncludeLocations includes = jobIncludes.get(jobId);
+        if (includes == null) {
+            updateJob(jobId, jobConfigManager.getConfig(jobId));
+            includes = jobIncludes.get(jobId);
+        }
+        return includes;
+    }
+
+    /**
+     * @return the jobs whose configuration may contain a line that matches the query,
+     * or null if any job may match
+     */
+    @Nullable
+    public Set<String> candidateJobs(Collection<String> jobIds, TrigramQuery query) {
+        if (query.branches() == null) {
+            return null;
+        }
+        for (String jobId : jobIds) {
+            macroIncludes(jobId);
+        }
+        return jobIndex.candidates(query);
+    }
+
+    /**
+     * Brings the macro index up to date with the current macros.
+     *
+     * @return the dependency graph of the current macros
+     */
+    public synchronized JobMacroGraph macroGraph(Map<String, JobMacro> macros) {
+        boolean changed = false;
+        Iterator<String> names = macroTexts.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!macros.containsKey(name)) {
+                names.remove();
+                macroIndex.remove(name);
+                changed = true;
+            }
+        }
+        for (Map.Entry<String, JobMacro> entry : macros.entrySet()) {
+            String text = entry.getValue().getMacro();
+            if (!Objects.equals(text, macroTexts.get(entry.getKey()))) {
+                macroTexts.put(entry.getKey(), text);
+                macroIndex.put(entry.getKey(), Objects.toString(text, ""));
+                changed = true;
+            }
+        }
+        if (changed || (macroGraph == null)) {
+            macroGraph = new JobMacroGraph(macros);
+        }
+        return macroGraph;
+    }
+
+    /**
+     * @return the macros that may contain a line that matches the query, or null if any macro may match
+     */
+    @Nullable
+    public Set<String> candidateMacros(TrigramQuery query) {
+        return macroIndex.candidates(query);
+    }
+}
@@ -56,6 +56,7 @@ public class JobSearcher implements Runnable {
     private final Map<String, JobMacro> macros;
     private final Map<String, Job> jobs;
     private final JobConfigManager jobConfigManager;
+    @Nullable private final JobSearchIndex index;
     private final JsonGenerator generator;
     private final Map<String, List<String>> aliases;
     // job id -> macros included directly or indirectly in the job
@@ -67,10 +68,24 @@ public class JobSearcher implements Runnable {
                        JobConfigManager jobConfigManager,
                        SearchOptions options,
                        OutputStream outputStream) throws IOException {
+        this(jobs, macros, aliases, jobConfigManager, null, options, outputStream);
+    }
+
+    /**
+     * @param index if not null, used to skip the jobs and macros that cannot contain a match
+     */
+    public JobSearcher(Map<String, Job> jobs,
+                       Map<String, JobMacro> macros,
+                       Map<String, List<String>> aliases,
+                       JobConfigManager jobConfigManager,
+                       @Nullable JobSearchIndex index,
+                       SearchOptions options,
+                       OutputStream outputStream) throws IOException {
         this.jobs = jobs;
         this.macros = macros;
         this.aliases = aliases;
         this.jobConfigManager = jobConfigManager;
+        this.index = index;
         this.pattern = Pattern.compile(options.pattern);
         this.generator = Jackson.defaultMapper().getFactory().createGenerator(outputStream);
         this.jobMacrosMap = new HashMap<>();
@@ -81,8 +96,20 @@ public class JobSearcher implements Runnable {
         try {
             generator.writeStartObject();
 
-            JobMacroGraph dependencyGraph = new JobMacroGraph(macros);
-            Map<String, Set<TextLocation>> macroSearches = searchMacros(macros, dependencyGraph);
+            TrigramQuery query = TrigramQuery.forRegex(pattern.pattern());
+            JobMacroGraph dependencyGraph;
+            Set<String> macroCandidates;
+            Set<String> jobCandidates;
+            if (index != null) {
+                dependencyGraph = index.macroGraph(macros);
+                macroCandidates = index.candidateMacros(query);
+                jobCandidates = index.candidateJobs(jobs.keySet(), query);
+            } else {
+                dependencyGraph = new JobMacroGraph(macros);
+                macroCandidates = null;
+                jobCandidates = null;
+            }
+            Map<String, Set<TextLocation>> macroSearches = searchMacros(macros, dependencyGraph, macroCandidates);
 
             /*
              {
@@ -96,6 +123,10 @@ public class JobSearcher implements Runnable {
              */
             generator.writeArrayFieldStart("jobs");
             for (Job job : jobs.values()) {
+                if ((jobCandidates != null) && !jobCandidates.contains(job.getId()) &&
+                    !mayMatchIndirectly(job, dependencyGraph, macroSearches)) {
+                    continue;
+                }
                 SearchResult jobSearchResult = searchJob(job, dependencyGraph, macroSearches);
                 if (jobSearchResult != null) {
                     generator.writeObject(jobSearchResult);
@@ -120,8 +151,8 @@ public class JobSearcher implements Runnable {
 
     @Nullable
     private SearchResult searchJob(Job job, JobMacroGraph dependencyGraph, Map<String, Set<TextLocation>> macroSearches) {
-        String config = jobConfigManager.getConfig(job.getId());
-        IncludeLocations macroIncludeLocations = forMacros(config);
+        String config = getConfig(job.getId());
+        IncludeLocations macroIncludeLocations = (index != null) ? index.macroIncludes(job.getId()) : forMacros(config);
 
         Predicate<String> predicate = pattern.asPredicate();
         Set<TextLocation> searchLocs = LineSearch.search(config, pattern);
@@ -163,6 +194,36 @@ public class JobSearcher implements Runnable {
         }
     }
 
+    /**
+     * Returns true if a job whose configuration has no direct match may still have a search result, because it
+     * includes a macro or alias that matches or because one of its parameters matches.
+     */
+    private boolean mayMatchIndirectly(Job job, JobMacroGraph dependencyGraph,
+                                       Map<String, Set<TextLocation>> macroSearches) {
+        IncludeLocations macroIncludeLocations = index.macroIncludes(job.getId());
+        if (!getDependencySearchMatches(macroIncludeLocations, dependencyGraph, macroSearches).isEmpty() ||
+            !getMatchedAliasLocations(macroIncludeLocations).isEmpty()) {
+            return true;
+        }
+        Predicate<String> predicate = pattern.asPredicate();
+        for (JobParameter param : job.getParameters()) {
+            String paramValue = param.getValue();
+            if (!Strings.isNullOrEmpty(paramValue) && predicate.test(paramValue)) {
+                return true;
+            }
+            IncludeLocations nestedIncludeLocations = forMacros(param.getValueOrDefault());
+            if (!getMatchedAliasLocations(nestedIncludeLocations).isEmpty() ||
+                !getDependencySearchMatches(nestedIncludeLocations, dependencyGraph, macroSearches).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getConfig(String jobId) {
+        return (index != null) ? index.config(jobId) : jobConfigManager.getConfig(jobId);
+    }
+
     private Set<TextLocation> getMatchedAliasLocations(IncludeLocations macroIncludeLocations) {
         Predicate<String> predicate = pattern.asPredicate();
         ImmutableSet.Builder<TextLocation> results = ImmutableSet.builder();
@@ -224,13 +285,20 @@ public class JobSearcher implements Runnable {
      *
      * @param macros            all macros
      * @param dependencyGraph   provides macro dependencies
+     * @param candidates        the macros that can contain a direct match, or null to search every macro
      * @return A map of macro names to their match locations. If a macro has no match, its value will be an empty set.
      */
-    private Map<String, Set<TextLocation>> searchMacros(Map<String, JobMacro> macros, JobMacroGraph dependencyGraph) {
+    private Map<String, Set<TextLocation>> searchMacros(Map<String, JobMacro> macros,
+                                                        JobMacroGraph dependencyGraph,
+                                                        @Nullable Set<String> candidates) {
         Map<String, Set<TextLocation>> results = new HashMap<>();
 
         // Search the macro texts for direct match of the search pattern
         for (String macroName : macros.keySet()) {
+            if ((candidates != null) && !candidates.contains(macroName)) {
+                results.put(macroName, new HashSet<>());
+                continue;
+            }
             JobMacro macro = macros.get(macroName);
             results.put(macroName, LineSearch.search(macro.getMacro(), pattern));
         }
@@ -282,8 +350,8 @@ public class JobSearcher implements Runnable {
         Set<String> macros = jobMacrosMap.get(jobId);
         if (macros == null) {
             // get macros directly included in the job config
-            String jobConfig = jobConfigManager.getConfig(jobId);
-            Set<String> directMacros = IncludeLocations.forMacros(jobConfig).dependencies();
+            Set<String> directMacros = (index != null) ? index.macroIncludes(jobId).dependencies()
+                                                       : IncludeLocations.forMacros(getConfig(jobId)).dependencies();
             if (directMacros.isEmpty()) {
                 macros = Collections.emptySet();
             } else {
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn.search;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from trigrams to the texts that contain them. Used to narrow a regular
+ * expression search down to the texts that can possibly match before the expression is run.
+ * <p/>
+ * Each text is given an ordinal when it is added and every posting list holds ordinals in
+ * increasing order. Replacing or removing a text only retires its ordinal; the postings are
+ * compacted once more than half of the ordinals are retired.
+ */
+class TrigramIndex<K> {
+
+    private static final int MIN_COMPACTION = 1024;
+
+    private final Map<K, Integer> ordinals = new HashMap<>();
+    private final List<K> keys = new ArrayList<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private int retired;
+
+    public synchronized void put(K key, String text) {
+        remove(key);
+        int ordinal = keys.size();
+        keys.add(key);
+        ordinals.put(key, ordinal);
+        for (long trigram : TrigramQuery.trigrams(text)) {
+            postings.computeIfAbsent(trigram, t -> new Postings()).add(ordinal);
+        }
+    }
+
+    public synchronized void remove(K key) {
+        Integer ordinal = ordinals.remove(key);
+        if (ordinal != null) {
+            keys.set(ordinal, null);
+            retired++;
+            if ((retired > MIN_COMPACTION) && (retired > ordinals.size())) {
+                compact();
+            }
+        }
+    }
+
+    public synchronized boolean contains(K key) {
+        return ordinals.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return ordinals.size();
+    }
+
+    /**
+     * @return the keys of the texts that may match the query, or null if every text may match
+     */
+    @Nullable
+    public synchronized Set<K> candidates(TrigramQuery query) {
+        List<long[]> branches = query.branches();
+        if (branches == null) {
+            return null;
+        }
+        BitSet matches = new BitSet(keys.size());
+        for (long[] trigrams : branches) {
+            matches.or(intersect(trigrams));
+        }
+        Set<K> result = new HashSet<>();
+        for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+            K key = keys.get(ordinal);
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    private BitSet intersect(long[] trigrams) {
+        Postings[] lists = new Postings[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            lists[i] = postings.get(trigrams[i]);
+            if (lists[i] == null) {
+                return new BitSet();
+            }
+        }
+        // start from the rarest trigram
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        BitSet result = lists[0].toBitSet();
+        for (int i = 1; (i < lists.length) && !result.isEmpty(); i++) {
+            result.and(lists[i].toBitSet());
+        }
+        return result;
+    }
+
+    private void compact() {
+        int[] remap = new int[keys.size()];
+        List<K> live = new ArrayList<>(ordinals.size());
+        for (int ordinal = 0; ordinal < keys.size(); ordinal++) {
+            K key = keys.get(ordinal);
+            if (key == null) {
+                remap[ordinal] = -1;
+            } else {
+                remap[ordinal] = live.size();
+                ordinals.put(key, live.size());
+                live.add(key);
+            }
+        }
+        keys.clear();
+        keys.addAll(live);
+        retired = 0;
+        Iterator<Postings> iterator = postings.values().iterator();
+        while (iterator.hasNext()) {
+            Postings list = iterator.next();
+            list.remap(remap);
+            if (list.size == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Postings {
+
+        int[] ordinals = new int[2];
+        int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        void remap(int[] remap) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int ordinal = remap[ordinals[i]];
+                if (ordinal >= 0) {
+                    ordinals[count++] = ordinal;
+                }
+            }
+            size = count;
+            if (ordinals.length > (count * 2 + 2)) {
+                ordinals = Arrays.copyOf(ordinals, count + 2);
+            }
+        }
+
+        BitSet toBitSet() {
+            BitSet bits = new BitSet();
+            for (int i = 0; i < size; i++) {
+                bits.set(ordinals[i]);
+            }
+            return bits;
+        }
+    }
+}
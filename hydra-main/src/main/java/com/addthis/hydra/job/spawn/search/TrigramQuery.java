@@ -0,0 +1,328 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn.search;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The trigrams that any line matching a regular expression must contain, as an
+ * OR of ANDs: a line can only match if it contains every trigram of at least one
+ * of the {@link #branches()}.
+ * <p/>
+ * The extraction is conservative. Only the literal runs of the top level
+ * alternatives are used; groups, character classes, wildcards and anchors end a
+ * run, and a pattern that uses flags or escapes with arguments is not narrowed
+ * at all. A query that cannot narrow the search returns null from
+ * {@link #branches()} and every text is a candidate.
+ */
+public final class TrigramQuery {
+
+    private static final TrigramQuery ANY = new TrigramQuery(null);
+
+    @Nullable private final List<long[]> branches;
+
+    private TrigramQuery(@Nullable List<long[]> branches) {
+        this.branches = branches;
+    }
+
+    /**
+     * @return the sorted trigrams required by each alternative, or null if every text can match
+     */
+    @Nullable
+    public List<long[]> branches() {
+        return branches;
+    }
+
+    public static TrigramQuery forRegex(String regex) {
+        // inline flags, lookarounds and named groups
+        if (regex.contains("(?")) {
+            return ANY;
+        }
+        List<long[]> branches = new ArrayList<>();
+        for (String branch : splitAlternatives(regex)) {
+            long[] trigrams = branchTrigrams(branch);
+            if ((trigrams == null) || (trigrams.length == 0)) {
+                return ANY;
+            }
+            branches.add(trigrams);
+        }
+        return new TrigramQuery(branches);
+    }
+
+    /**
+     * Packs three characters into a single value. Trigrams that span a line break are never
+     * produced because matches are confirmed one line at a time.
+     */
+    static long trigram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    /**
+     * @return the sorted distinct trigrams of the text
+     */
+    static long[] trigrams(CharSequence text) {
+        int length = text.length();
+        if (length < 3) {
+            return new long[0];
+        }
+        long[] result = new long[length - 2];
+        int count = 0;
+        for (int i = 0; i < (length - 2); i++) {
+            char a = text.charAt(i);
+            char b = text.charAt(i + 1);
+            char c = text.charAt(i + 2);
+            if ((a != '\n') && (b != '\n') && (c != '\n')) {
+                result[count++] = trigram(a, b, c);
+            }
+        }
+        return distinct(result, count);
+    }
+
+    private static long[] distinct(long[] values, int count) {
+        if (count == 0) {
+            return new long[0];
+        }
+        Arrays.sort(values, 0, count);
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, unique);
+    }
+
+    /**
+     * Splits a pattern on the alternations that are outside of groups and character classes.
+     */
+    private static List<String> splitAlternatives(String regex) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if ((c == ')') && (depth > 0)) {
+                depth--;
+            } else if ((c == '|') && (depth == 0)) {
+                result.add(regex.substring(start, i));
+                start = i + 1;
+            }
+            i++;
+        }
+        result.add(regex.substring(start));
+        return result;
+    }
+
+    /**
+     * @return the trigrams of all literal runs of a pattern without top level alternation,
+     * or null if the pattern contains constructs that are not understood
+     */
+    @Nullable
+    private static long[] branchTrigrams(String regex) {
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int next;
+            char literal;
+            if (c == '\\') {
+                if ((i + 1) >= regex.length()) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    String quoted = (end < 0) ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                    next = (end < 0) ? regex.length() : (end + 2);
+                    if (quoted.isEmpty()) {
+                        i = next;
+                        continue;
+                    }
+                    // all but the last quoted character are required, the last one may be quantified
+                    run.append(quoted, 0, quoted.length() - 1);
+                    literal = quoted.charAt(quoted.length() - 1);
+                } else if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                    next = i + 2;
+                } else if ("tnrfae".indexOf(escaped) >= 0) {
+                    literal = "\t\n\r\f\u0007\u001B".charAt("tnrfae".indexOf(escaped));
+                    next = i + 2;
+                } else if ("dDwWsSbBAGzZ".indexOf(escaped) >= 0) {
+                    flush(run, runs);
+                    i = skipQuantifier(regex, i + 2);
+                    continue;
+                } else {
+                    // escapes with arguments and back references
+                    return null;
+                }
+            } else if (c == '[') {
+                flush(run, runs);
+                i = skipQuantifier(regex, skipClass(regex, i));
+                continue;
+            } else if (c == '(') {
+                flush(run, runs);
+                int end = skipGroup(regex, i);
+                if (end < 0) {
+                    return null;
+                }
+                i = skipQuantifier(regex, end);
+                continue;
+            } else if ((c == '.') || (c == '^') || (c == '$')) {
+                flush(run, runs);
+                i = skipQuantifier(regex, i + 1);
+                continue;
+            } else if ((c == '*') || (c == '+') || (c == '?') || (c == '{') || (c == ')')) {
+                return null;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+            if (next < regex.length()) {
+                char quantifier = regex.charAt(next);
+                if ((quantifier == '*') || (quantifier == '?') ||
+                    ((quantifier == '{') && regex.startsWith("{0", next))) {
+                    // the character is optional
+                    flush(run, runs);
+                    i = skipQuantifier(regex, next);
+                    continue;
+                } else if ((quantifier == '+') || (quantifier == '{')) {
+                    // the character is required but may repeat
+                    run.append(literal);
+                    flush(run, runs);
+                    i = skipQuantifier(regex, next);
+                    continue;
+                }
+            }
+            run.append(literal);
+            i = next;
+        }
+        flush(run, runs);
+        if (runs.isEmpty()) {
+            return new long[0];
+        }
+        long[][] trigrams = new long[runs.size()][];
+        int total = 0;
+        for (int j = 0; j < runs.size(); j++) {
+            trigrams[j] = trigrams(runs.get(j));
+            total += trigrams[j].length;
+        }
+        long[] result = new long[total];
+        int count = 0;
+        for (long[] values : trigrams) {
+            System.arraycopy(values, 0, result, count, values.length);
+            count += values.length;
+        }
+        return distinct(result, count);
+    }
+
+    private static void flush(StringBuilder run, List<String> runs) {
+        if (run.length() >= 3) {
+            runs.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    private static int skipEscape(String regex, int i) {
+        if (regex.startsWith("\\Q", i)) {
+            int end = regex.indexOf("\\E", i + 2);
+            return (end < 0) ? regex.length() : (end + 2);
+        }
+        return Math.min(regex.length(), i + 2);
+    }
+
+    /**
+     * @return the index after the character class that starts at {@code i}, which may contain nested classes
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            } else if (c == '[') {
+                depth++;
+                // a closing bracket at the start of a class is a literal
+                if (regex.startsWith("]", i + 1)) {
+                    i++;
+                } else if (regex.startsWith("^]", i + 1)) {
+                    i += 2;
+                }
+            } else if ((c == ']') && (--depth == 0)) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the group that starts at {@code i}, or -1 if the group is not closed
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if ((c == ')') && (--depth == 0)) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the quantifier at {@code i} and its lazy or possessive suffix, if any
+     */
+    private static int skipQuantifier(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char c = regex.charAt(i);
+        if (c == '{') {
+            int end = regex.indexOf('}', i);
+            i = (end < 0) ? regex.length() : (end + 1);
+        } else if ((c == '*') || (c == '+') || (c == '?')) {
+            i++;
+        } else {
+            return i;
+        }
+        if ((i < regex.length()) && ((regex.charAt(i) == '?') || (regex.charAt(i) == '+'))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -134,7 +134,7 @@ public class JobRequestHandlerImpl implements JobRequestHandler {
     public Job updateMinionType(String jobId, String minionType, String username, String token, String sudo)
             throws Exception {
         checkUserCredentials(username, token);
-        spawn.acquireJobLock();
+        spawn.acquireJobLock(jobId);
         try {
             Job job = spawn.getJob(jobId);
             if (job != null) {
@@ -148,7 +148,7 @@ public class JobRequestHandlerImpl implements JobRequestHandler {
             }
             return job;
         } finally {
-            spawn.releaseJobLock();
+            spawn.releaseJobLock(jobId);
         }
     }
 
@@ -205,26 +205,21 @@ public class GroupsResource {
             }
             Map<String, List<MinimalJob>> quotas = new HashMap<>();
             long totalBytes = 0;
-            spawn.acquireJobLock();
-            try {
-                Iterator<Job> jobIterator = spawn.getSpawnState().jobsIterator();
-                while (jobIterator.hasNext()) {
-                    Job job = jobIterator.next();
-                    String group = job.getGroup();
-                    if (Strings.isNullOrEmpty(group)) {
-                        group = DEFAULT_GROUP;
-                    }
-                    List<MinimalJob> groupJobs = quotas.computeIfAbsent(group, (k) -> new ArrayList<>());
-                    long bytes = 0;
-                    for (JobTask jobTask : job.getCopyOfTasks()) {
-                        bytes += jobTask.getByteCount();
-                    }
-                    totalBytes += bytes;
-                    MinimalJob minimalJob = new MinimalJob(spawn, job, bytes);
-                    groupJobs.add(minimalJob);
+            Iterator<Job> jobIterator = spawn.getSpawnState().jobsIterator();
+            while (jobIterator.hasNext()) {
+                Job job = jobIterator.next();
+                String group = job.getGroup();
+                if (Strings.isNullOrEmpty(group)) {
+                    group = DEFAULT_GROUP;
                 }
-            } finally {
-                spawn.releaseJobLock();
+                List<MinimalJob> groupJobs = quotas.computeIfAbsent(group, (k) -> new ArrayList<>());
+                long bytes = 0;
+                for (JobTask jobTask : job.getCopyOfTasks()) {
+                    bytes += jobTask.getByteCount();
+                }
+                totalBytes += bytes;
+                MinimalJob minimalJob = new MinimalJob(spawn, job, bytes);
+                groupJobs.add(minimalJob);
             }
             adjustedRatio = diskUsed / ((double) totalBytes);
             for (Collection<MinimalJob> jobs : quotas.values()) {
@@ -13,37 +13,12 @@
  */
 package com.addthis.hydra.minion;
 
-import java.io.File;
-import java.io.IOException;
-
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+/**
+ * Number and size of the files in the live directory of a task, as written to job.stats.
+ * Maintained by {@link TaskSizeTracker}.
+ */
 public class FileStats {
-    private static final Logger log = LoggerFactory.getLogger(FileStats.class);
 
     public long count;
     public long bytes;
-
-    void update(File dir) {
-        try {
-            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
-                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    count += 1;
-                    bytes += attrs.size();
-                    return super.visitFile(file, attrs);
-                }
-            });
-        } catch (IOException e) {
-            log.warn("Exception while scanning task files; treating directory as empty", e);
-            count = 0;
-            bytes = 0;
-        }
-    }
 }
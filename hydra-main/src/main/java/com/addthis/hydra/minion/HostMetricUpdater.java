@@ -36,6 +36,7 @@ class HostMetricUpdater extends Thread {
                 Thread.sleep(Minion.hostMetricUpdaterInterval);
                 minion.activeTaskHistogram.update(minion.activeTaskKeys.size());
                 minion.diskFree.set(minion.rootDir.getFreeSpace());
+                updateTaskSizes();
             } catch (Exception ex) {
                 if (!(ex instanceof InterruptedException)) {
                     log.warn("Exception during host metric update: " + ex, ex);
@@ -43,4 +44,26 @@ class HostMetricUpdater extends Thread {
             }
         }
     }
+
+    /**
+     * Apply the changes to task directories that were reported since the last update.
+     * Tasks are tracked from their first size update.
+     */
+    private void updateTaskSizes() {
+        long start = System.currentTimeMillis();
+        TaskSizeTracker.pollEvents();
+        long staleness = 0;
+        for (JobTask task : minion.tasks.values()) {
+            TaskSizeTracker tracker = task.getSizeTrackerIfPresent();
+            if ((tracker == null) || task.isDeleted()) {
+                continue;
+            }
+            staleness = Math.max(staleness, tracker.staleness(start));
+            if (tracker.isDirty()) {
+                task.updateFileStats(false);
+            }
+        }
+        minion.taskSizeStaleness.set(staleness);
+        minion.taskSizeRefreshTime.set(System.currentTimeMillis() - start);
+    }
 }
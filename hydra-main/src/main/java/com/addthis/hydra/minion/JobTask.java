@@ -14,6 +14,7 @@
 package com.addthis.hydra.minion;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -54,6 +55,7 @@ import com.addthis.hydra.job.mq.StatusTaskPort;
 import com.addthis.hydra.job.mq.StatusTaskReplica;
 import com.addthis.hydra.job.mq.StatusTaskReplicate;
 import com.addthis.hydra.job.mq.StatusTaskRevert;
+import com.addthis.hydra.minion.replicate.ReplicaSender;
 import com.addthis.hydra.task.run.TaskExitState;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -115,10 +117,15 @@ public class JobTask implements Codable {
     File jobPort;
     Integer port;
 
+    private TaskSizeTracker sizeTracker;
+
     public JobTask(Minion minion) {this.minion = minion;}
 
     public void setDeleted(boolean deleted) {
         this.deleted = deleted;
+        if (deleted) {
+            closeSizeTracker();
+        }
     }
 
     public JobKey getJobKey() {
@@ -199,19 +206,51 @@ public class JobTask implements Codable {
     }
 
     public void updateFileStats() {
+        updateFileStats(true);
+    }
+
+    /**
+     * @param full also check the backups of the task for changes
+     */
+    void updateFileStats(boolean full) {
         final TimerContext updateTimer = minion.fileStatsTimer.time();
+        TaskSizeTracker tracker = getSizeTracker();
+        TaskSizeTracker.pollEvents();
+        tracker.refresh(full);
         FileStats stats = new FileStats();
-        stats.update(jobDir);
-        try {
-            LessFiles.write(new File(getConfigDir(), "job.stats"), LessBytes.toBytes(CodecJSON.encodeString(stats)), false);
-        } catch (Exception e) {
-            log.warn("", e);
+        stats.count = tracker.liveCount();
+        stats.bytes = tracker.liveBytes();
+        // only write on change since writing is itself a change to the task directory
+        if ((stats.count != fileCount) || (stats.bytes != fileBytes)) {
+            try {
+                LessFiles.write(new File(getConfigDir(), "job.stats"), LessBytes.toBytes(CodecJSON.encodeString(stats)), false);
+            } catch (Exception e) {
+                log.warn("", e);
+            }
         }
         fileCount = stats.count;
         fileBytes = stats.bytes;
         updateTimer.stop();
     }
 
+    synchronized TaskSizeTracker getSizeTracker() {
+        if (sizeTracker == null) {
+            sizeTracker = new TaskSizeTracker(taskRoot, new File(getConfigDir(), "job.sizes"));
+        }
+        return sizeTracker;
+    }
+
+    @Nullable synchronized TaskSizeTracker getSizeTrackerIfPresent() {
+        return sizeTracker;
+    }
+
+    private synchronized void closeSizeTracker() {
+        if (sizeTracker != null) {
+            sizeTracker.close();
+            sizeTracker = null;
+        }
+    }
+
     public void allocate() {
         Minion.capacityLock.lock();
         try {
@@ -382,7 +421,8 @@ public class JobTask implements Codable {
             return null;
         }
         try {
-            String target = ProcessUtils.getTaskBaseDir(replica.getBaseDir(), id, node);
+            String targetRoot = ProcessUtils.getTaskBaseDir(replica.getBaseDir(), id, node);
+            String target = targetRoot;
             if (!replicateAllBackups) {
                 target += "/live";
             }
@@ -398,7 +438,7 @@ public class JobTask implements Codable {
             rv.add(mkTarget);
             if (replicateAllBackups) {
                 StringBuilder sb = new StringBuilder();
-                sb.append(createRsyncCommand(userAT, jobDir.getParentFile().getAbsolutePath() + "/", target));
+                sb.append(createReplicateCommand(replica, targetRoot, true));
                 for (String backup : findLocalBackups(true)) {
                     if (backup.startsWith(ScheduledBackupType.getBackupPrefix())) {
                         // only include "b-" dirs/exclude gold - it won't exist on the remote host after the rsync.
@@ -410,7 +450,7 @@ public class JobTask implements Codable {
                 rv.add(sb.toString());
             } else {
                 rv.add(createDeleteCommand(false, userAT, target + "/replicate.complete") +
-                                "\n" + createRsyncCommand(userAT, jobDir.getAbsolutePath() + "/", target) +
+                                "\n" + createReplicateCommand(replica, targetRoot, false) +
                                 "\n" + createTouchCommand(false, userAT, target + "/replicate.complete", false)
                 );
             }
@@ -451,6 +491,55 @@ public class JobTask implements Codable {
         return copyCommands;
     }
 
+    private String createReplicateCommand(ReplicaTarget replica, String targetRoot, boolean replicateAllBackups) throws Exception {
+        if (!"blocks".equals(Minion.replicateEngine)) {
+            String userAT = replica.getUserAT();
+            return replicateAllBackups ?
+                   createRsyncCommand(userAT, jobDir.getParentFile().getAbsolutePath() + "/", targetRoot) :
+                   createRsyncCommand(userAT, jobDir.getAbsolutePath() + "/", targetRoot + "/live");
+        }
+        // the minion runs the transfer so that transfers to a host share its bandwidth limit
+        return "retry " + Minion.curlCommand + " -sSf -d id=" + id + " -d node=" + node +
+               " -d host=" + replica.getHostUuid() + " -d all=" + replicateAllBackups +
+               " http://localhost:" + minion.getJettyPort() + "/task.replicate";
+    }
+
+    /**
+     * Replicate this task to one of its replicas with a {@link ReplicaSender} that runs in the
+     * minion. Called by the replicate script when the block replication engine is used.
+     *
+     * @return bytes of blocks sent
+     */
+    long replicateBlocks(String hostUuid, boolean replicateAllBackups) throws IOException {
+        if (!isReplicating()) {
+            throw new IOException(getName() + " is not replicating");
+        }
+        ReplicaTarget replica = findReplica(hostUuid, replicas);
+        if (replica == null) {
+            replica = findReplica(hostUuid, failureRecoveryReplicas);
+        }
+        if (replica == null) {
+            throw new IOException(hostUuid + " is not a replica of " + getName());
+        }
+        String targetRoot = ProcessUtils.getTaskBaseDir(replica.getBaseDir(), id, node);
+        File live = getLiveDir();
+        return minion.replicaTransfers.replicate(getName(), live.getParentFile(), replica.getUserAT(), targetRoot,
+                                                 replicateAllBackups ? null : Collections.singletonList(live.getName()),
+                                                 Math.max(0, Minion.copyBandwidthLimit) * 1024L);
+    }
+
+    @Nullable
+    private static ReplicaTarget findReplica(String hostUuid, @Nullable ReplicaTarget[] targets) {
+        if (targets != null) {
+            for (ReplicaTarget target : targets) {
+                if (hostUuid.equals(target.getHostUuid())) {
+                    return target;
+                }
+            }
+        }
+        return null;
+    }
+
     private String createRsyncCommand(String userAT, String source, String target) throws Exception {
         return "retry " + Minion.rsyncCommand + (Minion.copyBandwidthLimit > 0 ? " --bwlimit " + Minion.copyBandwidthLimit : "") + " -Hqa --exclude config --exclude gold --exclude replicate.complete --exclude backup.complete --delete-after -e \\'" + Minion.remoteConnectMethod + "\\' " + source + " " + userAT + ":" + target;
     }
@@ -895,7 +984,7 @@ public class JobTask implements Codable {
             execBackup(rebalanceSource, rebalanceTarget, true);
             return;
         }
-        if (execute && (ProcessUtils.findActiveRsync(id, node) != null)) {
+        if (execute && ((ProcessUtils.findActiveRsync(id, node) != null) || minion.replicaTransfers.isActive(getName()))) {
             String msg = "Replicate failed because an existing rsync process was found for " + getName();
             log.warn("[task.execReplicate] {}", msg);
             sendEndStatus(JobTaskErrorCode.EXIT_REPLICATE_FAILURE);
@@ -1195,7 +1284,8 @@ public class JobTask implements Codable {
     public boolean stopWait(boolean kill) {
         File[] activePidFiles = getActivePidFiles();
         Integer rsync = null;
-        if (isReplicating()) {
+        boolean replicating = isReplicating();
+        if (replicating) {
             rsync = ProcessUtils.findActiveRsync(id, node);
         }
         boolean success = activePidFiles != null && stopWait(activePidFiles, kill);
@@ -1203,6 +1293,9 @@ public class JobTask implements Codable {
             // Need to kill the rsync after the replicate script to avoid doing a retry
             ProcessUtils.shell("kill -9 " + rsync, minion.rootDir);
         }
+        if (replicating) {
+            minion.replicaTransfers.cancel(getName());
+        }
         return success;
     }
 
@@ -73,6 +73,7 @@ import com.addthis.hydra.job.mq.JobKey;
 import com.addthis.hydra.job.mq.JobMessage;
 import com.addthis.hydra.job.mq.StatusTaskCantBegin;
 import com.addthis.hydra.job.mq.StatusTaskEnd;
+import com.addthis.hydra.minion.replicate.ReplicaTransfers;
 import com.addthis.hydra.mq.MessageConsumer;
 import com.addthis.hydra.mq.MessageListener;
 import com.addthis.hydra.mq.MessageProducer;
@@ -100,6 +101,7 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
@@ -139,6 +141,13 @@ public class Minion implements MessageListener<CoreMessage>, Codable, AutoClosea
     static final String remoteConnectMethod = Parameter.value("minion.remote.connect.method",
             "ssh -o StrictHostKeyChecking=no -o TCPKeepAlive=yes -o ServerAliveInterval=30");
     static final String rsyncCommand = Parameter.value("minion.rsync.command", "rsync");
+    /* "rsync" or "blocks" to replicate with the manifest based ReplicaSender */
+    static final String replicateEngine = Parameter.value("minion.replicate.engine", "rsync");
+    /* starts the ReplicaReceiver on the target host */
+    static final String replicateJavaCommand = Parameter.value("minion.replicate.java",
+            System.getProperty("java.home") + "/bin/java -Xmx512m");
+    /* used by the replicate script to ask the minion to run a block replication */
+    static final String curlCommand = Parameter.value("minion.curl.command", "curl");
     private static final int maxActiveTasks = Parameter.intValue("minion.max.active.tasks", 3);
     private static final String minionTypes = Parameter.value("minion.types", "default");
     static final int copyRetryLimit = Parameter.intValue("minion.copy.retry.limit", 3);
@@ -197,6 +206,11 @@ public class Minion implements MessageListener<CoreMessage>, Codable, AutoClosea
     final Object jmsxmitlock = new Object();
     final AtomicLong diskTotal = new AtomicLong(0);
     final AtomicLong diskFree = new AtomicLong(0);
+    /** age of the oldest change to a task directory that is not yet in the task sizes */
+    final AtomicLong taskSizeStaleness = new AtomicLong(0);
+    /** time spent updating task sizes in the last run of the host metric updater */
+    final AtomicLong taskSizeRefreshTime = new AtomicLong(0);
+    final ReplicaTransfers replicaTransfers = new ReplicaTransfers(remoteConnectMethod, replicateJavaCommand);
     final Server jetty;
     private ServletContextHandler servletContext = new MinionServletContext(this).build();
 
@@ -283,6 +297,16 @@ public class Minion implements MessageListener<CoreMessage>, Codable, AutoClosea
         nonIdleIgnoredKicks = Metrics.newMeter(Minion.class, "nonIdleIgnoredKicks", "ignored-kick", TimeUnit.MINUTES);
         fileStatsTimer = Metrics.newTimer(Minion.class, "JobTask-byte-size-timer");
         activeTaskHistogram = Metrics.newHistogram(Minion.class, "activeTasks");
+        Metrics.newGauge(Minion.class, "taskSizeStalenessMillis", new Gauge<Long>() {
+            @Override public Long value() {
+                return taskSizeStaleness.get();
+            }
+        });
+        Metrics.newGauge(Minion.class, "taskSizeRefreshMillis", new Gauge<Long>() {
+            @Override public Long value() {
+                return taskSizeRefreshTime.get();
+            }
+        });
         new HostMetricUpdater(this);
         try {
             joinGroup();
@@ -317,7 +341,7 @@ public class Minion implements MessageListener<CoreMessage>, Codable, AutoClosea
         diskReadOnly = disk_read_only;
     }
 
-    private int getJettyPort() {
+    int getJettyPort() {
         return ((ServerConnector) jetty.getConnectors()[0]).getLocalPort();
     }
 
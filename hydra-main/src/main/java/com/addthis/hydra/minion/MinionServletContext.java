@@ -21,6 +21,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 
+import java.net.InetAddress;
+
 import java.util.Enumeration;
 
 import com.addthis.basis.kv.KVPairs;
@@ -57,6 +59,7 @@ public class MinionServletContext {
         servletContex.addServlet(new ServletHolder(new FindExtPortServlet()), "/xdebug/findnextport");
         servletContex.addServlet(new ServletHolder(new ActiveTasksServlet()), "/active.tasks");
         servletContex.addServlet(new ServletHolder(new TaskSizeServlet()), "/task.size");
+        servletContex.addServlet(new ServletHolder(new TaskReplicateServlet()), "/task.replicate");
 
         return servletContex;
     }
@@ -246,6 +249,13 @@ public class MinionServletContext {
             String jobId = kv.getValue("id");
             int taskId = kv.getIntValue("node", -1);
             if (jobId != null && taskId >= 0) {
+                JobTask task = minion.tasks.get(new JobKey(jobId, taskId).toString());
+                // kept current by the host metric updater, so nothing is listed here
+                TaskSizeTracker tracker = (task != null) ? task.getSizeTrackerIfPresent() : null;
+                if ((tracker != null) && !task.isDeleted()) {
+                    response.getWriter().write(Long.toString(tracker.totalBytes()));
+                    return;
+                }
                 try {
                     String duOutput =
                             new SimpleExec(MacUtils.ducmd + " -s --block-size=1 " + ProcessUtils.getTaskBaseDir(
@@ -258,4 +268,34 @@ public class MinionServletContext {
         }
     }
 
+    /**
+     * Runs a block replication of a task to one of its replicas and answers once it is done.
+     * Only accepted from the replicate script of the task on this host.
+     */
+    private class TaskReplicateServlet extends HttpServlet {
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                throws ServletException, IOException {
+            if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+                response.sendError(403, "Local requests only");
+                return;
+            }
+            KVPairs kv = parseRequest(request);
+            String jobId = kv.getValue("id");
+            int taskId = kv.getIntValue("node", -1);
+            String host = kv.getValue("host");
+            JobTask task = (jobId != null) ? minion.tasks.get(new JobKey(jobId, taskId).toString()) : null;
+            if ((task == null) || (host == null)) {
+                response.sendError(400, "No Job");
+                return;
+            }
+            try {
+                long bytes = task.replicateBlocks(host, Boolean.parseBoolean(kv.getValue("all")));
+                response.getWriter().write(Long.toString(bytes));
+            } catch (Exception ex) {
+                log.warn("[task.replicate] {} to {} failed", task.getName(), host, ex);
+                response.sendError(500, String.valueOf(ex));
+            }
+        }
+    }
 }
@@ -0,0 +1,487 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the size of a task directory up to date without walking all of it.
+ * <p/>
+ * The tracker keeps an index of the files in each directory. The live, replica and config
+ * directories change while the task runs and are watched for changes, so a refresh only
+ * lists the directories that changed since the last one. Every other directory in the task
+ * root is a backup, which is never modified after it is created. Backups are only listed
+ * again when the modification time of their directory changes and their part of the index
+ * is saved to disk so that it survives a restart of the minion.
+ * <p/>
+ * Backups are hard links to the files of the live directory (cp -al) so files are
+ * identified by inode and each inode is counted once in {@link #totalBytes()}, like du,
+ * with the largest size it was seen with.
+ * If the file system does not report inodes, or the directories cannot be watched, the
+ * tracker falls back to listing the changing directories on every refresh.
+ */
+class TaskSizeTracker implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskSizeTracker.class);
+
+    private static final boolean WATCH = Parameter.boolValue("minion.task.size.watch", true);
+
+    /* directories modified this recently may still change within the same timestamp */
+    private static final long RACY_MILLIS = Parameter.longValue("minion.task.size.racyMillis", 2000);
+
+    private static final Set<String> MUTABLE = ImmutableSet.of("live", "replica", "config");
+
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private static final int VERSION = 1;
+
+    private static final Path ROOT = Paths.get("");
+
+    /* one watch service for every task, since the number of inotify instances is limited */
+    @Nullable private static final WatchService watchService = createWatchService();
+
+    private static final ConcurrentMap<WatchKey, TaskSizeTracker> watchers = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final File indexFile;
+
+    private Map<Path, Directory> directories = new HashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Set<Path> dirty = new HashSet<>();
+    private long dirtySince;
+    private long lastRefresh;
+    private boolean watching = WATCH && (watchService != null);
+    private boolean indexChanged;
+
+    private long liveCount;
+    private long liveBytes;
+    private long totalBytes;
+
+    TaskSizeTracker(File root, File indexFile) {
+        this.root = root.toPath();
+        this.indexFile = indexFile;
+        loadIndex();
+    }
+
+    @Nullable private static WatchService createWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            log.warn("Task directories will not be watched for changes: {}", ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Mark the directories that changed since the last call as needing a refresh.
+     */
+    static void pollEvents() {
+        if (watchService == null) {
+            return;
+        }
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                overflow |= (event.kind() == StandardWatchEventKinds.OVERFLOW);
+            }
+            TaskSizeTracker tracker = watchers.get(key);
+            if (tracker != null) {
+                tracker.markDirty((Path) key.watchable(), overflow);
+            }
+            if (!key.reset()) {
+                watchers.remove(key);
+            }
+        }
+    }
+
+    private synchronized void markDirty(Path directory, boolean overflow) {
+        if (overflow) {
+            // events were lost, any of the changing directories could be out of date
+            for (Path path : directories.keySet()) {
+                if (isMutable(path)) {
+                    dirty.add(path);
+                }
+            }
+        } else {
+            dirty.add(root.relativize(directory));
+        }
+        if (dirtySince == 0) {
+            dirtySince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return true if a change has not been applied by {@link #refresh(boolean)}
+     */
+    synchronized boolean isDirty() {
+        return !dirty.isEmpty() || !watching;
+    }
+
+    /**
+     * @return milliseconds since the oldest change that has not been applied
+     */
+    synchronized long staleness(long now) {
+        if (!watching) {
+            return (lastRefresh == 0) ? 0 : (now - lastRefresh);
+        }
+        return (dirtySince == 0) ? 0 : (now - dirtySince);
+    }
+
+    /**
+     * Update the sizes.
+     *
+     * @param full check whether the backups have changed. Otherwise only the changing
+     *             directories are updated, which does not touch the disk when nothing changed.
+     * @return the number of directories that were listed
+     */
+    synchronized int refresh(boolean full) {
+        Set<Path> pending = new HashSet<>(dirty);
+        dirty.clear();
+        dirtySince = 0;
+        Map<Path, Directory> next = new HashMap<>();
+        int scanned = visit(ROOT, next, pending, full);
+        if (!next.keySet().equals(directories.keySet())) {
+            indexChanged = true;
+        }
+        directories = next;
+        Iterator<Map.Entry<Path, WatchKey>> keys = watchKeys.entrySet().iterator();
+        while (keys.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = keys.next();
+            if (!directories.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                watchers.remove(entry.getValue());
+                keys.remove();
+            }
+        }
+        updateTotals();
+        if (indexChanged) {
+            saveIndex();
+        }
+        lastRefresh = System.currentTimeMillis();
+        return scanned;
+    }
+
+    private int visit(Path relative, Map<Path, Directory> next, Set<Path> pending, boolean full) {
+        Directory known = directories.get(relative);
+        Path absolute = root.resolve(relative);
+        boolean mutable = isMutable(relative);
+        boolean rescan = (known == null) || (known.modified < 0) || pending.contains(relative) ||
+                         (mutable && !watching);
+        if (!rescan && full && !mutable) {
+            try {
+                rescan = lastModified(absolute) != known.modified;
+            } catch (NoSuchFileException ex) {
+                return 0;
+            } catch (IOException ex) {
+                log.warn("Unable to check {}: {}", absolute, ex.toString());
+            }
+        }
+        int scanned = 0;
+        Directory current = known;
+        if (rescan) {
+            if (mutable) {
+                // before listing, so that changes made while listing are not lost
+                watch(relative, absolute);
+            }
+            current = scan(absolute, mutable);
+            if (current == null) {
+                return 0;
+            }
+            scanned++;
+            if (!mutable) {
+                indexChanged = true;
+            }
+        }
+        next.put(relative, current);
+        for (String subdirectory : current.subdirectories) {
+            scanned += visit(relative.resolve(subdirectory), next, pending, full);
+        }
+        return scanned;
+    }
+
+    /**
+     * @return the files and subdirectories of the directory or null if it does not exist
+     */
+    @Nullable private static Directory scan(Path absolute, boolean mutable) {
+        long started = System.currentTimeMillis();
+        List<String> subdirectories = new ArrayList<>();
+        List<long[]> files = new ArrayList<>();
+        long modified;
+        try {
+            modified = lastModified(absolute);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(absolute)) {
+                for (Path child : children) {
+                    try {
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            subdirectories.add(child.getFileName().toString());
+                        } else {
+                            files.add(fileAttributes(child));
+                        }
+                    } catch (NoSuchFileException ignored) {
+                        // deleted since it was listed
+                    }
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            log.warn("Exception while scanning task files; treating directory as empty", ex);
+            return new Directory(-1, Collections.emptyList(), new long[0], new long[0]);
+        }
+        if (!mutable && ((started - modified) < RACY_MILLIS)) {
+            // may change again without a new modification time
+            modified = -1;
+        }
+        long[] inodes = new long[files.size()];
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < inodes.length; i++) {
+            inodes[i] = files.get(i)[0];
+            sizes[i] = files.get(i)[1];
+        }
+        return new Directory(modified, subdirectories, inodes, sizes);
+    }
+
+    private static long lastModified(Path absolute) throws IOException {
+        return Files.getLastModifiedTime(absolute, LinkOption.NOFOLLOW_LINKS).toMillis();
+    }
+
+    /**
+     * @return the inode and size of a file. The inode is -1 if it is unknown.
+     */
+    private static long[] fileAttributes(Path file) throws IOException {
+        if (UNIX) {
+            Map<String, Object> attributes = Files.readAttributes(file, "unix:ino,size", LinkOption.NOFOLLOW_LINKS);
+            return new long[]{((Number) attributes.get("ino")).longValue(),
+                              ((Number) attributes.get("size")).longValue()};
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                                                              LinkOption.NOFOLLOW_LINKS);
+        return new long[]{-1, attributes.size()};
+    }
+
+    private void watch(Path relative, Path absolute) {
+        if (!watching || watchKeys.containsKey(relative)) {
+            return;
+        }
+        try {
+            WatchKey key = absolute.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                             StandardWatchEventKinds.ENTRY_DELETE,
+                                             StandardWatchEventKinds.ENTRY_MODIFY);
+            watchKeys.put(relative, key);
+            watchers.put(key, this);
+        } catch (NoSuchFileException ignored) {
+            // deleted, which the listing will notice
+        } catch (IOException ex) {
+            // usually the limit on the number of watches
+            log.warn("Unable to watch {}, changing directories of {} will be listed on every refresh: {}",
+                     absolute, root, ex.toString());
+            cancelWatches();
+            watching = false;
+        }
+    }
+
+    private void cancelWatches() {
+        for (WatchKey key : watchKeys.values()) {
+            key.cancel();
+            watchers.remove(key);
+        }
+        watchKeys.clear();
+    }
+
+    private void updateTotals() {
+        long count = 0;
+        long bytes = 0;
+        long total = 0;
+        // link counts are not used since linking a file does not change its directory.
+        // a backup that was not listed again may hold an older size of a file that live
+        // has since appended to, so the largest size seen for an inode is counted.
+        Map<Long, Long> inodes = new HashMap<>();
+        for (Map.Entry<Path, Directory> entry : directories.entrySet()) {
+            Directory directory = entry.getValue();
+            boolean live = entry.getKey().startsWith("live");
+            for (int i = 0; i < directory.sizes.length; i++) {
+                long size = directory.sizes[i];
+                if (live) {
+                    count++;
+                    bytes += size;
+                }
+                if (directory.inodes[i] < 0) {
+                    total += size;
+                } else {
+                    inodes.merge(directory.inodes[i], size, Math::max);
+                }
+            }
+        }
+        for (long size : inodes.values()) {
+            total += size;
+        }
+        liveCount = count;
+        liveBytes = bytes;
+        totalBytes = total;
+    }
+
+    private static boolean isMutable(Path relative) {
+        return relative.equals(ROOT) || MUTABLE.contains(relative.getName(0).toString());
+    }
+
+    /** number of files in the live directory */
+    synchronized long liveCount() {
+        return liveCount;
+    }
+
+    /** bytes of the files in the live directory */
+    synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    /** bytes of the task including its backups, with every hard linked file counted once */
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        cancelWatches();
+    }
+
+    private void loadIndex() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(indexFile.toPath()));
+             DataInputStream input = new DataInputStream(file)) {
+            if (input.readInt() != VERSION) {
+                return;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Path relative = Paths.get(input.readUTF());
+                long modified = input.readLong();
+                List<String> subdirectories = new ArrayList<>();
+                int subdirectoryCount = input.readInt();
+                for (int j = 0; j < subdirectoryCount; j++) {
+                    subdirectories.add(input.readUTF());
+                }
+                int fileCount = input.readInt();
+                long[] inodes = new long[fileCount];
+                long[] sizes = new long[fileCount];
+                for (int j = 0; j < fileCount; j++) {
+                    inodes[j] = input.readLong();
+                    sizes[j] = input.readLong();
+                }
+                // changing directories were not watched while the index was on disk
+                if (isMutable(relative)) {
+                    modified = -1;
+                }
+                directories.put(relative, new Directory(modified, subdirectories, inodes, sizes));
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to read task size index {}, rebuilding it: {}", indexFile, ex.toString());
+            directories.clear();
+        }
+    }
+
+    private void saveIndex() {
+        indexChanged = false;
+        File parent = indexFile.getParentFile();
+        if ((parent == null) || !parent.isDirectory()) {
+            return;
+        }
+        File temp = new File(parent, indexFile.getName() + ".tmp");
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp.toPath()));
+                 DataOutputStream output = new DataOutputStream(file)) {
+                output.writeInt(VERSION);
+                output.writeInt(directories.size());
+                for (Map.Entry<Path, Directory> entry : directories.entrySet()) {
+                    Directory directory = entry.getValue();
+                    output.writeUTF(entry.getKey().toString());
+                    output.writeLong(directory.modified);
+                    output.writeInt(directory.subdirectories.size());
+                    for (String subdirectory : directory.subdirectories) {
+                        output.writeUTF(subdirectory);
+                    }
+                    output.writeInt(directory.sizes.length);
+                    for (int i = 0; i < directory.sizes.length; i++) {
+                        output.writeLong(directory.inodes[i]);
+                        output.writeLong(directory.sizes[i]);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Unable to write task size index {}: {}", indexFile, ex.toString());
+        }
+    }
+
+    private static final class Directory {
+
+        /** modification time when the directory was listed, or -1 if it must be listed again */
+        final long modified;
+        final List<String> subdirectories;
+        final long[] inodes;
+        final long[] sizes;
+
+        Directory(long modified, List<String> subdirectories, long[] inodes, long[] sizes) {
+            this.modified = modified;
+            this.subdirectories = subdirectories;
+            this.inodes = inodes;
+            this.sizes = sizes;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion.replicate;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * The files of a replicated directory and a hash of every block of each file.
+ * <p/>
+ * A manifest is saved in the directory that it describes ({@link #FILENAME}) so that the
+ * next replication only reads the files whose size or modification time changed. Backups
+ * made by hard linking a directory carry its manifest with them.
+ */
+public final class Manifest {
+
+    public static final String FILENAME = ".replica.manifest";
+
+    /** names that are never replicated, at any depth, as with the rsync excludes */
+    static final Set<String> EXCLUDES = ImmutableSet.of(
+            FILENAME, "config", "gold", "replicate.complete", "backup.complete");
+
+    private static final int VERSION = 1;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    static final byte FILE = 0;
+    static final byte DIRECTORY = 1;
+    static final byte LINK = 2;
+
+    final int blockSize;
+    /** by path relative to the directory with '/' separators, in walk order */
+    final SortedMap<String, Entry> entries;
+
+    Manifest(int blockSize, SortedMap<String, Entry> entries) {
+        this.blockSize = blockSize;
+        this.entries = entries;
+    }
+
+    /**
+     * Describe the contents of a directory. Files that have the same size and modification
+     * time as in the previous manifest are not read.
+     */
+    static Manifest build(File dir, int blockSize, @Nullable Manifest previous) throws IOException {
+        Path root = dir.toPath();
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        boolean reuse = (previous != null) && (previous.blockSize == blockSize);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                if (path.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (EXCLUDES.contains(path.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                String relative = relativize(root, path);
+                entries.put(relative, new Entry(relative, DIRECTORY, 0, 0, null, null));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                if (EXCLUDES.contains(path.getFileName().toString())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String relative = relativize(root, path);
+                if (attrs.isSymbolicLink()) {
+                    String target = Files.readSymbolicLink(path).toString();
+                    entries.put(relative, new Entry(relative, LINK, 0, 0, null, target));
+                    return FileVisitResult.CONTINUE;
+                }
+                long size = attrs.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+                Entry known = reuse ? previous.entries.get(relative) : null;
+                if ((known != null) && (known.type == FILE) && (known.size == size) && (known.modified == modified)) {
+                    entries.put(relative, known);
+                } else {
+                    try {
+                        entries.put(relative, new Entry(relative, FILE, size, modified,
+                                                        hashFile(path, size, blockSize), null));
+                    } catch (NoSuchFileException ignored) {
+                        // deleted while walking
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+        return new Manifest(blockSize, entries);
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    static int blockCount(long size, int blockSize) {
+        return (int) ((size + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * @return two longs of hash for each block of the file
+     */
+    static long[] hashFile(Path path, long size, int blockSize) throws IOException {
+        int blocks = blockCount(size, blockSize);
+        long[] hashes = new long[blocks * 2];
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < blocks; i++) {
+                buffer.clear();
+                if ((i == (blocks - 1)) && ((size % blockSize) != 0)) {
+                    buffer.limit((int) (size % blockSize));
+                }
+                readFully(channel, buffer, (long) i * blockSize);
+                hashBlock(buffer.array(), buffer.position(), hashes, i);
+            }
+        }
+        return hashes;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("file is shorter than expected");
+            }
+        }
+    }
+
+    static void hashBlock(byte[] block, int length, long[] hashes, int index) {
+        ByteBuffer hash = ByteBuffer.wrap(HASH.hashBytes(block, 0, length).asBytes());
+        hashes[index * 2] = hash.getLong();
+        hashes[(index * 2) + 1] = hash.getLong();
+    }
+
+    /**
+     * @return the manifest saved in the directory or null if there is none
+     */
+    @Nullable
+    static Manifest load(File dir) {
+        File file = new File(dir, FILENAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return read(new DataInputStream(input));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    void save(File dir) throws IOException {
+        Path temp = new File(dir, FILENAME + ".tmp").toPath();
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            DataOutputStream data = new DataOutputStream(output);
+            write(data);
+            data.flush();
+        }
+        Files.move(temp, new File(dir, FILENAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeInt(VERSION);
+        output.writeInt(blockSize);
+        output.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            output.writeUTF(entry.path);
+            output.writeByte(entry.type);
+            if (entry.type == FILE) {
+                output.writeLong(entry.size);
+                output.writeLong(entry.modified);
+                for (long hash : entry.hashes) {
+                    output.writeLong(hash);
+                }
+            } else if (entry.type == LINK) {
+                output.writeUTF(entry.target);
+            }
+        }
+    }
+
+    static Manifest read(DataInput input) throws IOException {
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported manifest version " + version);
+        }
+        int blockSize = input.readInt();
+        int count = input.readInt();
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String path = input.readUTF();
+            byte type = input.readByte();
+            if (type == FILE) {
+                long size = input.readLong();
+                long modified = input.readLong();
+                long[] hashes = new long[blockCount(size, blockSize) * 2];
+                for (int j = 0; j < hashes.length; j++) {
+                    hashes[j] = input.readLong();
+                }
+                entries.put(path, new Entry(path, type, size, modified, hashes, null));
+            } else if (type == LINK) {
+                entries.put(path, new Entry(path, type, 0, 0, null, input.readUTF()));
+            } else {
+                entries.put(path, new Entry(path, type, 0, 0, null, null));
+            }
+        }
+        return new Manifest(blockSize, entries);
+    }
+
+    static Manifest empty(int blockSize) {
+        return new Manifest(blockSize, new TreeMap<>(Collections.emptyMap()));
+    }
+
+    static final class Entry {
+
+        final String path;
+        final byte type;
+        final long size;
+        final long modified;
+        final long[] hashes;
+        final String target;
+
+        Entry(String path, byte type, long size, long modified, long[] hashes, String target) {
+            this.path = path;
+            this.type = type;
+            this.size = size;
+            this.modified = modified;
+            this.hashes = hashes;
+            this.target = target;
+        }
+
+        int blocks() {
+            return (hashes == null) ? 0 : (hashes.length / 2);
+        }
+
+        /** length of a block, which is shorter for the last block */
+        int blockLength(int block, int blockSize) {
+            return (int) Math.min(blockSize, size - ((long) block * blockSize));
+        }
+
+        boolean sameContent(Entry other) {
+            return (other != null) && (type == FILE) && (other.type == FILE) && (size == other.size) &&
+                   Arrays.equals(hashes, other.hashes);
+        }
+    }
+}
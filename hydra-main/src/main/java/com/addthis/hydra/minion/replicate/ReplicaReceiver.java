@@ -0,0 +1,540 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion.replicate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receiving side of a replication. Each replicated directory is assembled in a staging
+ * directory next to the target and then swapped into place, so a failed or interrupted
+ * replication leaves the previous copy intact.
+ * <p/>
+ * Files whose content is already present under the target root, for example in the
+ * previous copy of the directory or in a backup, are hard linked. Changed files are
+ * assembled from local blocks with a matching hash and only the remaining blocks are
+ * requested from the sender.
+ */
+public class ReplicaReceiver {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaReceiver.class);
+
+    private final File root;
+
+    public ReplicaReceiver(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Receive into the directory named by the first argument over stdin and stdout. Used as
+     * the remote command of {@link ReplicaTransfers}.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: ReplicaReceiver <target root>");
+            System.exit(2);
+        }
+        // the protocol owns stdout
+        FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+        try {
+            new ReplicaReceiver(new File(args[0])).receive(
+                    new DataInputStream(new BufferedInputStream(System.in, 1 << 16)),
+                    new DataOutputStream(new BufferedOutputStream(stdout, 1 << 16)));
+        } catch (Exception ex) {
+            log.error("replication into {} failed", args[0], ex);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    public void receive(DataInputStream in, DataOutputStream out) throws IOException {
+        if ((in.readInt() != ReplicaSender.MAGIC) || (in.readInt() != ReplicaSender.VERSION)) {
+            throw new IOException("unsupported replication protocol");
+        }
+        LessFiles.initDirectory(root);
+        while (true) {
+            byte command = in.readByte();
+            switch (command) {
+                case ReplicaSender.DIRECTORY:
+                    String name = in.readUTF();
+                    Manifest source = Manifest.read(in);
+                    receiveDirectory(name, source, in, out);
+                    break;
+                case ReplicaSender.LINK:
+                    String link = in.readUTF();
+                    String target = in.readUTF();
+                    receiveLink(link, target);
+                    out.writeByte(ReplicaSender.OK);
+                    out.flush();
+                    break;
+                case ReplicaSender.PRUNE:
+                    int count = in.readInt();
+                    Set<String> keep = new HashSet<>();
+                    for (int i = 0; i < count; i++) {
+                        keep.add(in.readUTF());
+                    }
+                    prune(keep);
+                    out.writeByte(ReplicaSender.OK);
+                    out.flush();
+                    break;
+                case ReplicaSender.QUIT:
+                    return;
+                default:
+                    throw new IOException("unknown replication command " + command);
+            }
+        }
+    }
+
+    private void receiveDirectory(String name, Manifest source, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        File target = new File(root, name);
+        File staging = new File(root, "." + name + ".staging");
+        File old = new File(root, "." + name + ".old");
+        List<long[]> needs = new ArrayList<>();
+        List<Manifest.Entry> files = new ArrayList<>(source.entries.values());
+        int assembled;
+        try (LocalBlocks local = new LocalBlocks(source.blockSize)) {
+            ReplicaSender.checkName(name);
+            // finish or discard a swap that was interrupted
+            if (!target.exists() && old.exists()) {
+                Files.move(old.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            delete(staging);
+            delete(old);
+            if (target.isDirectory()) {
+                local.add(target, Manifest.build(target, source.blockSize, Manifest.load(target)), true);
+            }
+            File[] siblings = root.listFiles();
+            if (siblings != null) {
+                for (File sibling : siblings) {
+                    Manifest manifest;
+                    if (!sibling.equals(target) && !Files.isSymbolicLink(sibling.toPath()) &&
+                        sibling.isDirectory() && ((manifest = Manifest.load(sibling)) != null)) {
+                        local.add(sibling, manifest, false);
+                    }
+                }
+            }
+            LessFiles.initDirectory(staging);
+            for (int i = 0; i < files.size(); i++) {
+                stage(staging, files.get(i), i, local, needs);
+            }
+            assembled = local.assembled;
+        } catch (IOException | RuntimeException ex) {
+            fail(out, ex);
+            throw ex;
+        }
+        out.writeByte(ReplicaSender.OK);
+        out.writeInt(needs.size());
+        for (long[] need : needs) {
+            out.writeInt((int) need[0]);
+            out.writeInt((int) need[1]);
+        }
+        out.flush();
+        byte[] block = new byte[source.blockSize];
+        long[] hash = new long[2];
+        FileChannel channel = null;
+        int channelFile = -1;
+        try {
+            for (long[] need : needs) {
+                Manifest.Entry entry = files.get((int) need[0]);
+                int index = (int) need[1];
+                int length = in.readInt();
+                if (length != entry.blockLength(index, source.blockSize)) {
+                    throw new IOException("unexpected length " + length + " of block " + index + " of " + entry.path);
+                }
+                in.readFully(block, 0, length);
+                Manifest.hashBlock(block, length, hash, 0);
+                if ((hash[0] != entry.hashes[index * 2]) || (hash[1] != entry.hashes[(index * 2) + 1])) {
+                    throw new IOException("checksum mismatch in block " + index + " of " + entry.path);
+                }
+                if (channelFile != need[0]) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    channel = FileChannel.open(resolve(staging, entry.path), StandardOpenOption.WRITE);
+                    channelFile = (int) need[0];
+                }
+                write(channel, ByteBuffer.wrap(block, 0, length), (long) index * source.blockSize);
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            for (Manifest.Entry entry : files) {
+                Path path = resolve(staging, entry.path);
+                if ((entry.type == Manifest.FILE) &&
+                    (Files.getLastModifiedTime(path).toMillis() != entry.modified)) {
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modified));
+                }
+            }
+            source.save(staging);
+            sync(staging);
+            if (target.exists()) {
+                Files.move(target.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(staging.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            force(root.toPath());
+            delete(old);
+        } catch (IOException | RuntimeException ex) {
+            fail(out, ex);
+            throw ex;
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        out.writeByte(ReplicaSender.OK);
+        out.flush();
+        log.info("replicated {} with {} of {} files changed and {} blocks transferred", target,
+                 assembled, files.size(), needs.size());
+    }
+
+    /**
+     * Create the staging copy of one manifest entry and record the blocks that have to be
+     * transferred.
+     */
+    private static void stage(File staging, Manifest.Entry entry, int ordinal, LocalBlocks local,
+                              List<long[]> needs) throws IOException {
+        Path path = resolve(staging, entry.path);
+        Files.createDirectories(path.getParent());
+        if (entry.type == Manifest.DIRECTORY) {
+            Files.createDirectories(path);
+            return;
+        } else if (entry.type == Manifest.LINK) {
+            Files.createSymbolicLink(path, Paths.get(entry.target));
+            return;
+        }
+        Path identical = local.identical(entry);
+        if (identical != null) {
+            Files.createLink(path, identical);
+            return;
+        }
+        local.assembled++;
+        byte[] block = new byte[local.blockSize];
+        long[] hash = new long[2];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < entry.blocks(); i++) {
+                int length = entry.blockLength(i, local.blockSize);
+                long first = entry.hashes[i * 2];
+                long second = entry.hashes[(i * 2) + 1];
+                if (local.read(first, second, block, length, hash)) {
+                    write(channel, ByteBuffer.wrap(block, 0, length), (long) i * local.blockSize);
+                } else {
+                    needs.add(new long[]{ordinal, i});
+                }
+            }
+            channel.truncate(entry.size);
+            if (channel.size() < entry.size) {
+                // extend the file over blocks that will be written later
+                write(channel, ByteBuffer.wrap(new byte[1]), entry.size - 1);
+            }
+        }
+    }
+
+    private void receiveLink(String name, String target) throws IOException {
+        ReplicaSender.checkName(name);
+        Path link = new File(root, name).toPath();
+        if (Files.isSymbolicLink(link) && Files.readSymbolicLink(link).toString().equals(target)) {
+            return;
+        }
+        Path temp = new File(root, "." + name + ".link").toPath();
+        Files.deleteIfExists(temp);
+        Files.createSymbolicLink(temp, Paths.get(target));
+        if (Files.isDirectory(link, LinkOption.NOFOLLOW_LINKS)) {
+            delete(link.toFile());
+        }
+        Files.move(temp, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        force(root.toPath());
+    }
+
+    private void prune(Set<String> keep) throws IOException {
+        File[] files = root.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (keep.contains(name) || name.startsWith(".") || Manifest.EXCLUDES.contains(name)) {
+                continue;
+            }
+            if (Files.isSymbolicLink(file.toPath())) {
+                Files.delete(file.toPath());
+            } else if (file.isDirectory()) {
+                log.info("removing {} which is no longer replicated", file);
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Delete a file or directory tree without following symbolic links.
+     */
+    static void delete(File file) throws IOException {
+        Path path = file.toPath();
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path visited, BasicFileAttributes attrs) throws IOException {
+                Files.delete(visited);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path visited, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(visited);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Flush the files and directories of a staged tree to disk, so that once it is renamed
+     * into place a crash can not leave a replica with missing or partially written files.
+     */
+    static void sync(File dir) throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path visited, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    force(visited);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path visited, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                force(visited);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /* fsync a file, or the entries of a directory */
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static Path resolve(File dir, String relative) {
+        return dir.toPath().resolve(relative.replace('/', File.separatorChar));
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void fail(DataOutputStream out, Exception ex) {
+        try {
+            out.writeByte(ReplicaSender.FAILED);
+            out.writeUTF(String.valueOf(ex));
+            out.flush();
+        } catch (IOException ignored) {
+            // the sender is gone
+        }
+    }
+
+    /**
+     * Where the blocks and files that are already under the target root can be found. Files
+     * described by the manifest of another directory are checked before they are used since
+     * that manifest may be out of date.
+     */
+    private static final class LocalBlocks implements AutoCloseable {
+
+        final int blockSize;
+        final Map<BlockKey, Location> blocks = new HashMap<>();
+        final Map<FileKey, Location> files = new HashMap<>();
+        final Map<Path, FileChannel> channels = new HashMap<>();
+        int assembled;
+
+        LocalBlocks(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        void add(File dir, Manifest manifest, boolean verified) {
+            if (manifest.blockSize != blockSize) {
+                return;
+            }
+            for (Manifest.Entry entry : manifest.entries.values()) {
+                if (entry.type != Manifest.FILE) {
+                    continue;
+                }
+                Location location = new Location(resolve(dir, entry.path), entry, verified);
+                files.putIfAbsent(new FileKey(entry), location);
+                for (int i = 0; i < entry.blocks(); i++) {
+                    blocks.putIfAbsent(new BlockKey(entry.hashes[i * 2], entry.hashes[(i * 2) + 1]),
+                                       new Location(location, i));
+                }
+            }
+        }
+
+        Path identical(Manifest.Entry entry) throws IOException {
+            Location location = files.get(new FileKey(entry));
+            if ((location == null) || (location.entry.modified != entry.modified)) {
+                return null;
+            }
+            if (!location.verified) {
+                if (!Files.isRegularFile(location.path) || (Files.size(location.path) != entry.size) ||
+                    (Files.getLastModifiedTime(location.path).toMillis() != entry.modified)) {
+                    return null;
+                }
+            }
+            return location.path;
+        }
+
+        /**
+         * Read a block with the given hash into the buffer and confirm its hash.
+         */
+        boolean read(long first, long second, byte[] block, int length, long[] hash) throws IOException {
+            Location location = blocks.get(new BlockKey(first, second));
+            if ((location == null) || (location.entry.blockLength(location.block, blockSize) != length)) {
+                return false;
+            }
+            FileChannel channel = channels.get(location.path);
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(location.path, StandardOpenOption.READ);
+                    channels.put(location.path, channel);
+                }
+                Manifest.readFully(channel, ByteBuffer.wrap(block, 0, length), (long) location.block * blockSize);
+            } catch (IOException ex) {
+                return false;
+            }
+            Manifest.hashBlock(block, length, hash, 0);
+            return (hash[0] == first) && (hash[1] == second);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class Location {
+
+        final Path path;
+        final Manifest.Entry entry;
+        final boolean verified;
+        final int block;
+
+        Location(Path path, Manifest.Entry entry, boolean verified) {
+            this.path = path;
+            this.entry = entry;
+            this.verified = verified;
+            this.block = 0;
+        }
+
+        Location(Location file, int block) {
+            this.path = file.path;
+            this.entry = file.entry;
+            this.verified = file.verified;
+            this.block = block;
+        }
+    }
+
+    private static final class BlockKey {
+
+        final long first;
+        final long second;
+
+        BlockKey(long first, long second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof BlockKey) {
+                BlockKey other = (BlockKey) obj;
+                return (other.first == first) && (other.second == second);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) first;
+        }
+    }
+
+    private static final class FileKey {
+
+        final long size;
+        final long[] hashes;
+
+        FileKey(Manifest.Entry entry) {
+            this.size = entry.size;
+            this.hashes = entry.hashes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof FileKey) {
+                FileKey other = (FileKey) obj;
+                return (other.size == size) && Arrays.equals(other.hashes, hashes);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * Long.hashCode(size)) + Arrays.hashCode(hashes);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion.replicate;
+
+import javax.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sending side of a replication of the directories of a task to another host. Replaces
+ * rsync when {@code minion.replicate.engine} is {@code blocks}.
+ * <p/>
+ * The sender describes each directory with a {@link Manifest} of block hashes and the
+ * {@link ReplicaReceiver} answers with the blocks that it cannot find on the target host.
+ * Only those blocks are read and sent. Every block is checked against its hash on both
+ * sides. Senders are run by {@link ReplicaTransfers}.
+ */
+public class ReplicaSender {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaSender.class);
+
+    static final int MAGIC = 0x48595250;
+    static final int VERSION = 1;
+
+    static final byte DIRECTORY = 'D';
+    static final byte LINK = 'L';
+    static final byte PRUNE = 'P';
+    static final byte QUIT = 'Q';
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private static final int defaultBlockSize = Parameter.intValue("minion.replicate.blockSize", 1 << 20);
+
+    private final File sourceRoot;
+    private final int blockSize;
+    @Nullable private final RateLimiter limiter;
+    private long bytesSent;
+
+    /**
+     * @param limiter limit of the transfers to the host, shared with the other
+     *                senders to it, or null for no limit
+     */
+    public ReplicaSender(File sourceRoot, @Nullable RateLimiter limiter) {
+        this(sourceRoot, limiter, defaultBlockSize);
+    }
+
+    ReplicaSender(File sourceRoot, @Nullable RateLimiter limiter, int blockSize) {
+        this.sourceRoot = sourceRoot;
+        this.blockSize = blockSize;
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return the names of the directories and links at the top of the task that are replicated
+     */
+    public static List<String> replicatedNames(File root) {
+        List<String> names = new ArrayList<>();
+        File[] files = root.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(".") && !Manifest.EXCLUDES.contains(name) &&
+                    (file.isDirectory() || Files.isSymbolicLink(file.toPath()))) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    static void checkName(String name) throws IOException {
+        if (name.isEmpty() || name.startsWith(".") || (name.indexOf('/') >= 0) ||
+            (name.indexOf(File.separatorChar) >= 0) || Manifest.EXCLUDES.contains(name)) {
+            throw new IOException("invalid directory name " + name);
+        }
+    }
+
+    /**
+     * @param names directories and links directly under the source root
+     * @param prune if true then remove the other directories and links of the target root
+     */
+    public void send(List<String> names, boolean prune, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (String name : names) {
+            checkName(name);
+            File file = new File(sourceRoot, name);
+            if (Files.isSymbolicLink(file.toPath())) {
+                out.writeByte(LINK);
+                out.writeUTF(name);
+                out.writeUTF(Files.readSymbolicLink(file.toPath()).toString());
+                out.flush();
+                checkStatus(in);
+            } else {
+                sendDirectory(name, file, in, out);
+            }
+        }
+        if (prune) {
+            out.writeByte(PRUNE);
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+            out.flush();
+            checkStatus(in);
+        }
+        out.writeByte(QUIT);
+        out.flush();
+    }
+
+    private void sendDirectory(String name, File dir, DataInputStream in, DataOutputStream out) throws IOException {
+        Manifest manifest = Manifest.build(dir, blockSize, Manifest.load(dir));
+        manifest.save(dir);
+        out.writeByte(DIRECTORY);
+        out.writeUTF(name);
+        manifest.write(out);
+        out.flush();
+        checkStatus(in);
+        int count = in.readInt();
+        int[] needs = new int[count * 2];
+        for (int i = 0; i < needs.length; i++) {
+            needs[i] = in.readInt();
+        }
+        List<Manifest.Entry> files = new ArrayList<>(manifest.entries.values());
+        byte[] block = new byte[blockSize];
+        long[] hash = new long[2];
+        FileChannel channel = null;
+        int channelFile = -1;
+        try {
+            for (int i = 0; i < count; i++) {
+                int ordinal = needs[i * 2];
+                int index = needs[(i * 2) + 1];
+                Manifest.Entry entry = files.get(ordinal);
+                int length = entry.blockLength(index, blockSize);
+                if (channelFile != ordinal) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    channel = FileChannel.open(dir.toPath().resolve(entry.path), StandardOpenOption.READ);
+                    channelFile = ordinal;
+                }
+                Manifest.readFully(channel, ByteBuffer.wrap(block, 0, length), (long) index * blockSize);
+                Manifest.hashBlock(block, length, hash, 0);
+                if ((hash[0] != entry.hashes[index * 2]) || (hash[1] != entry.hashes[(index * 2) + 1])) {
+                    throw new IOException(entry.path + " changed during replication");
+                }
+                if (limiter != null) {
+                    limiter.acquire(length);
+                }
+                out.writeInt(length);
+                out.write(block, 0, length);
+                bytesSent += length;
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        out.flush();
+        checkStatus(in);
+        log.debug("replicated {} sending {} blocks", dir, count);
+    }
+
+    private static void checkStatus(DataInputStream in) throws IOException {
+        byte status = in.readByte();
+        if (status != OK) {
+            throw new IOException("replica failed: " + ((status == FAILED) ? in.readUTF() : status));
+        }
+    }
+
+    /**
+     * @return bytes of blocks sent, not including manifests
+     */
+    public long bytesSent() {
+        return bytesSent;
+    }
+}
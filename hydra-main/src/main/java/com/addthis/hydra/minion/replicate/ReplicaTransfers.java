@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion.replicate;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the {@link ReplicaSender}s of a minion. Transfers run inside the minion process so
+ * that all transfers to a host share one rate limit and a transfer can be cancelled when
+ * its task is stopped. The {@link ReplicaReceiver} is started on the target host with the
+ * remote connect method.
+ */
+public class ReplicaTransfers {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaTransfers.class);
+
+    private final String connectMethod;
+    private final String receiverCommand;
+    private final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Transfer> active = new ConcurrentHashMap<>();
+
+    /**
+     * @param connectMethod command that runs a command on another host, such as ssh
+     * @param javaCommand   java command used to start the receiver on the other host
+     */
+    public ReplicaTransfers(String connectMethod, String javaCommand) {
+        this.connectMethod = connectMethod;
+        this.receiverCommand = javaCommand + " -cp " + System.getProperty("java.class.path") + " " +
+                               ReplicaReceiver.class.getName();
+    }
+
+    /**
+     * Replicate directories of a task to another host and wait for the transfer to finish.
+     *
+     * @param key            identifies the transfer. Only one transfer runs for each key.
+     * @param names          directories and links directly under the source root, or null to
+     *                       replicate all of them and remove the others from the target root
+     * @param bytesPerSecond limit of the transfers to the host, or zero for no limit
+     * @return bytes of blocks sent
+     */
+    public long replicate(String key, File sourceRoot, String userAT, String targetRoot,
+                          @Nullable List<String> names, long bytesPerSecond) throws IOException {
+        String host = userAT.substring(userAT.indexOf('@') + 1);
+        ReplicaSender sender = new ReplicaSender(sourceRoot, limiter(host, bytesPerSecond));
+        List<String> command = new ArrayList<>(Arrays.asList(connectMethod.trim().split("\\s+")));
+        command.add(userAT);
+        command.add(receiverCommand + " " + targetRoot);
+        Transfer transfer = new Transfer();
+        if (active.putIfAbsent(key, transfer) != null) {
+            throw new IOException(key + " is already replicating");
+        }
+        try {
+            Process process = transfer.start(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT));
+            sender.send((names != null) ? names : ReplicaSender.replicatedNames(sourceRoot), names == null,
+                        new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16)),
+                        new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16)));
+            process.getOutputStream().close();
+            int exitCode = process.waitFor();
+            if (transfer.cancelled) {
+                throw new IOException("replication of " + key + " was cancelled");
+            } else if (exitCode != 0) {
+                throw new IOException("replica receiver on " + userAT + " exited with " + exitCode);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted replicating " + key);
+        } catch (IOException ex) {
+            if (transfer.cancelled) {
+                throw new IOException("replication of " + key + " was cancelled", ex);
+            }
+            throw ex;
+        } finally {
+            active.remove(key, transfer);
+            transfer.cancel();
+        }
+        log.info("replicated {} to {}:{} sending {} bytes", sourceRoot, userAT, targetRoot, sender.bytesSent());
+        return sender.bytesSent();
+    }
+
+    public boolean isActive(String key) {
+        return active.containsKey(key);
+    }
+
+    /**
+     * Stop the transfer of a key, if there is one. The transfer then fails.
+     */
+    public void cancel(String key) {
+        Transfer transfer = active.get(key);
+        if (transfer != null) {
+            log.warn("cancelling replication of {}", key);
+            transfer.cancelled = true;
+            transfer.cancel();
+        }
+    }
+
+    @Nullable
+    private RateLimiter limiter(String host, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return null;
+        }
+        RateLimiter limiter = limiters.computeIfAbsent(host, key -> RateLimiter.create(bytesPerSecond));
+        if (limiter.getRate() != bytesPerSecond) {
+            limiter.setRate(bytesPerSecond);
+        }
+        return limiter;
+    }
+
+    private static final class Transfer {
+
+        volatile boolean cancelled;
+        @Nullable private Process process;
+
+        synchronized Process start(ProcessBuilder builder) throws IOException {
+            if (cancelled) {
+                throw new IOException("cancelled before it started");
+            }
+            process = builder.start();
+            return process;
+        }
+
+        /* ends the receiver, which makes the sender fail if it is still running */
+        synchronized void cancel() {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+}
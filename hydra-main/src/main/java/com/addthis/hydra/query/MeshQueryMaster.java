@@ -244,6 +244,9 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter implements Au
         }
 
         MeshSourceAggregator aggregator = new MeshSourceAggregator(sourcesByTaskID, meshy, this, remoteQuery);
+        if (tracker.getResultCache().accepts(query)) {
+            aggregator.cacheResults(tracker.getResultCache(), taskGenerations(sourcesByTaskID));
+        }
         ctx.pipeline().addLast(ctx.executor(), "query aggregator", aggregator);
         TrackerHandler trackerHandler = new TrackerHandler(tracker, opsLog, aggregator);
         ctx.pipeline().addLast(ctx.executor(), "query tracker", trackerHandler);
@@ -251,6 +254,30 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter implements Au
         ctx.pipeline().write(query, promise);
     }
 
+    /**
+     * Identifies the data that the tasks of a query will read. A task changes generation whenever
+     * the most recently modified replica of its tree changes, so a query result recorded for one
+     * generation is never served once any task has new data.
+     */
+    @VisibleForTesting
+    static String taskGenerations(QueryTaskSource[] sourcesByTaskID) {
+        StringBuilder sb = new StringBuilder();
+        for (QueryTaskSource taskSource : sourcesByTaskID) {
+            QueryTaskSourceOption[] options = taskSource.getOptions();
+            if (options.length == 0) {
+                sb.append('-');
+            } else {
+                long lastModified = 0;
+                for (QueryTaskSourceOption option : options) {
+                    lastModified = Math.max(lastModified, option.queryReference.lastModified);
+                }
+                sb.append(options[0].queryReference.name).append('@').append(lastModified);
+            }
+            sb.append(',');
+        }
+        return sb.toString();
+    }
+
     private static final Splitter TASKS_SPLITTER = Splitter.on(',').trimResults();
 
     @Nonnull private static Set<Integer> parseTasks(@Nullable String tasks) {
@@ -13,7 +13,14 @@
  */
 package com.addthis.hydra.query;
 
-import java.util.concurrent.Semaphore;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.addthis.basis.util.Parameter;
 
@@ -24,6 +31,9 @@ import com.addthis.hydra.data.query.engine.QueryEngine;
 import com.addthis.hydra.data.query.source.QueryHandle;
 import com.addthis.hydra.data.query.source.QuerySource;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Histogram;
@@ -34,48 +44,162 @@ import org.slf4j.LoggerFactory;
 import io.netty.channel.DefaultChannelProgressivePromise;
 import io.netty.util.concurrent.ImmediateEventExecutor;
 
-/** */
+/**
+ * Runs queries against leased query engines on a bounded pool of threads.
+ * Queries that cannot run immediately wait in an admission queue ordered by
+ * the "priority" query parameter (higher values first, default 0) and then
+ * by arrival.
+ * <p/>
+ * The number of queries allowed to run at once starts at
+ * "query.engine.source.maxConcurrency". Unless "query.engine.source.adaptive"
+ * is false it is then sized from the observed ratio of wait time to cpu time
+ * of completed queries as {@code cpus * (1 + wait / cpu)}, bounded below by
+ * "query.engine.source.maxConcurrency" and above by
+ * "query.engine.source.concurrencyLimit".
+ */
 public abstract class QueryEngineSource implements QuerySource {
 
     private static final int maxConcurrency = Parameter.intValue("query.engine.source.maxConcurrency", 4);
 
+    private static final int concurrencyLimit = Math.max(maxConcurrency,
+            Parameter.intValue("query.engine.source.concurrencyLimit",
+                               8 * Runtime.getRuntime().availableProcessors()));
+
+    private static final boolean adaptiveDefault = Parameter.boolValue("query.engine.source.adaptive", true);
+
+    /**
+     * Weight of the most recent query in the moving average of the wait ratio.
+     */
+    private static final double WAIT_RATIO_WEIGHT = 0.1;
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private static final AtomicLong arrivals = new AtomicLong();
+
     private final Logger log = LoggerFactory.getLogger(QueryEngineSource.class);
-    private final Semaphore engineGate = new Semaphore(maxConcurrency);
+
+    private final ThreadPoolExecutor dispatcher = new ThreadPoolExecutor(
+            maxConcurrency, maxConcurrency, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("EngineSource-%d").setDaemon(true).build());
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private volatile int concurrency = maxConcurrency;
+
+    private volatile boolean adaptive = adaptiveDefault;
+
+    /** moving average of wait time over cpu time. guarded by this. */
+    private double waitRatio;
 
     private final Gauge<Integer> engineGatePermitMetric = Metrics.newGauge(QueryEngineSource.class, "engineGatePermitMetric", new Gauge<Integer>() {
         @Override
         public Integer value() {
-            return engineGate.availablePermits();
+            return availablePermits();
+        }
+    });
+    private final Gauge<Integer> engineGateQueueMetric = Metrics.newGauge(QueryEngineSource.class, "engineGateQueueMetric", new Gauge<Integer>() {
+        @Override
+        public Integer value() {
+            return dispatcher.getQueue().size();
+        }
+    });
+    private final Gauge<Integer> engineGateConcurrencyMetric = Metrics.newGauge(QueryEngineSource.class, "engineGateConcurrencyMetric", new Gauge<Integer>() {
+        @Override
+        public Integer value() {
+            return concurrency;
         }
     });
     private final Histogram engineGateHistogram = Metrics.newHistogram(QueryEngineSource.class, "engineGateHistogram");
 
+    protected QueryEngineSource() {
+        dispatcher.allowCoreThreadTimeOut(true);
+    }
+
     @Override
     public QueryHandle query(final Query query, final DataChannelOutput consumer) throws QueryException {
-        return new Handle(query, consumer);
+        Handle handle = new Handle(query, consumer);
+        dispatcher.execute(handle);
+        return handle;
     }
 
     public abstract QueryEngine getEngineLease();
 
+    @VisibleForTesting
+    void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    @VisibleForTesting
+    int concurrency() {
+        return concurrency;
+    }
+
+    private int availablePermits() {
+        return concurrency - running.get();
+    }
+
+    private static long currentThreadCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Update the moving average of the wait ratio with a completed query
+     * and resize the pool if the target concurrency has changed.
+     */
+    @VisibleForTesting
+    synchronized void observe(long wallNanos, long cpuNanos) {
+        if (!adaptive || (cpuNanos <= 0) || (wallNanos <= 0)) {
+            return;
+        }
+        double ratio = Math.max(0, wallNanos - cpuNanos) / (double) cpuNanos;
+        waitRatio += WAIT_RATIO_WEIGHT * (ratio - waitRatio);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int target = (int) Math.min(concurrencyLimit, Math.max(maxConcurrency, Math.round(cpus * (1 + waitRatio))));
+        if (target > concurrency) {
+            dispatcher.setMaximumPoolSize(target);
+            dispatcher.setCorePoolSize(target);
+        } else if (target < concurrency) {
+            dispatcher.setCorePoolSize(target);
+            dispatcher.setMaximumPoolSize(target);
+        }
+        concurrency = target;
+    }
+
     /** */
-    private class Handle extends Thread implements QueryHandle {
+    private class Handle implements QueryHandle, Runnable, Comparable<Handle> {
 
-        private Query query;
-        private QueryEngine engine;
-        private DataChannelOutput consumer;
+        private final Query query;
+        private final DataChannelOutput consumer;
+        private final int priority;
+        private final long arrival;
+
+        // runner and cancelled are guarded by this handle
+        private Thread runner;
+        private String cancelled;
 
         Handle(Query query, DataChannelOutput consumer) {
-            setName("EngineSource " + query.uuid());
             this.query = query;
             this.consumer = consumer;
-            start();
+            this.priority = parsePriority(query);
+            this.arrival = arrivals.getAndIncrement();
         }
 
         @Override public void run() {
-            engine = null;
+            Thread current = Thread.currentThread();
+            synchronized (this) {
+                if (cancelled != null) {
+                    consumer.sourceError(new QueryException("query cancelled before execution: " + cancelled));
+                    return;
+                }
+                runner = current;
+            }
+            String threadName = current.getName();
+            current.setName("EngineSource " + query.uuid());
+            engineGateHistogram.update(concurrency - running.incrementAndGet());
+            long wallStart = System.nanoTime();
+            long cpuStart = currentThreadCpuTime();
+            QueryEngine engine = null;
             try {
-                engineGate.acquire(1);
-                engineGateHistogram.update(engineGate.availablePermits());
                 engine = getEngineLease();
                 engine.search(query, consumer,
                         new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
@@ -87,24 +211,60 @@ public abstract class QueryEngineSource implements QuerySource {
                 log.warn("query error " + query.uuid() + " " + e + " " + consumer, e);
                 consumer.sourceError(new QueryException(e));
             } finally {
-                engineGate.release();
-                engineGateHistogram.update(engineGate.availablePermits());
+                synchronized (this) {
+                    runner = null;
+                }
+                // clear an interrupt from cancel() before the thread runs the next query
+                Thread.interrupted();
+                engineGateHistogram.update(concurrency - running.decrementAndGet());
                 if (engine != null) {
                     try {
                         engine.release();
                     } catch (Throwable t) {
                         log.warn("[dispatch] error during db release of " + engine + " : " + t, t);
-                        }
+                    }
+                }
+                if (cpuStart >= 0) {
+                    observe(System.nanoTime() - wallStart, currentThreadCpuTime() - cpuStart);
                 }
+                current.setName(threadName);
             }
         }
 
         @Override
         public void cancel(String message) {
             log.warn(query.uuid() + " cancel called on handle " + consumer + " message: " + message);
-            if (engine != null) {
-                interrupt();
+            if (dispatcher.remove(this)) {
+                consumer.sourceError(new QueryException("query cancelled before execution: " + message));
+                return;
+            }
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                } else {
+                    cancelled = message;
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Handle other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
             }
+            return Long.compare(arrival, other.arrival);
+        }
+    }
+
+    private static int parsePriority(Query query) {
+        String priority = query.getParameter("priority");
+        if (priority == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(priority.trim());
+        } catch (NumberFormatException ignored) {
+            return 0;
         }
     }
 
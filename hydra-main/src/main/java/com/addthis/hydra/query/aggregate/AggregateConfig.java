@@ -28,6 +28,11 @@ public class AggregateConfig {
     // Milliseconds to wait while polling various task sources
     public static final int FRAME_READER_POLL = Parameter.intValue("meshSourceAggregator.frameReader.poll", 0);
 
+    // Bytes each task may send ahead of the aggregator before it has to wait for more credit (0 for the meshy default)
+    public static final int SOURCE_BUFFER = Parameter.intValue("meshSourceAggregator.sourceBuffer", 0);
+    // Milliseconds between polls of active task sources when no data has been signaled
+    static final int FALLBACK_POLL = Parameter.intValue("meshSourceAggregator.fallbackPollMillis", 250);
+
     static final boolean enableStragglerCheck = Parameter.boolValue("meshSourceAggregator.enableStragglerCheck", false);
 
     // Enables straggler check logic.
@@ -47,5 +52,7 @@ public class AggregateConfig {
     /* metrics */
     static final Counter totalQueries = Metrics.newCounter(MeshSourceAggregator.class, "totalQueries");
     static final Counter totalStragglerCheckerRequests = Metrics.newCounter(MeshSourceAggregator.class, "totalStragglerCheckerRequests");
+    static final Counter totalWakeups = Metrics.newCounter(MeshSourceAggregator.class, "totalWakeups");
+    static final Counter totalFallbackPolls = Metrics.newCounter(MeshSourceAggregator.class, "totalFallbackPolls");
     static final Counter totalRetryRequests = Metrics.newCounter(MeshSourceAggregator.class, "totalRetryRequests");
 }
@@ -13,16 +13,23 @@
  */
 package com.addthis.hydra.query.aggregate;
 
+import javax.annotation.Nullable;
+
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.addthis.basis.util.JitterClock;
 
 import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.Bundles;
 import com.addthis.codec.json.CodecJSON;
 import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryResultCache;
 import com.addthis.hydra.query.MeshQueryMaster;
 import com.addthis.hydra.data.util.BundleUtils;
 import com.addthis.meshy.ChannelMaster;
@@ -58,7 +65,7 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
     // set when write (query) is called
     ChannelProgressivePromise queryPromise;
     DataChannelOutput consumer;
-    Runnable queryTask;
+    volatile Runnable queryTask;
 
     // optionally set near the end of write
     ScheduledFuture<?> stragglerTaskFuture;
@@ -66,9 +73,21 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
     boolean channelWritable;
     boolean needScheduling;
 
+    // set by meshy threads when a task source has data, cleared when the query task starts a run
+    final AtomicBoolean wakeupPending = new AtomicBoolean();
+    final Runnable readyListener = this::sourceReady;
+    // set by the query task while it waits for task sources to signal data
+    ScheduledFuture<?> fallbackPoll;
+
     // set periodically by query task
     int completed;
 
+    // optionally set before write (query) is called
+    @Nullable QueryResultCache<List<Bundle>> resultCache;
+    String resultKey;
+    String resultGeneration;
+    ResultRecorder recorder;
+
     static {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -90,6 +109,19 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         queryOptions.put("query", CodecJSON.encodeString(query));
     }
 
+    /**
+     * Answer this query from {@code cache} if the tasks already produced a result for it
+     * in the given generation, otherwise store the aggregated task output once every task
+     * has completed.
+     *
+     * @param generation identifies the task data the query runs against
+     */
+    public void cacheResults(QueryResultCache<List<Bundle>> cache, String generation) {
+        this.resultCache = cache;
+        this.resultKey = QueryResultCache.queryKey(query);
+        this.resultGeneration = generation;
+    }
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         if (msg instanceof DataChannelOutput) {
@@ -97,6 +129,20 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
             consumer = (DataChannelOutput) msg;
             AggregateConfig.totalQueries.inc();
             queryPromise.addListener(this);
+            if (resultCache != null) {
+                List<Bundle> cached = resultCache.get(resultGeneration, resultKey);
+                if (cached != null) {
+                    executor.execute(() -> replay(cached));
+                    return;
+                }
+                recorder = new ResultRecorder(consumer, resultCache.maxEntryBytes());
+                consumer = recorder;
+            }
+            for (QueryTaskSource taskSource : taskSources) {
+                for (QueryTaskSourceOption option : taskSource.options) {
+                    option.readyListener = readyListener;
+                }
+            }
             meshQueryMaster.allocators().allocateQueryTasks(query, taskSources, meshy, queryOptions);
             queryTask = new QueryTask(this);
             if (ctx.channel().isWritable()) {
@@ -117,6 +163,37 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         executor = ctx.executor();
     }
 
+    private void replay(List<Bundle> cached) {
+        try {
+            for (Bundle bundle : cached) {
+                if (queryPromise.isDone()) {
+                    return;
+                }
+                // downstream ops may modify bundles in place
+                consumer.send(Bundles.deepCopyBundle(bundle));
+            }
+            queryPromise.tryProgress(0, cached.size());
+            queryPromise.trySuccess();
+        } catch (Throwable e) {
+            queryPromise.tryFailure(e);
+        }
+    }
+
+    /**
+     * Store the recorded output if every task contributed its complete result.
+     */
+    private void maybeStoreResults() {
+        if ((recorder == null) || (recorder.bundles() == null) || (completed != totalTasks)) {
+            return;
+        }
+        for (QueryTaskSource taskSource : taskSources) {
+            if ((taskSource.options.length > 0) && !taskSource.oneHasResponded()) {
+                return;
+            }
+        }
+        resultCache.put(resultGeneration, resultKey, recorder.bundles(), recorder.bytes());
+    }
+
     void maybeScheduleStragglerChecks() {
         if (AggregateConfig.enableStragglerCheck) {
             Runnable stragglerCheckTask = new StragglerCheckTask(this);
@@ -127,6 +204,18 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         }
     }
 
+    /**
+     * Called from meshy threads when a task source has frames to read or has ended.
+     * Schedules the query task unless a run is already pending.
+     */
+    void sourceReady() {
+        Runnable task = queryTask;
+        if ((task != null) && wakeupPending.compareAndSet(false, true)) {
+            AggregateConfig.totalWakeups.inc();
+            executor.execute(task);
+        }
+    }
+
     void stopSources(String message) {
         for (QueryTaskSource taskSource : taskSources) {
             taskSource.cancelAllActiveOptions(message);
@@ -161,6 +250,7 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         // Get a fresh FileReference and make a new QuerySource with that FileReference
         //      and the same parameters otherwise
         QueryTaskSourceOption newOption = meshQueryMaster.getReplacementQueryTaskOption(option.queryReference);
+        newOption.readyListener = readyListener;
         for (int i = 0; i < taskSource.options.length; i++) {
             if (taskSource.options[i] == option) {
                 taskSource.options[i] = newOption;
@@ -176,9 +266,13 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         if (stragglerTaskFuture != null) {
             stragglerTaskFuture.cancel(true);
         }
+        if (fallbackPoll != null) {
+            fallbackPoll.cancel(false);
+        }
         if (future.isSuccess()) {
             safelyRemoveSelfFromPipeline(future);
             stopSources("query is complete");
+            maybeStoreResults();
             consumer.sendComplete();
         } else {
             stopSources(future.cause().getMessage());
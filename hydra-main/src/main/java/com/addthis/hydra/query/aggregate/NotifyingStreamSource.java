@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.aggregate;
+
+import javax.annotation.Nullable;
+
+import java.util.Map;
+
+import com.addthis.meshy.ChannelMaster;
+import com.addthis.meshy.ChannelState;
+import com.addthis.meshy.service.stream.StreamSource;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A stream source that runs a listener, on the meshy thread, each time a frame has been
+ * queued for the reader or the stream has ended. The listener must not block.
+ * <p/>
+ * The amount of data queued ahead of the reader is bounded by the buffer size: the worker
+ * only sends more once the reader has consumed enough of it to request more.
+ */
+class NotifyingStreamSource extends StreamSource {
+
+    @Nullable private final Runnable listener;
+
+    NotifyingStreamSource(ChannelMaster master, String targetUuid, String fileName,
+                          Map<String, String> params, int bufferSize, @Nullable Runnable listener) {
+        super(master, targetUuid, targetUuid, fileName, params, bufferSize);
+        this.listener = listener;
+    }
+
+    private void signal() {
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void receive(ChannelState state, int length, ByteBuf buffer) throws Exception {
+        super.receive(state, length, buffer);
+        signal();
+    }
+
+    @Override
+    public void receiveComplete() throws Exception {
+        super.receiveComplete();
+        signal();
+    }
+
+    @Override
+    public void channelClosed(ChannelState state) {
+        super.channelClosed(state);
+        signal();
+    }
+}
@@ -44,16 +44,21 @@ public class QueryTask implements Runnable {
 
     private int pollFailures = 0;
     @Nullable final AutoField sourceField;
+    private final int maxSimul;
     private final Supplier<List<QueryTaskSource>> queryTaskSourceSupplier;
+    private final Runnable fallbackPoll = this::runFallbackPoll;
 
     public QueryTask(MeshSourceAggregator sourceAggregator) {
         this.sourceAggregator = sourceAggregator;
         this.sourceField = getSourceField(sourceAggregator.query);
+        this.maxSimul = getMaxSimul(sourceAggregator.query.getParameter("maxSimul"), sourceAggregator.totalTasks);
         this.queryTaskSourceSupplier = createQueryTaskSourceSupplier(sourceAggregator);
     }
 
     @Override
     public void run() {
+        // data that arrives from here on schedules another run
+        sourceAggregator.wakeupPending.set(false);
         try {
             if (sourceAggregator.queryPromise.isDone()) {
                 return;
@@ -77,6 +82,10 @@ public class QueryTask implements Runnable {
                 if (bundlesProcessed > 0) {
                     pollFailures = 0;
                     sourceAggregator.executor.execute(this);
+                } else if (awaitsSignal(taskSources)) {
+                    // active sources signal when they have data (see MeshSourceAggregator.sourceReady)
+                    pollFailures = 0;
+                    scheduleFallbackPoll();
                 } else {
                     pollFailures += 1;
                     rescheduleSelfWithBackoff();
@@ -130,6 +139,45 @@ public class QueryTask implements Runnable {
         return bundlesProcessed;
     }
 
+    /**
+     * @return true if every source the task is reading from has an active stream and no more
+     * sources need to be activated, so that the next run can wait for a source to signal data.
+     * Sources waiting on a lease must be polled.
+     */
+    private boolean awaitsSignal(List<QueryTaskSource> taskSources) {
+        for (QueryTaskSource taskSource : taskSources) {
+            if (!isActivated(taskSource)) {
+                return false;
+            }
+        }
+        int active = 0;
+        boolean inactive = false;
+        for (QueryTaskSource taskSource : sourceAggregator.taskSources) {
+            if (taskSource.complete()) {
+                continue;
+            }
+            if (isActivated(taskSource)) {
+                active++;
+            } else {
+                inactive = true;
+            }
+        }
+        return !inactive || (active >= maxSimul);
+    }
+
+    private void scheduleFallbackPoll() {
+        if (sourceAggregator.fallbackPoll == null) {
+            sourceAggregator.fallbackPoll = sourceAggregator.executor.schedule(
+                    fallbackPoll, AggregateConfig.FALLBACK_POLL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runFallbackPoll() {
+        sourceAggregator.fallbackPoll = null;
+        AggregateConfig.totalFallbackPolls.inc();
+        run();
+    }
+
     private static boolean isActivated(QueryTaskSource taskSource) {
         return taskSource.oneHasResponded() || !taskSource.hasNoActiveSources();
     }
@@ -155,10 +203,7 @@ public class QueryTask implements Runnable {
     }
 
     private Supplier<List<QueryTaskSource>> createQueryTaskSourceSupplier(MeshSourceAggregator sourceAggregator) {
-        Query query = sourceAggregator.query;
-        int totalTasks = sourceAggregator.totalTasks;
-        int maxSimul = getMaxSimul(query.getParameter("maxSimul"), totalTasks);
-        if (maxSimul == totalTasks) {
+        if (maxSimul == sourceAggregator.totalTasks) {
             return new DefaultQueryTaskSourceSupplier(sourceAggregator);
         } else {
             return new MaxSimulQueryTaskSourceSupplier(sourceAggregator, maxSimul);
@@ -35,6 +35,8 @@ public class QueryTaskSourceOption {
     public final Semaphore optionLeases;
 
     @Nullable StreamSource streamSource;
+    // run whenever the active stream has data for the reader
+    @Nullable Runnable readyListener;
 
     public QueryTaskSourceOption(FileReference queryReference, Semaphore optionLeases) {
         this.queryReference = queryReference;
@@ -52,8 +54,8 @@ public class QueryTaskSourceOption {
 
     private void activate(ChannelMaster meshy, Map<String, String> queryOptions) {
         try {
-            streamSource = new StreamSource(meshy, queryReference.getHostUUID(),
-                                            queryReference.getHostUUID(), queryReference.name, queryOptions, 0);
+            streamSource = new NotifyingStreamSource(meshy, queryReference.getHostUUID(), queryReference.name,
+                                                     queryOptions, AggregateConfig.SOURCE_BUFFER, readyListener);
         } catch (Throwable e) {
             log.warn("Error getting query handle for fileReference: {}/{}",
                      queryReference.getHostUUID(), queryReference.name, e);
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.aggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.channel.DataChannelError;
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.Bundles;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * Passes the aggregated task output through to the consumer and keeps a copy of it
+ * for the query master result cache. Recording stops once the estimated size of the
+ * copy exceeds the limit.
+ */
+class ResultRecorder implements DataChannelOutput {
+
+    private final DataChannelOutput consumer;
+    private final long limit;
+
+    private List<Bundle> bundles = new ArrayList<>();
+    private long bytes;
+
+    ResultRecorder(DataChannelOutput consumer, long limit) {
+        this.consumer = consumer;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the recorded output or null if it grew beyond the limit
+     */
+    List<Bundle> bundles() {
+        return bundles;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void send(Bundle bundle) throws DataChannelError {
+        if (bundles != null) {
+            bytes += estimateSize(bundle);
+            if (bytes > limit) {
+                bundles = null;
+            } else {
+                bundles.add(Bundles.deepCopyBundle(bundle));
+            }
+        }
+        consumer.send(bundle);
+    }
+
+    @Override
+    public void send(List<Bundle> list) {
+        for (Bundle bundle : list) {
+            send(bundle);
+        }
+    }
+
+    @Override
+    public void sendComplete() {
+        consumer.sendComplete();
+    }
+
+    @Override
+    public void sourceError(Throwable er) {
+        bundles = null;
+        consumer.sourceError(er);
+    }
+
+    @Override
+    public Bundle createBundle() {
+        return consumer.createBundle();
+    }
+
+    /**
+     * Rough heap footprint of a bundle, used to bound the result cache.
+     */
+    static long estimateSize(Bundle bundle) {
+        long size = 64;
+        for (BundleField field : bundle) {
+            ValueObject value = bundle.getValue(field);
+            size += 16;
+            if (value != null) {
+                size += 16 + (2L * value.toString().length());
+            }
+        }
+        return size;
+    }
+}
@@ -75,6 +75,7 @@ public class QueryEntry {
         stat.startTime = startTime;
         stat.tasks = lastSourceInfo;
         stat.state = queryState;
+        stat.peakMemory = trackerHandler.peakMemory();
         return stat;
     }
 
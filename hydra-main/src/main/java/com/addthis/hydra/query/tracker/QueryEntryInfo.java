@@ -45,6 +45,8 @@ public class QueryEntryInfo implements Codable {
     @FieldConfig(codable = true)
     public long sentLines;
     @FieldConfig(codable = true)
+    public long peakMemory;
+    @FieldConfig(codable = true)
     public QueryState state;
     @FieldConfig(codable = true)
     public TaskSourceInfo[] tasks;
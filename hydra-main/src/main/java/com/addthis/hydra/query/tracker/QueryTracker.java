@@ -27,6 +27,8 @@ import java.util.concurrent.TimeUnit;
 
 import com.addthis.basis.util.Parameter;
 
+import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.query.QueryResultCache;
 import com.addthis.hydra.query.aggregate.DetailedStatusTask;
 import com.addthis.hydra.query.aggregate.TaskSourceInfo;
 import com.addthis.hydra.query.aggregate.TaskSourceOptionInfo;
@@ -51,6 +53,16 @@ public class QueryTracker implements Closeable {
 
     static final int MAX_FINISHED_CACHE_SIZE = Parameter.intValue("QueryCache.MAX_FINISHED_CACHE_SIZE", 50);
 
+    /**
+     * estimated bytes of aggregated task results to keep for repeated queries. 0 disables the result cache.
+     */
+    static final long RESULT_CACHE_BYTES = Parameter.longValue("qmaster.resultCacheBytes", 128 * 1024 * 1024);
+
+    /**
+     * largest single aggregated result to keep in the result cache.
+     */
+    static final long RESULT_ENTRY_BYTES = Parameter.longValue("qmaster.resultEntryBytes", 16 * 1024 * 1024);
+
     /**
      * Contains the queries that are running
      */
@@ -58,6 +70,11 @@ public class QueryTracker implements Closeable {
     final Cache<String, QueryEntryInfo> recentlyCompleted;
     final TaskDataOutput eventLog;
 
+    /**
+     * Aggregated task output of completed queries keyed by the generations of the tasks that produced it.
+     */
+    final QueryResultCache<List<Bundle>> results = new QueryResultCache<>(RESULT_CACHE_BYTES, RESULT_ENTRY_BYTES);
+
     /* metrics */
     final Counter queryErrors = Metrics.newCounter(QueryTracker.class, "queryErrors");
     final Timer queryMeter = Metrics.newTimer(QueryTracker.class, "queryMeter", TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
@@ -80,6 +97,19 @@ public class QueryTracker implements Closeable {
         }
     });
 
+    final Gauge resultCacheHitRatio = Metrics.newGauge(QueryTracker.class, "resultCacheHitRatio", new Gauge<Double>() {
+        @Override
+        public Double value() {
+            return results.hitRatio();
+        }
+    });
+    final Gauge resultCacheBytesSaved = Metrics.newGauge(QueryTracker.class, "resultCacheBytesSaved", new Gauge<Long>() {
+        @Override
+        public Long value() {
+            return results.bytesSaved();
+        }
+    });
+
     /**
      * thread pool for query timeout watcher runs. Should only need one thread.
      */
@@ -100,6 +130,10 @@ public class QueryTracker implements Closeable {
         eventLog.sendComplete();
     }
 
+    public QueryResultCache<List<Bundle>> getResultCache() {
+        return results;
+    }
+
     public int getRunningCount() {
         return running.size();
     }
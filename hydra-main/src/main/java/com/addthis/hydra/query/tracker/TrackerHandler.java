@@ -95,6 +95,13 @@ public class TrackerHandler extends ChannelOutboundHandlerAdapter implements Cha
         senderField = eventFormat.getField("sender");
     }
 
+    /**
+     * @return largest estimated number of bytes held by the query ops at any one time
+     */
+    long peakMemory() {
+        return (opProcessorConsumer != null) ? opProcessorConsumer.peakBytes() : 0;
+    }
+
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
         this.queryPromise = ctx.newProgressivePromise();
@@ -0,0 +1,399 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.util;
+
+import javax.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.io.BundleReader;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * Reads query results in the columnar format ({@code format=columnar}) of the query master.
+ * <p/>
+ * The stream starts with {@link #MAGIC} and {@link #VERSION} and is followed by messages
+ * that each start with a type byte:
+ * <ul>
+ * <li>{@link #SCHEMA}: number of fields and their names. Applies to all following batches.</li>
+ * <li>{@link #BATCH}: number of rows and one column per field of the schema.</li>
+ * <li>{@link #END}: no more messages.</li>
+ * </ul>
+ * A column is a type byte, a bitmap of non-null rows if the type has the {@link #HAS_NULLS}
+ * bit, and then the non-null values. Longs are zigzag encoded variable length integers and
+ * doubles are eight bytes. String columns are a dictionary of distinct strings followed by
+ * the dictionary index of each value. Lengths, counts and indexes are unsigned variable
+ * length integers and strings are a length followed by UTF-8 bytes.
+ * <p/>
+ * Batches can be consumed as primitive columns with {@link #readBatch()} or row by row
+ * as bundles with {@link #read()}, but the two should not be mixed.
+ */
+public class ColumnarBundleReader implements BundleReader {
+
+    public static final byte[] MAGIC = {'H', 'Y', 'D', 'C'};
+    public static final byte VERSION = 1;
+
+    public static final byte SCHEMA = 'S';
+    public static final byte BATCH = 'B';
+    public static final byte END = 'E';
+
+    public static final byte TYPE_NULL = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_DOUBLE = 2;
+    public static final byte TYPE_STRING = 3;
+    public static final byte HAS_NULLS = (byte) 0x80;
+
+    private final DataInputStream input;
+
+    private List<String> fields = Collections.emptyList();
+    private ListBundleFormat format = new ListBundleFormat();
+    private BundleField[] bundleFields = new BundleField[0];
+    private Batch batch;
+    private int row;
+    private boolean ended;
+
+    public ColumnarBundleReader(InputStream input) throws IOException {
+        this.input = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a columnar query result");
+        }
+        int version = this.input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported columnar query result version " + version);
+        }
+    }
+
+    /**
+     * @return the next batch of rows or null at the end of the stream
+     */
+    @Nullable
+    public Batch readBatch() throws IOException {
+        while (!ended) {
+            byte type = input.readByte();
+            switch (type) {
+                case SCHEMA:
+                    readSchema();
+                    break;
+                case BATCH:
+                    return readColumns();
+                case END:
+                    ended = true;
+                    break;
+                default:
+                    throw new IOException("unknown message type " + type);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Bundle read() throws IOException {
+        while ((batch == null) || (row >= batch.rows)) {
+            batch = readBatch();
+            row = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        Bundle bundle = format.createBundle();
+        for (int i = 0; i < bundleFields.length; i++) {
+            ValueObject value = batch.columns[i].getValue(row);
+            if (value != null) {
+                bundle.setValue(bundleFields[i], value);
+            }
+        }
+        row++;
+        return bundle;
+    }
+
+    @Override
+    public BundleFactory getFactory() {
+        return format;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private void readSchema() throws IOException {
+        int count = readLength();
+        List<String> names = new ArrayList<>(count);
+        ListBundleFormat newFormat = new ListBundleFormat();
+        BundleField[] newFields = new BundleField[count];
+        for (int i = 0; i < count; i++) {
+            String name = readString();
+            names.add(name);
+            newFields[i] = newFormat.getField(name);
+        }
+        fields = Collections.unmodifiableList(names);
+        format = newFormat;
+        bundleFields = newFields;
+    }
+
+    private Batch readColumns() throws IOException {
+        int rows = readLength();
+        Column[] columns = new Column[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = readColumn(rows);
+        }
+        return new Batch(fields, rows, columns);
+    }
+
+    private Column readColumn(int rows) throws IOException {
+        byte type = input.readByte();
+        boolean[] present = new boolean[rows];
+        if ((type & HAS_NULLS) != 0) {
+            byte[] bitmap = new byte[(rows + 7) >>> 3];
+            input.readFully(bitmap);
+            for (int i = 0; i < rows; i++) {
+                present[i] = (bitmap[i >>> 3] & (1 << (i & 7))) != 0;
+            }
+        } else if (type != TYPE_NULL) {
+            Arrays.fill(present, true);
+        }
+        type &= ~HAS_NULLS;
+        switch (type) {
+            case TYPE_NULL:
+                return new Column(type, present, null, null, null, null);
+            case TYPE_LONG: {
+                long[] longs = new long[rows];
+                for (int i = 0; i < rows; i++) {
+                    if (present[i]) {
+                        long zigzag = readVarLong();
+                        longs[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                    }
+                }
+                return new Column(type, present, longs, null, null, null);
+            }
+            case TYPE_DOUBLE: {
+                double[] doubles = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    if (present[i]) {
+                        doubles[i] = input.readDouble();
+                    }
+                }
+                return new Column(type, present, null, doubles, null, null);
+            }
+            case TYPE_STRING: {
+                String[] dictionary = new String[readLength()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString();
+                }
+                int[] codes = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    codes[i] = present[i] ? readLength() : -1;
+                }
+                return new Column(type, present, null, null, dictionary, codes);
+            }
+            default:
+                throw new IOException("unknown column type " + type);
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int next = input.read();
+            if (next < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (next & 0x7f) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable length integer");
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarLong();
+        if ((length < 0) || (length > Integer.MAX_VALUE)) {
+            throw new IOException("invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readLength()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The rows of one batch, by column.
+     */
+    public static final class Batch {
+
+        private final List<String> fields;
+        private final int rows;
+        private final Column[] columns;
+
+        Batch(List<String> fields, int rows, Column[] columns) {
+            this.fields = fields;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        public List<String> fields() {
+            return fields;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public Column column(int index) {
+            return columns[index];
+        }
+
+        /**
+         * @return the column of the field or null if the batch has no such field
+         */
+        @Nullable
+        public Column column(String field) {
+            int index = fields.indexOf(field);
+            return (index < 0) ? null : columns[index];
+        }
+    }
+
+    /**
+     * The values of one field in a batch. All arrays have one element per row of the
+     * batch and elements of null rows are zero, or null for strings.
+     */
+    public static final class Column {
+
+        private final byte type;
+        private final boolean[] present;
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] dictionary;
+        private final int[] codes;
+
+        Column(byte type, boolean[] present, long[] longs, double[] doubles, String[] dictionary, int[] codes) {
+            this.type = type;
+            this.present = present;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        /**
+         * @return one of {@link #TYPE_NULL}, {@link #TYPE_LONG}, {@link #TYPE_DOUBLE} or {@link #TYPE_STRING}
+         */
+        public byte type() {
+            return type;
+        }
+
+        public boolean isNull(int row) {
+            return !present[row];
+        }
+
+        /**
+         * @throws IllegalStateException if this is not a long column
+         */
+        public long[] longs() {
+            if (type == TYPE_NULL) {
+                return new long[present.length];
+            } else if (type != TYPE_LONG) {
+                throw new IllegalStateException("not a long column");
+            }
+            return longs;
+        }
+
+        /**
+         * @throws IllegalStateException if this is not a long or double column
+         */
+        public double[] doubles() {
+            if (type == TYPE_DOUBLE) {
+                return doubles;
+            }
+            long[] values = longs();
+            double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i];
+            }
+            return result;
+        }
+
+        public String[] strings() {
+            String[] result = new String[present.length];
+            for (int i = 0; i < result.length; i++) {
+                ValueObject value = getValue(i);
+                if (value != null) {
+                    result[i] = value.toString();
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return distinct values of a string column
+         * @throws IllegalStateException if this is not a string column
+         */
+        public String[] dictionary() {
+            if (type != TYPE_STRING) {
+                throw new IllegalStateException("not a string column");
+            }
+            return dictionary;
+        }
+
+        /**
+         * @return index into the {@link #dictionary()} of each row, or -1 for null rows
+         * @throws IllegalStateException if this is not a string column
+         */
+        public int[] codes() {
+            if (type != TYPE_STRING) {
+                throw new IllegalStateException("not a string column");
+            }
+            return codes;
+        }
+
+        @Nullable
+        public ValueObject getValue(int row) {
+            if (!present[row]) {
+                return null;
+            }
+            switch (type) {
+                case TYPE_LONG:
+                    return ValueFactory.create(longs[row]);
+                case TYPE_DOUBLE:
+                    return ValueFactory.create(doubles[row]);
+                case TYPE_STRING:
+                    return ValueFactory.create(dictionary[codes[row]]);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -14,60 +14,161 @@
 
 package com.addthis.hydra.query.web;
 
-import java.nio.CharBuffer;
+import java.io.OutputStream;
 
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
-import io.netty.util.CharsetUtil;
 
 /**
  * parent of all streaming response classes
+ * <p/>
+ * Bundles are encoded as UTF-8 directly into a pooled buffer that is handed to the
+ * channel as a chunk of the response. While the channel is writable chunks are sent as
+ * soon as they reach {@code qmaster.http.buffer.min} bytes so that the client sees rows
+ * early. Once the client falls behind chunks grow up to {@code qmaster.http.buffer.batch}
+ * bytes so that fewer and larger writes are queued.
  */
 abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandlerAdapter {
 
-    private static final Logger log = LoggerFactory.getLogger(AbstractBufferingHttpBundleEncoder.class);
-
+    /** extra capacity for the row that crosses a chunk boundary */
     private static final int DEFAULT_INITIAL_BUFFER_SIZE = Parameter.intValue("qmaster.http.buffer.initial", 100);
     private static final int DEFAULT_BATCH_BUFFER_SIZE = Parameter.intValue("qmaster.http.buffer.batch", 100000);
+    private static final int MIN_BATCH_BUFFER_SIZE = Parameter.intValue("qmaster.http.buffer.min", 8192);
+
+    private static final boolean COMPRESS = Parameter.boolValue("qmaster.http.compress", true);
+    private static final int COMPRESSION_LEVEL = Parameter.intValue("qmaster.http.compress.level", 6);
 
     protected final HttpResponse responseStart = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
 
-    private final StringBuilder sendBuffer;
+    /** writes into the current send buffer, for encoders that produce output through a stream */
+    protected final OutputStream sendStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+            sendBuffer().writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            sendBuffer().writeBytes(b, off, len);
+        }
+    };
+
+    private final int initialBufferSize;
     private final int batchBufferSize;
 
+    private ChannelHandlerContext ctx;
+    private ByteBuf sendBuffer;
+    private ZlibWrapper contentEncoding;
+    private EmbeddedChannel compressor;
+
     private boolean writeStarted = false;
     private boolean responseWritten = false;
 
 
     AbstractBufferingHttpBundleEncoder(int initialBufferSize, int batchBufferSize) {
+        this.initialBufferSize = initialBufferSize;
         this.batchBufferSize = batchBufferSize;
         HttpHeaders.setTransferEncodingChunked(responseStart);
-        sendBuffer = new StringBuilder(initialBufferSize);
     }
 
     AbstractBufferingHttpBundleEncoder() {
         this(DEFAULT_INITIAL_BUFFER_SIZE, DEFAULT_BATCH_BUFFER_SIZE);
     }
 
-    private static ByteBuf encodeString(ByteBufAllocator alloc, CharSequence msg) {
-        return ByteBufUtil.encodeString(alloc, CharBuffer.wrap(msg), CharsetUtil.UTF_8);
+    /**
+     * Compress the response with gzip or deflate if the client accepts either of them.
+     * Must be called before the encoder is added to the pipeline.
+     *
+     * @param acceptEncoding value of the Accept-Encoding request header, may be null
+     */
+    void negotiateContentEncoding(String acceptEncoding) {
+        if (!COMPRESS || (acceptEncoding == null)) {
+            return;
+        }
+        contentEncoding = selectEncoding(acceptEncoding);
+        if (contentEncoding != null) {
+            responseStart.headers().set(HttpHeaders.Names.CONTENT_ENCODING,
+                                        (contentEncoding == ZlibWrapper.GZIP) ? HttpHeaders.Values.GZIP :
+                                        HttpHeaders.Values.DEFLATE);
+            responseStart.headers().set(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * @return gzip if accepted, otherwise deflate if accepted, otherwise null
+     */
+    static ZlibWrapper selectEncoding(String acceptEncoding) {
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (rejected(parts)) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                gzip = true;
+            } else if (name.equalsIgnoreCase("deflate")) {
+                deflate = true;
+            }
+        }
+        if (gzip) {
+            return ZlibWrapper.GZIP;
+        } else if (deflate) {
+            return ZlibWrapper.ZLIB;
+        } else {
+            return null;
+        }
+    }
+
+    /* true if the coding has a quality value of zero */
+    private static boolean rejected(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException ignored) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        if (contentEncoding != null) {
+            compressor = new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(contentEncoding, COMPRESSION_LEVEL));
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (sendBuffer != null) {
+            sendBuffer.release();
+            sendBuffer = null;
+        }
+        if (compressor != null) {
+            compressor.finishAndReleaseAll();
+            compressor = null;
+        }
     }
 
     @Override
@@ -84,18 +185,38 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
 
     @Override
     public void flush(ChannelHandlerContext ctx) {
-        if (sendBuffer.length() > 0) {
-            flushStringBuilder(ctx);
+        if ((sendBuffer != null) && sendBuffer.isReadable()) {
+            flushBuffer(ctx);
         } else {
             ctx.flush();
         }
     }
 
+    /**
+     * @return the buffer that is sent as the next chunk of the response
+     */
+    protected ByteBuf sendBuffer() {
+        if (sendBuffer == null) {
+            int capacity = chunkSize() + initialBufferSize;
+            // the compressor copies direct buffers onto the heap before deflating them
+            sendBuffer = (compressor != null) ? ctx.alloc().heapBuffer(capacity) : ctx.alloc().buffer(capacity);
+        }
+        return sendBuffer;
+    }
+
+    private int chunkSize() {
+        if (ctx.channel().isWritable()) {
+            return Math.min(MIN_BATCH_BUFFER_SIZE, batchBufferSize);
+        } else {
+            return batchBufferSize;
+        }
+    }
+
     private boolean maybeWriteStart(ChannelHandlerContext ctx, Bundle row) {
         if (!writeStarted) {
-            appendResponseStartToString(sendBuffer);
+            appendResponseStart(sendBuffer());
             if (row != null) {
-                appendInitialBundleToString(row, sendBuffer);
+                appendInitialBundle(row, sendBuffer());
             }
             writeStarted = true;
             return true;
@@ -103,12 +224,12 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
         return false;
     }
 
-    public abstract void appendBundleToString(Bundle row, StringBuilder sendBuffer);
+    public abstract void appendBundle(Bundle row, ByteBuf out);
 
     /**
      * Called before any bundles are written.
      */
-    protected void appendResponseStartToString(StringBuilder sendBuffer) {
+    protected void appendResponseStart(ByteBuf out) {
         // override in subclasses if desired
     }
 
@@ -118,40 +239,64 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
      * logic. If (first/ not first) is the only context needed to encode a bundle,
      * then subsequent bundles can be encoded concurrently.
      */
-    protected void appendInitialBundleToString(Bundle firstRow, StringBuilder sendBuffer) {
-        appendBundleToString(firstRow, sendBuffer);
+    protected void appendInitialBundle(Bundle firstRow, ByteBuf out) {
+        appendBundle(firstRow, out);
     }
 
     /**
      * Called after all bundles are written.
      */
-    protected void appendResponseEndToString(StringBuilder sendBuffer) {
+    protected void appendResponseEnd(ByteBuf out) {
         // override in subclasses if desired
     }
 
     public void send(ChannelHandlerContext ctx, Bundle row) {
         if (!maybeWriteStart(ctx, row)) {
-            appendBundleToString(row, sendBuffer);
+            appendBundle(row, sendBuffer());
         }
-        if (sendBuffer.length() >= batchBufferSize) {
-            flushStringBuilder(ctx);
+        if (sendBuffer().readableBytes() >= chunkSize()) {
+            flushBuffer(ctx);
         }
     }
 
-    protected void flushStringBuilder(ChannelHandlerContext ctx) {
+    protected void flushBuffer(ChannelHandlerContext ctx) {
         if (!responseWritten) {
             ctx.write(responseStart);
+            responseWritten = true;
         }
-        if (sendBuffer.length() > 0) {
-            ByteBuf msg = encodeString(ctx.alloc(), sendBuffer);
-            sendBuffer.setLength(0);
-            ctx.writeAndFlush(new DefaultHttpContent(msg), ctx.voidPromise());
+        if ((sendBuffer != null) && sendBuffer.isReadable()) {
+            ByteBuf msg = sendBuffer;
+            sendBuffer = null;
+            if (compressor != null) {
+                compressor.writeOutbound(msg);
+                writeCompressed(ctx);
+            } else {
+                ctx.writeAndFlush(new DefaultHttpContent(msg), ctx.voidPromise());
+            }
+        }
+    }
+
+    private void writeCompressed(ChannelHandlerContext ctx) {
+        ByteBuf compressed;
+        while ((compressed = compressor.readOutbound()) != null) {
+            if (compressed.isReadable()) {
+                ctx.write(new DefaultHttpContent(compressed), ctx.voidPromise());
+            } else {
+                compressed.release();
+            }
         }
+        ctx.flush();
     }
 
     public void sendComplete(ChannelHandlerContext ctx) {
         maybeWriteStart(ctx, null);
-        appendResponseEndToString(sendBuffer);
-        flushStringBuilder(ctx);
+        appendResponseEnd(sendBuffer());
+        flushBuffer(ctx);
+        if (compressor != null) {
+            // write the trailer of the compressed stream
+            compressor.finish();
+            writeCompressed(ctx);
+            compressor = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.query.util.ColumnarBundleReader;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import static com.addthis.hydra.query.util.ColumnarBundleReader.TYPE_DOUBLE;
+import static com.addthis.hydra.query.util.ColumnarBundleReader.TYPE_LONG;
+import static com.addthis.hydra.query.util.ColumnarBundleReader.TYPE_NULL;
+import static com.addthis.hydra.query.util.ColumnarBundleReader.TYPE_STRING;
+import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
+
+/**
+ * Streams results in batches of typed columns for programmatic clients. The format is
+ * described by {@link ColumnarBundleReader}, which decodes it.
+ * <p/>
+ * Each column of a batch has the narrowest type that holds all of its values: long,
+ * double or string. Values that are neither numbers nor strings are sent as their
+ * string representation.
+ */
+public class ColumnarBundleEncoder extends AbstractBufferingHttpBundleEncoder {
+
+    private static final int BATCH_ROWS = Parameter.intValue("qmaster.http.columnar.batchRows", 4096);
+
+    private final int batchRows;
+    private final List<String> fields = new ArrayList<>();
+    private final List<Column> columns = new ArrayList<>();
+
+    private BundleFormat format;
+    private Object formatVersion;
+    private int rows;
+
+    public ColumnarBundleEncoder() {
+        this(BATCH_ROWS);
+    }
+
+    ColumnarBundleEncoder(int batchRows) {
+        super();
+        this.batchRows = batchRows;
+        setContentTypeHeader(responseStart, "application/x-hydra-columnar");
+        responseStart.headers().set("Access-Control-Allow-Origin", "*");
+    }
+
+    @Override
+    protected void appendResponseStart(ByteBuf out) {
+        out.writeBytes(ColumnarBundleReader.MAGIC);
+        out.writeByte(ColumnarBundleReader.VERSION);
+    }
+
+    @Override
+    public void appendBundle(Bundle row, ByteBuf out) {
+        BundleFormat rowFormat = row.getFormat();
+        if ((rowFormat != format) || (rowFormat.getVersion() != formatVersion)) {
+            updateSchema(rowFormat, out);
+        }
+        int index = 0;
+        for (BundleField field : rowFormat) {
+            columns.get(index++).add(rows, row.getValue(field));
+        }
+        if (++rows >= batchRows) {
+            writeBatch(out);
+        }
+    }
+
+    @Override
+    protected void appendResponseEnd(ByteBuf out) {
+        writeBatch(out);
+        out.writeByte(ColumnarBundleReader.END);
+    }
+
+    /* formats only grow, but a different format may have different fields */
+    private void updateSchema(BundleFormat rowFormat, ByteBuf out) {
+        List<String> rowFields = new ArrayList<>(rowFormat.getFieldCount());
+        for (BundleField field : rowFormat) {
+            rowFields.add(field.getName());
+        }
+        format = rowFormat;
+        formatVersion = rowFormat.getVersion();
+        if (rowFields.equals(fields)) {
+            return;
+        }
+        writeBatch(out);
+        fields.clear();
+        fields.addAll(rowFields);
+        columns.clear();
+        out.writeByte(ColumnarBundleReader.SCHEMA);
+        writeVarLong(out, fields.size());
+        for (String field : fields) {
+            writeString(out, field);
+            columns.add(new Column(batchRows));
+        }
+    }
+
+    private void writeBatch(ByteBuf out) {
+        if (rows == 0) {
+            return;
+        }
+        out.writeByte(ColumnarBundleReader.BATCH);
+        writeVarLong(out, rows);
+        for (Column column : columns) {
+            column.write(out, rows);
+        }
+        rows = 0;
+    }
+
+    private static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarLong(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    /**
+     * Values of one field in the current batch. The column starts out as long and is
+     * widened to double and then to string as other values are added.
+     */
+    private static final class Column {
+
+        private final boolean[] present;
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] strings;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private byte type = TYPE_NULL;
+        private boolean hasNulls;
+
+        Column(int capacity) {
+            present = new boolean[capacity];
+            longs = new long[capacity];
+            doubles = new double[capacity];
+            strings = new String[capacity];
+        }
+
+        void add(int row, ValueObject value) {
+            if (value == null) {
+                present[row] = false;
+                hasNulls = true;
+                return;
+            }
+            present[row] = true;
+            ValueObject.TYPE valueType = value.getObjectType();
+            if (valueType == ValueObject.TYPE.CUSTOM) {
+                value = value.asCustom().asSimple();
+                valueType = value.getObjectType();
+            }
+            if ((valueType == ValueObject.TYPE.INT) && (type <= TYPE_LONG)) {
+                type = TYPE_LONG;
+                longs[row] = value.asLong().getLong();
+            } else if (((valueType == ValueObject.TYPE.INT) || (valueType == ValueObject.TYPE.FLOAT)) &&
+                       (type <= TYPE_DOUBLE)) {
+                widen(TYPE_DOUBLE, row);
+                doubles[row] = value.asDouble().getDouble();
+            } else {
+                widen(TYPE_STRING, row);
+                strings[row] = value.toString();
+            }
+        }
+
+        /* convert the values of all previous rows */
+        private void widen(byte newType, int rows) {
+            if (type == newType) {
+                return;
+            }
+            for (int i = 0; i < rows; i++) {
+                if (!present[i]) {
+                    continue;
+                }
+                if (newType == TYPE_DOUBLE) {
+                    doubles[i] = longs[i];
+                } else if (type == TYPE_LONG) {
+                    strings[i] = Long.toString(longs[i]);
+                } else if (type == TYPE_DOUBLE) {
+                    strings[i] = Double.toString(doubles[i]);
+                }
+            }
+            type = newType;
+        }
+
+        void write(ByteBuf out, int rows) {
+            if (type == TYPE_NULL) {
+                out.writeByte(TYPE_NULL);
+            } else {
+                out.writeByte(hasNulls ? (type | ColumnarBundleReader.HAS_NULLS) : type);
+                if (hasNulls) {
+                    byte[] bitmap = new byte[(rows + 7) >>> 3];
+                    for (int i = 0; i < rows; i++) {
+                        if (present[i]) {
+                            bitmap[i >>> 3] |= (1 << (i & 7));
+                        }
+                    }
+                    out.writeBytes(bitmap);
+                }
+                switch (type) {
+                    case TYPE_LONG:
+                        for (int i = 0; i < rows; i++) {
+                            if (present[i]) {
+                                writeVarLong(out, (longs[i] << 1) ^ (longs[i] >> 63));
+                            }
+                        }
+                        break;
+                    case TYPE_DOUBLE:
+                        for (int i = 0; i < rows; i++) {
+                            if (present[i]) {
+                                out.writeDouble(doubles[i]);
+                            }
+                        }
+                        break;
+                    default:
+                        writeStrings(out, rows);
+                        break;
+                }
+            }
+            type = TYPE_NULL;
+            hasNulls = false;
+            Arrays.fill(strings, 0, rows, null);
+        }
+
+        private void writeStrings(ByteBuf out, int rows) {
+            int[] codes = new int[rows];
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < rows; i++) {
+                if (present[i]) {
+                    Integer code = dictionary.get(strings[i]);
+                    if (code == null) {
+                        code = values.size();
+                        dictionary.put(strings[i], code);
+                        values.add(strings[i]);
+                    }
+                    codes[i] = code;
+                }
+            }
+            dictionary.clear();
+            writeVarLong(out, values.size());
+            for (String value : values) {
+                writeString(out, value);
+            }
+            for (int i = 0; i < rows; i++) {
+                if (present[i]) {
+                    writeVarLong(out, codes[i]);
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,9 @@ import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.QueryException;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class DelimitedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
@@ -91,8 +94,41 @@ public class DelimitedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
         stringBuilder.append("\n");
     }
 
+    public static void buildRow(Bundle row, String delimiter, ByteBuf out) {
+        int count = 0;
+        for (BundleField field : row.getFormat()) {
+            ValueObject o = row.getValue(field);
+            if (count++ > 0) {
+                ByteBufUtil.writeUtf8(out, delimiter);
+            }
+            if (o != null) {
+                ValueObject.TYPE type = o.getObjectType();
+                if (type == ValueObject.TYPE.CUSTOM) {
+                    o = o.asCustom().asSimple();
+                    type = o.getObjectType();
+                }
+                switch (type) {
+                    case INT:
+                    case FLOAT:
+                        ByteBufUtil.writeAscii(out, o.toString());
+                        break;
+                    case STRING:
+                        out.writeByte('"');
+                        // replace returns the same string when there is nothing to replace
+                        ByteBufUtil.writeUtf8(out,
+                                o.toString().replace('"', '\'').replace('\n', ' ').replace('\r', ' '));
+                        out.writeByte('"');
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        out.writeByte('\n');
+    }
+
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder stringBuilder) {
-        buildRow(row, delimiter, stringBuilder);
+    public void appendBundle(Bundle row, ByteBuf out) {
+        buildRow(row, delimiter, out);
     }
 }
@@ -23,6 +23,9 @@ import com.addthis.hydra.data.query.QueryException;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class DelimitedEscapedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
@@ -69,6 +72,9 @@ public class DelimitedEscapedBundleEncoder extends AbstractBufferingHttpBundleEn
 
     private static String quoteString(String input) {
         input = input.replace('\n', ' ').replace('\r', ' ');
+        if ((input.indexOf('"') < 0) && (input.indexOf('\\') < 0)) {
+            return input;
+        }
         Matcher matcher = ESCAPE_CHARACTERS.matcher(input);
         return matcher.replaceAll("\\\\$1");
     }
@@ -109,8 +115,44 @@ public class DelimitedEscapedBundleEncoder extends AbstractBufferingHttpBundleEn
         }
     }
 
+    public static void buildRow(Bundle row, String delimiter, ByteBuf out) {
+        int count = 0;
+        for (BundleField field : row.getFormat()) {
+            ValueObject o = row.getValue(field);
+            if (count++ > 0) {
+                ByteBufUtil.writeUtf8(out, delimiter);
+            }
+            if (o != null) {
+                buildValue(out, o);
+            }
+        }
+        out.writeByte('\n');
+    }
+
+    @VisibleForTesting
+    static void buildValue(ByteBuf out, ValueObject value) {
+        ValueObject.TYPE type = value.getObjectType();
+        if (type == ValueObject.TYPE.CUSTOM) {
+            value = value.asCustom().asSimple();
+            type = value.getObjectType();
+        }
+        switch (type) {
+            case INT:
+            case FLOAT:
+                ByteBufUtil.writeAscii(out, value.toString());
+                break;
+            case STRING:
+                out.writeByte('"');
+                ByteBufUtil.writeUtf8(out, quoteString(value.toString()));
+                out.writeByte('"');
+                break;
+            default:
+                break;
+        }
+    }
+
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder stringBuilder) {
-        buildRow(row, delimiter, stringBuilder);
+    public void appendBundle(Bundle row, ByteBuf out) {
+        buildRow(row, delimiter, out);
     }
 }
@@ -57,6 +57,8 @@ import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
@@ -152,14 +154,14 @@ public class GoogleDriveBundleEncoder extends AbstractBufferingHttpBundleEncoder
     }
 
     @Override
-    protected void appendResponseStartToString(StringBuilder sendBuffer) {
-        sendBuffer.append("Begin sending rows to Google drive.<br>");
+    protected void appendResponseStart(ByteBuf out) {
+        ByteBufUtil.writeAscii(out, "Begin sending rows to Google drive.<br>");
     }
 
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder sendBuffer) {
+    public void appendBundle(Bundle row, ByteBuf out) {
         if (++count % bundlePrintInterval == 0) {
-            sendBuffer.append("Sending row " + count + " to Google drive.<br>");
+            ByteBufUtil.writeAscii(out, "Sending row " + count + " to Google drive.<br>");
         }
     }
 
@@ -18,6 +18,9 @@ import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.value.ValueObject;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class HtmlBundleEncoder extends AbstractBufferingHttpBundleEncoder {
@@ -29,22 +32,24 @@ public class HtmlBundleEncoder extends AbstractBufferingHttpBundleEncoder {
     }
 
     @Override
-    protected void appendResponseStartToString(StringBuilder sendBuffer) {
-        sendBuffer.append("<table border=1 cellpadding=1 cellspacing=0>\n");
+    protected void appendResponseStart(ByteBuf out) {
+        ByteBufUtil.writeAscii(out, "<table border=1 cellpadding=1 cellspacing=0>\n");
     }
 
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder stringBuilder) {
-        stringBuilder.append("<tr>");
+    public void appendBundle(Bundle row, ByteBuf out) {
+        ByteBufUtil.writeAscii(out, "<tr>");
         for (BundleField field : row.getFormat()) {
             ValueObject o = row.getValue(field);
-            stringBuilder.append("<td>").append(o).append("</td>");
+            ByteBufUtil.writeAscii(out, "<td>");
+            ByteBufUtil.writeUtf8(out, String.valueOf(o));
+            ByteBufUtil.writeAscii(out, "</td>");
         }
-        stringBuilder.append("</tr>\n");
+        ByteBufUtil.writeAscii(out, "</tr>\n");
     }
 
     @Override
-    protected void appendResponseEndToString(StringBuilder sendBuffer) {
-        sendBuffer.append("</table>");
+    protected void appendResponseEnd(ByteBuf out) {
+        ByteBufUtil.writeAscii(out, "</table>");
     }
 }
@@ -24,6 +24,7 @@ import com.addthis.basis.kv.KVPairs;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryResultCache;
 import com.addthis.hydra.data.query.source.ErrorHandlingQuerySource;
 import com.addthis.hydra.data.query.source.QuerySource;
 import com.addthis.hydra.util.StringMapHelper;
@@ -35,6 +36,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.string.StringEncoder;
@@ -81,6 +83,8 @@ public final class HttpQueryCallHandler {
         query.setParameterIfNotYetSet("allocator", kv.getValue("allocator"));
         query.setParameterIfNotYetSet("allowPartial", kv.getValue("allowPartial"));
         query.setParameterIfNotYetSet("tasks", kv.getValue("tasks"));
+        query.setParameterIfNotYetSet(QueryResultCache.BYPASS_PARAMETER, kv.getValue("cache"));
+        query.setParameterIfNotYetSet("parallel", kv.getValue("parallel"));
         // use lazy allocator if maxSimul parameter is specified
         String maxSimul = kv.getValue("maxSimul");
         if (maxSimul != null) {
@@ -127,14 +131,19 @@ public final class HttpQueryCallHandler {
             sendError(ctx, new HttpResponseStatus(500, "missing job"));
             return ctx.newSucceededFuture();
         }
+        AbstractBufferingHttpBundleEncoder encoder;
         switch (format) {
             case "json":
-                ctx.pipeline().addLast(executor, "format", new JsonBundleEncoder());
+                encoder = new JsonBundleEncoder();
                 break;
             case "html":
-                ctx.pipeline().addLast(executor, "format", new HtmlBundleEncoder());
+                encoder = new HtmlBundleEncoder();
+                break;
+            case "columnar":
+                encoder = new ColumnarBundleEncoder();
                 break;
             case "gdrive":
+                encoder = null;
                 ctx.pipeline().addLast(executor, "stringer", stringer);
                 ctx.pipeline().addLast(executor, "format",
                         GoogleDriveBundleEncoder.create(filename, gdriveAccessToken));
@@ -142,14 +151,16 @@ public final class HttpQueryCallHandler {
             case "csv2":
             case "psv2":
             case "tsv2":
-                ctx.pipeline().addLast(executor,
-                                       "format", DelimitedEscapedBundleEncoder.create(filename, format));
+                encoder = DelimitedEscapedBundleEncoder.create(filename, format);
                 break;
             default:
-                ctx.pipeline().addLast(executor,
-                        "format", DelimitedBundleEncoder.create(filename, format));
+                encoder = DelimitedBundleEncoder.create(filename, format);
                 break;
         }
+        if (encoder != null) {
+            encoder.negotiateContentEncoding(request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING));
+            ctx.pipeline().addLast(executor, "format", encoder);
+        }
         ctx.pipeline().addLast(executor, "mqm", queryToQueryResultsEncoder);
         return ctx.pipeline().write(query, new DefaultChannelProgressivePromise(ctx.channel(), executor));
     }
@@ -14,6 +14,7 @@
 
 package com.addthis.hydra.query.web;
 
+import java.io.IOException;
 import java.io.UncheckedIOException;
 
 import com.addthis.bundle.core.Bundle;
@@ -21,57 +22,84 @@ import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.codec.jackson.Jackson;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
 
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class JsonBundleEncoder extends AbstractBufferingHttpBundleEncoder {
 
+    /**
+     * Writes every value of the response into the send buffer. The surrounding arrays
+     * are written raw so that null values keep their empty slot in a row.
+     */
+    private final JsonGenerator generator;
+
     public JsonBundleEncoder() {
         super();
         setContentTypeHeader(responseStart, "application/json; charset=utf-8");
         responseStart.headers().set("Access-Control-Allow-Origin", "*");
+        try {
+            generator = Jackson.defaultMapper().getFactory().createGenerator(sendStream, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        generator.setRootValueSeparator(null);
     }
 
     @Override
-    public void appendResponseStartToString(StringBuilder sendBuffer) {
-        sendBuffer.append('[');
+    public void appendResponseStart(ByteBuf out) {
+        out.writeByte('[');
     }
 
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder sendBuffer) {
-        sendBuffer.append(',');
-        appendInitialBundleToString(row, sendBuffer);
+    public void appendBundle(Bundle row, ByteBuf out) {
+        out.writeByte(',');
+        appendInitialBundle(row, out);
     }
 
     @Override
-    protected void appendInitialBundleToString(Bundle firstRow, StringBuilder sendBuffer) {
-        sendBuffer.append('[');
-        int count = 0;
-        for (BundleField field : firstRow.getFormat()) {
-            ValueObject o = firstRow.getValue(field);
-            if (count++ > 0) {
-                sendBuffer.append(',');
-            }
-            if (o == null) {
-                continue;
-            }
-            if (o.getObjectType() == ValueObject.TYPE.CUSTOM) {
-                o = o.asCustom().asSimple();
-            }
-            try {
-                // TODO: no worse than the preivous version, but should still be able to avoid the string alloc.
-                String encodedCopy = Jackson.defaultMapper().writeValueAsString(o.asNative());
-                sendBuffer.append(encodedCopy);
-            } catch (JsonProcessingException e) {
-                throw new UncheckedIOException(e);
+    protected void appendInitialBundle(Bundle firstRow, ByteBuf out) {
+        try {
+            generator.writeRaw('[');
+            int count = 0;
+            for (BundleField field : firstRow.getFormat()) {
+                ValueObject o = firstRow.getValue(field);
+                if (count++ > 0) {
+                    generator.writeRaw(',');
+                }
+                if (o == null) {
+                    continue;
+                }
+                if (o.getObjectType() == ValueObject.TYPE.CUSTOM) {
+                    o = o.asCustom().asSimple();
+                }
+                generator.writeObject(o.asNative());
             }
+            generator.writeRaw(']');
+            // the row must be in the send buffer before anything else is written to it
+            generator.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        sendBuffer.append(']');
     }
 
     @Override
-    protected void appendResponseEndToString(StringBuilder sendBuffer) {
-        sendBuffer.append("]");
+    protected void appendResponseEnd(ByteBuf out) {
+        out.writeByte(']');
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        try {
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            super.handlerRemoved(ctx);
+        }
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobLocksTest {
+
+    @Test
+    public void independentJobs() throws Exception {
+        JobLocks locks = new JobLocks();
+        long holds = SpawnMetrics.jobLockHoldMicros.count();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<?> holder = executor.submit(() -> {
+                locks.lock("job-a");
+                try {
+                    locked.countDown();
+                    release.await();
+                } finally {
+                    locks.unlock("job-a");
+                }
+                return null;
+            });
+            locked.await();
+            // another job is not blocked by the holder of job-a
+            assertTrue(locks.tryLock("job-b"));
+            assertFalse(locks.tryLock("job-a"));
+            // reentrant
+            locks.lock("job-b");
+            locks.unlock("job-b");
+            locks.unlock("job-b");
+            release.countDown();
+            holder.get();
+            assertTrue(locks.tryLock("job-a"));
+            locks.unlock("job-a");
+        } finally {
+            executor.shutdownNow();
+        }
+        // one hold for each outermost acquisition
+        assertTrue(SpawnMetrics.jobLockHoldMicros.count() >= (holds + 3));
+    }
+}
@@ -295,7 +295,13 @@ public class JobSearcherTest {
     private JsonNode doSearch(String search) throws IOException {
         JobSearcher jobSearcher = new JobSearcher(jobs, macros, aliases, jobConfigManager, new SearchOptions(search), outputStream);
         jobSearcher.run();
-        return objectMapper.readTree(outputStream.toString());
+        JsonNode result = objectMapper.readTree(outputStream.toString());
+        // the indexed search must return the same results
+        ByteArrayOutputStream indexedOutput = new ByteArrayOutputStream();
+        new JobSearcher(jobs, macros, aliases, jobConfigManager, new JobSearchIndex(jobConfigManager),
+                        new SearchOptions(search), indexedOutput).run();
+        assertEquals(result, objectMapper.readTree(indexedOutput.toString()));
+        return result;
     }
 
 }
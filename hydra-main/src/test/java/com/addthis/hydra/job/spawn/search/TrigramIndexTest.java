@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.spawn.search;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TrigramIndexTest {
+
+    private static final String[] TEXTS = {
+            "source: {mesh2: {}}\nmap.filterOut: {op: field, from: UID}",
+            "output.tree: {root: {path: PAGE}}\nsource.stream: {}",
+            "source: {empty: {}}\n%{shared-macro}%",
+            "values: [UID, URL]\nsaved: true"};
+
+    private static TrigramIndex<Integer> index() {
+        TrigramIndex<Integer> index = new TrigramIndex<>();
+        for (int i = 0; i < TEXTS.length; i++) {
+            index.put(i, TEXTS[i]);
+        }
+        return index;
+    }
+
+    /**
+     * Every text with a matching line must be a candidate.
+     */
+    private static void assertComplete(TrigramIndex<Integer> index, String regex) {
+        Set<Integer> candidates = index.candidates(TrigramQuery.forRegex(regex));
+        Pattern pattern = Pattern.compile(regex);
+        for (int i = 0; i < TEXTS.length; i++) {
+            if (!LineSearch.search(TEXTS[i], pattern).isEmpty() && (candidates != null)) {
+                assertEquals(regex + " " + i, true, candidates.contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void literals() {
+        TrigramIndex<Integer> index = index();
+        assertEquals(ImmutableSet.of(0, 3), index.candidates(TrigramQuery.forRegex("UID")));
+        assertEquals(ImmutableSet.of(0, 2), index.candidates(TrigramQuery.forRegex("source:")));
+        assertEquals(ImmutableSet.of(1, 3), index.candidates(TrigramQuery.forRegex("tree|saved")));
+        assertEquals(ImmutableSet.of(), index.candidates(TrigramQuery.forRegex("missing")));
+        // trigrams that span lines are not indexed
+        assertEquals(ImmutableSet.of(0), index.candidates(TrigramQuery.forRegex("}}\\nmap")));
+        assertEquals(ImmutableSet.of(2), index.candidates(TrigramQuery.forRegex("\\Q%{shared\\E")));
+    }
+
+    @Test
+    public void unselective() {
+        TrigramIndex<Integer> index = index();
+        assertNull(index.candidates(TrigramQuery.forRegex("ab")));
+        assertNull(index.candidates(TrigramQuery.forRegex("(?i)uid")));
+        assertNull(index.candidates(TrigramQuery.forRegex("source|x")));
+        assertNull(index.candidates(TrigramQuery.forRegex("\\x55ID")));
+        assertNull(index.candidates(TrigramQuery.forRegex("[UI]+D")));
+    }
+
+    @Test
+    public void complete() {
+        TrigramIndex<Integer> index = index();
+        String[] regexes = {"UID", "U.D", "sour?ce", "so+urce", "path: [A-Z]+", "(mesh|empty)2?: \\{",
+                            "^values", "saved\\b", "a{0,2}lues", "tre{1,}", "source(\\.stream)?: \\{",
+                            "[^a-z]*out", "\\Qmap.\\E*filter", "\\{\\}\\}$"};
+        for (String regex : regexes) {
+            assertComplete(index, regex);
+        }
+    }
+
+    @Test
+    public void replaceAndRemove() {
+        TrigramIndex<Integer> index = index();
+        index.put(3, "nothing here");
+        assertEquals(ImmutableSet.of(0), index.candidates(TrigramQuery.forRegex("UID")));
+        index.remove(0);
+        assertEquals(ImmutableSet.of(), index.candidates(TrigramQuery.forRegex("UID")));
+        // retired ordinals are compacted away
+        for (int i = 0; i < 5000; i++) {
+            index.put(i % 10, "text " + i);
+        }
+        assertEquals(10, index.size());
+        assertEquals(ImmutableSet.of(9), index.candidates(TrigramQuery.forRegex("text 4999")));
+        assertEquals(ImmutableSet.of(1), index.candidates(TrigramQuery.forRegex("text 4991$")));
+    }
+}
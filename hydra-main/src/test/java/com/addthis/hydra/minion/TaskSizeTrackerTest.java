@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion;
+
+import java.io.File;
+
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TaskSizeTrackerTest {
+
+    private static void write(File file, int bytes) throws Exception {
+        LessFiles.initDirectory(file.getParentFile());
+        LessFiles.write(file, new byte[bytes], false);
+    }
+
+    /** wait for the change events of the watch service, if any */
+    private static void refresh(TaskSizeTracker tracker, long expectedLiveBytes) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        do {
+            TaskSizeTracker.pollEvents();
+            tracker.refresh(false);
+            if (tracker.liveBytes() == expectedLiveBytes) {
+                return;
+            }
+            Thread.sleep(50);
+        } while (System.currentTimeMillis() < deadline);
+    }
+
+    @Test
+    public void trackChanges() throws Exception {
+        File root = LessFiles.createTempDir();
+        File indexDir = LessFiles.createTempDir();
+        File index = new File(indexDir, "job.sizes");
+        try {
+            write(new File(root, "live/a"), 100);
+            write(new File(root, "live/sub/b"), 50);
+            write(new File(root, "config/job.state"), 10);
+            TaskSizeTracker tracker = new TaskSizeTracker(root, index);
+            tracker.refresh(true);
+            assertEquals(2, tracker.liveCount());
+            assertEquals(150, tracker.liveBytes());
+            assertEquals(160, tracker.totalBytes());
+
+            // a backup made of hard links does not take more space
+            LessFiles.initDirectory(new File(root, "b-1/sub"));
+            Files.createLink(new File(root, "b-1/a").toPath(), new File(root, "live/a").toPath());
+            Files.createLink(new File(root, "b-1/sub/b").toPath(), new File(root, "live/sub/b").toPath());
+            refresh(tracker, 150);
+            tracker.refresh(true);
+            assertEquals(150, tracker.liveBytes());
+            assertEquals(160, tracker.totalBytes());
+
+            write(new File(root, "live/sub/c"), 30);
+            refresh(tracker, 180);
+            assertEquals(3, tracker.liveCount());
+            assertEquals(180, tracker.liveBytes());
+            assertEquals(190, tracker.totalBytes());
+
+            // the backup still holds the deleted file
+            Files.delete(new File(root, "live/a").toPath());
+            refresh(tracker, 80);
+            assertEquals(80, tracker.liveBytes());
+            assertEquals(190, tracker.totalBytes());
+            tracker.close();
+
+            TaskSizeTracker restored = new TaskSizeTracker(root, index);
+            restored.refresh(true);
+            assertEquals(2, restored.liveCount());
+            assertEquals(80, restored.liveBytes());
+            assertEquals(190, restored.totalBytes());
+            restored.close();
+        } finally {
+            LessFiles.deleteDir(root);
+            LessFiles.deleteDir(indexDir);
+        }
+    }
+
+    @Test
+    public void linkGrowsAfterBackup() throws Exception {
+        File root = LessFiles.createTempDir();
+        File indexDir = LessFiles.createTempDir();
+        try {
+            write(new File(root, "live/a"), 100);
+            // several backups so that some are visited before live
+            for (int i = 0; i < 8; i++) {
+                LessFiles.initDirectory(new File(root, "b-" + i));
+                Files.createLink(new File(root, "b-" + i + "/a").toPath(), new File(root, "live/a").toPath());
+                // old enough that the index of the backup is trusted
+                new File(root, "b-" + i).setLastModified(System.currentTimeMillis() - 60000);
+            }
+            TaskSizeTracker tracker = new TaskSizeTracker(root, new File(indexDir, "job.sizes"));
+            tracker.refresh(true);
+            assertEquals(100, tracker.totalBytes());
+
+            // appended in place, like a bdb log file. the backups are not listed again.
+            Files.write(new File(root, "live/a").toPath(), new byte[50], StandardOpenOption.APPEND);
+            refresh(tracker, 150);
+            assertEquals(150, tracker.liveBytes());
+            assertEquals(150, tracker.totalBytes());
+            tracker.close();
+        } finally {
+            LessFiles.deleteDir(root);
+            LessFiles.deleteDir(indexDir);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.minion.replicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaSenderTest {
+
+    private static final int BLOCK = 1024;
+
+    private final Random random = new Random(11);
+    private File source;
+    private File target;
+
+    @Before
+    public void setup() throws IOException {
+        source = LessFiles.createTempDir();
+        target = LessFiles.createTempDir();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        ReplicaReceiver.delete(source);
+        ReplicaReceiver.delete(target);
+    }
+
+    private byte[] write(File file, int length) throws IOException {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+        return data;
+    }
+
+    /**
+     * Replicate between the two directories as if they were on different hosts.
+     *
+     * @return bytes of blocks sent
+     */
+    private long replicate(List<String> names, boolean prune) throws Exception {
+        PipedInputStream toReceiver = new PipedInputStream(1 << 16);
+        PipedInputStream toSender = new PipedInputStream(1 << 16);
+        DataOutputStream senderOut = new DataOutputStream(new PipedOutputStream(toReceiver));
+        DataOutputStream receiverOut = new DataOutputStream(new PipedOutputStream(toSender));
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread receiver = new Thread(() -> {
+            try {
+                new ReplicaReceiver(target).receive(new DataInputStream(toReceiver), receiverOut);
+            } catch (Exception ex) {
+                failure.set(ex);
+            }
+        });
+        receiver.start();
+        ReplicaSender sender = new ReplicaSender(source, null, BLOCK);
+        sender.send(names, prune, new DataInputStream(toSender), senderOut);
+        receiver.join();
+        assertNull(failure.get());
+        return sender.bytesSent();
+    }
+
+    private static void assertSameTree(File expected, File actual) throws IOException {
+        String[] names = expected.list();
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(expected, name);
+            File copy = new File(actual, name);
+            if (Manifest.EXCLUDES.contains(name)) {
+                continue;
+            }
+            if (Files.isSymbolicLink(file.toPath())) {
+                assertEquals(Files.readSymbolicLink(file.toPath()), Files.readSymbolicLink(copy.toPath()));
+            } else if (file.isDirectory()) {
+                assertTrue(copy.isDirectory());
+                assertSameTree(file, copy);
+            } else {
+                assertArrayEquals(name, Files.readAllBytes(file.toPath()), Files.readAllBytes(copy.toPath()));
+                assertEquals(file.lastModified(), copy.lastModified());
+            }
+        }
+        String[] copies = actual.list();
+        for (String name : copies) {
+            assertTrue(name, Manifest.EXCLUDES.contains(name) || new File(expected, name).exists() ||
+                             Files.isSymbolicLink(new File(expected, name).toPath()));
+        }
+    }
+
+    private static Object inode(File file) throws IOException {
+        return Files.getAttribute(file.toPath(), "unix:ino");
+    }
+
+    @Test
+    public void onlyChangedBlocksAreSent() throws Exception {
+        File live = new File(source, "live");
+        byte[] data = write(new File(live, "db/data.1"), (BLOCK * 10) + 100);
+        write(new File(live, "db/data.2"), BLOCK * 3);
+        write(new File(live, "job.conf"), 10);
+        new File(live, "empty").mkdirs();
+        write(new File(live, "replicate.complete"), 0);
+        assertEquals((BLOCK * 13) + 110, replicate(Collections.singletonList("live"), false));
+        assertSameTree(live, new File(target, "live"));
+        assertFalse(new File(target, "live/replicate.complete").exists());
+        Object unchanged = inode(new File(target, "live/db/data.2"));
+
+        // change one block, append to the last block, remove a file and add a link
+        data[BLOCK * 4] ^= 1;
+        byte[] longer = Arrays.copyOf(data, data.length + 10);
+        Files.write(new File(live, "db/data.1").toPath(), longer);
+        Files.delete(new File(live, "job.conf").toPath());
+        Files.createSymbolicLink(new File(live, "link").toPath(), Paths.get("db/data.2"));
+        assertEquals(BLOCK + 110, replicate(Collections.singletonList("live"), false));
+        assertSameTree(live, new File(target, "live"));
+        assertEquals(unchanged, inode(new File(target, "live/db/data.2")));
+
+        assertEquals(0, replicate(Collections.singletonList("live"), false));
+        assertSameTree(live, new File(target, "live"));
+    }
+
+    @Test
+    public void backupsShareFiles() throws Exception {
+        File live = new File(source, "live");
+        write(new File(live, "db/data.1"), BLOCK * 4);
+        write(new File(live, "db/data.2"), BLOCK * 2);
+        replicate(Collections.singletonList("live"), false);
+
+        // a backup that is a hard linked copy of live, as made by cp -lr
+        File backup = new File(source, "b-1");
+        for (Path path : new Path[]{Paths.get("db/data.1"), Paths.get("db/data.2"), Paths.get(Manifest.FILENAME)}) {
+            Path copy = backup.toPath().resolve(path);
+            Files.createDirectories(copy.getParent());
+            Files.createLink(copy, live.toPath().resolve(path));
+        }
+        Files.createSymbolicLink(new File(source, "daily").toPath(), Paths.get("b-1"));
+        new File(target, "gold").mkdirs();
+        new File(target, "b-old").mkdirs();
+
+        List<String> names = ReplicaSender.replicatedNames(source);
+        assertEquals(0, replicate(names, true));
+        assertSameTree(source, target);
+        assertEquals(inode(new File(target, "live/db/data.1")), inode(new File(target, "b-1/db/data.1")));
+        assertEquals(Paths.get("b-1"), Files.readSymbolicLink(new File(target, "daily").toPath()));
+        assertFalse(new File(target, "b-old").exists());
+        assertTrue(new File(target, "gold").exists());
+
+        // a new file in live that shares blocks with an existing one
+        byte[] moved = Files.readAllBytes(new File(live, "db/data.1").toPath());
+        byte[] grown = Arrays.copyOf(moved, moved.length + BLOCK);
+        Files.write(new File(live, "db/data.3").toPath(), grown);
+        assertEquals(BLOCK, replicate(names, true));
+        assertSameTree(source, target);
+        assertEquals(inode(new File(target, "b-1/db/data.2")), inode(new File(target, "live/db/data.2")));
+    }
+
+    @Test
+    public void transfersRunInProcess() throws Exception {
+        write(new File(source, "live/data/a"), 5000);
+        write(new File(source, "live/b"), 100);
+        // stands in for ssh by running the remote command on this host
+        File connect = new File(source, ".connect");
+        Files.write(connect.toPath(), "shift\nexec sh -c \"$1\"\n".getBytes());
+        ReplicaTransfers transfers = new ReplicaTransfers("sh " + connect, System.getProperty("java.home") + "/bin/java");
+        long sent = transfers.replicate("job/0", source, "user@replica", target.getPath(),
+                                        Collections.singletonList("live"), 1 << 20);
+        assertEquals(5100, sent);
+        assertFalse(transfers.isActive("job/0"));
+        assertSameTree(new File(source, "live"), new File(target, "live"));
+    }
+}
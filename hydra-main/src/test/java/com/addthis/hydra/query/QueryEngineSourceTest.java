@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryException;
+import com.addthis.hydra.data.query.engine.QueryEngine;
+import com.addthis.hydra.data.query.source.QueryHandle;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.netty.channel.ChannelProgressivePromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class QueryEngineSourceTest {
+
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch first = new CountDownLatch(1);
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch running = new CountDownLatch(4);
+
+    private final QueryEngineSource source = new QueryEngineSource() {
+        @Override
+        public QueryEngine getEngineLease() {
+            QueryEngine engine = Mockito.mock(QueryEngine.class);
+            try {
+                doAnswer(invocation -> {
+                    Query query = (Query) invocation.getArguments()[0];
+                    started.add(query.getJob());
+                    running.countDown();
+                    if (query.getJob().equals("first")) {
+                        first.await();
+                    } else if (query.getJob().startsWith("busy")) {
+                        blocked.await();
+                    }
+                    return null;
+                }).when(engine).search(any(Query.class), any(DataChannelOutput.class),
+                                       any(ChannelProgressivePromise.class));
+            } catch (QueryException ex) {
+                throw new RuntimeException(ex);
+            }
+            return engine;
+        }
+    };
+
+    private static Query query(String name, int priority) {
+        Query query = new Query(name, new String[]{"+"}, null);
+        query.setParameter("priority", Integer.toString(priority));
+        return query;
+    }
+
+    @Test
+    public void priorityAdmission() throws Exception {
+        source.setAdaptive(false);
+        List<DataChannelOutput> consumers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DataChannelOutput consumer = Mockito.mock(DataChannelOutput.class);
+            consumers.add(consumer);
+            source.query(query((i == 0) ? "first" : "busy", 0), consumer);
+        }
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        DataChannelOutput low = Mockito.mock(DataChannelOutput.class);
+        DataChannelOutput high = Mockito.mock(DataChannelOutput.class);
+        DataChannelOutput dropped = Mockito.mock(DataChannelOutput.class);
+        source.query(query("low", 0), low);
+        QueryHandle handle = source.query(query("dropped", 5), dropped);
+        source.query(query("high", 10), high);
+        handle.cancel("test");
+        verify(dropped).sourceError(any(QueryException.class));
+        // a single free thread takes the queued queries in priority order
+        first.countDown();
+        verify(low, timeout(10000)).sendComplete();
+        verify(high, timeout(10000)).sendComplete();
+        blocked.countDown();
+        for (DataChannelOutput consumer : consumers) {
+            verify(consumer, timeout(10000)).sendComplete();
+        }
+        verify(dropped, never()).sendComplete();
+        assertEquals(6, started.size());
+        assertTrue(started.indexOf("high") < started.indexOf("low"));
+        assertTrue(!started.contains("dropped"));
+    }
+
+    @Test
+    public void concurrencyFollowsWaitRatio() {
+        source.setAdaptive(true);
+        assertEquals(4, source.concurrency());
+        for (int i = 0; i < 100; i++) {
+            source.observe(TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        int expanded = source.concurrency();
+        assertTrue("concurrency " + expanded, expanded > 4);
+        for (int i = 0; i < 100; i++) {
+            source.observe(TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertTrue(source.concurrency() < expanded);
+    }
+}
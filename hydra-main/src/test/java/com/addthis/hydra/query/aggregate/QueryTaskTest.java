@@ -14,6 +14,7 @@
 package com.addthis.hydra.query.aggregate;
 
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.addthis.bundle.channel.DataChannelOutput;
 import com.addthis.bundle.core.Bundle;
@@ -29,7 +30,10 @@ import org.mockito.Spy;
 import io.netty.channel.ChannelProgressivePromise;
 import io.netty.util.concurrent.EventExecutor;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -109,6 +113,32 @@ public class QueryTaskTest {
         verify(sourceAggregator.executor).execute(queryTask);
     }
 
+    @Test
+    public void activeTaskSourcesAwaitSignal() throws Exception {
+        // stub all task sources as streaming but with nothing buffered yet
+        for (QueryTaskSource x : sourceAggregator.taskSources) {
+            when(x.next()).thenReturn(null);
+            when(x.complete()).thenReturn(false);
+            when(x.hasNoActiveSources()).thenReturn(false);
+        }
+
+        queryTask.run();
+
+        // verify the query task waits for a signal instead of polling, with a single fallback poll
+        verify(sourceAggregator, never()).tryActivateSource(any(QueryTaskSource.class));
+        verify(sourceAggregator.executor, never()).execute(queryTask);
+        verify(sourceAggregator.executor).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        // verify signals are coalesced until the query task runs again
+        sourceAggregator.queryTask = queryTask;
+        sourceAggregator.sourceReady();
+        sourceAggregator.sourceReady();
+        verify(sourceAggregator.executor).execute(queryTask);
+        queryTask.run();
+        sourceAggregator.sourceReady();
+        verify(sourceAggregator.executor, times(2)).execute(queryTask);
+    }
+
     @Test
     public void oneTask() throws Exception {
         // stub 3 empty task sources (as would be the case with the "tasks" query parameter)
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.query.util.ColumnarBundleReader;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarBundleEncoderTest {
+
+    private static ColumnarBundleReader encode(List<Bundle> rows, int batchRows) throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ColumnarBundleEncoder(batchRows));
+        for (Bundle row : rows) {
+            channel.writeOutbound(row);
+        }
+        channel.writeOutbound(DataChannelOutputToNettyBridge.SEND_COMPLETE);
+        assertTrue(channel.readOutbound() instanceof HttpResponse);
+        ByteBuf content = Unpooled.buffer();
+        HttpContent next;
+        while ((next = channel.readOutbound()) != null) {
+            content.writeBytes(next.content());
+            next.release();
+        }
+        channel.finish();
+        return new ColumnarBundleReader(new ByteBufInputStream(content));
+    }
+
+    private static List<Bundle> rows() {
+        ListBundleFormat format = new ListBundleFormat();
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Bundle row = format.createBundle();
+            row.setValue(format.getField("key"), ValueFactory.create((i % 2 == 0) ? "even" : "odd"));
+            row.setValue(format.getField("count"), ValueFactory.create(i - 5));
+            // widened from long to double in the second batch
+            row.setValue(format.getField("mixed"), (i == 7) ? ValueFactory.create(0.5) : ValueFactory.create(i));
+            row.setValue(format.getField("sparse"), (i % 3 == 0) ? ValueFactory.create(i) : null);
+            row.setValue(format.getField("empty"), null);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void bundles() throws Exception {
+        List<Bundle> rows = rows();
+        // a field added to the format part way through the stream
+        ListBundleFormat format = (ListBundleFormat) rows.get(0).getFormat();
+        Bundle last = format.createBundle();
+        last.setValue(format.getField("key"), ValueFactory.create("last"));
+        last.setValue(format.getField("extra"), ValueFactory.create("extra"));
+        rows.add(last);
+        ColumnarBundleReader reader = encode(rows, 4);
+        for (Bundle expected : rows) {
+            Bundle actual = reader.read();
+            assertEquals(expected.getFormat().getFieldCount(), actual.getFormat().getFieldCount());
+            for (int i = 0; i < expected.getFormat().getFieldCount(); i++) {
+                String name = expected.getFormat().getField(i).getName();
+                ValueObject expectedValue = expected.getValue(expected.getFormat().getField(name));
+                ValueObject actualValue = actual.getValue(actual.getFormat().getField(name));
+                if (name.equals("mixed") && (expectedValue != null)) {
+                    // longs are sent as doubles in a batch that also has doubles
+                    assertEquals(expectedValue.asDouble().getDouble(), actualValue.asDouble().getDouble(), 0);
+                } else {
+                    assertEquals(name, String.valueOf(expectedValue), String.valueOf(actualValue));
+                }
+            }
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void columns() throws Exception {
+        ColumnarBundleReader reader = encode(rows(), 4);
+        ColumnarBundleReader.Batch batch = reader.readBatch();
+        assertEquals(Arrays.asList("key", "count", "mixed", "sparse", "empty"), batch.fields());
+        assertEquals(4, batch.rows());
+        assertArrayEquals(new String[]{"even", "odd"}, batch.column("key").dictionary());
+        assertArrayEquals(new int[]{0, 1, 0, 1}, batch.column("key").codes());
+        assertArrayEquals(new long[]{-5, -4, -3, -2}, batch.column("count").longs());
+        assertEquals(ColumnarBundleReader.TYPE_LONG, batch.column("mixed").type());
+        assertArrayEquals(new long[]{0, 0, 0, 3}, batch.column("sparse").longs());
+        assertTrue(batch.column("sparse").isNull(1));
+        assertEquals(ColumnarBundleReader.TYPE_NULL, batch.column("empty").type());
+        batch = reader.readBatch();
+        assertEquals(ColumnarBundleReader.TYPE_DOUBLE, batch.column("mixed").type());
+        assertArrayEquals(new double[]{4, 5, 6, 0.5}, batch.column("mixed").doubles(), 0);
+        batch = reader.readBatch();
+        assertEquals(2, batch.rows());
+        assertNull(reader.readBatch());
+    }
+}
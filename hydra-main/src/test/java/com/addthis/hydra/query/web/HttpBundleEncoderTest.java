@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import java.io.InputStream;
+
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpBundleEncoderTest {
+
+    private static Bundle[] rows(int count) {
+        ListBundleFormat format = new ListBundleFormat();
+        Bundle[] rows = new Bundle[count];
+        for (int i = 0; i < count; i++) {
+            Bundle row = format.createBundle();
+            row.setValue(format.getField("name"), ValueFactory.create("row \"" + i + "\" é"));
+            row.setValue(format.getField("count"), ValueFactory.create(i));
+            row.setValue(format.getField("empty"), null);
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the response and the concatenated content of the response
+     */
+    private static ByteBuf encode(AbstractBufferingHttpBundleEncoder encoder, Bundle[] rows,
+                                  HttpResponse[] response) {
+        EmbeddedChannel channel = new EmbeddedChannel(encoder);
+        for (Bundle row : rows) {
+            channel.writeOutbound(row);
+        }
+        channel.writeOutbound(DataChannelOutputToNettyBridge.SEND_COMPLETE);
+        response[0] = channel.readOutbound();
+        ByteBuf content = Unpooled.buffer();
+        Object next;
+        while ((next = channel.readOutbound()) != null) {
+            assertTrue(next instanceof HttpContent);
+            content.writeBytes(((HttpContent) next).content());
+            ((HttpContent) next).release();
+        }
+        channel.finish();
+        return content;
+    }
+
+    private static String encodeToString(AbstractBufferingHttpBundleEncoder encoder, Bundle[] rows) {
+        HttpResponse[] response = new HttpResponse[1];
+        ByteBuf content = encode(encoder, rows, response);
+        assertNull(response[0].headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+        return content.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void json() {
+        assertEquals("[[\"row \\\"0\\\" é\",0,],[\"row \\\"1\\\" é\",1,]]",
+                     encodeToString(new JsonBundleEncoder(), rows(2)));
+        assertEquals("[]", encodeToString(new JsonBundleEncoder(), rows(0)));
+    }
+
+    @Test
+    public void delimited() {
+        assertEquals("\"row '0' é\",0,\n\"row '1' é\",1,\n",
+                     encodeToString(DelimitedBundleEncoder.create("query", "csv"), rows(2)));
+        assertEquals("\"row \\\"0\\\" é\"\t0\t\n",
+                     encodeToString(DelimitedEscapedBundleEncoder.create("query", "tsv2"), rows(1)));
+    }
+
+    @Test
+    public void html() {
+        assertEquals("<table border=1 cellpadding=1 cellspacing=0>\n" +
+                     "<tr><td>row \"0\" é</td><td>0</td><td>null</td></tr>\n</table>",
+                     encodeToString(new HtmlBundleEncoder(), rows(1)));
+    }
+
+    @Test
+    public void selectEncoding() {
+        assertEquals(ZlibWrapper.GZIP, AbstractBufferingHttpBundleEncoder.selectEncoding("deflate, gzip"));
+        assertEquals(ZlibWrapper.ZLIB, AbstractBufferingHttpBundleEncoder.selectEncoding("gzip;q=0, deflate"));
+        assertNull(AbstractBufferingHttpBundleEncoder.selectEncoding("identity"));
+    }
+
+    private static void compressedRoundTrip(String acceptEncoding, String contentEncoding) throws Exception {
+        Bundle[] rows = rows(5000);
+        String expected = encodeToString(new JsonBundleEncoder(), rows);
+        JsonBundleEncoder encoder = new JsonBundleEncoder();
+        encoder.negotiateContentEncoding(acceptEncoding);
+        HttpResponse[] response = new HttpResponse[1];
+        ByteBuf content = encode(encoder, rows, response);
+        assertEquals(contentEncoding, response[0].headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+        assertTrue(content.readableBytes() < expected.length());
+        InputStream input = new ByteBufInputStream(content);
+        input = contentEncoding.equals("gzip") ? new GZIPInputStream(input) : new InflaterInputStream(input);
+        assertEquals(expected, new String(LessBytes.readFully(input), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void gzip() throws Exception {
+        compressedRoundTrip("gzip, deflate", "gzip");
+    }
+
+    @Test
+    public void deflate() throws Exception {
+        compressedRoundTrip("deflate", "deflate");
+    }
+}
@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.GZIPInputStream;
 
@@ -85,7 +86,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     private ArrayList<V> values;
 
     @Nullable
-    private ArrayList<byte[]> rawValues;
+    private List<byte[]> rawValues;
 
     @Nonnull
     private ExternalMode state;
@@ -136,6 +137,15 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         return null;
     }
 
+    /**
+     * Create the container for the encoded values of a page that is
+     * initialized empty or decoded from external storage.
+     */
+    protected List<byte[]> newRawValues(int capacity) {
+        // default implementation is on-heap, subclasses may override
+        return new ArrayList<>(capacity);
+    }
+
 
     public AbstractPage(AbstractPageCache<K, V> cache, K firstKey,
                         K nextFirstKey, int size, ArrayList<K> keys, ArrayList<V> values,
@@ -226,7 +236,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     public void initialize() {
         keys = new ArrayList<>();
         values = new ArrayList<>();
-        rawValues = new ArrayList<>();
+        rawValues = newRawValues(0);
         size = 0;
         timeStamp = AbstractPageCache.generateTimestamp();
     }
@@ -251,10 +261,12 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         PageCacheMetrics<K, V> metrics = parent.metrics;
         parent.numPagesEncoded.getAndIncrement();
         PageEncodeType upgradeType = PageEncodeType.defaultType();
+        ByteBuf blockBody = null;
         try {
             OutputStream os = out;
-            out.write(gztype | FLAGS_HAS_ESTIMATES | (upgradeType.ordinal() << TYPE_BIT_OFFSET));
-            switch (gztype) {
+            int type = parent.compressor.blockType(gztype);
+            out.write(type | FLAGS_HAS_ESTIMATES | (upgradeType.ordinal() << TYPE_BIT_OFFSET));
+            switch (type) {
                 case 0:
                     break;
                 case 1:
@@ -269,6 +281,12 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
                 case 4:
                     os = new SnappyOutputStream(out);
                     break;
+                case PageCompressor.LZ4:
+                case PageCompressor.ZSTD:
+                case PageCompressor.ZSTD_DICT:
+                    blockBody = Unpooled.buffer();
+                    os = new ByteBufOutputStream(blockBody);
+                    break;
                 default:
                     throw new RuntimeException("invalid gztype: " + gztype);
             }
@@ -316,6 +334,9 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
             }
             os.flush(); // flush should be called by dos.close(), but better safe than sorry
             dos.close();
+            if (blockBody != null) {
+                parent.compressor.compress(type, blockBody, out.buffer());
+            }
 
             ByteBuf buffer = out.buffer();
 
@@ -328,6 +349,10 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
             return returnValue;
         } catch (Exception ex) {
             throw Throwables.propagate(ex);
+        } finally {
+            if (blockBody != null) {
+                blockBody.release();
+            }
         }
     }
 
@@ -354,6 +379,11 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
                 case 4:
                     in = new SnappyInputStream(in);
                     break;
+                case PageCompressor.LZ4:
+                case PageCompressor.ZSTD:
+                case PageCompressor.ZSTD_DICT:
+                    in = new ByteBufInputStream(parent.compressor.decompress(gztype, buffer), true);
+                    break;
             }
             DataInputStream dis = null;
             switch (pageType) {
@@ -403,7 +433,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         size = entries;
         keys = new ArrayList<>(size);
         values = new ArrayList<>(size);
-        rawValues = new ArrayList<>(size);
+        rawValues = newRawValues(size);
 
         for (int i = 0; i < entries; i++) {
             byte[] kb = encodeType.readBytes(in, dis);
@@ -426,7 +456,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         updateMemoryEstimate();
     }
 
-    private int estimatedMem() {
+    protected int estimatedMem() {
         /**
          * We want to account for the three pointers that point
          * the key, the value, and the raw value. The 64-bit JVM
@@ -518,8 +548,8 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
      */
     public void fetchValue(int position) {
         V value = values.get(position);
-        byte[] rawValue = rawValues.get(position);
         if (value == null) {
+            byte[] rawValue = rawValues.get(position);
             values.set(position, keyCoder.valueDecode(rawValue, encodeType));
         }
     }
@@ -605,7 +635,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     }
 
     @Override
-    public void setRawValues(ArrayList<byte[]> rawValues) {
+    public void setRawValues(List<byte[]> rawValues) {
         this.rawValues = rawValues;
     }
 
@@ -645,7 +675,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     }
 
     @Override
-    public ArrayList<byte[]> rawValues() {
+    public List<byte[]> rawValues() {
         return rawValues;
     }
 
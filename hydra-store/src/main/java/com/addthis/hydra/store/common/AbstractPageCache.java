@@ -66,6 +66,11 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public static final boolean trackEncodingByteUsage = Parameter.boolValue("eps.cache.track.encoding", false);
 
     public final AtomicLong memoryEstimate = new AtomicLong();
+    /**
+     * Bytes held outside of the java heap by pages of this cache.
+     * This is a subset of {@link #getMemoryEstimate()}.
+     */
+    public final AtomicLong offHeapMemory = new AtomicLong();
     public final KeyCoder<K, V> keyCoder;
     public final String scope;
     public final AtomicInteger cacheSize = new AtomicInteger();
@@ -89,6 +94,8 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     public final PageFactory<K, V> pageFactory;
 
+    public final PageCompressor compressor;
+
     public final PageCacheMetrics<K, V> metrics = new PageCacheMetrics<>(this);
 
     public final AtomicLong estimateCounter = new AtomicLong();
@@ -197,6 +204,12 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
                              PageFactory<K, V> pageFactory, int maxPageSize, int maxPages,
                              boolean useLocks) {
+        this(keyCoder, externalStore, pageFactory, PageCompressor.DEFAULT, maxPageSize, maxPages, useLocks);
+    }
+
+    public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
+                             PageFactory<K, V> pageFactory, PageCompressor compressor,
+                             int maxPageSize, int maxPages, boolean useLocks) {
         if (externalStore == null) {
             throw new NullPointerException("externalStore must be non-null");
         }
@@ -204,6 +217,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         scope = this.getClass().getSimpleName() + Integer.toString(scopeGenerator.getAndIncrement());
         this.mem_page = (int) MemoryCounter.estimateSize(pageFactory.measureMemoryEmptyPage(PageEncodeType.defaultType()));
         this.pageFactory = pageFactory;
+        this.compressor = compressor;
 
         this.negInf = keyCoder.negInfinity();
         this.cache = new ConcurrentSkipListMap<>();
@@ -1610,10 +1624,20 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     }
 
     private void repairInvalidKeys(final int counter, Page<K, V> page, final K key, final K nextKey) {
-        boolean pageTransfer = false;
         Page<K, V> nextPage = pageFactory.generateEmptyPage(this, nextKey, page.getEncodeType());
         byte[] encodedNextPage = externalStore.get(keyCoder.keyEncode(nextKey));
         nextPage.decode(encodedNextPage);
+        try {
+            repairInvalidKeys(counter, page, key, nextKey, nextPage);
+        } finally {
+            // release any off-heap storage of the page that is never cached
+            nextPage.rawValues().clear();
+        }
+    }
+
+    private void repairInvalidKeys(final int counter, Page<K, V> page, final K key, final K nextKey,
+                                   Page<K, V> nextPage) {
+        boolean pageTransfer = false;
         for (int i = 0, pos = 0; i < page.size(); i++, pos++) {
             K testKey = page.keys().get(i);
             // if testKey >= nextKey then we need to move the testKey off the current page
@@ -1641,7 +1665,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             byte[] pageEncoded = page.encode(byteBufOutputStream);
             externalStore.put(keyCoder.keyEncode(key), pageEncoded);
             if (pageTransfer) {
-                encodedNextPage = nextPage.encode(byteBufOutputStream);
+                byte[] encodedNextPage = nextPage.encode(byteBufOutputStream);
                 externalStore.put(keyCoder.keyEncode(nextKey), encodedNextPage);
             }
         } finally {
@@ -1688,26 +1712,31 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             byte[] encodedNextKey = externalStore.higherKey(encodedKey);
             if (encodedNextKey != null) {
                 page.decode(encodedPage);
-                K nextKey = keyCoder.keyDecode(encodedNextKey);
-                int numKeys = page.keys().size();
-                if (page.getNextFirstKey() == null) {
-                    missingNextFirstKey(repair, counter, page, key, nextKey);
-                    failedPages++;
-                } else if (!page.getNextFirstKey().equals(nextKey)) {
-                    invalidNextFirstKey(repair, counter, page, key, nextKey);
-                    failedPages++;
-                } else if (numKeys > 0 && compareKeys(page.keys().get(numKeys - 1), nextKey) >= 0) {
-                    log.warn("On page " + counter + " the firstKey is " +
-                            page.getFirstKey() + " the largest key is " + page.keys().get(numKeys - 1) +
-                            " the next key is " + nextKey +
-                            " which is less than or equal to the largest key.");
-                    if (repair) {
-                        repairInvalidKeys(counter, page, key, nextKey);
+                try {
+                    K nextKey = keyCoder.keyDecode(encodedNextKey);
+                    int numKeys = page.keys().size();
+                    if (page.getNextFirstKey() == null) {
+                        missingNextFirstKey(repair, counter, page, key, nextKey);
+                        failedPages++;
+                    } else if (!page.getNextFirstKey().equals(nextKey)) {
+                        invalidNextFirstKey(repair, counter, page, key, nextKey);
+                        failedPages++;
+                    } else if (numKeys > 0 && compareKeys(page.keys().get(numKeys - 1), nextKey) >= 0) {
+                        log.warn("On page " + counter + " the firstKey is " +
+                                page.getFirstKey() + " the largest key is " + page.keys().get(numKeys - 1) +
+                                " the next key is " + nextKey +
+                                " which is less than or equal to the largest key.");
+                        if (repair) {
+                            repairInvalidKeys(counter, page, key, nextKey);
+                        }
+                        failedPages++;
                     }
-                    failedPages++;
+                    key = nextKey;
+                    encodedPage = externalStore.get(encodedNextKey);
+                } finally {
+                    // release any off-heap storage of the page that is never cached
+                    page.rawValues().clear();
                 }
-                key = nextKey;
-                encodedPage = externalStore.get(encodedNextKey);
             }
             encodedKey = encodedNextKey;
             if (counter % 10000 == 0) {
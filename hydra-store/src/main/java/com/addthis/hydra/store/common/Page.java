@@ -14,6 +14,7 @@
 package com.addthis.hydra.store.common;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.kv.PageEncodeType;
@@ -52,7 +53,7 @@ public interface Page<K, V extends BytesCodable> {
 
     ArrayList<V> values();
 
-    ArrayList<byte[]> rawValues();
+    List<byte[]> rawValues();
 
     K getFirstKey();
 
@@ -82,7 +83,7 @@ public interface Page<K, V extends BytesCodable> {
 
     void setValues(ArrayList<V> values);
 
-    void setRawValues(ArrayList<byte[]> rawValues);
+    void setRawValues(List<byte[]> rawValues);
 
     long getTimeStamp();
 
@@ -35,6 +35,9 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
     @SuppressWarnings("unused")
     public final Gauge<Long> pagesDeletedGauge;
 
+    @SuppressWarnings("unused")
+    public final Gauge<Long> offHeapMemoryGauge;
+
     public final Histogram encodeFirstKeySize;
 
     public final Histogram encodeNextFirstKeySize;
@@ -87,6 +90,15 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
                     }
                 });
 
+        offHeapMemoryGauge = Metrics.newGauge(cache.getClass(),
+                "offHeapMemory", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return parent.offHeapMemory.get();
+                    }
+                });
+
         encodeFirstKeySize = NonConcurrentPageCache.trackEncodingByteUsage ?
                 Metrics.newHistogram(cache.getClass(), "encodeFirstKeySize", parent.scope) :
                              null;
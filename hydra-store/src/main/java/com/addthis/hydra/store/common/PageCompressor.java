@@ -0,0 +1,410 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+import com.addthis.basis.util.Varint;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Block codecs for page encoding. Unlike the stream codecs in
+ * {@link AbstractPage} (deflate, gzip, lzf, snappy) these compress the
+ * fully serialized page in a single call, which is considerably cheaper
+ * for the small pages the page caches produce.
+ * <p/>
+ * The zstd codec can additionally use a dictionary that is trained from
+ * pages sampled while the database is written. Each database keeps its
+ * dictionaries as {@code page.dict.<id>} files next to the byte store and
+ * every page records the id of the dictionary it was written with, so a
+ * page can always be read back regardless of which dictionary is current.
+ * Dictionaries are trained on a background thread and written durably before
+ * they are used. A reader loads a dictionary it has not seen the first time
+ * a page needs it.
+ * <p/>
+ * A block encoded page is laid out as: flags byte, the dictionary id
+ * (only for {@link #ZSTD_DICT}), the uncompressed length, and then the
+ * compressed bytes. All integers are unsigned varints.
+ */
+public class PageCompressor {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCompressor.class);
+
+    /**
+     * Compression types stored in the low four bits of the page flags.
+     * Types 0 through 4 are the stream codecs handled by {@link AbstractPage}.
+     */
+    public static final int LZ4 = 5;
+    public static final int ZSTD = 6;
+    public static final int ZSTD_DICT = 7;
+
+    public static final String DICTIONARY_PREFIX = "page.dict.";
+
+    public static final boolean trainDictionary = Parameter.boolValue("eps.gz.dict.train", true);
+    public static final int dictionarySize = Parameter.intValue("eps.gz.dict.size", 32 * 1024);
+    public static final int dictionarySamples = Parameter.intValue("eps.gz.dict.samples", 100 * dictionarySize);
+
+    /**
+     * Compressor without a backing directory. It can read and write lz4 and
+     * plain zstd pages but will never train or load a dictionary.
+     */
+    public static final PageCompressor DEFAULT = new PageCompressor();
+
+    private static final LZ4Compressor lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4SafeDecompressor lz4Decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+    private static final ExecutorService trainExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("pageDictionaryTrainer-%d").setDaemon(true).build());
+
+    @Nullable
+    private final File dir;
+
+    private final Map<Integer, Dictionary> dictionaries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean training = new AtomicBoolean();
+
+    @Nullable
+    private volatile Dictionary current;
+
+    @Nullable
+    private volatile ZstdDictTrainer trainer;
+
+    @Nullable
+    private volatile Future<?> trainTask;
+
+    private volatile boolean closed;
+
+    private PageCompressor() {
+        this.dir = null;
+    }
+
+    /**
+     * @param dir   database directory. Existing dictionaries are loaded from here
+     *              and newly trained dictionaries are written here.
+     * @param train if true then collect samples from zstd encoded pages and train
+     *              a dictionary once enough bytes have been seen. Read only
+     *              databases and databases that do not write zstd pages
+     *              should pass false.
+     */
+    public PageCompressor(File dir, boolean train) throws IOException {
+        this.dir = dir;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(DICTIONARY_PREFIX) && !name.endsWith(".tmp")) {
+                    int id = Integer.parseInt(name.substring(DICTIONARY_PREFIX.length()));
+                    Dictionary dictionary = loadDictionary(id);
+                    if ((dictionary != null) && ((current == null) || (current.id < id))) {
+                        current = dictionary;
+                    }
+                }
+            }
+        }
+        if (train && current == null) {
+            trainer = new ZstdDictTrainer(dictionarySamples, dictionarySize);
+        }
+    }
+
+    public static boolean isBlockType(int type) {
+        return type == LZ4 || type == ZSTD || type == ZSTD_DICT;
+    }
+
+    /**
+     * Returns the type that should be recorded for a page that is about to be
+     * encoded with the configured type. Zstd pages are upgraded to use the
+     * dictionary once one is available.
+     */
+    public int blockType(int type) {
+        if (type == ZSTD && current != null) {
+            return ZSTD_DICT;
+        }
+        return type;
+    }
+
+    @Nullable
+    public Integer getDictionaryId() {
+        Dictionary dictionary = current;
+        return (dictionary != null) ? dictionary.id : null;
+    }
+
+    /**
+     * Compress the readable bytes of {@code body} and append them to {@code out}.
+     *
+     * @param type value previously returned by {@link #blockType(int)}
+     */
+    public void compress(int type, ByteBuf body, ByteBuf out) {
+        int length = body.readableBytes();
+        byte[] src;
+        int srcOffset;
+        if (body.hasArray()) {
+            src = body.array();
+            srcOffset = body.arrayOffset() + body.readerIndex();
+        } else {
+            src = new byte[length];
+            body.getBytes(body.readerIndex(), src);
+            srcOffset = 0;
+        }
+        byte[] dst;
+        int written;
+        switch (type) {
+            case LZ4:
+                dst = new byte[lz4Compressor.maxCompressedLength(length)];
+                written = lz4Compressor.compress(src, srcOffset, length, dst, 0, dst.length);
+                Varint.writeUnsignedVarInt(length, out);
+                break;
+            case ZSTD:
+                sample(src, srcOffset, length);
+                dst = new byte[(int) Zstd.compressBound(length)];
+                written = checkZstd(Zstd.compressByteArray(dst, 0, dst.length, src, srcOffset, length,
+                                                           AbstractPage.gzlevel));
+                Varint.writeUnsignedVarInt(length, out);
+                break;
+            case ZSTD_DICT:
+                Dictionary dictionary = current;
+                assert (dictionary != null);
+                dst = new byte[(int) Zstd.compressBound(length)];
+                written = checkZstd(Zstd.compressFastDict(dst, 0, src, srcOffset, length,
+                                                          dictionary.compress));
+                Varint.writeUnsignedVarInt(dictionary.id, out);
+                Varint.writeUnsignedVarInt(length, out);
+                break;
+            default:
+                throw new IllegalArgumentException("invalid block type: " + type);
+        }
+        out.writeBytes(dst, 0, written);
+    }
+
+    /**
+     * Decompress a page whose flags byte has already been consumed from {@code in}.
+     * All remaining readable bytes of {@code in} are consumed.
+     *
+     * @return a buffer over the uncompressed page contents
+     */
+    public ByteBuf decompress(int type, ByteBuf in) {
+        Dictionary dictionary = null;
+        if (type == ZSTD_DICT) {
+            int id = Varint.readUnsignedVarInt(in);
+            dictionary = dictionaries.get(id);
+            if (dictionary == null) {
+                // trained by a writer after this compressor was opened
+                dictionary = loadDictionary(id);
+            }
+            if (dictionary == null) {
+                throw new IllegalStateException("page requires missing compression dictionary " + id +
+                                                " in " + dir);
+            }
+        }
+        int length = Varint.readUnsignedVarInt(in);
+        int compressedLength = in.readableBytes();
+        byte[] src;
+        int srcOffset;
+        if (in.hasArray()) {
+            src = in.array();
+            srcOffset = in.arrayOffset() + in.readerIndex();
+        } else {
+            src = new byte[compressedLength];
+            in.getBytes(in.readerIndex(), src);
+            srcOffset = 0;
+        }
+        in.skipBytes(compressedLength);
+        byte[] dst = new byte[length];
+        int read;
+        switch (type) {
+            case LZ4:
+                read = lz4Decompressor.decompress(src, srcOffset, compressedLength, dst, 0, length);
+                break;
+            case ZSTD:
+                read = checkZstd(Zstd.decompressByteArray(dst, 0, length, src, srcOffset, compressedLength));
+                break;
+            case ZSTD_DICT:
+                read = checkZstd(Zstd.decompressFastDict(dst, 0, src, srcOffset, compressedLength,
+                                                         dictionary.decompress));
+                break;
+            default:
+                throw new IllegalArgumentException("invalid block type: " + type);
+        }
+        if (read != length) {
+            throw new IllegalStateException("page decompressed to " + read + " bytes, expected " + length);
+        }
+        return Unpooled.wrappedBuffer(dst);
+    }
+
+    /**
+     * Load a dictionary from the database directory if it has not been loaded.
+     *
+     * @return the dictionary or null if there is no such dictionary
+     */
+    @Nullable
+    private synchronized Dictionary loadDictionary(int id) {
+        Dictionary dictionary = dictionaries.get(id);
+        if ((dictionary != null) || (dir == null) || closed) {
+            return dictionary;
+        }
+        File file = new File(dir, DICTIONARY_PREFIX + id);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            dictionary = new Dictionary(id, LessFiles.read(file));
+        } catch (IOException ex) {
+            throw new IllegalStateException("unable to read compression dictionary " + file, ex);
+        }
+        dictionaries.put(id, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * Add an uncompressed page to the training set. Once the training set is
+     * full the dictionary is trained on a background thread. All pages
+     * encoded after the dictionary is written will use it.
+     */
+    private void sample(byte[] src, int offset, int length) {
+        ZstdDictTrainer sampler = trainer;
+        if (sampler == null) {
+            return;
+        }
+        byte[] sample = new byte[length];
+        System.arraycopy(src, offset, sample, 0, length);
+        if (!sampler.addSample(sample) && training.compareAndSet(false, true)) {
+            trainer = null;
+            trainTask = trainExecutor.submit(() -> train(sampler));
+        }
+    }
+
+    /**
+     * Wait for a dictionary that is being trained to be written.
+     */
+    void awaitTraining() throws InterruptedException, ExecutionException {
+        Future<?> task = trainTask;
+        if (task != null) {
+            task.get();
+        }
+    }
+
+    private void train(ZstdDictTrainer sampler) {
+        try {
+            long start = System.currentTimeMillis();
+            byte[] raw = sampler.trainSamples();
+            int id = (current != null) ? (current.id + 1) : 1;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (dir != null) {
+                    File target = new File(dir, DICTIONARY_PREFIX + id);
+                    File temp = new File(dir, DICTIONARY_PREFIX + id + ".tmp");
+                    writeDurably(temp.toPath(), raw);
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    fsync(dir.toPath());
+                }
+                Dictionary dictionary = new Dictionary(id, raw);
+                dictionaries.put(id, dictionary);
+                current = dictionary;
+            }
+            log.info("[dictionary] trained {} byte dictionary {} for {} in {} ms", raw.length, id, dir,
+                     System.currentTimeMillis() - start);
+        } catch (ZstdException | IOException ex) {
+            log.warn("[dictionary] unable to train dictionary for {}; continuing without one", dir, ex);
+        }
+    }
+
+    private static void writeDurably(Path path, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Flush a directory so that a file moved into it survives a crash.
+     */
+    private static void fsync(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        trainer = null;
+        for (Dictionary dictionary : dictionaries.values()) {
+            dictionary.compress.close();
+            dictionary.decompress.close();
+        }
+        dictionaries.clear();
+        current = null;
+    }
+
+    private static int checkZstd(long result) {
+        if (Zstd.isError(result)) {
+            throw new IllegalStateException("zstd error: " + Zstd.getErrorName(result));
+        }
+        return (int) result;
+    }
+
+    private static final class Dictionary {
+
+        final int id;
+        final ZstdDictCompress compress;
+        final ZstdDictDecompress decompress;
+
+        Dictionary(int id, byte[] raw) {
+            this.id = id;
+            this.compress = new ZstdDictCompress(raw, AbstractPage.gzlevel);
+            this.decompress = new ZstdDictDecompress(raw);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.hydra.store.util.FrequencySketch;
+
+import com.google.common.cache.Weigher;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * A weight bounded cache that is shared by many independent owners, such as the node and
+ * page caches of every tree that a query worker has open. Each owner registers a
+ * {@link Namespace} and all namespaces compete for the same budget, so memory moves
+ * toward the trees that are being queried instead of being split into fixed slices.
+ * <p/>
+ * Keys are hashed to one of 16 segments that each hold an equal share of the budget. A
+ * segment is a single list in least recently used order, not a segmented LRU with
+ * probation and protected parts. Every segment keeps a frequency sketch of the keys it
+ * has seen, across all namespaces. A new entry is only admitted if it has been requested
+ * at least as often as each entry it would evict (TinyLFU), so a burst of one-off reads
+ * from a cold tree does not flush the working set of a hot one.
+ * <p/>
+ * An entry heavier than the share of one segment, {@link #maxWeight()} / 16, is never
+ * cached. It is returned to the caller and loaded again on the next request.
+ * <p/>
+ * Values are loaded outside of the segment locks. Concurrent misses for the same key
+ * may load it more than once; the first loaded value wins.
+ */
+public final class SharedCache {
+
+    private static final int SEGMENTS = 16;
+
+    private static final AtomicInteger namespaceIds = new AtomicInteger();
+
+    private final long maxWeight;
+    private final Segment[] segments;
+
+    public SharedCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxWeight / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return a metrics scope that identifies the owner stored in {@code dir}
+     */
+    public static String scope(File dir) {
+        return dir.getAbsolutePath().replaceAll("[^A-Za-z0-9_.-]+", ".");
+    }
+
+    /**
+     * @param name    prefix of the metrics scope of the namespace
+     * @param weigher weight of an entry, in the same unit as the cache budget
+     */
+    public <K, V> Namespace<K, V> register(String name, Weigher<? super K, ? super V> weigher) {
+        return new Namespace<>(name, weigher);
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    private Segment segment(int hash) {
+        return segments[(hash >>> 16) & (SEGMENTS - 1)];
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The entries of a single owner. Must be closed when the owner is closed.
+     */
+    public final class Namespace<K, V> implements AutoCloseable {
+
+        private final Weigher<? super K, ? super V> weigher;
+        private final String scope;
+        private final AtomicLong weight = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final List<MetricName> metricNames = new ArrayList<>();
+        private volatile boolean closed;
+
+        private Namespace(String name, Weigher<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            this.scope = name + "-" + namespaceIds.incrementAndGet();
+            gauge("occupancy", weight);
+            gauge("hits", hits);
+            gauge("misses", misses);
+        }
+
+        private void gauge(String name, AtomicLong value) {
+            MetricName metricName = new MetricName(SharedCache.class, name, scope);
+            Metrics.newGauge(metricName, new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return value.get();
+                }
+            });
+            metricNames.add(metricName);
+        }
+
+        /**
+         * @return the cached value or the value returned by the loader. Null values are not cached.
+         * @throws ExecutionException if the loader throws an exception
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable
+        public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+            Key<K> entryKey = new Key<>(this, key);
+            Segment segment = segment(entryKey.hash);
+            Entry entry;
+            synchronized (segment) {
+                segment.sketch.increment(entryKey.hash);
+                entry = segment.entries.get(entryKey);
+            }
+            if (entry != null) {
+                hits.incrementAndGet();
+                return (V) entry.value;
+            }
+            misses.incrementAndGet();
+            V value;
+            try {
+                value = loader.call();
+            } catch (Exception ex) {
+                throw new ExecutionException(ex);
+            }
+            if (value == null) {
+                return null;
+            }
+            return (V) segment.admit(entryKey, value, weigher.weigh(key, value));
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        public V getIfPresent(K key) {
+            Key<K> entryKey = new Key<>(this, key);
+            Segment segment = segment(entryKey.hash);
+            synchronized (segment) {
+                Entry entry = segment.entries.get(entryKey);
+                return (entry != null) ? (V) entry.value : null;
+            }
+        }
+
+        /**
+         * @return a snapshot of the keys of this namespace that are cached
+         */
+        @SuppressWarnings("unchecked")
+        public List<K> keys() {
+            List<K> keys = new ArrayList<>();
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    for (Key<?> key : segment.entries.keySet()) {
+                        if (key.namespace == this) {
+                            keys.add((K) key.key);
+                        }
+                    }
+                }
+            }
+            return keys;
+        }
+
+        public long weight() {
+            return weight.get();
+        }
+
+        public long hits() {
+            return hits.get();
+        }
+
+        public long misses() {
+            return misses.get();
+        }
+
+        /**
+         * Remove all entries of this namespace and its metrics.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    Iterator<Map.Entry<Key<?>, Entry>> iterator = segment.entries.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Key<?>, Entry> next = iterator.next();
+                        if (next.getKey().namespace == this) {
+                            segment.weight -= next.getValue().weight;
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+            weight.set(0);
+            for (MetricName metricName : metricNames) {
+                Metrics.defaultRegistry().removeMetric(metricName);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SharedCache.Namespace[" + scope + ",weight=" + weight + ",hits=" + hits +
+                   ",misses=" + misses + "]";
+        }
+    }
+
+    private static final class Key<K> {
+
+        final Namespace<K, ?> namespace;
+        final K key;
+        final int hash;
+
+        Key(Namespace<K, ?> namespace, K key) {
+            this.namespace = namespace;
+            this.key = key;
+            this.hash = spread((31 * System.identityHashCode(namespace)) + key.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key<?> other = (Key<?>) obj;
+                return (other.namespace == namespace) && other.key.equals(key);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        final Object value;
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * one hash partition of the cache, evicting in least recently used order
+     */
+    private static final class Segment {
+
+        final long maxWeight;
+        final LinkedHashMap<Key<?>, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        final FrequencySketch sketch;
+        long weight;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            // one key per kilobyte of budget
+            this.sketch = new FrequencySketch(Math.max(256, Math.min(1 << 20, maxWeight >>> 10)));
+        }
+
+        /**
+         * @return the value to use, which is the cached value if another thread loaded the key first
+         */
+        synchronized Object admit(Key<?> key, Object value, int entryWeight) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            // a namespace is closed before its entries are removed. an entry heavier
+            // than the whole segment could never be held, so it is not cached.
+            if (key.namespace.closed || (entryWeight > maxWeight)) {
+                return value;
+            }
+            // decide on admission before evicting so a rejected candidate leaves the segment unchanged
+            int frequency = sketch.frequency(key.hash);
+            long freed = 0;
+            int victims = 0;
+            Iterator<Map.Entry<Key<?>, Entry>> eldest = entries.entrySet().iterator();
+            while ((weight - freed + entryWeight) > maxWeight) {
+                Map.Entry<Key<?>, Entry> victim = eldest.next();
+                if (sketch.frequency(victim.getKey().hash) > frequency) {
+                    // the candidate is colder than what it would replace
+                    return value;
+                }
+                freed += victim.getValue().weight;
+                victims++;
+            }
+            eldest = entries.entrySet().iterator();
+            for (int i = 0; i < victims; i++) {
+                Map.Entry<Key<?>, Entry> victim = eldest.next();
+                eldest.remove();
+                weight -= victim.getValue().weight;
+                victim.getKey().namespace.weight.addAndGet(-victim.getValue().weight);
+            }
+            entries.put(key, new Entry(value, entryWeight));
+            weight += entryWeight;
+            key.namespace.weight.addAndGet(entryWeight);
+            return value;
+        }
+    }
+}
@@ -23,17 +23,22 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
 
+import java.nio.file.Files;
+
 import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.LessFiles;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.PageCompressor;
 import com.addthis.hydra.store.common.PageFactory;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
 import com.addthis.hydra.store.kv.MapDbByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
+import com.addthis.hydra.store.kv.SnapshotByteStore;
 
 import com.addthis.hydra.store.nonconcurrent.NonConcurrentPageCache;
 import com.addthis.hydra.store.skiplist.ConcurrentPage;
@@ -58,6 +63,7 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
 
     private final PagedKeyValueStore<DBKey, V> eps;
     private final DBKeyCoder<V> keyCoder;
+    private final PageCompressor compressor;
     private final HashSet<DR> openRanges = new HashSet<>();
 
     public static class Builder<V extends BytesCodable> {
@@ -107,6 +113,8 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
         String dbType = getByteStoreNameForFile(dir);
         this.keyCoder = new DBKeyCoder<>(clazz);
         LessFiles.initDirectory(dir);
+        // the snapshot no longer matches the database once it can be written
+        Files.deleteIfExists(SnapshotByteStore.snapshotFile(dir).toPath());
         ByteStore store;
         switch (dbType) {
             case PAGED_MAP_DB:
@@ -119,15 +127,18 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
                 break;
         }
 
+        // only databases that write zstd pages train a dictionary
+        this.compressor = new PageCompressor(dir, PageCompressor.trainDictionary &&
+                                                  (AbstractPage.gztype == PageCompressor.ZSTD));
         switch (factory.getType()) {
             case NON_CONCURRENT:
                 this.eps =  new NonConcurrentPageCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory).compressor(compressor).build();
                 break;
             case CONCURRENT:
             default:
                 this.eps =  new SkipListCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory).compressor(compressor).build();
                 break;
         }
 
@@ -143,6 +154,20 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
         }
     }
 
+    /**
+     * Write an immutable snapshot of a closed database that {@link ReadPageDB}
+     * will open instead of the byte store. The snapshot is deleted when the
+     * database is next opened for writing.
+     */
+    public static void writeSnapshot(File dir) throws IOException {
+        ByteStore store = ReadPageDB.openByteStore(dir);
+        try {
+            SnapshotByteStore.write(store, SnapshotByteStore.snapshotFile(dir));
+        } finally {
+            store.close();
+        }
+    }
+
     @Override
     public String toString() {
         return "PageDB:" + keyCoder + "," + eps;
@@ -220,6 +245,7 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
             }
         } finally {
             status = eps.close(cleanLog, operation);
+            compressor.close();
         }
         return status;
     }
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.store.db;
 
+import javax.annotation.Nullable;
+
 import java.io.File;
 import java.io.IOException;
 
@@ -26,11 +28,14 @@ import com.addthis.basis.util.Parameter;
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.PageCompressor;
+import com.addthis.hydra.store.common.SharedCache;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ByteStoreBDB;
 import com.addthis.hydra.store.kv.MapDbByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
+import com.addthis.hydra.store.kv.SnapshotByteStore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +55,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
 
     static final String defaultDbName = Parameter.value("pagedb.dbname", "db.key");
 
+    /* if true then open the snapshot written by PageDB.writeSnapshot when there is one */
+    static final boolean useSnapshot = Parameter.boolValue("pagedb.snapshot.read", true);
+
     private static final Codec codec = CodecBin2.INSTANCE;
     private final Class<? extends V>               clazz;
     private final ReadExternalPagedStore<DBKey, V> eps;
@@ -61,22 +69,43 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
 
     public ReadPageDB(File dir, Class<? extends V> clazz, int maxSize,
                       int maxWeight, boolean metrics) throws IOException {
+        this(dir, clazz, maxSize, maxWeight, metrics, null);
+    }
+
+    /**
+     * @param sharedCache if not null then cache pages in this cache instead of a cache
+     *                    limited by {@code maxSize} and {@code maxWeight}
+     */
+    public ReadPageDB(File dir, Class<? extends V> clazz, int maxSize, int maxWeight,
+                      boolean metrics, @Nullable SharedCache sharedCache) throws IOException {
         this.clazz = clazz;
-        String dbType = PageDB.getByteStoreNameForFile(dir);
+        File snapshot = SnapshotByteStore.snapshotFile(dir);
         ByteStore store;
+        if (useSnapshot && snapshot.exists()) {
+            store = new SnapshotByteStore(snapshot);
+        } else {
+            store = openByteStore(dir);
+        }
+        this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz), store,
+                                                new PageCompressor(dir, false), maxSize,
+                                                maxWeight, metrics, sharedCache,
+                                                SharedCache.scope(dir));
+    }
+
+    /**
+     * Open the byte store of a database read only, ignoring any snapshot.
+     */
+    static ByteStore openByteStore(File dir) throws IOException {
+        String dbType = PageDB.getByteStoreNameForFile(dir);
         switch (dbType) {
             case PageDB.PAGED_MAP_DB:
-                store = new MapDbByteStore(dir, defaultDbName, true);
-                break;
+                return new MapDbByteStore(dir, defaultDbName, true);
             case PageDB.PAGED_BERK_DB:
                 // fall through -- the previous dbType was always something like 'pagedb' so this
                 // is expected
             default:
-                store = new ByteStoreBDB(dir, defaultDbName, true);
-                break;
+                return new ByteStoreBDB(dir, defaultDbName, true);
         }
-        this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz), store, maxSize,
-                                                maxWeight, metrics);
     }
 
     public String toString() {
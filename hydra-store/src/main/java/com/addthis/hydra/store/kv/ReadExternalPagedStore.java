@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.store.kv;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.InputStream;
@@ -30,6 +32,8 @@ import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.PageCompressor;
+import com.addthis.hydra.store.common.SharedCache;
 import com.addthis.hydra.store.db.IReadWeighable;
 import com.addthis.hydra.store.db.ReadDBKeyCoder;
 import com.addthis.hydra.store.kv.metrics.ExternalPagedStoreMetrics;
@@ -46,6 +50,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.SnappyInputStream;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
 /**
  * read only caching page store intended to play nice with the query system
  * <p/>
@@ -81,15 +89,22 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
 
     /**
      * guava loading cache for storing pages. Get method takes the exact page key, so finding the
-     * page key must be done first.
+     * page key must be done first. Null if the pages are kept in a shared cache.
      */
-    private final LoadingCache<K, TreePage> loadingPageCache;
+    @Nullable private final LoadingCache<K, TreePage> loadingPageCache;
+
+    /**
+     * pages of this store in the shared cache, or null if this store has its own cache.
+     */
+    @Nullable private final SharedCache.Namespace<K, TreePage> sharedPageCache;
 
     //backing byte store
     private final ByteStore pages;
 
     final KeyCoder<K, V> keyCoder;
 
+    private final PageCompressor compressor;
+
     public ReadExternalPagedStore(KeyCoder<K, V> keyCoder, final ByteStore pages,
                                   int maxSize, int maxWeight) {
         this(keyCoder, pages, maxSize, maxWeight, false);
@@ -97,14 +112,46 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
 
     public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
                                   int maxSize, int maxWeight, boolean collect) {
+        this(keyCoder, pages, PageCompressor.DEFAULT, maxSize, maxWeight, collect);
+    }
+
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
+                                  PageCompressor compressor, int maxSize, int maxWeight,
+                                  boolean collect) {
+        this(keyCoder, pages, compressor, maxSize, maxWeight, collect, null, null);
+    }
+
+    /**
+     * @param sharedCache if not null then pages are cached in a namespace of this cache
+     *                    and {@code maxSize} and {@code maxWeight} are ignored
+     * @param cacheScope  metrics scope of the shared cache namespace
+     */
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
+                                  PageCompressor compressor, int maxSize, int maxWeight,
+                                  boolean collect, @Nullable SharedCache sharedCache,
+                                  @Nullable String cacheScope) {
         this.keyCoder = keyCoder;
         this.pages = pages;
-        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        this.compressor = compressor;
 
         collectMetrics = collectMetricsParameter || collect;
 
         metrics = collectMetrics ? new ExternalPagedStoreMetrics() : null;
 
+        if (sharedCache != null) {
+            log.info("[init] shared cache maxWeight=" + sharedCache.maxWeight());
+            loadingPageCache = null;
+            sharedPageCache = sharedCache.register(cacheScope + ".pages",
+                                                   (key, value) -> value.originalByteSize);
+            return;
+        }
+        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        sharedPageCache = null;
+        CacheLoader<K, TreePage> loader = new CacheLoader<K, TreePage>() {
+            public TreePage load(K key) throws Exception {
+                return loadPage(key);
+            }
+        };
         // Prefer evicting on weight instead of page count
         if (maxWeight != 0) {
             loadingPageCache = CacheBuilder.newBuilder()
@@ -115,33 +162,28 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                         }
                     })
                     .maximumWeight(maxWeight)
-                    .build(
-                            new CacheLoader<K, TreePage>() {
-                                public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page",
-                                                                     new NullPointerException());
-                                    }
-                                }
-                            });
+                    .build(loader);
         } else {
             loadingPageCache = CacheBuilder.newBuilder()
                     .maximumSize(maxSize)
-                    .build(
-                            new CacheLoader<K, TreePage>() {
-                                public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page",
-                                                                     new NullPointerException());
-                                    }
-                                }
-                            });
+                    .build(loader);
+        }
+    }
+
+    private TreePage loadPage(K key) throws ExecutionException {
+        byte[] page = pages.get(keyCoder.keyEncode(key));
+        if (page != null) {
+            return pageDecode(page);
+        } else {
+            throw new ExecutionException("Source did not have page", new NullPointerException());
+        }
+    }
+
+    private TreePage getPage(K key) throws ExecutionException {
+        if (sharedPageCache != null) {
+            return sharedPageCache.get(key, () -> loadPage(key));
+        } else {
+            return loadingPageCache.get(key);
         }
     }
 
@@ -162,7 +204,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         K pageKey = keyCoder.keyDecode(getPageKeyForKey(key));
         if (pageKey != null) {
             try {
-                return loadingPageCache.get(pageKey);
+                return getPage(pageKey);
             } catch (ExecutionException e) {
             }
         }
@@ -182,7 +224,11 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     }
 
     public void close() {
+        if (sharedPageCache != null) {
+            sharedPageCache.close();
+        }
         pages.close();
+        compressor.close();
     }
 
     //decode pages. Called on the bytes returned by store.get()
@@ -205,6 +251,12 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                 case 4:
                     in = new SnappyInputStream(in);
                     break;
+                case PageCompressor.LZ4:
+                case PageCompressor.ZSTD:
+                case PageCompressor.ZSTD_DICT:
+                    ByteBuf compressed = Unpooled.wrappedBuffer(page, 1, page.length - 1);
+                    in = new ByteBufInputStream(compressor.decompress(gztype, compressed), true);
+                    break;
             }
             PageEncodeType pageEncodeType;
             DataInputStream dis = null;
@@ -651,7 +703,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             byte[] encodedKey = pages.firstKey();
             K key = keyCoder.keyDecode(encodedKey);
             do {
-                KeyValuePage<K, V> newPage = loadingPageCache.get(key);
+                KeyValuePage<K, V> newPage = getPage(key);
                 byte[] encodedNextKey = pages.higherKey(encodedKey);
                 if (encodedNextKey != null) {
                     K nextKey = keyCoder.keyDecode(encodedNextKey);
@@ -0,0 +1,515 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only byte store over an immutable snapshot file that is memory mapped.
+ * Opening a snapshot only reads its sparse index so it is much cheaper than opening
+ * a BerkeleyDB environment, and reads are served from the operating system page cache.
+ * <p/>
+ * A snapshot is written once from another byte store with {@link #write(ByteStore, File)}.
+ * Entries are stored in key order (unsigned lexicographic, the same order as BerkeleyDB)
+ * and grouped into blocks of about {@link #blockSize} bytes. A block is lz4 compressed
+ * when that saves at least an eighth of its size. The file is laid out as:
+ * <pre>
+ *   blocks:  (flags byte, uncompressed length, entries)*
+ *   entry:   key length, key, value length, value
+ *   index:   block count, (offset, stored length, first key length, first key)*,
+ *            last key length, last key, entry count
+ *   footer:  index offset, version, magic
+ * </pre>
+ * All integers are fixed width and big endian.
+ */
+public class SnapshotByteStore implements ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotByteStore.class);
+
+    public static final String FILENAME = "db.snapshot";
+
+    static final int blockSize = Parameter.intValue("eps.snapshot.blockSize", 64 * 1024);
+
+    private static final int MAGIC = 0x48534e50;
+    private static final int VERSION = 1;
+    private static final int FOOTER = 16;
+
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+
+    /* largest region mapped at once. blocks never span regions */
+    private static final long MAX_REGION = 1L << 30;
+
+    private static final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+    private static final LZ4Compressor lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final File file;
+    private final byte[][] firstKeys;
+    private final int[] blockRegion;
+    private final int[] blockOffset;
+    private final int[] blockLength;
+    private final MappedByteBuffer[] regions;
+    @Nullable private final byte[] lastKey;
+    private final long count;
+
+    public SnapshotByteStore(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = raf.length();
+            if (length < FOOTER) {
+                throw new IOException("truncated snapshot " + file);
+            }
+            raf.seek(length - FOOTER);
+            long indexOffset = raf.readLong();
+            int version = raf.readInt();
+            int magic = raf.readInt();
+            if ((magic != MAGIC) || (version != VERSION)) {
+                throw new IOException("invalid snapshot " + file + " version " + version);
+            }
+            byte[] index = new byte[(int) (length - FOOTER - indexOffset)];
+            raf.seek(indexOffset);
+            raf.readFully(index);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+            int blocks = in.readInt();
+            long[] offsets = new long[blocks];
+            firstKeys = new byte[blocks][];
+            blockLength = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = in.readLong();
+                blockLength[i] = in.readInt();
+                firstKeys[i] = readBytes(in);
+            }
+            lastKey = (blocks > 0) ? readBytes(in) : null;
+            count = in.readLong();
+            blockRegion = new int[blocks];
+            blockOffset = new int[blocks];
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            int block = 0;
+            while (block < blocks) {
+                long start = offsets[block];
+                int first = block;
+                while ((block < blocks) &&
+                       ((block == first) || ((offsets[block] + blockLength[block] - start) <= MAX_REGION))) {
+                    blockRegion[block] = mapped.size();
+                    blockOffset[block] = (int) (offsets[block] - start);
+                    block++;
+                }
+                long end = offsets[block - 1] + blockLength[block - 1];
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            }
+            regions = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+        }
+        log.info("opened snapshot {} with {} entries in {} blocks", file, count, firstKeys.length);
+    }
+
+    public static File snapshotFile(File dir) {
+        return new File(dir, FILENAME);
+    }
+
+    /**
+     * Write every entry of {@code source} to a new snapshot. The snapshot is written
+     * to a temporary file and renamed so that readers never see a partial snapshot.
+     */
+    public static void write(ByteStore source, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long entries = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            List<byte[]> blockKeys = new ArrayList<>();
+            List<long[]> blockPositions = new ArrayList<>();
+            BlockBuffer block = new BlockBuffer();
+            long position = 0;
+            byte[] key = source.firstKey();
+            byte[] last = null;
+            while (key != null) {
+                byte[] value = source.get(key);
+                if (value != null) {
+                    if (block.size() == 0) {
+                        blockKeys.add(key);
+                    }
+                    block.add(key, value);
+                    entries++;
+                    last = key;
+                    if (block.size() >= blockSize) {
+                        int stored = block.writeTo(out);
+                        blockPositions.add(new long[]{position, stored});
+                        position += stored;
+                    }
+                }
+                key = source.higherKey(key);
+            }
+            if (block.size() > 0) {
+                int stored = block.writeTo(out);
+                blockPositions.add(new long[]{position, stored});
+                position += stored;
+            }
+            out.writeInt(blockKeys.size());
+            for (int i = 0; i < blockKeys.size(); i++) {
+                long[] blockPosition = blockPositions.get(i);
+                out.writeLong(blockPosition[0]);
+                out.writeInt((int) blockPosition[1]);
+                writeBytes(out, blockKeys.get(i));
+            }
+            if (last != null) {
+                writeBytes(out, last);
+            }
+            out.writeLong(entries);
+            out.writeLong(position);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp.toPath());
+            throw ex;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("wrote snapshot {} with {} entries ({} bytes)", file, entries, file.length());
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Entries of the block that is being written.
+     */
+    private static final class BlockBuffer {
+
+        private byte[] buffer = new byte[blockSize + 1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void add(byte[] key, byte[] value) {
+            int needed = size + 8 + key.length + value.length;
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+            }
+            ByteBuffer target = ByteBuffer.wrap(buffer, size, needed - size);
+            target.putInt(key.length).put(key).putInt(value.length).put(value);
+            size = needed;
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        int writeTo(DataOutputStream out) throws IOException {
+            byte[] compressed = new byte[lz4Compressor.maxCompressedLength(size)];
+            int compressedSize = lz4Compressor.compress(buffer, 0, size, compressed, 0, compressed.length);
+            int stored;
+            if (compressedSize <= (size - (size >> 3))) {
+                out.writeByte(LZ4);
+                out.writeInt(size);
+                out.write(compressed, 0, compressedSize);
+                stored = 5 + compressedSize;
+            } else {
+                out.writeByte(RAW);
+                out.writeInt(size);
+                out.write(buffer, 0, size);
+                stored = 5 + size;
+            }
+            size = 0;
+            return stored;
+        }
+    }
+
+    /**
+     * @return the entries of a block, positioned at the first entry
+     */
+    private ByteBuffer block(int block) {
+        // the casts keep the Java 8 signatures when built with a newer jdk, which
+        // overrides these methods in the subclasses with covariant return types
+        ByteBuffer region = ((ByteBuffer) regions[blockRegion[block]]).duplicate();
+        int offset = blockOffset[block];
+        byte flags = region.get(offset);
+        int size = region.getInt(offset + 1);
+        ((Buffer) region).position(offset + 5);
+        if (flags == RAW) {
+            ((Buffer) region).limit(offset + 5 + size);
+            return region.slice();
+        }
+        byte[] entries = new byte[size];
+        lz4Decompressor.decompress(region, offset + 5, ByteBuffer.wrap(entries), 0, size);
+        return ByteBuffer.wrap(entries);
+    }
+
+    /**
+     * @return index of the last block whose first key is less than or equal to {@code key}, or -1
+     */
+    private int floorBlock(byte[] key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = comparator.compare(firstKeys[mid], key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private static byte[] readEntryBytes(ByteBuffer entries) {
+        byte[] bytes = new byte[entries.getInt()];
+        entries.get(bytes);
+        return bytes;
+    }
+
+    private static void skipEntryBytes(ByteBuffer entries) {
+        int length = entries.getInt();
+        ((Buffer) entries).position(entries.position() + length);
+    }
+
+    /**
+     * Compare the key at the current position of {@code entries} to {@code key} and
+     * leave the position after the key.
+     */
+    private static int compareKey(ByteBuffer entries, byte[] key) {
+        int length = entries.getInt();
+        int start = entries.position();
+        int common = Math.min(length, key.length);
+        int cmp = 0;
+        for (int i = 0; (i < common) && (cmp == 0); i++) {
+            cmp = UnsignedBytes.compare(entries.get(start + i), key[i]);
+        }
+        ((Buffer) entries).position(start + length);
+        return (cmp != 0) ? cmp : (length - key.length);
+    }
+
+    /**
+     * @return (key, value) with the greatest key less than or equal to {@code key}, or
+     * with the greatest key strictly less than {@code key} if {@code inclusive} is false.
+     */
+    @Nullable
+    private Map.Entry<byte[], byte[]> floor(byte[] key, boolean inclusive, boolean withValue) {
+        int block = floorBlock(key);
+        if (!inclusive && (block >= 0) && Arrays.equals(firstKeys[block], key)) {
+            block--;
+        }
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer entries = block(block);
+        int found = -1;
+        while (entries.hasRemaining()) {
+            int position = entries.position();
+            int cmp = compareKey(entries, key);
+            if ((cmp > 0) || ((cmp == 0) && !inclusive)) {
+                break;
+            }
+            found = position;
+            skipEntryBytes(entries);
+        }
+        // the first key of the block always qualifies
+        ((Buffer) entries).position(found);
+        byte[] floorKey = readEntryBytes(entries);
+        byte[] value = withValue ? readEntryBytes(entries) : null;
+        return new AbstractMap.SimpleImmutableEntry<>(floorKey, value);
+    }
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public byte[] firstKey() {
+        return (firstKeys.length > 0) ? firstKeys[0] : null;
+    }
+
+    @Override
+    public byte[] lastKey() {
+        return lastKey;
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        throw new UnsupportedOperationException("snapshot is read only");
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        throw new UnsupportedOperationException("snapshot is read only");
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        int block = floorBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer entries = block(block);
+        while (entries.hasRemaining()) {
+            int cmp = compareKey(entries, key);
+            if (cmp == 0) {
+                return readEntryBytes(entries);
+            } else if (cmp > 0) {
+                return null;
+            }
+            skipEntryBytes(entries);
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        int block = floorBlock(key);
+        if (block < 0) {
+            return firstKey();
+        }
+        ByteBuffer entries = block(block);
+        while (entries.hasRemaining()) {
+            int position = entries.position();
+            if (compareKey(entries, key) > 0) {
+                ((Buffer) entries).position(position);
+                return readEntryBytes(entries);
+            }
+            skipEntryBytes(entries);
+        }
+        return ((block + 1) < firstKeys.length) ? firstKeys[block + 1] : null;
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        Map.Entry<byte[], byte[]> entry = floor(key, false, false);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        Map.Entry<byte[], byte[]> entry = floor(key, true, false);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        return floor(key, true, true);
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        if (firstKeys.length == 0) {
+            return null;
+        }
+        ByteBuffer entries = block(0);
+        skipEntryBytes(entries);
+        return readEntryBytes(entries);
+    }
+
+    /**
+     * Iterate over the keys starting with the greatest key less than or equal to
+     * {@code start}, or with the first key if there is no such key.
+     */
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        byte[] floor = (start == null) ? null : floorKey(start);
+        byte[] first = (floor != null) ? floor : firstKey();
+        return new Iterator<byte[]>() {
+            private byte[] next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public byte[] next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                byte[] current = next;
+                next = higherKey(current);
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * The mapped regions are released once they are no longer referenced.
+     */
+    @Override
+    public void close(boolean cleanLog) {
+        log.debug("closing snapshot {}", file);
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotByteStore[" + file + "," + count + "]";
+    }
+}
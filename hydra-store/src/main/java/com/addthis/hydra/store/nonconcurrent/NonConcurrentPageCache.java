@@ -17,6 +17,7 @@ import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
+import com.addthis.hydra.store.common.PageCompressor;
 import com.addthis.hydra.store.common.PageFactory;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
@@ -60,6 +61,7 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
         // Optional parameters - initialized to default values;
         protected int maxPages = defaultMaxPages;
         protected PageFactory<K, V> pageFactory = NonConcurrentPage.NonConcurrentPageFactory.singleton;
+        protected PageCompressor compressor = PageCompressor.DEFAULT;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -79,16 +81,26 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
             return this;
         }
 
+        public Builder<K, V> compressor(PageCompressor value) {
+            compressor = value;
+            return this;
+        }
+
         public NonConcurrentPageCache<K, V> build() {
             return new NonConcurrentPageCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, pageFactory);
+                    maxPages, pageFactory, compressor);
         }
 
     }
 
     public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                                   int maxPages, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, false);
+        this(keyCoder, externalStore, maxPageSize, maxPages, pageFactory, PageCompressor.DEFAULT);
+    }
+
+    public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                                  int maxPages, PageFactory<K, V> pageFactory, PageCompressor compressor) {
+        super(keyCoder, externalStore, pageFactory, compressor, maxPageSize, maxPages, false);
 
         log.info("[init] ro=" + isReadOnly() + " maxPageSize=" + maxPageSize +
                 " maxPages=" + maxPages + " gztype=" + NonConcurrentPage.gztype + " gzlevel=" +
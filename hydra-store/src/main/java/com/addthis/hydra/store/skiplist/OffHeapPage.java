@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.basis.util.MemoryCounter;
+
+import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+/**
+ * Variant of {@link ConcurrentPage} that keeps the encoded values of the
+ * page in an off-heap slab instead of one {@code byte[]} per entry. Values
+ * are still decoded into objects only when they are fetched, so a page that
+ * is loaded for a handful of lookups leaves almost nothing on the heap for
+ * the garbage collector to trace.
+ * <p/>
+ * Keys remain on the heap because the page caches binary search them
+ * directly.
+ * <p/>
+ * The memory estimate of an off-heap page counts the slab and its index
+ * exactly. Only the entries whose values have been materialized are charged
+ * the sampled average entry size; the remaining entries are charged the
+ * measured size of the first key of the page. The slab keeps count of the
+ * materialized entries so the estimate is computed in constant time.
+ *
+ * @param <K> the key used to get/put values onto pages maintained by the cache
+ * @param <V> the value which must extend {@link BytesCodable}
+ */
+public class OffHeapPage<K, V extends BytesCodable> extends ConcurrentPage<K, V> {
+
+    /**
+     * Memory used by the three references to key, value and raw value.
+     * See {@link com.addthis.hydra.store.common.AbstractPage#estimatedMem()}.
+     */
+    private static final int ENTRY_REFERENCES = 12;
+
+    private int keyEstimate;
+
+    public OffHeapPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, encodeType);
+    }
+
+    public OffHeapPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size, ArrayList<K> keys,
+                       ArrayList<V> values, ArrayList<byte[]> rawValues, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+        OffHeapRawValues slab = new OffHeapRawValues(rawValues, cache.offHeapMemory);
+        for (int i = 0; i < size; i++) {
+            if ((values.get(i) != null) && (rawValues.get(i) != null)) {
+                slab.materialize(i);
+            }
+        }
+        setRawValues(slab);
+    }
+
+    @Override
+    protected List<byte[]> newRawValues(int capacity) {
+        return new OffHeapRawValues(capacity, parent.offHeapMemory);
+    }
+
+    @Override
+    public void fetchValue(int position) {
+        boolean missing = values().get(position) == null;
+        super.fetchValue(position);
+        List<byte[]> rawValues = rawValues();
+        if (missing && (rawValues instanceof OffHeapRawValues)) {
+            ((OffHeapRawValues) rawValues).materialize(position);
+        }
+    }
+
+    @Override
+    protected int estimatedMem() {
+        List<byte[]> rawValues = rawValues();
+        if (!(rawValues instanceof OffHeapRawValues)) {
+            return super.estimatedMem();
+        }
+        OffHeapRawValues slab = (OffHeapRawValues) rawValues;
+        int size = size();
+        int materialized = Math.min(slab.materialized(), size);
+        if (keyEstimate == 0 && firstKey != null) {
+            keyEstimate = (int) MemoryCounter.estimateSize(firstKey);
+        }
+        return slab.offHeapBytes() + slab.indexBytes() +
+               (size * ENTRY_REFERENCES) +
+               (materialized * getAvgEntrySize()) +
+               ((size - materialized) * keyEstimate);
+    }
+
+    public static class OffHeapPageFactory<K, V extends BytesCodable> extends PageFactory<K, V> {
+
+        public static final OffHeapPageFactory singleton = new OffHeapPageFactory<>();
+
+        @Override
+        public TYPE getType() {
+            return TYPE.CONCURRENT;
+        }
+
+        private OffHeapPageFactory() {
+        }
+
+        @Override
+        protected OffHeapPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey,
+                                            PageEncodeType encodeType) {
+            return new OffHeapPage<>(cache, firstKey, nextFirstKey, encodeType);
+        }
+
+        @Override
+        protected OffHeapPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size,
+                                            ArrayList<K> keys, ArrayList<V> values, ArrayList<byte[]> rawValues,
+                                            PageEncodeType encodeType) {
+            return new OffHeapPage<>(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import javax.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.basis.util.Parameter;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encoded values of a page stored back to back in a single pooled direct
+ * buffer (the slab) with a parallel offset and length index. A null element
+ * is recorded with a negative length and takes no slab space.
+ * <p/>
+ * Removing or overwriting an element leaves its bytes in the slab. The slab
+ * is compacted when it must grow and more than half of it is garbage, and it
+ * is released when the list becomes empty or is cleared. The page caches clear
+ * the raw values of every page they push to external storage so the slab
+ * lifetime matches the lifetime of the page in memory.
+ * <p/>
+ * {@link #get(int)} returns a copy of the element on the heap. Callers are
+ * expected to decode it immediately and let it die young. {@link #set(int, byte[])}
+ * and {@link #remove(int)} always return null rather than copy the previous
+ * element, because the page caches never read it.
+ * <p/>
+ * The list also counts the elements whose value is held decoded by the page,
+ * so that the page can estimate its memory without scanning its values. An
+ * element is materialized when a null is stored in its place, which is how
+ * the caches record a value that only exists decoded, or when it is marked
+ * by {@link #materialize(int)} after it has been decoded.
+ * <p/>
+ * Not thread safe. All mutations happen under the page write lock.
+ */
+final class OffHeapRawValues extends AbstractList<byte[]> implements RandomAccess {
+
+    static final int initialSlabSize = Parameter.intValue("eps.offheap.slab.initial", 256);
+
+    private static final int NULL_LENGTH = -1;
+
+    private final AtomicLong offHeapMemory;
+
+    @Nullable
+    private ByteBuf slab;
+
+    private int[] offsets;
+
+    private int[] lengths;
+
+    private boolean[] materialized;
+
+    private int size;
+
+    private int materializedCount;
+
+    private int liveBytes;
+
+    OffHeapRawValues(int capacity, AtomicLong offHeapMemory) {
+        this.offHeapMemory = offHeapMemory;
+        this.offsets = new int[Math.max(capacity, 4)];
+        this.lengths = new int[offsets.length];
+        this.materialized = new boolean[offsets.length];
+    }
+
+    OffHeapRawValues(List<byte[]> source, AtomicLong offHeapMemory) {
+        this(source.size(), offHeapMemory);
+        for (byte[] value : source) {
+            add(value);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte[] get(int index) {
+        rangeCheck(index);
+        int length = lengths[index];
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        slab.getBytes(offsets[index], result);
+        return result;
+    }
+
+    /**
+     * Replace an element. Returns null instead of a copy of the previous element.
+     */
+    @Override
+    public byte[] set(int index, byte[] element) {
+        rangeCheck(index);
+        discard(index);
+        store(index, element);
+        return null;
+    }
+
+    @Override
+    public void add(int index, byte[] element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (size == offsets.length) {
+            int capacity = size + (size >> 1) + 1;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            materialized = Arrays.copyOf(materialized, capacity);
+        }
+        System.arraycopy(offsets, index, offsets, index + 1, size - index);
+        System.arraycopy(lengths, index, lengths, index + 1, size - index);
+        System.arraycopy(materialized, index, materialized, index + 1, size - index);
+        materialized[index] = false;
+        size++;
+        modCount++;
+        store(index, element);
+    }
+
+    /**
+     * Remove an element. Returns null instead of a copy of the removed element.
+     */
+    @Override
+    public byte[] remove(int index) {
+        rangeCheck(index);
+        removeRange(index, index + 1);
+        return null;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            discard(i);
+            if (materialized[i]) {
+                materializedCount--;
+            }
+        }
+        System.arraycopy(offsets, toIndex, offsets, fromIndex, size - toIndex);
+        System.arraycopy(lengths, toIndex, lengths, fromIndex, size - toIndex);
+        System.arraycopy(materialized, toIndex, materialized, fromIndex, size - toIndex);
+        size -= (toIndex - fromIndex);
+        modCount++;
+        if (size == 0) {
+            release();
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(materialized, 0, size, false);
+        size = 0;
+        liveBytes = 0;
+        materializedCount = 0;
+        modCount++;
+        release();
+    }
+
+    /**
+     * Record that the element at {@code index} has been decoded by the page.
+     */
+    void materialize(int index) {
+        rangeCheck(index);
+        mark(index, true);
+    }
+
+    /**
+     * Number of elements whose value is held decoded by the page.
+     */
+    int materialized() {
+        return materializedCount;
+    }
+
+    /**
+     * Bytes allocated outside of the heap, including garbage from
+     * removed or overwritten elements.
+     */
+    int offHeapBytes() {
+        return (slab == null) ? 0 : slab.capacity();
+    }
+
+    /**
+     * Heap bytes used by the offset, length and materialized index.
+     */
+    int indexBytes() {
+        return 9 * offsets.length;
+    }
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void discard(int index) {
+        if (lengths[index] != NULL_LENGTH) {
+            liveBytes -= lengths[index];
+            lengths[index] = NULL_LENGTH;
+        }
+    }
+
+    private void mark(int index, boolean value) {
+        if (materialized[index] != value) {
+            materialized[index] = value;
+            materializedCount += value ? 1 : -1;
+        }
+    }
+
+    private void store(int index, @Nullable byte[] element) {
+        mark(index, element == null);
+        if (element == null) {
+            offsets[index] = 0;
+            lengths[index] = NULL_LENGTH;
+            return;
+        }
+        if (slab == null) {
+            slab = PooledByteBufAllocator.DEFAULT.directBuffer(Math.max(initialSlabSize, element.length));
+            offHeapMemory.addAndGet(slab.capacity());
+        } else if (slab.writableBytes() < element.length && (slab.writerIndex() - liveBytes) > liveBytes) {
+            compact(element.length);
+        }
+        int capacity = slab.capacity();
+        offsets[index] = slab.writerIndex();
+        lengths[index] = element.length;
+        slab.writeBytes(element);
+        liveBytes += element.length;
+        offHeapMemory.addAndGet(slab.capacity() - capacity);
+    }
+
+    /**
+     * Copy the live elements into a new slab with room for at least
+     * {@code extra} additional bytes and release the old slab.
+     */
+    private void compact(int extra) {
+        ByteBuf target = PooledByteBufAllocator.DEFAULT.directBuffer(
+                Math.max(initialSlabSize, liveBytes + extra));
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] != NULL_LENGTH) {
+                int offset = target.writerIndex();
+                target.writeBytes(slab, offsets[i], lengths[i]);
+                offsets[i] = offset;
+            }
+        }
+        offHeapMemory.addAndGet(target.capacity() - slab.capacity());
+        slab.release();
+        slab = target;
+    }
+
+    private void release() {
+        if (slab != null) {
+            offHeapMemory.addAndGet(-slab.capacity());
+            slab.release();
+            slab = null;
+        }
+        liveBytes = 0;
+    }
+}
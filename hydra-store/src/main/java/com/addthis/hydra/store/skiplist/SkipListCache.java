@@ -19,6 +19,7 @@ import com.addthis.hydra.store.common.AbstractPage;
 import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
+import com.addthis.hydra.store.common.PageCompressor;
 import com.addthis.hydra.store.common.PageFactory;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
@@ -122,6 +123,7 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
         protected int maxPages = defaultMaxPages;
         @SuppressWarnings("unchecked")
         protected PageFactory<K, V> pageFactory = ConcurrentPage.ConcurrentPageFactory.singleton;
+        protected PageCompressor compressor = PageCompressor.DEFAULT;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -146,9 +148,14 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
             return this;
         }
 
+        public Builder<K, V> compressor(PageCompressor value) {
+            compressor = value;
+            return this;
+        }
+
         public SkipListCache<K, V> build() {
             return new SkipListCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, numEvictionThreads, pageFactory);
+                    maxPages, numEvictionThreads, pageFactory, compressor);
         }
 
     }
@@ -156,7 +163,14 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
 
     public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                          int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, true);
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory,
+             PageCompressor.DEFAULT);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                         int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory,
+                         PageCompressor compressor) {
+        super(keyCoder, externalStore, pageFactory, compressor, maxPageSize, maxPages, true);
 
         this.evictionTaskQueue = new LinkedBlockingQueue<>();
         this.purgeSet = new ConcurrentSkipListSet<>();
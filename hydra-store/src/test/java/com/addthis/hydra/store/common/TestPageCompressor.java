@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import java.io.File;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPageCompressor {
+
+    private static byte[] page(int seed) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("com.addthis.hydra.data.tree.prop.DataCounting")
+                   .append(seed * 31 + i).append("www.site").append(i).append(".com");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] roundTrip(PageCompressor encoder, PageCompressor decoder, int type, byte[] raw) {
+        ByteBuf out = Unpooled.buffer();
+        int blockType = encoder.blockType(type);
+        out.writeByte(blockType);
+        encoder.compress(blockType, Unpooled.wrappedBuffer(raw), out);
+        assertEquals(blockType, out.readByte());
+        ByteBuf result = decoder.decompress(blockType, out);
+        assertEquals(0, out.readableBytes());
+        byte[] bytes = new byte[result.readableBytes()];
+        result.readBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void blockCodecs() {
+        byte[] raw = page(1);
+        assertArrayEquals(raw, roundTrip(PageCompressor.DEFAULT, PageCompressor.DEFAULT, PageCompressor.LZ4, raw));
+        assertArrayEquals(raw, roundTrip(PageCompressor.DEFAULT, PageCompressor.DEFAULT, PageCompressor.ZSTD, raw));
+        assertArrayEquals(new byte[0], roundTrip(PageCompressor.DEFAULT, PageCompressor.DEFAULT,
+                                                 PageCompressor.ZSTD, new byte[0]));
+    }
+
+    @Test
+    public void trainAndPersistDictionary() throws Exception {
+        File directory = Files.createTempDirectory("page-compressor").toFile();
+        try {
+            PageCompressor writer = new PageCompressor(directory, true);
+            assertNull(writer.getDictionaryId());
+            // opened before the dictionary exists
+            PageCompressor early = new PageCompressor(directory, false);
+            byte[] plain = page(-1);
+            ByteBuf plainPage = Unpooled.buffer();
+            plainPage.writeByte(PageCompressor.ZSTD);
+            writer.compress(PageCompressor.ZSTD, Unpooled.wrappedBuffer(plain), plainPage);
+            int seed = 0;
+            while (writer.getDictionaryId() == null) {
+                roundTrip(writer, writer, PageCompressor.ZSTD, page(seed++));
+                writer.awaitTraining();
+            }
+            assertEquals(PageCompressor.ZSTD_DICT, writer.blockType(PageCompressor.ZSTD));
+            assertTrue(new File(directory, PageCompressor.DICTIONARY_PREFIX + writer.getDictionaryId()).exists());
+
+            byte[] raw = page(seed);
+            ByteBuf dictPage = Unpooled.buffer();
+            dictPage.writeByte(PageCompressor.ZSTD_DICT);
+            writer.compress(PageCompressor.ZSTD_DICT, Unpooled.wrappedBuffer(raw), dictPage);
+            writer.close();
+
+            PageCompressor reader = new PageCompressor(directory, false);
+            assertNotNull(reader.getDictionaryId());
+            dictPage.readByte();
+            ByteBuf result = reader.decompress(PageCompressor.ZSTD_DICT, dictPage);
+            byte[] bytes = new byte[result.readableBytes()];
+            result.readBytes(bytes);
+            assertArrayEquals(raw, bytes);
+
+            // the dictionary is loaded when the first page needs it
+            assertNull(early.getDictionaryId());
+            dictPage.readerIndex(1);
+            result = early.decompress(PageCompressor.ZSTD_DICT, dictPage);
+            bytes = new byte[result.readableBytes()];
+            result.readBytes(bytes);
+            assertArrayEquals(raw, bytes);
+            early.close();
+
+            // pages written before the dictionary existed are still readable
+            plainPage.readByte();
+            result = reader.decompress(PageCompressor.ZSTD, plainPage);
+            bytes = new byte[result.readableBytes()];
+            result.readBytes(bytes);
+            assertArrayEquals(plain, bytes);
+            reader.close();
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSharedCache {
+
+    @Test
+    public void loadAndHit() throws Exception {
+        SharedCache cache = new SharedCache(16 * 1000);
+        SharedCache.Namespace<Integer, String> first = cache.register("first", (key, value) -> value.length());
+        SharedCache.Namespace<Integer, String> second = cache.register("second", (key, value) -> value.length());
+        assertEquals("a1", first.get(1, () -> "a1"));
+        assertEquals("a1", first.get(1, () -> "reloaded"));
+        // namespaces do not share keys
+        assertEquals("b1", second.get(1, () -> "b1"));
+        assertNull(first.get(2, () -> null));
+        assertNull(first.getIfPresent(2));
+        assertEquals(1, first.hits());
+        assertEquals(2, first.misses());
+        assertEquals(2, first.weight());
+        assertEquals(4, cache.weight());
+        assertEquals(1, first.keys().size());
+        try {
+            first.get(3, () -> {
+                throw new IllegalStateException("load failed");
+            });
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        first.close();
+        assertEquals(0, first.weight());
+        assertEquals(2, cache.weight());
+        assertEquals("b1", second.getIfPresent(1));
+        second.close();
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void budget() throws Exception {
+        SharedCache cache = new SharedCache(16 * 100);
+        SharedCache.Namespace<Integer, Integer> namespace = cache.register("budget", (key, value) -> 10);
+        for (int i = 0; i < 10000; i++) {
+            namespace.get(i, () -> 0);
+        }
+        assertTrue(cache.weight() <= cache.maxWeight());
+        assertEquals(cache.weight(), namespace.weight());
+    }
+
+    @Test
+    public void hotEntriesSurviveScan() throws Exception {
+        SharedCache cache = new SharedCache(16 * 1000);
+        SharedCache.Namespace<Integer, Integer> hot = cache.register("hot", (key, value) -> 10);
+        SharedCache.Namespace<Integer, Integer> cold = cache.register("cold", (key, value) -> 10);
+        Integer[] values = new Integer[100];
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < values.length; i++) {
+                Integer value = hot.get(i, () -> new Integer(0));
+                if (values[i] == null) {
+                    values[i] = value;
+                }
+            }
+        }
+        // each key of the scan is read once
+        for (int i = 0; i < 10000; i++) {
+            cold.get(i, () -> 0);
+        }
+        int retained = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (hot.getIfPresent(i) != null) {
+                assertSame(values[i], hot.getIfPresent(i));
+                retained++;
+            }
+        }
+        assertTrue("retained " + retained, retained >= 90);
+    }
+
+    @Test
+    public void rejectedEntryEvictsNothing() throws Exception {
+        SharedCache cache = new SharedCache(16 * 40);
+        SharedCache.Namespace<Integer, Integer> namespace = cache.register("admit", (key, value) -> value);
+        // the eldest entries of each segment are read once and the youngest are hot
+        for (int i = 0; i < 200; i++) {
+            namespace.get(i, () -> 10);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 1000; i < 1020; i++) {
+                namespace.get(i, () -> 10);
+            }
+        }
+        // each candidate needs the room of several entries, some of which are hot
+        int rejected = 0;
+        for (int i = 2000; i < 2200; i++) {
+            long weight = cache.weight();
+            namespace.get(i, () -> 30);
+            if (namespace.getIfPresent(i) == null) {
+                assertEquals(weight, cache.weight());
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 0);
+        assertEquals(cache.weight(), namespace.weight());
+    }
+}
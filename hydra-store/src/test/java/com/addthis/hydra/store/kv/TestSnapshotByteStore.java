@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TestSnapshotByteStore {
+
+    private static byte[] key(int input) {
+        return String.format("%05d", input).getBytes();
+    }
+
+    @Test
+    public void matchesSource() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            Random random = new Random(7);
+            TreeMap<byte[], byte[]> expected = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+            ByteStoreBDB source = new ByteStoreBDB(dir, "test", false);
+            // every other key so that lookups can miss between entries
+            for (int i = 0; i < 10000; i += 2) {
+                byte[] value;
+                if ((i % 3) == 0) {
+                    value = new byte[random.nextInt(200)];
+                    random.nextBytes(value);
+                } else {
+                    value = ("value " + i + " value " + i + " value " + i).getBytes();
+                }
+                source.put(key(i), value);
+                expected.put(key(i), value);
+            }
+            File file = new File(dir, SnapshotByteStore.FILENAME);
+            SnapshotByteStore.write(source, file);
+            source.close();
+
+            SnapshotByteStore snapshot = new SnapshotByteStore(file);
+            assertEquals(expected.size(), snapshot.count());
+            assertArrayEquals(expected.firstKey(), snapshot.firstKey());
+            assertArrayEquals(expected.lastKey(), snapshot.lastKey());
+            assertArrayEquals(expected.firstEntry().getValue(), snapshot.firstEntry());
+            for (int i = -1; i <= 10001; i++) {
+                byte[] key = key(i);
+                assertArrayEquals(expected.get(key), snapshot.get(key));
+                assertArrayEquals(expected.floorKey(key), snapshot.floorKey(key));
+                assertArrayEquals(expected.higherKey(key), snapshot.higherKey(key));
+                assertArrayEquals(expected.lowerKey(key), snapshot.lowerKey(key));
+                Map.Entry<byte[], byte[]> floor = snapshot.floorEntry(key);
+                if (expected.floorEntry(key) == null) {
+                    assertNull(floor);
+                } else {
+                    assertArrayEquals(expected.floorEntry(key).getValue(), floor.getValue());
+                }
+            }
+            Iterator<byte[]> keys = snapshot.keyIterator(key(5001));
+            for (byte[] key : expected.tailMap(key(5000), true).keySet()) {
+                assertArrayEquals(key, keys.next());
+            }
+            assertFalse(keys.hasNext());
+            snapshot.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            ByteStoreBDB source = new ByteStoreBDB(dir, "test", false);
+            File file = new File(dir, SnapshotByteStore.FILENAME);
+            SnapshotByteStore.write(source, file);
+            source.close();
+
+            SnapshotByteStore snapshot = new SnapshotByteStore(file);
+            assertEquals(0, snapshot.count());
+            assertNull(snapshot.firstKey());
+            assertNull(snapshot.get(key(1)));
+            assertNull(snapshot.floorKey(key(1)));
+            assertNull(snapshot.higherKey(key(1)));
+            assertFalse(snapshot.keyIterator(key(1)).hasNext());
+            snapshot.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
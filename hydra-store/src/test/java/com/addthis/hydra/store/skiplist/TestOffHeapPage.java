@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.DBIntValue;
+import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapPage {
+
+    @Test
+    public void rawValues() {
+        AtomicLong offHeap = new AtomicLong();
+        OffHeapRawValues values = new OffHeapRawValues(0, offHeap);
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] value = (i % 7 == 0) ? null : new byte[i % 50];
+            if (value != null && value.length > 0) {
+                value[0] = (byte) i;
+            }
+            values.add(i / 2, value);
+            expected.add(i / 2, value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            values.set(i, new byte[]{(byte) i});
+            expected.set(i, new byte[]{(byte) i});
+            values.remove(i);
+            expected.remove(i);
+        }
+        assertTrue(offHeap.get() > 0);
+        assertEquals(offHeap.get(), values.offHeapBytes());
+        assertEquals(expected.size(), values.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), values.get(i));
+        }
+        values.subList(10, values.size()).clear();
+        assertEquals(10, values.size());
+        values.clear();
+        assertEquals(0, offHeap.get());
+        assertEquals(0, values.offHeapBytes());
+    }
+
+    @Test
+    public void materializedCount() {
+        OffHeapRawValues values = new OffHeapRawValues(0, new AtomicLong());
+        values.add(new byte[]{0});
+        values.add(new byte[]{1});
+        values.add(null);
+        values.add(new byte[]{3});
+        assertEquals(1, values.materialized());
+        values.materialize(0);
+        assertEquals(2, values.materialized());
+        assertNull(values.set(0, new byte[]{4}));
+        assertEquals(1, values.materialized());
+        assertNull(values.set(1, null));
+        assertEquals(2, values.materialized());
+        assertNull(values.remove(1));
+        assertEquals(1, values.materialized());
+        values.add(0, null);
+        assertEquals(2, values.materialized());
+        values.subList(0, 2).clear();
+        assertEquals(1, values.materialized());
+        assertNull(values.get(0));
+        assertArrayEquals(new byte[]{3}, values.get(1));
+        values.clear();
+        assertEquals(0, values.materialized());
+    }
+
+    @Test
+    public void pageCache() throws Exception {
+        File directory = Files.createTempDirectory("offheap-page").toFile();
+        int numElements = 10000;
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 8)
+                            .maxPages(50).pageFactory(OffHeapPage.OffHeapPageFactory.singleton).build();
+            for (int i = 0; i < numElements; i++) {
+                cache.put(i, new DBIntValue(numElements - i));
+            }
+            for (int i = 0; i < numElements; i += 2) {
+                assertEquals(new Integer(numElements - i), cache.remove(i).getVal());
+            }
+            for (int i = 1; i < numElements; i += 2) {
+                assertEquals(new Integer(numElements - i), cache.get(i).getVal());
+            }
+            assertTrue(cache.offHeapMemory.get() > 0);
+            assertTrue(cache.getMemoryEstimate() >= cache.offHeapMemory.get());
+            cache.waitForShutdown();
+            assertEquals(0, cache.getNumPagesInMemory());
+            assertEquals(0, cache.offHeapMemory.get());
+
+            externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            cache = new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 8)
+                    .maxPages(50).pageFactory(OffHeapPage.OffHeapPageFactory.singleton).build();
+            for (int i = 0; i < numElements; i++) {
+                DBIntValue value = cache.get(i);
+                if (i % 2 == 0) {
+                    assertNull(value);
+                } else {
+                    assertEquals(new Integer(numElements - i), value.getVal());
+                }
+            }
+            // pages decoded by the integrity check are never cached
+            long offHeap = cache.offHeapMemory.get();
+            cache.testIntegrity(false);
+            assertEquals(offHeap, cache.offHeapMemory.get());
+            cache.waitForShutdown();
+            assertEquals(0, cache.offHeapMemory.get());
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+}
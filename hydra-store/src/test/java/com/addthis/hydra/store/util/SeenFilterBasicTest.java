@@ -20,6 +20,7 @@ import com.addthis.codec.json.CodecJSON;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 @Category(SlowTest.class)
@@ -27,17 +28,41 @@ public class SeenFilterBasicTest {
 
     @Test
     public void basicTest() throws Exception {
-        checkSeenFilter(genFilter());
+        checkSeenFilter(genFilter(SeenFilterBasic.HASH_PLUGGABLE_SHIFT));
     }
 
     @Test
     public void encodeTest() throws Exception {
-        String encoded = CodecJSON.encodeString(genFilter());
+        String encoded = CodecJSON.encodeString(genFilter(SeenFilterBasic.HASH_PLUGGABLE_SHIFT));
         checkSeenFilter(CodecJSON.decodeString(new SeenFilterBasic<String>(), encoded));
     }
 
-    private SeenFilterBasic<String> genFilter() {
-        SeenFilterBasic<String> filter = new SeenFilterBasic<>(20000, 4, 4);
+    @Test
+    public void blockedTest() throws Exception {
+        SeenFilterBasic<String> filter = genFilter(SeenFilterBasic.HASH_BLOCKED);
+        assertEquals(0, filter.getBitCount() % 512);
+        checkSeenFilter(filter);
+        String encoded = CodecJSON.encodeString(filter);
+        checkSeenFilter(CodecJSON.decodeString(new SeenFilterBasic<String>(), encoded));
+        checkSeenFilter(filter.merge(filter.newInstance()));
+    }
+
+    @Test
+    public void blockedHashSetOtherSize() throws Exception {
+        // like the tiers of a sieve, which grow by half of their size
+        SeenFilterBasic<String> small = new SeenFilterBasic<>(20000, 4, SeenFilterBasic.HASH_BLOCKED);
+        SeenFilterBasic<String> large = new SeenFilterBasic<>(30000, 4, SeenFilterBasic.HASH_BLOCKED);
+        for (int i = 0; i < 1000; i++) {
+            large.setHashSet(small.getHashSet(i + "=" + i));
+        }
+        checkSeenFilter(large);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(large.checkHashSet(small.getHashSet(i + "=" + i)));
+        }
+    }
+
+    private SeenFilterBasic<String> genFilter(int hash) {
+        SeenFilterBasic<String> filter = new SeenFilterBasic<>(20000, 4, hash);
         for (int i = 0; i < 1000; i++) {
             filter.setSeen(i + "=" + i);
         }
@@ -38,6 +38,7 @@ public class TestSeenFilter {
         testSeenFilter(new SeenFilterBasic<Long>(40000, 3, 2), 10000);
         testSeenFilter(new SeenFilterBasic<Long>(40000, 3, 3), 10000);
         testSeenFilter(new SeenFilterBasic<Long>(40000, 3, 4), 10000);
+        testSeenFilter(new SeenFilterBasic<Long>(40000, 3, 5), 10000);
     }
 
     private void testSeenFilter(SeenFilter<Long> filter, int capacity) {
@@ -32,4 +32,13 @@ public class LiveSearchRunner extends SearchRunner {
     protected QueryEngine getEngine() throws Exception {
         return engine;
     }
+
+    /**
+     * The live tree is written while it is queried and its engine generation
+     * never changes, so live results are neither replayed nor recorded.
+     */
+    @Override
+    protected boolean replay() {
+        return false;
+    }
 }
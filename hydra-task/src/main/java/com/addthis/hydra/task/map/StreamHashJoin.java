@@ -0,0 +1,333 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.io.DataChannelCodec;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.hydra.data.io.DiskBackedList2;
+import com.addthis.hydra.data.query.MemoryEstimator;
+
+import com.google.common.base.Throwables;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This builder <span class="hydra-summary">joins rows that share a key</span> like
+ * {@link StreamJoin join}, without holding every key in memory.
+ * <p/>
+ * Each row contributes the {@code fields} it has to the joined row of its {@code key}.
+ * A joined row is emitted once a later row completes it with all of the {@code fields}.
+ * Rows are split into {@code partitions} by the hash of their key. When the joined rows
+ * held in memory, together with the write buffers of the spilled partitions, exceed
+ * {@code maxBytes} the largest partition is written to compressed temporary files and
+ * later rows of that partition are appended to them. Spilled partitions
+ * are joined one at a time when the stream completes, so only one of them has to fit in
+ * memory. Unlike {@code join} there is no {@code hash} window: every key is joined
+ * across the whole stream, and the {@code key} field is always part of the joined rows.
+ * <p/>
+ * <p>Example:</p>
+ * <pre>builder: {hashJoin: {key: "UID", fields: ["UID", "A", "B"], maxBytes: 500000000}}</pre>
+ *
+ * @user-reference
+ */
+public class StreamHashJoin extends StreamBuilder implements DiskBackedList2.ItemCodec<Bundle> {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamHashJoin.class);
+
+    /**
+     * Field that holds the join key. This field is required.
+     */
+    @FieldConfig(codable = true, required = true)
+    private String key;
+
+    /**
+     * Fields of the joined rows. A joined row is complete when it has all of them.
+     * This field is required.
+     */
+    @FieldConfig(codable = true, required = true)
+    private String[] fields;
+
+    /**
+     * Number of key hash partitions. Default is 64.
+     */
+    @FieldConfig(codable = true)
+    private int partitions = 64;
+
+    /**
+     * Estimated heap bytes of joined rows to hold before spilling partitions.
+     * Default is 256MB.
+     */
+    @FieldConfig(codable = true)
+    private long maxBytes = 256 * 1024 * 1024;
+
+    /**
+     * Size of the chunks that spilled rows are read and written in. Each spilled partition
+     * buffers one chunk in memory, which counts toward {@code maxBytes}, so chunks are no
+     * larger than {@code maxBytes} divided by {@code partitions}. Default is 4MB.
+     */
+    @FieldConfig(codable = true)
+    private long chunkBytes = 4 * 1024 * 1024;
+
+    /**
+     * Directory for spill files. Default is a new temporary directory.
+     */
+    @FieldConfig(codable = true)
+    private String directory;
+
+    private final Counter spilledPartitions = Metrics.newCounter(getClass(), "spilledPartitions");
+    private final Counter spilledRows = Metrics.newCounter(getClass(), "spilledRows");
+    private final Counter spilledBytes = Metrics.newCounter(getClass(), "spilledBytes");
+
+    private final ListBundleFormat format = new ListBundleFormat();
+
+    private Partition[] parts;
+    private BundleField keyField;
+    private BundleField[] joinFields;
+    private File spillDir;
+    private long spillChunkBytes;
+    private long bytes;
+
+    @Override
+    public void init() {
+        keyField = format.getField(key);
+        joinFields = new BundleField[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            joinFields[i] = format.getField(fields[i]);
+        }
+        spillChunkBytes = Math.max(1, Math.min(chunkBytes, maxBytes / partitions));
+        parts = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            parts[i] = new Partition(i);
+        }
+    }
+
+    @Override
+    public synchronized void process(Bundle row, StreamEmitter emitter) {
+        ValueObject keyObject = row.getValue(row.getFormat().getField(key));
+        if (keyObject == null) {
+            return;
+        }
+        String keyValue = keyObject.asString().asNative();
+        Partition part = parts[(keyValue.hashCode() & Integer.MAX_VALUE) % partitions];
+        ListBundle projected = project(row);
+        if (part.spill != null) {
+            part.spill.add(projected);
+            spilledRows.inc();
+        } else {
+            bytes += part.join(keyValue, projected, emitter);
+            while (bytes > maxBytes) {
+                spillLargest();
+            }
+        }
+    }
+
+    /**
+     * copy the join fields of a row into a row of the shared format
+     */
+    private ListBundle project(Bundle row) {
+        ListBundle projected = new ListBundle(format);
+        projected.setValue(keyField, row.getValue(row.getFormat().getField(key)));
+        for (int i = 0; i < fields.length; i++) {
+            BundleField field = row.getFormat().getField(fields[i]);
+            ValueObject value = (field != null) ? row.getValue(field) : null;
+            if (value != null) {
+                projected.setValue(joinFields[i], value);
+            }
+        }
+        return projected;
+    }
+
+    private boolean isComplete(Bundle bundle) {
+        for (BundleField field : joinFields) {
+            if (bundle.getValue(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void spillLargest() {
+        Partition largest = null;
+        for (Partition part : parts) {
+            if ((part.spill == null) && ((largest == null) || (part.bytes > largest.bytes))) {
+                largest = part;
+            }
+        }
+        if ((largest == null) || (largest.bytes == 0)) {
+            throw new IllegalStateException("no partition to spill with " + bytes + " bytes held");
+        }
+        try {
+            bytes += spillChunkBytes - largest.spill();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public synchronized void streamComplete(StreamEmitter streamEmitter) {
+        try {
+            for (Partition part : parts) {
+                if (part.spill == null) {
+                    bytes -= part.complete(streamEmitter);
+                }
+            }
+            for (Partition part : parts) {
+                if (part.spill != null) {
+                    part.joinSpilled(streamEmitter);
+                    bytes -= spillChunkBytes;
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            if (spillDir != null) {
+                LessFiles.deleteDir(spillDir);
+            }
+        }
+    }
+
+    /**
+     * estimated heap bytes of the joined rows and the spill buffers
+     */
+    long heldBytes() {
+        return bytes;
+    }
+
+    @Override
+    public Bundle decode(byte[] row) throws IOException {
+        return DataChannelCodec.decodeBundle(new ListBundle(format), row);
+    }
+
+    @Override
+    public byte[] encode(Bundle row) throws IOException {
+        return DataChannelCodec.encodeBundle(row);
+    }
+
+    /**
+     * the joined rows of one key hash partition, either in memory or spilled to disk
+     */
+    private final class Partition {
+
+        private final int index;
+        private Map<String, Bundle> pending = new LinkedHashMap<>();
+        private DiskBackedList2<Bundle> spill;
+        private long bytes;
+
+        Partition(int index) {
+            this.index = index;
+        }
+
+        /**
+         * merge a row into the joined row of its key and emit the joined row if it is
+         * complete. returns the change in held bytes.
+         */
+        long join(String keyValue, Bundle row, StreamEmitter emitter) {
+            Bundle joined = pending.get(keyValue);
+            long delta;
+            if (joined == null) {
+                pending.put(keyValue, row);
+                delta = MemoryEstimator.estimate(keyValue) + MemoryEstimator.estimate(row);
+            } else {
+                long before = MemoryEstimator.estimate(joined);
+                for (BundleField field : joinFields) {
+                    ValueObject value = row.getValue(field);
+                    if (value != null) {
+                        joined.setValue(field, value);
+                    }
+                }
+                if (isComplete(joined)) {
+                    pending.remove(keyValue);
+                    emitter.emit(joined);
+                    delta = -(before + MemoryEstimator.estimate(keyValue));
+                } else {
+                    delta = MemoryEstimator.estimate(joined) - before;
+                }
+            }
+            bytes += delta;
+            return delta;
+        }
+
+        /**
+         * emit the complete joined rows that are left and drop the rest.
+         * returns the bytes released.
+         */
+        long complete(StreamEmitter emitter) {
+            for (Bundle joined : pending.values()) {
+                if (isComplete(joined)) {
+                    emitter.emit(joined);
+                }
+            }
+            return release();
+        }
+
+        private long release() {
+            long released = bytes;
+            pending = new LinkedHashMap<>();
+            bytes = 0;
+            return released;
+        }
+
+        /**
+         * move the joined rows to disk in the order they were created. returns the bytes released.
+         */
+        long spill() throws IOException {
+            if (spillDir == null) {
+                spillDir = (directory != null) ? LessFiles.initDirectory(directory) : LessFiles.createTempDir();
+            }
+            File dir = LessFiles.initDirectory(new File(spillDir, Integer.toString(index)));
+            spill = new DiskBackedList2<>(StreamHashJoin.this, spillChunkBytes, dir, true);
+            for (Bundle joined : pending.values()) {
+                spill.add(joined);
+            }
+            spilledPartitions.inc();
+            spilledRows.inc(pending.size());
+            log.info("spilled join partition {} with {} rows and {} bytes", index, pending.size(), bytes);
+            return release();
+        }
+
+        /**
+         * replay the spilled rows through an in memory join
+         */
+        void joinSpilled(StreamEmitter emitter) throws IOException {
+            spill.close();
+            spilledBytes.inc(spill.getDiskSize());
+            Iterator<Bundle> rows = spill.iterator();
+            while (rows.hasNext()) {
+                Bundle row = rows.next();
+                join(row.getValue(keyField).asString().asNative(), row, emitter);
+            }
+            complete(emitter);
+            spill.clear();
+            spill = null;
+        }
+    }
+}
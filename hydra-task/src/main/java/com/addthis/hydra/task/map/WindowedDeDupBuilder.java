@@ -0,0 +1,294 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.hydra.data.filter.bundle.BundleFilter;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+/**
+ * This builder <span class="hydra-summary">de-duplicates bundles within windows</span>.
+ * <p/>
+ * Bundles are gathered into a window of at most {@code batchSize} distinct keys. When a key
+ * is seen again in the same window the later bundle replaces the earlier one. A window is
+ * emitted, sorted by key, when it holds {@code batchSize} keys or when it is older than
+ * {@code windowMillis}. The last window is emitted when the stream completes.
+ * <p/>
+ * Keys are compared by a 64 bit fingerprint held in a fixed size table, so no memory is
+ * allocated for bundles with string or integer keys. Two distinct keys with the same fingerprint are treated as
+ * duplicates, which is very unlikely. Unlike {@code sortDeDupe}, string and numeric keys
+ * with the same text are different keys.
+ * <p/>
+ * <p>Example:</p>
+ * <pre>builder: {windowDeDupe: {field: "UID", batchSize: 100000, windowMillis: 60000}}</pre>
+ *
+ * @user-reference
+ */
+public class WindowedDeDupBuilder extends StreamBuilder {
+
+    /**
+     * Field that holds the de-duplication key. This field is required.
+     */
+    @FieldConfig(codable = true, required = true)
+    private String field;
+
+    /**
+     * Maximum number of distinct keys in a window. Default is 10000.
+     */
+    @FieldConfig(codable = true)
+    private int batchSize = 10000;
+
+    /**
+     * If positive, a window is emitted once it is this old. The age is checked
+     * when bundles arrive. Default is 0.
+     */
+    @FieldConfig(codable = true)
+    private long windowMillis;
+
+    /**
+     * Optional filter. Bundles that fail the filter are dropped.
+     */
+    @FieldConfig(codable = true)
+    private BundleFilter filter;
+
+    private final Counter dropCounter = Metrics.newCounter(getClass(), "dropCounter");
+    private final Counter windowCounter = Metrics.newCounter(getClass(), "windowCounter");
+
+    /* guards the active window */
+    private final Lock lock = new ReentrantLock();
+    /* held while a full window is emitted so that only one window is emitted at a time */
+    private final Lock flushLock = new ReentrantLock();
+
+    private Window active;
+    private Window spare;
+
+    @Override
+    public void init() {
+        active = new Window(batchSize);
+        spare = new Window(batchSize);
+    }
+
+    @Override
+    public void process(Bundle bundle, StreamEmitter emitter) {
+        if ((filter != null) && !filter.filter(bundle)) {
+            return;
+        }
+        ValueObject value = bundle.getValue(bundle.getFormat().getField(field));
+        if (value == null) {
+            return;
+        }
+        long fingerprint = fingerprint(value);
+        boolean due;
+        while (true) {
+            lock.lock();
+            try {
+                // a full window waits for the window before it to be emitted
+                if (active.count < batchSize) {
+                    if (active.put(fingerprint, value, bundle)) {
+                        dropCounter.inc();
+                    }
+                    due = isDue(active);
+                    break;
+                }
+            } finally {
+                lock.unlock();
+            }
+            flush(emitter, false);
+        }
+        if (due) {
+            flush(emitter, false);
+        }
+    }
+
+    @Override
+    public void streamComplete(StreamEmitter streamEmitter) {
+        flush(streamEmitter, true);
+    }
+
+    private boolean isDue(Window window) {
+        return (window.count >= batchSize) ||
+               ((windowMillis > 0) && (window.count > 0) &&
+                ((System.currentTimeMillis() - window.started) >= windowMillis));
+    }
+
+    /**
+     * swap in the spare window and emit the full one. other threads keep adding to
+     * the new active window while the full one is emitted.
+     */
+    private void flush(StreamEmitter emitter, boolean force) {
+        flushLock.lock();
+        try {
+            Window full;
+            lock.lock();
+            try {
+                if (!(force ? (active.count > 0) : isDue(active))) {
+                    return;
+                }
+                full = active;
+                active = spare;
+                spare = full;
+            } finally {
+                lock.unlock();
+            }
+            windowCounter.inc();
+            full.emitSorted(emitter);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 64 bit fingerprint of a key. strings are hashed by character and integers by
+     * value so that neither is copied.
+     */
+    static long fingerprint(ValueObject value) {
+        long hash;
+        if (value.getObjectType() == ValueObject.TYPE.INT) {
+            hash = value.asLong().getLong();
+        } else {
+            String string = value.asString().asNative();
+            hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < string.length(); i++) {
+                hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash == 0) ? 1 : hash;
+    }
+
+    /**
+     * open addressing table of key fingerprints and the last bundle seen for each
+     */
+    private static final class Window {
+
+        private final long[] fingerprints;
+        private final ValueObject[] keys;
+        private final Bundle[] bundles;
+        private final int mask;
+        private int count;
+        private long started;
+
+        Window(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+            fingerprints = new long[size];
+            keys = new ValueObject[size];
+            bundles = new Bundle[size];
+            mask = size - 1;
+        }
+
+        /**
+         * returns true if the key was already in the window
+         */
+        boolean put(long fingerprint, ValueObject key, Bundle bundle) {
+            if (count == 0) {
+                started = System.currentTimeMillis();
+            }
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != 0) {
+                if (fingerprints[slot] == fingerprint) {
+                    keys[slot] = key;
+                    bundles[slot] = bundle;
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            fingerprints[slot] = fingerprint;
+            keys[slot] = key;
+            bundles[slot] = bundle;
+            count++;
+            return false;
+        }
+
+        /**
+         * emit the bundles ordered by the text of their keys. slot numbers are sorted
+         * as primitives and string keys are compared without copying them.
+         */
+        void emitSorted(StreamEmitter emitter) {
+            int[] order = new int[count];
+            int next = 0;
+            for (int i = 0; i < fingerprints.length; i++) {
+                if (fingerprints[i] != 0) {
+                    order[next++] = i;
+                }
+            }
+            sort(order, new int[count], 0, count);
+            for (int slot : order) {
+                emitter.emit(bundles[slot]);
+            }
+            Arrays.fill(fingerprints, 0);
+            Arrays.fill(keys, null);
+            Arrays.fill(bundles, null);
+            count = 0;
+        }
+
+        /**
+         * merge sort of slots by key, using scratch for the merge
+         */
+        private void sort(int[] slots, int[] scratch, int from, int to) {
+            if ((to - from) < 8) {
+                for (int i = from + 1; i < to; i++) {
+                    int slot = slots[i];
+                    int j = i;
+                    while ((j > from) && (compare(slots[j - 1], slot) > 0)) {
+                        slots[j] = slots[j - 1];
+                        j--;
+                    }
+                    slots[j] = slot;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(slots, scratch, from, mid);
+            sort(slots, scratch, mid, to);
+            if (compare(slots[mid - 1], slots[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(slots, from, scratch, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if ((right >= to) || ((left < mid) && (compare(scratch[left], scratch[right]) <= 0))) {
+                    slots[i] = scratch[left++];
+                } else {
+                    slots[i] = scratch[right++];
+                }
+            }
+        }
+
+        /**
+         * string keys are compared as they are and only other keys are converted to text
+         */
+        private int compare(int slotA, int slotB) {
+            ValueObject a = keys[slotA];
+            ValueObject b = keys[slotB];
+            if ((a.getObjectType() == ValueObject.TYPE.STRING) && (b.getObjectType() == ValueObject.TYPE.STRING)) {
+                return a.asString().asNative().compareTo(b.asString().asNative());
+            }
+            return a.toString().compareTo(b.toString());
+        }
+    }
+}
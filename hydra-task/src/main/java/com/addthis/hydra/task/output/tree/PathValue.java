@@ -284,7 +284,7 @@ public class PathValue extends PathElement {
             if (assignHits()) {
                 state.setAssignmentValue(hitsField.getLong(state.getBundle()).orElse(0l));
             }
-            child.updateChildData(state, this);
+            state.updateChildData(parent, child, this);
             /** update node data accounting */
             parent.updateParentData(state, child, isnew);
             if (push) {
@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParent;
+
+/**
+ * Node state shared by all the bundles of one {@link TreeMapper#send(java.util.List)}
+ * call. The batch holds a lease on every node the bundles walk through, so a
+ * bundle that lands on a node already visited by an earlier bundle of the batch
+ * skips the node cache lookup and only bumps the lease count. Nodes that are held
+ * by the batch stay in memory until the batch is closed.
+ * <p/>
+ * Hit counts of nodes whose path element only counts hits (no data attachments
+ * and no assigned hits) and whose parent has no data attachments are coalesced
+ * and written once per node when the batch is closed. Parent data attachments
+ * such as top and histogram read the hit count of the child, so those children
+ * are updated immediately. Any other node update is applied immediately for
+ * each bundle.
+ * <p/>
+ * Not thread safe. A batch is owned by the thread that calls send().
+ */
+final class TreeMapBatch implements AutoCloseable {
+
+    /**
+     * Upper bound on the number of nodes a single batch may hold.
+     * Once reached the remaining bundles are processed without node reuse.
+     */
+    static final int maxNodes = Parameter.intValue("mapper.batch.nodes", 10000);
+
+    private final Map<ChildKey, DataTreeNode> leased = new HashMap<>();
+
+    private final Map<DataTreeNode, ChildKey> held = new IdentityHashMap<>();
+
+    private final Map<DataTreeNode, DeferredHits> deferred = new IdentityHashMap<>();
+
+    private int reused;
+
+    /**
+     * Return a leased child of {@code parent} that is held by this batch
+     * or null if the child must be fetched from the tree.
+     */
+    DataTreeNode lookup(DataTreeNode parent, String name) {
+        ChildKey key = new ChildKey(parent, name);
+        DataTreeNode child = leased.get(key);
+        if (child == null) {
+            return null;
+        }
+        if (child.tryLease()) {
+            reused++;
+            return child;
+        }
+        // deleted while held by the batch
+        leased.remove(key);
+        held.remove(child);
+        return null;
+    }
+
+    /**
+     * Take an additional lease on a child that has been fetched from the tree
+     * so that the following bundles of the batch can reuse it.
+     */
+    void retain(DataTreeNode parent, String name, DataTreeNode child) {
+        if ((held.size() < maxNodes) && !held.containsKey(child) && child.tryLease()) {
+            ChildKey key = new ChildKey(parent, name);
+            leased.put(key, child);
+            held.put(child, key);
+        }
+    }
+
+    /**
+     * Record a hit on {@code child} to be applied when the batch is closed.
+     * If the hit cannot be deferred then any hits already deferred for the
+     * child are applied first so that the counter is current.
+     *
+     * @return false if the update must be applied immediately
+     */
+    boolean deferHits(DataTreeNode parent, DataTreeNode child, TreeDataParent path, int count) {
+        if (path.assignHits() || !path.countHits() || (path.dataConfig() != null) ||
+            hasData(parent) || !held.containsKey(child)) {
+            DeferredHits pending = deferred.remove(child);
+            if (pending != null) {
+                child.updateChildData(pending, pending.path);
+            }
+            return false;
+        }
+        DeferredHits hits = deferred.get(child);
+        if (hits == null) {
+            deferred.put(child, new DeferredHits(path, count));
+        } else {
+            hits.count += count;
+        }
+        return true;
+    }
+
+    private static boolean hasData(DataTreeNode node) {
+        Map<String, ?> data = node.getDataMap();
+        return (data != null) && !data.isEmpty();
+    }
+
+    /**
+     * Number of node lookups that were served by the batch.
+     */
+    int reused() {
+        return reused;
+    }
+
+    /**
+     * Apply the coalesced hit counts and release the nodes held by the batch.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Map.Entry<DataTreeNode, DeferredHits> entry : deferred.entrySet()) {
+                DeferredHits hits = entry.getValue();
+                entry.getKey().updateChildData(hits, hits.path);
+            }
+        } finally {
+            deferred.clear();
+            held.keySet().forEach(DataTreeNode::release);
+            held.clear();
+            leased.clear();
+        }
+    }
+
+    private static final class ChildKey {
+
+        private final DataTreeNode parent;
+        private final String name;
+
+        ChildKey(DataTreeNode parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ChildKey)) {
+                return false;
+            }
+            ChildKey key = (ChildKey) other;
+            return (parent == key.parent) && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(parent)) + name.hashCode();
+        }
+    }
+
+    private static final class DeferredHits implements DataTreeNodeUpdater {
+
+        private final TreeDataParent path;
+        private int count;
+
+        DeferredHits(TreeDataParent path, int count) {
+            this.path = path;
+            this.count = count;
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return null;
+        }
+
+        @Override
+        public int getCountValue() {
+            return count;
+        }
+
+        @Override
+        public long getAssignmentValue() {
+            return 0;
+        }
+    }
+}
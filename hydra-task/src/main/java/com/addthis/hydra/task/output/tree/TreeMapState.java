@@ -29,6 +29,7 @@ import com.addthis.bundle.core.BundleFormatted;
 import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.DataTreeNodeInitializer;
 import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,11 +58,22 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
         this.stack = null;
         this.thread = null;
         this.profiling = false;
+        this.batch = null;
     }
 
     /** */
     public TreeMapState(TreeMapper processor, DataTreeNode rootNode, PathElement[] path, Bundle bundle) {
+        this(processor, rootNode, path, bundle, null);
+    }
+
+    /**
+     * @param batch if non-null then node leases and hit counts are shared
+     *              with the other bundles of the batch
+     */
+    TreeMapState(TreeMapper processor, DataTreeNode rootNode, PathElement[] path, Bundle bundle,
+                 @Nullable TreeMapBatch batch) {
         this.path = path;
+        this.batch = batch;
         this.bundle = bundle;
         this.processor = processor;
         this.countValue = 1;
@@ -77,6 +89,7 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
     private final Bundle bundle;
     private final Thread thread;
     private final boolean profiling;
+    @Nullable private final TreeMapBatch batch;
 
     private boolean lastWasNew;
     private int touched;
@@ -119,15 +132,46 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
     }
 
     public DataTreeNode getLeasedNode(String key) {
-        DataTreeNode tn = current().getLeasedNode(key);
+        DataTreeNode parent = current();
+        if (batch == null) {
+            return parent.getLeasedNode(key);
+        }
+        DataTreeNode tn = batch.lookup(parent, key);
+        if (tn == null) {
+            tn = parent.getLeasedNode(key);
+            if (tn != null) {
+                batch.retain(parent, key, tn);
+            }
+        }
         return tn;
     }
 
     public DataTreeNode getOrCreateNode(String key, DataTreeNodeInitializer init) {
-        DataTreeNode tn = current().getOrCreateNode(key, init);
+        DataTreeNode parent = current();
+        if (batch == null) {
+            return parent.getOrCreateNode(key, init);
+        }
+        DataTreeNode tn = batch.lookup(parent, key);
+        if (tn == null) {
+            tn = parent.getOrCreateNode(key, init);
+            if (tn != null) {
+                batch.retain(parent, key, tn);
+            }
+        }
         return tn;
     }
 
+    /**
+     * Apply the hit count and data attachments of {@code path} to a node.
+     * Within a batch pure hit counting is deferred until the batch completes
+     * unless the data attachments of {@code parent} read the hit count.
+     */
+    public void updateChildData(DataTreeNode parent, DataTreeNode child, TreeDataParent path) {
+        if ((batch == null) || !batch.deferHits(parent, child, path, countValue)) {
+            child.updateChildData(this, path);
+        }
+    }
+
     public DataTreeNode pop() {
         if (debugthread) {
             checkThread();
@@ -190,7 +234,7 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
      */
     public void dispatchRule(TreeMapperPathReference t) {
         if ((t != null) && (bundle != null) && (processor != null)) {
-            processor.processBundle(bundle, t);
+            processor.processBundle(bundle, t, batch);
         } else if (debug > 0) {
             log.warn("Proc Rule Dispatch DROP {} b/c p={} rp={}", t, bundle, processor);
         }
@@ -14,27 +14,29 @@
 package com.addthis.hydra.task.output.tree;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 
 import java.net.InetSocketAddress;
 
-import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 
 import com.addthis.basis.jvm.Shutdown;
-import com.addthis.basis.util.Bench;
 import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.LessFiles;
 import com.addthis.basis.util.JitterClock;
@@ -56,12 +58,14 @@ import com.addthis.hydra.data.tree.nonconcurrent.NonConcurrentTree;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
 import com.addthis.hydra.data.util.TimeField;
 import com.addthis.hydra.store.db.CloseOperation;
+import com.addthis.hydra.store.db.PageDB;
 import com.addthis.hydra.task.output.DataOutputTypeList;
 import com.addthis.hydra.task.run.TaskRunConfig;
 import com.addthis.meshy.MeshyServer;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,16 +99,19 @@ import org.slf4j.LoggerFactory;
 public final class TreeMapper extends DataOutputTypeList implements Codable {
 
     private static final Logger log = LoggerFactory.getLogger(TreeMapper.class);
-    private static final SimpleDateFormat date = new SimpleDateFormat("yyMMdd-HHmmss");
-
-    private enum BENCH {
-        TIME, UNITS, RULES, STREAM, LOCAL
-    }
 
     private static enum ValidateMode {
         ALL, POST, NONE
     }
 
+    /**
+     * If true then the bundles of a single {@link #send(List)} call share their
+     * node leases and coalesce the hit counts of nodes that only count hits.
+     * Hit counts of such nodes are updated when the whole block has been processed.
+     * Default is either "mapper.batch" configuration value or false.
+     */
+    @FieldConfig private boolean batch = Parameter.boolValue("mapper.batch", false);
+
     /**
      * Default is either "mapper.printinterval" configuration value or 1000.
      */
@@ -159,6 +166,17 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      */
     @FieldConfig private boolean concurrentTree = true;
 
+    /**
+     * If true then write an immutable snapshot of the tree
+     * after the tree has been closed. Queries open the
+     * snapshot instead of the tree database, which is much
+     * faster to open and is read through the operating
+     * system page cache. The snapshot takes about as much
+     * disk space as the tree pages.
+     * Default is either "mapper.snapshot" configuration value or false.
+     */
+    @FieldConfig private boolean snapshot = Parameter.boolValue("mapper.snapshot", false);
+
 
     /**
      * Optional sample rate for applying
@@ -224,22 +242,41 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
     private final AtomicBoolean closing = new AtomicBoolean(false);
 
     private DataTree tree;
-    private Bench    bench;
     private long     startTime;
 
     private MeshyServer     liveQueryServer;
     private TreeMapperStats mapstats;
 
-    private final AtomicLong    lastHeaderTime  = new AtomicLong(JitterClock.globalTime());
-    private final AtomicLong    benchCalls      = new AtomicLong(0);
-    private final AtomicLong    streamWaitime   = new AtomicLong(0);
-    private final AtomicLong    streamReadCount = new AtomicLong(0);
-    private final AtomicLong    streamReadTotal = new AtomicLong(0);
-    private final AtomicLong    mapWriteTime    = new AtomicLong(0);
-    private final AtomicLong    processed       = new AtomicLong(0);
-    private final AtomicLong    processNodes    = new AtomicLong(0);
-    private       int           bundleErrors    = 0;
-    private final AtomicLong    lastBundleTime  = new AtomicLong(0);
+    /**
+     * Counters updated by the mapper threads for every bundle. They are
+     * striped so that the bundle path never contends on a shared variable
+     * and are read and reset only by the stats reporter thread.
+     */
+    private final LongAdder benchTime       = new LongAdder();
+    private final LongAdder benchUnits      = new LongAdder();
+    private final LongAdder benchRules      = new LongAdder();
+    private final LongAdder benchStream     = new LongAdder();
+    private final LongAdder benchLocal      = new LongAdder();
+    private final LongAdder streamWaitime   = new LongAdder();
+    private final LongAdder streamReadCount = new LongAdder();
+    private final LongAdder mapWriteTime    = new LongAdder();
+    private final LongAdder processed       = new LongAdder();
+    private final LongAdder processNodes    = new LongAdder();
+    private       int       bundleErrors    = 0;
+
+    /**
+     * End time of the previous bundle sent by the current thread.
+     */
+    private final ThreadLocal<long[]> lastBundleTime = ThreadLocal.withInitial(() -> new long[1]);
+
+    // state of the stats reporter thread
+    private ScheduledExecutorService statsReporter;
+    private final SimpleDateFormat date = new SimpleDateFormat("yyMMdd-HHmmss");
+    private long lastHeaderTime = JitterClock.globalTime();
+    private long lastReportTime;
+    private long benchCalls;
+    private long lastProcessed;
+    private long streamReadTotal;
 
     private void resolve() throws Exception {
         fields.clear();
@@ -314,7 +351,6 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
             } else {
                 tree = new NonConcurrentTree(LessFiles.initDirectory(treePath.toFile()));
             }
-            bench = new Bench(EnumSet.allOf(BENCH.class), 1000);
             TreeConfig.writeConfigToDataDirectory(treePath, advanced);
 
             if ((this.config.jobId != null) && live && (livePort > -1)) {
@@ -323,6 +359,10 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
             }
 
             startTime = System.currentTimeMillis();
+            lastReportTime = startTime;
+            statsReporter = new ScheduledThreadPoolExecutor(
+                    1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TreeMapperStats-%d").build());
+            statsReporter.scheduleAtFixedRate(this::checkBench, printinterval, printinterval, TimeUnit.MILLISECONDS);
 
             tree.foregroundNodeDeletion(closing::get);
 
@@ -357,12 +397,16 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
 
     public void processBundle(Bundle bundle, TreeMapperPathReference target) {
+        processBundle(bundle, target, null);
+    }
+
+    void processBundle(Bundle bundle, TreeMapperPathReference target, @Nullable TreeMapBatch batch) {
         Integer unit = target.getTargetUnit();
         if (unit == null) {
             log.warn("[deliver] target missing unit: {}", target);
             return;
         }
-        processBundle(bundle, pathIndex.getValueByIndex(unit));
+        processBundle(bundle, pathIndex.getValueByIndex(unit), batch);
     }
 
     /**
@@ -381,6 +425,10 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      * router for delivery to another hydra node.
      */
     public void processBundle(Bundle bundle, PathElement[] path) {
+        processBundle(bundle, path, null);
+    }
+
+    private void processBundle(Bundle bundle, PathElement[] path, @Nullable TreeMapBatch batch) {
         try {
             long bundleTime;
             try {
@@ -397,17 +445,16 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                     throw new RuntimeException("Invalid bundle: " + bundle + " unable to read TimeField due to NumberFormatException");
                 }
             }
-            bench.addEvents(BENCH.UNITS, 1);
-            bench.addEvents(BENCH.TIME, bundleTime >> 8);
-            processPath(bundle, path);
+            benchUnits.increment();
+            benchTime.add(bundleTime >> 8);
+            processPath(bundle, path, batch);
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex)  {
             log.warn("", ex);
         }
-        processed.incrementAndGet();
-        bench.addEvents(BENCH.LOCAL, 1);
-        checkBench();
+        processed.increment();
+        benchLocal.increment();
     }
 
     private long getBundleTime(Bundle bundle) {
@@ -427,91 +474,126 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      * Processor interface this is where packets and rules are finally executed
      * locally.
      */
-    private void processPath(Bundle bundle, PathElement[] path) {
+    private void processPath(Bundle bundle, PathElement[] path, @Nullable TreeMapBatch batch) {
         try {
-            TreeMapState ps = new TreeMapState(this, tree, path, bundle);
+            TreeMapState ps = new TreeMapState(this, tree, path, bundle, batch);
             ps.process();
-            processNodes.addAndGet(ps.touched());
+            processNodes.add(ps.touched());
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex)  {
             log.warn("", ex);
         }
-        bench.addEvents(BENCH.RULES, 1);
+        benchRules.increment();
     }
 
     /**
-     * print benchmark data to log
+     * print benchmark data to log. Runs on the stats reporter
+     * thread once every {@link #printinterval} milliseconds.
      */
     protected void checkBench() {
-        synchronized (bench) {
-            if (bench.hasElapsed(printinterval)) {
-                long time = System.currentTimeMillis() - startTime;
-                long proc = processed.get();
-                // prevent multiple Hydra threads from competing to change
-                // streamXX,lastTime vars
-                if (((benchCalls.getAndIncrement() % 20) == 0) && stats) {
-                    long streamCounts = streamReadCount.getAndSet(0);
-                    long streamTotals = streamReadTotal.addAndGet(streamCounts) / (1024 * 1024);
-                    long mark = JitterClock.globalTime();
-                    long streamRate = (streamCounts * 1000L) / (mark - lastHeaderTime.getAndSet(mark));
-                    log.info(
-                            "tread tmap  input proc  rules  nodes bundles cache...hit% dbs   mem   bundleTime [{}," +
-                            "{}/s,{}MM]",
-                            streamCounts, streamRate, streamTotals);
-                }
-                long benchtime = bench.getEventCount(BENCH.TIME);
-                long benchlocal = bench.getEventCount(BENCH.UNITS);
-                long streamRate = bench.getEventRate(BENCH.STREAM);
-                bench.mark();
-
-                long avg_t = benchtime / Math.max(1, benchlocal) << 8;
-                long time_write_map = mapWriteTime.getAndSet(0);
-                long time_read_wait = streamWaitime.getAndSet(0);
-
-                TreeMapperStats.Snapshot snap = new TreeMapperStats.Snapshot();
-                snap.streamRate = streamRate;
-                snap.mapWriteTime = benchlocal > 0 ? time_write_map / benchlocal : time_write_map;
-                snap.streamWaitTime = (benchlocal > 0 ? time_read_wait / benchlocal : time_read_wait);
-                snap.localPacketRate = bench.getEventRate(BENCH.LOCAL);
-                snap.ruleProcessRate = bench.getEventRate(BENCH.RULES);
-                snap.nodesUpdated = processNodes.getAndSet(0);
-                snap.totalPackets = proc;
-                snap.treeCacheSize = tree.getCacheSize();
-                snap.treeCacheHitRate = tree.getCacheHitRate();
-                snap.treeDbCount = tree.getDBCount();
-                snap.freeMemory = Runtime.getRuntime().freeMemory() / 1024L / 1024L;
-                snap.averageTimestamp = date.format(avg_t);
-                snap.runningTime = time;
-                mapstats.setSnapshot(snap);
-
-                if (!stats) {
-                    return;
-                }
-                log.info(snap.toFormattedString());
+        try {
+            long now = System.currentTimeMillis();
+            long elapsed = Math.max(1, now - lastReportTime);
+            lastReportTime = now;
+            long time = now - startTime;
+            long proc = processed.sum();
+            if (proc == lastProcessed) {
+                // nothing arrived since the last report
+                return;
+            }
+            lastProcessed = proc;
+            if (((benchCalls++ % 20) == 0) && stats) {
+                long streamCounts = streamReadCount.sumThenReset();
+                streamReadTotal += streamCounts;
+                long streamTotals = streamReadTotal / (1024 * 1024);
+                long mark = JitterClock.globalTime();
+                long streamRate = (streamCounts * 1000L) / Math.max(1, mark - lastHeaderTime);
+                lastHeaderTime = mark;
+                log.info(
+                        "tread tmap  input proc  rules  nodes bundles cache...hit% dbs   mem   bundleTime [{}," +
+                        "{}/s,{}MM]",
+                        streamCounts, streamRate, streamTotals);
+            }
+            long benchtime = benchTime.sumThenReset();
+            long benchlocal = benchUnits.sumThenReset();
+
+            long avg_t = benchtime / Math.max(1, benchlocal) << 8;
+            long time_write_map = mapWriteTime.sumThenReset();
+            long time_read_wait = streamWaitime.sumThenReset();
+
+            TreeMapperStats.Snapshot snap = new TreeMapperStats.Snapshot();
+            snap.streamRate = (benchStream.sumThenReset() * 1000L) / elapsed;
+            snap.mapWriteTime = benchlocal > 0 ? time_write_map / benchlocal : time_write_map;
+            snap.streamWaitTime = (benchlocal > 0 ? time_read_wait / benchlocal : time_read_wait);
+            snap.localPacketRate = (benchLocal.sumThenReset() * 1000L) / elapsed;
+            snap.ruleProcessRate = (benchRules.sumThenReset() * 1000L) / elapsed;
+            snap.nodesUpdated = processNodes.sumThenReset();
+            snap.totalPackets = proc;
+            snap.treeCacheSize = tree.getCacheSize();
+            snap.treeCacheHitRate = tree.getCacheHitRate();
+            snap.treeDbCount = tree.getDBCount();
+            snap.freeMemory = Runtime.getRuntime().freeMemory() / 1024L / 1024L;
+            snap.averageTimestamp = date.format(avg_t);
+            snap.runningTime = time;
+            mapstats.setSnapshot(snap);
+
+            if (!stats) {
+                return;
             }
+            log.info(snap.toFormattedString());
+        } catch (Exception ex) {
+            // an exception would cancel all future reports
+            log.warn("unable to report tree mapper stats", ex);
         }
     }
 
     @Override
     public void send(Bundle bundle) {
+        long[] last = lastBundleTime.get();
         long markBefore = System.nanoTime();
-        streamWaitime.addAndGet(markBefore - lastBundleTime.getAndSet(markBefore));
+        if (last[0] > 0) {
+            streamWaitime.add(markBefore - last[0]);
+        }
         processBundle(bundle, root);
         long markAfter = System.nanoTime();
-        mapWriteTime.addAndGet(markAfter - markBefore);
-        streamReadCount.incrementAndGet();
-        bench.addEvents(BENCH.STREAM, 1);
-        lastBundleTime.set(markAfter);
+        mapWriteTime.add(markAfter - markBefore);
+        streamReadCount.increment();
+        benchStream.increment();
+        last[0] = markAfter;
     }
 
+    /**
+     * Process a block of bundles. If {@link #batch} is enabled then the bundles
+     * share their node leases and coalesce their hit counts,
+     * see {@link TreeMapBatch}.
+     */
     @Override
     public void send(List<Bundle> bundles) {
-        if (bundles != null && !bundles.isEmpty()) {
+        if (bundles == null || bundles.isEmpty()) {
+            return;
+        }
+        if (!batch || bundles.size() == 1) {
             for (Bundle bundle : bundles) {
                 send(bundle);
             }
+            return;
         }
+        long[] last = lastBundleTime.get();
+        long markBefore = System.nanoTime();
+        if (last[0] > 0) {
+            streamWaitime.add(markBefore - last[0]);
+        }
+        try (TreeMapBatch nodes = new TreeMapBatch()) {
+            for (Bundle bundle : bundles) {
+                processBundle(bundle, root, nodes);
+            }
+        }
+        long markAfter = System.nanoTime();
+        mapWriteTime.add(markAfter - markBefore);
+        streamReadCount.add(bundles.size());
+        benchStream.add(bundles.size());
+        last[0] = markAfter;
     }
 
     @Override
@@ -545,6 +627,9 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                 default:
                     doValidate = false;
             }
+            // stop reporting before the tree is closed
+            statsReporter.shutdown();
+            statsReporter.awaitTermination(printinterval, TimeUnit.MILLISECONDS);
             // close storage
             log.info("[close] closing tree storage");
             CloseOperation closeOperation = CloseOperation.NONE;
@@ -552,6 +637,10 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                 closeOperation = repairTree ? CloseOperation.REPAIR : CloseOperation.TEST;
             }
             tree.close(false, closeOperation);
+            if (snapshot) {
+                log.info("[close] writing tree snapshot");
+                PageDB.writeSnapshot(Paths.get(config.dir, directory).toFile());
+            }
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream into lines without decoding them. Lines end at "\n", "\r" or "\r\n"
+ * like {@link java.io.BufferedReader#readLine()}. The current line is a range of a
+ * buffer that is reused by the next call to {@link #readLine()}.
+ */
+final class ByteLineReader {
+
+    private final InputStream input;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private boolean skipNewline;
+    private boolean eof;
+
+    ByteLineReader(InputStream input, int bufferSize) {
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return false when there are no more lines
+     */
+    boolean readLine() throws IOException {
+        int scan = position;
+        while (true) {
+            if (skipNewline && (position < limit)) {
+                if (buffer[position] == '\n') {
+                    position++;
+                    scan = position;
+                }
+                skipNewline = false;
+            }
+            for (; scan < limit; scan++) {
+                byte b = buffer[scan];
+                if ((b == '\n') || (b == '\r')) {
+                    lineStart = position;
+                    lineEnd = scan;
+                    position = scan + 1;
+                    skipNewline = b == '\r';
+                    return true;
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan = fill() + scan;
+        }
+    }
+
+    /**
+     * moves the unread bytes to the front of the buffer, growing it if the
+     * current line does not fit, and reads more. returns the shift in offsets.
+     */
+    private int fill() throws IOException {
+        int shift = -position;
+        int unread = limit - position;
+        if (unread == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, grown, 0, unread);
+            buffer = grown;
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, unread);
+        }
+        position = 0;
+        limit = unread;
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int start() {
+        return lineStart;
+    }
+
+    int end() {
+        return lineEnd;
+    }
+}
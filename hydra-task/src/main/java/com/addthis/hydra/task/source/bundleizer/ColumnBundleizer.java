@@ -65,5 +65,28 @@ public class ColumnBundleizer extends NewlineBundleizer {
         }
         return next;
     }
+
+    @Override
+    public Bundle bundleize(Bundle next, byte[] line, int start, int end) {
+        if (!tokens.isByteTokenizable()) {
+            return super.bundleize(next, line, start, end);
+        }
+        byte[] row = new byte[end - start];
+        int[] ends = new int[columns.length];
+        int count = tokens.tokenize(line, start, end, row, ends);
+        if (count < 0) {
+            return null;
+        }
+        int from = 0;
+        for (int pos = 0; pos < count; pos++) {
+            ValueObject val = new LazyStringValue(row, from, ends[pos] - from, false);
+            from = ends[pos];
+            if (tokenFilter != null) {
+                val = tokenFilter.filter(val, next);
+            }
+            next.setValue(next.getFormat().getField(columns[pos]), val);
+        }
+        return next;
+    }
 }
 
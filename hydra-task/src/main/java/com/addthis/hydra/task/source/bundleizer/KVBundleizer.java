@@ -13,7 +13,12 @@
  */
 package com.addthis.hydra.task.source.bundleizer;
 
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
 import com.addthis.basis.kv.KVPair;
+import com.addthis.basis.util.LessBytes;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleFormat;
@@ -43,4 +48,41 @@ public class KVBundleizer extends NewlineBundleizer {
         return next;
     }
 
+    /**
+     * Keys are decoded to find their fields. Values are decoded when they are read.
+     * Empty pairs and pairs with an empty key are skipped.
+     */
+    @Override
+    public Bundle bundleize(Bundle next, byte[] line, int start, int end) {
+        byte[] row = Arrays.copyOfRange(line, start, end);
+        BundleFormat format = next.getFormat();
+        int i = 0;
+        while (i <= row.length) {
+            int j = indexOf(row, (byte) '&', i, row.length);
+            if (j < 0) {
+                j = row.length;
+            }
+            int eq = indexOf(row, (byte) '=', i, j);
+            if ((j > i) && (eq != i)) {
+                int keyEnd = (eq < 0) ? j : eq;
+                String key = LessBytes.urldecode(new String(row, i, keyEnd - i, StandardCharsets.UTF_8));
+                if (eq < 0) {
+                    next.setValue(format.getField(key), ValueFactory.create(""));
+                } else {
+                    next.setValue(format.getField(key), new LazyStringValue(row, eq + 1, j - eq - 1, true));
+                }
+            }
+            i = j + 1;
+        }
+        return next;
+    }
+
+    private static int indexOf(byte[] row, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (row[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueBytes;
+import com.addthis.bundle.value.ValueDouble;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueLong;
+import com.addthis.bundle.value.ValueString;
+import com.addthis.bundle.value.ValueTranslationException;
+
+/**
+ * A string value over a range of UTF-8 bytes that is decoded the first time it is read,
+ * so values that are never read cost no decoding. Behaves like the value returned by
+ * {@link ValueFactory#create(String)}.
+ */
+final class LazyStringValue implements ValueString {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final boolean urlEncoded;
+    private String value;
+
+    LazyStringValue(byte[] bytes, int offset, int length, boolean urlEncoded) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.urlEncoded = urlEncoded;
+    }
+
+    @Override
+    public String asNative() {
+        if (value == null) {
+            String decoded = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            value = urlEncoded ? LessBytes.urldecode(decoded) : decoded;
+        }
+        return value;
+    }
+
+    @Override
+    public TYPE getObjectType() {
+        return TYPE.STRING;
+    }
+
+    @Override
+    public ValueString asString() {
+        return this;
+    }
+
+    @Override
+    public ValueArray asArray() {
+        return ValueFactory.create(asNative()).asArray();
+    }
+
+    @Override
+    public Numeric asNumeric() {
+        return ValueFactory.create(asNative()).asNumeric();
+    }
+
+    @Override
+    public ValueLong asLong() {
+        return ValueFactory.create(asNative()).asLong();
+    }
+
+    @Override
+    public ValueDouble asDouble() {
+        return ValueFactory.create(asNative()).asDouble();
+    }
+
+    @Override
+    public ValueBytes asBytes() throws ValueTranslationException {
+        return ValueFactory.create(asNative()).asBytes();
+    }
+
+    @Override
+    public int hashCode() {
+        return asNative().hashCode();
+    }
+
+    /**
+     * equal to any string value with the same text, and never to other objects
+     * whose text happens to match, so that equality is symmetric.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return (obj instanceof ValueString) && asNative().equals(((ValueString) obj).asNative());
+    }
+
+    @Override
+    public String toString() {
+        return asNative();
+    }
+}
@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import java.nio.charset.StandardCharsets;
+
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleFactory;
 import com.addthis.bundle.util.ValueUtil;
@@ -34,8 +36,46 @@ public abstract class NewlineBundleizer extends BundleizerFactory {
     @FieldConfig(codable = true)
     private ValueFilter lineFilter;
 
+    /**
+     * If true then lines are split from the bytes of the stream, which must be UTF-8,
+     * and the column and kv bundleizers only decode the values that are read.
+     * Default is false.
+     */
+    @FieldConfig(codable = true)
+    private boolean byteLines;
+
     @Override
     public Bundleizer createBundleizer(final InputStream inputArg, final BundleFactory factoryArg) {
+        if (byteLines) {
+            return new Bundleizer() {
+                private final ByteLineReader reader = new ByteLineReader(inputArg, 65535);
+                private final BundleFactory factory = factoryArg;
+
+                @Override
+                public Bundle next() throws IOException {
+                    while (true) {
+                        if (!reader.readLine()) {
+                            return null;
+                        }
+                        Bundle next;
+                        if (lineFilter != null) {
+                            String line = new String(reader.buffer(), reader.start(), reader.end() - reader.start(),
+                                                     StandardCharsets.UTF_8);
+                            line = ValueUtil.asNativeString(lineFilter.filter(ValueFactory.create(line)));
+                            if (line == null) {
+                                continue;
+                            }
+                            next = bundleize(factory.createBundle(), line);
+                        } else {
+                            next = bundleize(factory.createBundle(), reader.buffer(), reader.start(), reader.end());
+                        }
+                        if (next != null) {
+                            return next;
+                        }
+                    }
+                }
+            };
+        }
         return new Bundleizer() {
             private final BufferedReader reader = new BufferedReader(new InputStreamReader(inputArg), 65535);
             private final BundleFactory factory = factoryArg;
@@ -63,4 +103,12 @@ public abstract class NewlineBundleizer extends BundleizerFactory {
     }
 
     public abstract Bundle bundleize(Bundle next, String line);
+
+    /**
+     * Bundleizes the UTF-8 line between {@code start} and {@code end}. The line buffer is
+     * reused for the next line, so values must not refer to it. Decodes the line by default.
+     */
+    public Bundle bundleize(Bundle next, byte[] line, int start, int end) {
+        return bundleize(next, new String(line, start, end - start, StandardCharsets.UTF_8));
+    }
 }
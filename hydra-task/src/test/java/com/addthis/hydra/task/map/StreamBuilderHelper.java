@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+
+/**
+ * Builds stream builders from their configuration and collects what they emit.
+ */
+final class StreamBuilderHelper {
+
+    private StreamBuilderHelper() {}
+
+    static <T extends StreamBuilder> T build(Class<T> type, String config) throws IOException {
+        T builder = decodeObject(type, config);
+        builder.init();
+        return builder;
+    }
+
+    static class CollectingEmitter implements StreamEmitter {
+
+        final List<Bundle> emitted = new ArrayList<>();
+
+        @Override
+        public synchronized void emit(Bundle bundle) {
+            emitted.add(bundle);
+        }
+    }
+}
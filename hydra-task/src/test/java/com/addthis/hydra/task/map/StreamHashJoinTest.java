@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.IOException;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.Bundles;
+import com.addthis.hydra.task.map.StreamBuilderHelper.CollectingEmitter;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import org.junit.Test;
+
+import static com.addthis.hydra.task.map.StreamBuilderHelper.build;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamHashJoinTest {
+
+    private static Set<String> join(String config) throws IOException {
+        StreamHashJoin builder = build(StreamHashJoin.class, config);
+        CollectingEmitter emitter = new CollectingEmitter();
+        for (int i = 0; i < 2000; i++) {
+            builder.process(Bundles.decode("id: " + i + ", a: a" + i), emitter);
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            builder.process(Bundles.decode("id: " + i + ", b: b" + i), emitter);
+        }
+        // complete when the stream ends but never emitted twice
+        builder.process(Bundles.decode("id: x, a: ax, b: bx"), emitter);
+        builder.streamComplete(emitter);
+        Set<String> joined = new TreeSet<>();
+        for (Bundle bundle : emitter.emitted) {
+            assertEquals(bundle.getValue(bundle.getFormat().getField("a")).asString().asNative(),
+                         "a" + bundle.getValue(bundle.getFormat().getField("id")));
+            joined.add(bundle.getValue(bundle.getFormat().getField("b")).asString().asNative());
+        }
+        assertEquals(emitter.emitted.size(), joined.size());
+        return joined;
+    }
+
+    @Test
+    public void inMemory() throws IOException {
+        Set<String> joined = join("key: id, fields: [id, a, b]");
+        assertEquals(1001, joined.size());
+    }
+
+    @Test
+    public void spilled() throws IOException {
+        Set<String> expected = join("key: id, fields: [id, a, b]");
+        // the registry returns the counter the builder increments
+        Counter spilledPartitions = Metrics.newCounter(StreamHashJoin.class, "spilledPartitions");
+        long before = spilledPartitions.count();
+        assertEquals(expected, join("key: id, fields: [id, a, b], partitions: 8, maxBytes: 50000"));
+        assertTrue(spilledPartitions.count() > before);
+    }
+
+    @Test
+    public void spillBuffersCountTowardMaxBytes() throws IOException {
+        StreamHashJoin builder = build(StreamHashJoin.class,
+                                       "key: id, fields: [id, a, b], partitions: 8, maxBytes: 50000");
+        CollectingEmitter emitter = new CollectingEmitter();
+        for (int i = 0; i < 2000; i++) {
+            builder.process(Bundles.decode("id: " + i + ", a: a" + i), emitter);
+            assertTrue(builder.heldBytes() <= 50000);
+        }
+        builder.streamComplete(emitter);
+        assertEquals(0, builder.heldBytes());
+    }
+}
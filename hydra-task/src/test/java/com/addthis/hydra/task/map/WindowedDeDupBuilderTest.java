@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.task.map.StreamBuilderHelper.CollectingEmitter;
+
+import org.junit.Test;
+
+import static com.addthis.hydra.task.map.StreamBuilderHelper.build;
+import static org.junit.Assert.assertEquals;
+
+public class WindowedDeDupBuilderTest {
+
+    private static List<String> entries(CollectingEmitter emitter) {
+        List<String> entries = new ArrayList<>();
+        for (Bundle bundle : emitter.emitted) {
+            entries.add(bundle.getValue(bundle.getFormat().getField("k")) + "=" +
+                        bundle.getValue(bundle.getFormat().getField("v")));
+        }
+        return entries;
+    }
+
+    private static Bundle row(String key, String value) {
+        Bundle bundle = new ListBundle();
+        bundle.setValue(bundle.getFormat().getField("k"), ValueFactory.create(key));
+        bundle.setValue(bundle.getFormat().getField("v"), ValueFactory.create(value));
+        return bundle;
+    }
+
+    @Test
+    public void sortedWindows() throws IOException {
+        WindowedDeDupBuilder builder = build(WindowedDeDupBuilder.class, "field: k, batchSize: 3");
+        CollectingEmitter emitter = new CollectingEmitter();
+        for (String row : new String[]{"c 1", "a 2", "c 3", "b 4", "e 5", "d 6", "d 7"}) {
+            String[] kv = row.split(" ");
+            builder.process(row(kv[0], kv[1]), emitter);
+        }
+        assertEquals(3, emitter.emitted.size());
+        builder.streamComplete(emitter);
+        List<String> expected = new ArrayList<>();
+        expected.add("a=2");
+        expected.add("b=4");
+        expected.add("c=3");
+        expected.add("d=7");
+        expected.add("e=5");
+        assertEquals(expected, entries(emitter));
+    }
+
+    @Test
+    public void sortedLargeWindow() throws IOException {
+        WindowedDeDupBuilder builder = build(WindowedDeDupBuilder.class, "field: k, batchSize: 1000");
+        CollectingEmitter emitter = new CollectingEmitter();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String key = Integer.toString((i * 7919) % 500);
+            builder.process(row(key, "x"), emitter);
+            expected.add(key + "=x");
+        }
+        builder.streamComplete(emitter);
+        Collections.sort(expected);
+        assertEquals(expected, entries(emitter));
+    }
+
+    @Test
+    public void concurrentProcess() throws Exception {
+        final WindowedDeDupBuilder builder = build(WindowedDeDupBuilder.class, "field: k, batchSize: 100");
+        final CollectingEmitter emitter = new CollectingEmitter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 1000;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        builder.process(row(Integer.toString(offset + i), "x"), emitter);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        builder.streamComplete(emitter);
+        assertEquals(4000, emitter.emitted.size());
+    }
+}
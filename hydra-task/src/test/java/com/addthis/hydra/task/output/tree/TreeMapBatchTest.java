@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.io.File;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.prop.DataTop;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TreeMapBatchTest {
+
+    private static final String[] children = {"a", "b", "a", "c", "a", "b"};
+
+    private int reused;
+
+    /**
+     * Map {@link #children} below a root node and return the child counters
+     * and, if the root has a top attachment, the hit counts it has recorded.
+     */
+    private Map<String, Long> map(boolean batched, String rootConfig) throws Exception {
+        File dir = LessFiles.createTempDir();
+        ConcurrentTree tree = new ConcurrentTree(dir);
+        try {
+            PathElement root = Configs.decodeObject(PathValue.class, rootConfig);
+            Map<String, PathElement[]> paths = new HashMap<>();
+            for (String name : children) {
+                PathElement child = Configs.decodeObject(PathValue.class, "value: " + name);
+                paths.put(name, new PathElement[]{root, child});
+            }
+            TreeMapBatch batch = batched ? new TreeMapBatch() : null;
+            for (String name : children) {
+                new TreeMapState(null, tree.getRootNode(), paths.get(name), new ListBundle(), batch).process();
+            }
+            if (batch != null) {
+                batch.close();
+                reused = batch.reused();
+            }
+            Map<String, Long> counts = new HashMap<>();
+            DataTreeNode rootNode = tree.getRootNode().getNode("root");
+            for (String name : children) {
+                counts.put(name, rootNode.getNode(name).getCounter());
+            }
+            DataTop top = (rootNode.getDataMap() != null) ? (DataTop) rootNode.getDataMap().get("top") : null;
+            if (top != null) {
+                for (DataTreeNode node : top.getNodes(rootNode, "vhit")) {
+                    counts.put("top/" + node.getName(), node.getCounter());
+                }
+            }
+            return counts;
+        } finally {
+            tree.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void parentDataSeesHits() throws Exception {
+        Map<String, Long> counts = map(true, "value: root, data.top.top.hit: 10");
+        assertEquals(Long.valueOf(3), counts.get("a"));
+        assertEquals(Long.valueOf(3), counts.get("top/a"));
+        assertEquals(Long.valueOf(2), counts.get("top/b"));
+        assertEquals(Long.valueOf(1), counts.get("top/c"));
+        assertEquals(map(false, "value: root, data.top.top.hit: 10"), counts);
+    }
+
+    @Test
+    public void coalesceHits() throws Exception {
+        Map<String, Long> counts = map(true, "value: root");
+        assertEquals(Long.valueOf(3), counts.get("a"));
+        assertEquals(Long.valueOf(2), counts.get("b"));
+        assertEquals(Long.valueOf(1), counts.get("c"));
+        assertEquals(map(false, "value: root"), counts);
+        // every bundle after the first reuses the root node
+        assertTrue(reused >= children.length - 1);
+    }
+}
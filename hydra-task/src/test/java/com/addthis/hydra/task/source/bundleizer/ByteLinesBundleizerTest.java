@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+
+public class ByteLinesBundleizerTest {
+
+    private static final BundleFactory factory = new BundleFactory() {
+        @Override public Bundle createBundle() {
+            return new ListBundle();
+        }
+    };
+
+    private static List<String> bundleize(NewlineBundleizer bundleizer, String input) throws IOException {
+        Bundleizer lines = bundleizer.createBundleizer(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), factory);
+        List<String> bundles = new ArrayList<>();
+        Bundle next;
+        while ((next = lines.next()) != null) {
+            bundles.add(next.toString());
+        }
+        return bundles;
+    }
+
+    private static void assertSameBundles(Class<? extends NewlineBundleizer> type, String config, String input)
+            throws IOException {
+        List<String> expected = bundleize(decodeObject(type, config), input);
+        List<String> actual = bundleize(decodeObject(type, config + ", byteLines: true"), input);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test public void columns() throws Exception {
+        assertSameBundles(ColumnBundleizer.class,
+                          "columns: [a, b, c], tokens: {separator: \"\\t\", group: [\"\\\"\"]}",
+                          "x\ty\tz\r\n\n \u00e9\t\"q\tr\"\t\\\"s\\\"\tignored\rlast\t");
+    }
+
+    @Test public void keyValues() throws Exception {
+        assertSameBundles(KVBundleizer.class, "{}", "a=1&b=x%20y+z\nc=&d\r\n\u2603=\u00e9&e=%E2%98%83");
+    }
+
+    @Test public void longLines() throws Exception {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            line.append(i).append(',');
+        }
+        String input = line + "\n" + line;
+        assertSameBundles(ColumnBundleizer.class, "columns: [a, b, c], tokens: {}", input);
+    }
+
+    @Test public void lazyValueEquality() {
+        byte[] bytes = "a%20b".getBytes(StandardCharsets.UTF_8);
+        ValueObject lazy = new LazyStringValue(bytes, 0, bytes.length, true);
+        ValueObject eager = ValueFactory.create("a b");
+        Assert.assertEquals(eager, lazy);
+        Assert.assertEquals(lazy, eager);
+        Assert.assertEquals(lazy, new LazyStringValue(bytes, 0, bytes.length, true));
+        Assert.assertEquals(eager.hashCode(), lazy.hashCode());
+        Assert.assertFalse(lazy.equals("a b"));
+        Assert.assertFalse(lazy.equals(ValueFactory.create(1)));
+    }
+}